@@ -1,11 +1,16 @@
 // Fragment shader that renders to a grayscale texture.
 #extension GL_OES_EGL_image_external : require
 
-precision mediump float;
+precision highp float;
 varying vec2 v_TexCoord;
 uniform samplerExternalOES sTexture;
+// Offset of the four taps averaged per output pixel, zero unless downscaling by 2x or more.
+uniform vec2 u_TexelStep;
 
 void main() {
-    vec4 color = texture2D(sTexture, v_TexCoord);
+    vec4 color = 0.25 * (texture2D(sTexture, v_TexCoord + vec2(-u_TexelStep.x, -u_TexelStep.y))
+        + texture2D(sTexture, v_TexCoord + vec2(u_TexelStep.x, -u_TexelStep.y))
+        + texture2D(sTexture, v_TexCoord + vec2(-u_TexelStep.x, u_TexelStep.y))
+        + texture2D(sTexture, v_TexCoord + vec2(u_TexelStep.x, u_TexelStep.y)));
     gl_FragColor.r = color.r * 0.299 + color.g * 0.587 + color.b * 0.114;
 }
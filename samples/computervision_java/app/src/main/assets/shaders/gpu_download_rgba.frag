@@ -1,10 +1,15 @@
 // Fragment shader that renders to a RGBA texture.
 #extension GL_OES_EGL_image_external : require
 
-precision mediump float;
+precision highp float;
 varying vec2 v_TexCoord;
 uniform samplerExternalOES sTexture;
+// Offset of the four taps averaged per output pixel, zero unless downscaling by 2x or more.
+uniform vec2 u_TexelStep;
 
 void main() {
-    gl_FragColor = texture2D(sTexture, v_TexCoord);
+    gl_FragColor = 0.25 * (texture2D(sTexture, v_TexCoord + vec2(-u_TexelStep.x, -u_TexelStep.y))
+        + texture2D(sTexture, v_TexCoord + vec2(u_TexelStep.x, -u_TexelStep.y))
+        + texture2D(sTexture, v_TexCoord + vec2(-u_TexelStep.x, u_TexelStep.y))
+        + texture2D(sTexture, v_TexCoord + vec2(u_TexelStep.x, u_TexelStep.y)));
 }
@@ -0,0 +1,24 @@
+// Fragment shader that renders the interleaved U and V plane of NV12 to a grayscale texture.
+// Each pair of output pixels holds U then V for one 2x2 block of the Y plane.
+#extension GL_OES_EGL_image_external : require
+
+precision highp float;
+varying vec2 v_TexCoord;
+uniform samplerExternalOES sTexture;
+// Offset of the four taps averaged per output pixel, zero unless downscaling by 2x or more.
+uniform vec2 u_TexelStep;
+// Texture coordinate width of one output pixel.
+uniform float u_PixelWidth;
+
+void main() {
+    // Both pixels of a pair sample the center of their block.
+    bool isU = mod(floor(gl_FragCoord.x), 2.0) < 0.5;
+    vec2 center = v_TexCoord + vec2(isU ? 0.5 * u_PixelWidth : -0.5 * u_PixelWidth, 0.0);
+    vec4 color = 0.25 * (texture2D(sTexture, center + vec2(-u_TexelStep.x, -u_TexelStep.y))
+        + texture2D(sTexture, center + vec2(u_TexelStep.x, -u_TexelStep.y))
+        + texture2D(sTexture, center + vec2(-u_TexelStep.x, u_TexelStep.y))
+        + texture2D(sTexture, center + vec2(u_TexelStep.x, u_TexelStep.y)));
+    gl_FragColor.r = isU
+        ? color.r * -0.169 + color.g * -0.331 + color.b * 0.5 + 0.5
+        : color.r * 0.5 + color.g * -0.419 + color.b * -0.081 + 0.5;
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright 2018 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.ar.core.examples.java.computervision;
+
+import java.nio.ByteBuffer;
+
+/** Smooths a grayscale image with a 3x3 box filter. Border pixels are copied unchanged. */
+public class BoxBlurOperator implements ImageOperator {
+  // Three input rows, reused between calls.
+  private final ThreadLocal<byte[][]> rowBuffers = ThreadLocal.withInitial(() -> new byte[3][0]);
+
+  @Override
+  public ImageView apply(ImageView input, ImageBufferPool pool) {
+    input.checkGrayscale();
+    int width = input.width;
+    int height = input.height;
+    ImageView output = pool.acquireGrayscale(width, height);
+    byte[] outputPixels = output.buffer.array();
+
+    byte[][] rows = rowBuffers.get();
+    for (int k = 0; k < rows.length; k++) {
+      if (rows[k].length < width) {
+        rows[k] = new byte[width];
+      }
+    }
+    ByteBuffer source = input.buffer.duplicate();
+    byte[] above = rows[0];
+    byte[] center = rows[1];
+    byte[] below = rows[2];
+    input.readRow(source, 0, center);
+    System.arraycopy(center, 0, outputPixels, 0, width);
+    if (height == 1) {
+      return output;
+    }
+    input.readRow(source, 1, below);
+
+    for (int j = 1; j < height - 1; j++) {
+      // Rotate the window: the center row becomes the row above, and so on.
+      byte[] recycled = above;
+      above = center;
+      center = below;
+      below = recycled;
+      input.readRow(source, j + 1, below);
+
+      int outputOffset = j * width;
+      outputPixels[outputOffset] = center[0];
+      outputPixels[outputOffset + width - 1] = center[width - 1];
+      for (int i = 1; i < width - 1; i++) {
+        int sum =
+            (above[i - 1] & 0xFF) + (above[i] & 0xFF) + (above[i + 1] & 0xFF)
+                + (center[i - 1] & 0xFF) + (center[i] & 0xFF) + (center[i + 1] & 0xFF)
+                + (below[i - 1] & 0xFF) + (below[i] & 0xFF) + (below[i + 1] & 0xFF);
+        outputPixels[outputOffset + i] = (byte) (sum / 9);
+      }
+    }
+    System.arraycopy(below, 0, outputPixels, (height - 1) * width, width);
+    return output;
+  }
+}
@@ -50,7 +50,6 @@ import com.google.ar.core.exceptions.UnavailableArcoreNotInstalledException;
 import com.google.ar.core.exceptions.UnavailableSdkTooOldException;
 import com.google.ar.core.exceptions.UnavailableUserDeclinedInstallationException;
 import java.io.IOException;
-import java.nio.ByteBuffer;
 import java.util.EnumSet;
 import java.util.List;
 import javax.microedition.khronos.egl.EGLConfig;
@@ -65,7 +64,11 @@ public class ComputerVisionActivity extends AppCompatActivity implements GLSurfa
           + "\n\t%s Image Dimensions: (%d, %d)"
           + "\n\tUnrotated Field of View: (%.2f˚, %.2f˚)"
           + "\n\tRender frame time: %.1f ms (%.0ffps)"
-          + "\n\tCPU image frame time: %.1f ms (%.0ffps)";
+          + "\n\tCPU image frame time: %.1f ms (%.0ffps)"
+          + "\n\tCV latency: copy %.1f ms, process %.1f ms, total %.1f ms"
+          + "\n\tCV frames dropped: %d of %d"
+          + "\n\tGPU readback latency: %.1f ms, stalls: %d, dropped: %d"
+          + "\n\tOverlay upload: %.2f ms (%d KB)";
   private static final float RADIANS_TO_DEGREES = (float) (180 / Math.PI);
 
   // This app demonstrates two approaches to obtaining image data accessible on CPU:
@@ -91,6 +94,9 @@ public class ComputerVisionActivity extends AppCompatActivity implements GLSurfa
   private final TrackingStateHelper trackingStateHelper = new TrackingStateHelper(this);
   private final CpuImageRenderer cpuImageRenderer = new CpuImageRenderer();
   private final EdgeDetector edgeDetector = new EdgeDetector();
+  // Operators such as BoxBlurOperator or DownsampleOperator can be added to the chain.
+  private final ImageProcessingStage imageProcessingStage =
+      new ImageProcessingStage(new ImageOperatorChain(edgeDetector));
 
   // This lock prevents changing resolution as the frame is being rendered. ARCore requires all
   // CPU images to be released before changing resolution.
@@ -99,9 +105,10 @@ public class ComputerVisionActivity extends AppCompatActivity implements GLSurfa
   // Camera intrinsics text view.
   private TextView cameraIntrinsicsTextView;
 
-  // The fields below are used for the GPU_DOWNLOAD image acquisition path.
-  private final TextureReader textureReader = new TextureReader();
-  private int gpuDownloadFrameBufferIndex = -1;
+  // The fields below are used for the GPU_DOWNLOAD image acquisition path. Three readbacks in
+  // flight let the GPU finish each one before it is needed, so acquiring never stalls.
+  private static final int GPU_DOWNLOAD_BUFFER_COUNT = 3;
+  private final TextureReader textureReader = new TextureReader(GPU_DOWNLOAD_BUFFER_COUNT);
 
   // ARCore full resolution GL texture typically has a size of 1920 x 1080.
   private static final int TEXTURE_WIDTH = 1920;
@@ -111,6 +118,11 @@ public class ComputerVisionActivity extends AppCompatActivity implements GLSurfa
   private static final int IMAGE_WIDTH = 1280;
   private static final int IMAGE_HEIGHT = 720;
 
+  // Edges are detected at half the sampling resolution. The GPU downscales the image, so only a
+  // quarter of the bytes are read back.
+  private final ReadbackRequest gpuDownloadRequest =
+      new ReadbackRequest(IMAGE_WIDTH / 2, IMAGE_HEIGHT / 2);
+
   // For Camera Configuration APIs usage.
   private boolean isLowResolutionSelected;
   private CameraConfig cpuLowResolutionCameraConfig;
@@ -214,6 +226,7 @@ public class ComputerVisionActivity extends AppCompatActivity implements GLSurfa
       session = null;
       return;
     }
+    imageProcessingStage.start();
     surfaceView.onResume();
     cpuImageDisplayRotationHelper.onResume();
   }
@@ -229,6 +242,13 @@ public class ComputerVisionActivity extends AppCompatActivity implements GLSurfa
       surfaceView.onPause();
       session.pause();
     }
+    imageProcessingStage.stop();
+  }
+
+  @Override
+  protected void onDestroy() {
+    edgeDetector.shutdown();
+    super.onDestroy();
   }
 
   @Override
@@ -329,38 +349,29 @@ public class ComputerVisionActivity extends AppCompatActivity implements GLSurfa
               "Expected image in YUV_420_888 format, got format " + image.getFormat());
         }
 
-        ByteBuffer processedImageBytesGrayscale = null;
         // Do not process the image with edge dectection algorithm if it is not being displayed.
+        // Only the copy happens here; the image is processed on the worker thread so that the
+        // image can be released, and rendering can go on, right away.
         if (isCVModeOn) {
-          processedImageBytesGrayscale =
-              edgeDetector.detect(
-                  image.getWidth(),
-                  image.getHeight(),
-                  image.getPlanes()[0].getRowStride(),
-                  image.getPlanes()[0].getBuffer());
+          imageProcessingStage.submit(
+              image.getWidth(),
+              image.getHeight(),
+              image.getPlanes()[0].getRowStride(),
+              image.getPlanes()[0].getBuffer());
         }
-
-        cpuImageRenderer.drawWithCpuImage(
-            frame,
-            image.getWidth(),
-            image.getHeight(),
-            processedImageBytesGrayscale,
-            cpuImageDisplayRotationHelper.getViewportAspectRatio(),
-            cpuImageDisplayRotationHelper.getCameraToDisplayRotation());
-
-        // Measure frame time since last successful execution of drawWithCpuImage().
-        cpuImageFrameTimeHelper.nextFrame();
       } catch (NotYetAvailableException e) {
         // This exception will routinely happen during startup, and is expected. cpuImageRenderer
         // will handle null image properly, and will just render the background.
-        cpuImageRenderer.drawWithoutCpuImage();
       }
     }
+
+    drawLatestProcessedImage(frame);
   }
 
   /* Demonstrates how to access a CPU image using a download from GPU. */
   private void renderProcessedImageGpuDownload(Frame frame) {
-    // If there is a frame being requested previously, acquire the pixels and process it.
+    // If a frame requested previously has been read back, acquire the pixels and process it.
+    int gpuDownloadFrameBufferIndex = textureReader.tryAcquireLatest();
     if (gpuDownloadFrameBufferIndex >= 0) {
       TextureReaderImage image = textureReader.acquireFrame(gpuDownloadFrameBufferIndex);
 
@@ -369,30 +380,58 @@ public class ComputerVisionActivity extends AppCompatActivity implements GLSurfa
             "Expected image in I8 format, got format " + image.format);
       }
 
-      ByteBuffer processedImageBytesGrayscale =
-          edgeDetector.detect(image.width, image.height, /* stride= */ image.width, image.buffer);
+      if (isCVModeOn) {
+        ImageView view = ImageView.of(image);
+        imageProcessingStage.submit(view.width, view.height, view.stride, view.buffer);
+      }
 
       // You should always release frame buffer after using. Otherwise the next call to
       // submitFrame() may fail.
       textureReader.releaseFrame(gpuDownloadFrameBufferIndex);
+    }
 
+    drawLatestProcessedImage(frame);
+
+    // Submit request for the texture from the current frame.
+    textureReader.submitFrame(
+        cpuImageRenderer.getTextureId(), TEXTURE_WIDTH, TEXTURE_HEIGHT, gpuDownloadRequest);
+  }
+
+  /*
+   * Draws the background with the newest processed image, if one completed since the last frame.
+   * Otherwise the previously uploaded processed image stays on screen. While CV mode is off, a
+   * result still finishing from before the switch is discarded without being uploaded.
+   */
+  private void drawLatestProcessedImage(Frame frame) {
+    ImageProcessingStage.Result result = null;
+    if (isCVModeOn) {
+      result = imageProcessingStage.pollResult();
+    } else {
+      imageProcessingStage.discardResult();
+    }
+    if (result == null) {
       cpuImageRenderer.drawWithCpuImage(
           frame,
-          IMAGE_WIDTH,
-          IMAGE_HEIGHT,
-          processedImageBytesGrayscale,
+          /* imageWidth= */ 0,
+          /* imageHeight= */ 0,
+          /* processedImageBytesGrayscale= */ null,
           cpuImageDisplayRotationHelper.getViewportAspectRatio(),
           cpuImageDisplayRotationHelper.getCameraToDisplayRotation());
-
-      // Measure frame time since last successful execution of drawWithCpuImage().
-      cpuImageFrameTimeHelper.nextFrame();
-    } else {
-      cpuImageRenderer.drawWithoutCpuImage();
+      return;
     }
 
-    // Submit request for the texture from the current frame.
-    gpuDownloadFrameBufferIndex =
-        textureReader.submitFrame(cpuImageRenderer.getTextureId(), TEXTURE_WIDTH, TEXTURE_HEIGHT);
+    cpuImageRenderer.drawWithCpuImage(
+        frame,
+        result.width,
+        result.height,
+        result.buffer,
+        cpuImageDisplayRotationHelper.getViewportAspectRatio(),
+        cpuImageDisplayRotationHelper.getCameraToDisplayRotation());
+    // The processed image has been uploaded to a texture, so its buffer can be reused.
+    imageProcessingStage.releaseResult(result);
+
+    // Measure frame time since the last processed image was shown.
+    cpuImageFrameTimeHelper.nextFrame();
   }
 
   public void onLowResolutionRadioButtonClicked(View view) {
@@ -547,6 +586,16 @@ public class ComputerVisionActivity extends AppCompatActivity implements GLSurfa
         renderFrameTimeHelper.getSmoothedFrameTime(),
         renderFrameTimeHelper.getSmoothedFrameRate(),
         cpuImageFrameTimeHelper.getSmoothedFrameTime(),
-        cpuImageFrameTimeHelper.getSmoothedFrameRate());
+        cpuImageFrameTimeHelper.getSmoothedFrameRate(),
+        imageProcessingStage.getSmoothedCopyTime(),
+        imageProcessingStage.getSmoothedProcessTime(),
+        imageProcessingStage.getSmoothedTotalLatency(),
+        imageProcessingStage.getDroppedCount(),
+        imageProcessingStage.getSubmittedCount(),
+        textureReader.getSmoothedReadbackLatency(),
+        textureReader.getStallCount(),
+        textureReader.getDroppedCount(),
+        cpuImageRenderer.getSmoothedUploadTime(),
+        cpuImageRenderer.getLastUploadBytes() / 1024);
   }
 }
@@ -40,6 +40,12 @@ public class CpuImageRenderer {
   private static final int TEXCOORDS_PER_VERTEX = 2;
   private static final int FLOAT_SIZE = 4;
 
+  // Number of nanoseconds in one millisecond.
+  private static final float NANOSECONDS_PER_MILLISECOND = 1e6f;
+
+  // Rate by which the smoothed upload time approaches the momentary upload time.
+  private static final float SMOOTHING_FACTOR = .03f;
+
   private FloatBuffer quadCoords;
   private FloatBuffer quadTexCoords;
   private FloatBuffer quadImgCoords;
@@ -54,6 +60,14 @@ public class CpuImageRenderer {
   private int overlayTextureId = -1;
   private float splitterPosition = 0.0f;
 
+  // Size of the storage allocated for the overlay texture, or zero before the first upload.
+  private int overlayWidth;
+  private int overlayHeight;
+
+  // Smoothed time spent uploading the processed image, and bytes uploaded by the last upload.
+  private float smoothedUploadTime;
+  private int lastUploadBytes;
+
   public int getTextureId() {
     return backgroundTextureId;
   }
@@ -81,8 +95,11 @@ public class CpuImageRenderer {
     GLES20.glTexParameteri(
         GLES11Ext.GL_TEXTURE_EXTERNAL_OES, GLES20.GL_TEXTURE_MAG_FILTER, GLES20.GL_NEAREST);
 
-    // Generate the CPU Image overlay texture.
+    // Generate the CPU Image overlay texture. A new texture has no storage yet, even when the GL
+    // context is recreated, so the next upload allocates it.
     overlayTextureId = textures[1];
+    overlayWidth = 0;
+    overlayHeight = 0;
     GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, overlayTextureId);
     GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_S, GLES20.GL_CLAMP_TO_EDGE);
     GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_T, GLES20.GL_CLAMP_TO_EDGE);
@@ -153,6 +170,16 @@ public class CpuImageRenderer {
     splitterPosition = position;
   }
 
+  /** Smoothed time spent uploading processed images, in milliseconds. Zero before any upload. */
+  public float getSmoothedUploadTime() {
+    return smoothedUploadTime;
+  }
+
+  /** Number of bytes uploaded for the last processed image. */
+  public int getLastUploadBytes() {
+    return lastUploadBytes;
+  }
+
   /**
    * Draws the AR background image. The image will be drawn such that virtual content rendered with
    * the matrices provided by {@link Frame#getViewMatrix(float[], int)} and {@link
@@ -175,21 +202,39 @@ public class CpuImageRenderer {
       ByteBuffer processedImageBytesGrayscale,
       float screenAspectRatio,
       int cameraToDisplayRotation) {
+    drawWithCpuImage(
+        frame,
+        imageWidth,
+        imageHeight,
+        processedImageBytesGrayscale,
+        /* firstDirtyRow= */ 0,
+        /* dirtyRowCount= */ imageHeight,
+        screenAspectRatio,
+        cameraToDisplayRotation);
+  }
+
+  /**
+   * Same as above, but only uploads the band of rows of the processed image that changed since the
+   * last call. The whole image is uploaded anyway when its size changed.
+   *
+   * @param firstDirtyRow the first row that changed.
+   * @param dirtyRowCount the number of rows that changed, from firstDirtyRow on. 0 keeps the
+   *     previously uploaded image.
+   */
+  public void drawWithCpuImage(
+      Frame frame,
+      int imageWidth,
+      int imageHeight,
+      ByteBuffer processedImageBytesGrayscale,
+      int firstDirtyRow,
+      int dirtyRowCount,
+      float screenAspectRatio,
+      int cameraToDisplayRotation) {
 
     // Apply overlay image buffer
     if (processedImageBytesGrayscale != null) {
-      GLES20.glActiveTexture(GLES20.GL_TEXTURE1);
-      GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, overlayTextureId);
-      GLES20.glTexImage2D(
-          GLES20.GL_TEXTURE_2D,
-          0,
-          GLES20.GL_LUMINANCE,
-          imageWidth,
-          imageHeight,
-          0,
-          GLES20.GL_LUMINANCE,
-          GLES20.GL_UNSIGNED_BYTE,
-          processedImageBytesGrayscale);
+      uploadOverlay(
+          imageWidth, imageHeight, processedImageBytesGrayscale, firstDirtyRow, dirtyRowCount);
     }
 
     updateTextureCoordinates(frame);
@@ -247,6 +292,62 @@ public class CpuImageRenderer {
     ShaderUtil.checkGLError(TAG, "Draw");
   }
 
+  /**
+   * Uploads rows of the processed image into the overlay texture. Storage is only allocated when
+   * the image size changes; otherwise the rows are copied into the existing storage.
+   */
+  private void uploadOverlay(
+      int imageWidth, int imageHeight, ByteBuffer pixels, int firstRow, int rowCount) {
+    long startNanos = System.nanoTime();
+    GLES20.glActiveTexture(GLES20.GL_TEXTURE1);
+    GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, overlayTextureId);
+    // Rows are packed, whatever the width.
+    GLES20.glPixelStorei(GLES20.GL_UNPACK_ALIGNMENT, 1);
+
+    if (imageWidth != overlayWidth || imageHeight != overlayHeight) {
+      GLES20.glTexImage2D(
+          GLES20.GL_TEXTURE_2D,
+          0,
+          GLES20.GL_LUMINANCE,
+          imageWidth,
+          imageHeight,
+          0,
+          GLES20.GL_LUMINANCE,
+          GLES20.GL_UNSIGNED_BYTE,
+          null);
+      overlayWidth = imageWidth;
+      overlayHeight = imageHeight;
+      // The new storage is undefined, so all of it is dirty.
+      firstRow = 0;
+      rowCount = imageHeight;
+    }
+
+    firstRow = Math.max(0, firstRow);
+    rowCount = Math.min(rowCount, imageHeight - firstRow);
+    if (rowCount > 0) {
+      ByteBuffer rows = pixels.duplicate();
+      rows.position(firstRow * imageWidth);
+      GLES20.glTexSubImage2D(
+          GLES20.GL_TEXTURE_2D,
+          0,
+          0,
+          firstRow,
+          imageWidth,
+          rowCount,
+          GLES20.GL_LUMINANCE,
+          GLES20.GL_UNSIGNED_BYTE,
+          rows);
+    }
+    GLES20.glPixelStorei(GLES20.GL_UNPACK_ALIGNMENT, 4);
+
+    lastUploadBytes = Math.max(0, rowCount) * imageWidth;
+    float uploadTime = (System.nanoTime() - startNanos) / NANOSECONDS_PER_MILLISECOND;
+    smoothedUploadTime =
+        smoothedUploadTime == 0f
+            ? uploadTime
+            : smoothedUploadTime + SMOOTHING_FACTOR * (uploadTime - smoothedUploadTime);
+  }
+
   private void updateTextureCoordinates(Frame frame) {
     if (frame == null) {
       return;
@@ -0,0 +1,61 @@
+/*
+ * Copyright 2018 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.ar.core.examples.java.computervision;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Halves the size of a grayscale image by averaging each 2x2 block. An odd last row or column is
+ * dropped.
+ */
+public class DownsampleOperator implements ImageOperator {
+  // Two input rows, reused between calls.
+  private final ThreadLocal<byte[][]> rowBuffers = ThreadLocal.withInitial(() -> new byte[2][0]);
+
+  @Override
+  public ImageView apply(ImageView input, ImageBufferPool pool) {
+    input.checkGrayscale();
+    int width = Math.max(1, input.width / 2);
+    int height = Math.max(1, input.height / 2);
+    ImageView output = pool.acquireGrayscale(width, height);
+    byte[] outputPixels = output.buffer.array();
+
+    byte[][] rows = rowBuffers.get();
+    for (int k = 0; k < rows.length; k++) {
+      if (rows[k].length < input.width) {
+        rows[k] = new byte[input.width];
+      }
+    }
+    ByteBuffer source = input.buffer.duplicate();
+    byte[] top = rows[0];
+    byte[] bottom = rows[1];
+    for (int j = 0; j < height; j++) {
+      input.readRow(source, 2 * j, top);
+      input.readRow(source, Math.min(2 * j + 1, input.height - 1), bottom);
+      int outputOffset = j * width;
+      for (int i = 0; i < width; i++) {
+        int left = 2 * i;
+        int right = Math.min(left + 1, input.width - 1);
+        int sum =
+            (top[left] & 0xFF) + (top[right] & 0xFF) + (bottom[left] & 0xFF)
+                + (bottom[right] & 0xFF);
+        outputPixels[outputOffset + i] = (byte) (sum / 4);
+      }
+    }
+    return output;
+  }
+}
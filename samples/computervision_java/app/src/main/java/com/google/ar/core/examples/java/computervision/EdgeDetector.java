@@ -15,13 +15,62 @@
 package com.google.ar.core.examples.java.computervision;
 
 import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
-/** Detects edges from input YUV image. */
-public class EdgeDetector {
-  private byte[] inputPixels = new byte[0]; // Reuse java byte array to avoid multiple allocations.
-
+/**
+ * Detects edges from input YUV image.
+ *
+ * <p>The image is split into bands of rows, which are filtered in parallel on a fixed pool of
+ * worker threads while the calling thread filters the first band. Output buffers are pooled: pass
+ * a buffer back to {@link #release} once it has been consumed to avoid allocating a new one on the
+ * next call. Different frames may be processed concurrently from several threads.
+ *
+ * <p>As an {@link ImageOperator}, the detector is the Sobel step of an {@link ImageOperatorChain}.
+ */
+public class EdgeDetector implements ImageOperator {
   private static final int SOBEL_EDGE_THRESHOLD = 128 * 128;
 
+  // Bands are at least this many rows tall, so small images are not split needlessly.
+  private static final int MIN_BAND_HEIGHT = 64;
+
+  // Maximum number of released output buffers kept for reuse.
+  private static final int MAX_POOLED_OUTPUTS = 4;
+
+  private final ExecutorService workers;
+  private final int workerCount;
+  private final ImageBufferPool outputPool = new ImageBufferPool(MAX_POOLED_OUTPUTS);
+
+  // Three row buffers per thread, reused between bands and frames.
+  private final ThreadLocal<byte[][]> rowBuffers = ThreadLocal.withInitial(() -> new byte[3][0]);
+
+  /** Creates a detector with one worker per available core, besides the calling thread. */
+  public EdgeDetector() {
+    this(Runtime.getRuntime().availableProcessors() - 1);
+  }
+
+  /** Creates a detector with {@code workerCount} worker threads; 0 filters on the caller only. */
+  public EdgeDetector(int workerCount) {
+    this.workerCount = Math.max(0, workerCount);
+    if (this.workerCount == 0) {
+      workers = null;
+      return;
+    }
+    AtomicInteger threadIndex = new AtomicInteger();
+    workers =
+        Executors.newFixedThreadPool(
+            this.workerCount,
+            runnable -> {
+              Thread thread = new Thread(runnable, "EdgeDetector-" + threadIndex.getAndIncrement());
+              thread.setDaemon(true);
+              return thread;
+            });
+  }
+
   /**
    * Process a grayscale image using the Sobel edge detector.
    *
@@ -29,43 +78,112 @@ public class EdgeDetector {
    * @param height image height.
    * @param stride image stride (number of bytes per row, equals to width if no row padding).
    * @param input bytes of the image, assumed single channel grayscale of size [stride * height].
+   *     Only read, its position is not changed.
    * @return bytes of the processed image, where the byte value is the strength of the edge at that
-   *     pixel. Number of bytes is width * height, row padding (if any) is removed.
+   *     pixel. Number of bytes is width * height, row padding (if any) is removed. The buffer may
+   *     be handed to {@link #release} when it is no longer used.
    */
-  public synchronized ByteBuffer detect(int width, int height, int stride, ByteBuffer input) {
-    // Reallocate input byte array if its size is different from the required size.
-    if (stride * height > inputPixels.length) {
-      inputPixels = new byte[stride * height];
+  public ByteBuffer detect(int width, int height, int stride, ByteBuffer input) {
+    return apply(ImageView.grayscale(width, height, stride, input), outputPool).buffer;
+  }
+
+  /** Returns a buffer from {@link #detect} for reuse. It must not be used afterwards. */
+  public void release(ByteBuffer output) {
+    outputPool.release(output);
+  }
+
+  /** Stops the worker threads. The detector must not be used afterwards. */
+  public void shutdown() {
+    if (workers != null) {
+      workers.shutdown();
     }
+  }
 
-    // Allocate a new output byte array.
-    byte[] outputPixels = new byte[width * height];
+  @Override
+  public ImageView apply(ImageView input, ImageBufferPool pool) {
+    input.checkGrayscale();
+    int width = input.width;
+    int height = input.height;
+    ImageView output = pool.acquireGrayscale(width, height);
+    byte[] outputPixels = output.buffer.array();
+    clearBorder(outputPixels, width, height);
 
-    // Copy input buffer into a java array for ease of access. This is not the most optimal
-    // way to process an image, but used here for simplicity.
-    input.position(0);
+    int bandCount = Math.max(1, Math.min(workerCount + 1, (height - 2) / MIN_BAND_HEIGHT));
+    int bandHeight = (height - 2 + bandCount - 1) / bandCount;
+    if (bandCount == 1) {
+      detectRows(input, outputPixels, 1, height - 1);
+      return output;
+    }
 
-    // Note: On certain devices with specific resolution where the stride is not equal to the width.
-    // In such situation the memory allocated for the frame may not be exact multiple of stride x
-    // height hence the capacity of the ByteBuffer could be less. To handle such situations it will
-    // be better to transfer the exact amount of image bytes to the destination bytes.
-    input.get(inputPixels, 0, input.capacity());
+    Future<?>[] bands = new Future<?>[bandCount - 1];
+    for (int band = 1; band < bandCount; band++) {
+      int firstRow = 1 + band * bandHeight;
+      int endRow = Math.min(height - 1, firstRow + bandHeight);
+      bands[band - 1] = workers.submit(() -> detectRows(input, outputPixels, firstRow, endRow));
+    }
+    // The calling thread filters the first band rather than waiting idle.
+    detectRows(input, outputPixels, 1, Math.min(height - 1, 1 + bandHeight));
+    try {
+      for (Future<?> band : bands) {
+        band.get();
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      pool.release(output.buffer);
+      throw new IllegalStateException("Interrupted while detecting edges", e);
+    } catch (ExecutionException e) {
+      pool.release(output.buffer);
+      throw new IllegalStateException("Edge detection failed", e.getCause());
+    }
+    return output;
+  }
 
-    // Detect edges.
+  // Pooled buffers hold earlier images, so the unfiltered border is cleared explicitly.
+  private static void clearBorder(byte[] pixels, int width, int height) {
+    Arrays.fill(pixels, 0, width, (byte) 0);
+    Arrays.fill(pixels, (height - 1) * width, height * width, (byte) 0);
     for (int j = 1; j < height - 1; j++) {
-      for (int i = 1; i < width - 1; i++) {
-        // Offset of the pixel at [i, j] of the input image.
-        int offset = (j * stride) + i;
+      pixels[j * width] = 0;
+      pixels[j * width + width - 1] = 0;
+    }
+  }
 
+  /**
+   * Filters output rows [firstRow, endRow). Input rows are read straight from the input buffer
+   * into a rolling window of three rows, so the whole frame is never copied.
+   */
+  private void detectRows(ImageView input, byte[] outputPixels, int firstRow, int endRow) {
+    if (firstRow >= endRow) {
+      return;
+    }
+    int width = input.width;
+    byte[][] rows = rowBuffers.get();
+    for (int k = 0; k < rows.length; k++) {
+      if (rows[k].length < width) {
+        rows[k] = new byte[width];
+      }
+    }
+    // Absolute reads through a duplicate leave the shared buffer untouched.
+    ByteBuffer source = input.buffer.duplicate();
+    byte[] above = rows[0];
+    byte[] center = rows[1];
+    byte[] below = rows[2];
+    input.readRow(source, firstRow - 1, above);
+    input.readRow(source, firstRow, center);
+
+    for (int j = firstRow; j < endRow; j++) {
+      input.readRow(source, j + 1, below);
+      int outputOffset = j * width;
+      for (int i = 1; i < width - 1; i++) {
         // Neighbour pixels around the pixel at [i, j].
-        int a00 = inputPixels[offset - stride - 1];
-        int a01 = inputPixels[offset - stride];
-        int a02 = inputPixels[offset - stride + 1];
-        int a10 = inputPixels[offset - 1];
-        int a12 = inputPixels[offset + 1];
-        int a20 = inputPixels[offset + stride - 1];
-        int a21 = inputPixels[offset + stride];
-        int a22 = inputPixels[offset + stride + 1];
+        int a00 = above[i - 1];
+        int a01 = above[i];
+        int a02 = above[i + 1];
+        int a10 = center[i - 1];
+        int a12 = center[i + 1];
+        int a20 = below[i - 1];
+        int a21 = below[i];
+        int a22 = below[i + 1];
 
         // Sobel X filter:
         //   -1, 0, 1,
@@ -80,13 +198,16 @@ public class EdgeDetector {
         int ySum = a00 + (2 * a01) + a02 - a20 - (2 * a21) - a22;
 
         if ((xSum * xSum) + (ySum * ySum) > SOBEL_EDGE_THRESHOLD) {
-          outputPixels[(j * width) + i] = (byte) 0xFF;
+          outputPixels[outputOffset + i] = (byte) 0xFF;
         } else {
-          outputPixels[(j * width) + i] = (byte) 0x1F;
+          outputPixels[outputOffset + i] = (byte) 0x1F;
         }
       }
+      // Rotate the window: the center row becomes the row above, and so on.
+      byte[] recycled = above;
+      above = center;
+      center = below;
+      below = recycled;
     }
-
-    return ByteBuffer.wrap(outputPixels);
   }
 }
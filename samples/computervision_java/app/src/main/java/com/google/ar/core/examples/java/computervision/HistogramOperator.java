@@ -0,0 +1,62 @@
+/*
+ * Copyright 2018 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.ar.core.examples.java.computervision;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Counts the grayscale values of the image and passes it on unchanged. The counts of the last
+ * image are available from {@link #getHistogram}.
+ */
+public class HistogramOperator implements ImageOperator {
+  /** Number of bins, one per grayscale value. */
+  public static final int BIN_COUNT = 256;
+
+  private final int[] histogram = new int[BIN_COUNT];
+
+  // Scratch space, reused between calls.
+  private final int[] counts = new int[BIN_COUNT];
+  private byte[] row = new byte[0];
+
+  @Override
+  public synchronized ImageView apply(ImageView input, ImageBufferPool pool) {
+    input.checkGrayscale();
+    if (row.length < input.width) {
+      row = new byte[input.width];
+    }
+    Arrays.fill(counts, 0);
+    ByteBuffer source = input.buffer.duplicate();
+    for (int j = 0; j < input.height; j++) {
+      input.readRow(source, j, row);
+      for (int i = 0; i < input.width; i++) {
+        counts[row[i] & 0xFF]++;
+      }
+    }
+    synchronized (histogram) {
+      System.arraycopy(counts, 0, histogram, 0, BIN_COUNT);
+    }
+    return input;
+  }
+
+  /** Copies the counts of the last image into {@code out}, which holds {@link #BIN_COUNT} ints. */
+  public void getHistogram(int[] out) {
+    synchronized (histogram) {
+      System.arraycopy(histogram, 0, out, 0, BIN_COUNT);
+    }
+  }
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright 2018 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.ar.core.examples.java.computervision;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Pool of heap byte buffers for operator outputs, so that images of a steady size are processed
+ * without allocating. Buffers are kept per size, so a chain whose operators change the image size
+ * reuses a buffer for each of its sizes. Thread-safe.
+ */
+public class ImageBufferPool {
+  private final int maxPooled;
+  private final ConcurrentMap<Integer, ArrayBlockingQueue<ByteBuffer>> buffersBySize =
+      new ConcurrentHashMap<>();
+
+  /** @param maxPooled maximum number of released buffers kept for reuse, for each size. */
+  public ImageBufferPool(int maxPooled) {
+    this.maxPooled = maxPooled;
+  }
+
+  /**
+   * Returns a buffer backed by an array of exactly {@code size} bytes. Its content is undefined:
+   * operators must write every pixel of their output.
+   */
+  public ByteBuffer acquire(int size) {
+    ByteBuffer buffer =
+        buffersBySize.computeIfAbsent(size, key -> new ArrayBlockingQueue<>(maxPooled)).poll();
+    if (buffer == null) {
+      return ByteBuffer.wrap(new byte[size]);
+    }
+    buffer.clear();
+    return buffer;
+  }
+
+  /**
+   * Returns a buffer from {@link #acquire} for reuse. It must not be used afterwards. Buffers of a
+   * size not acquired since the last {@link #clear} are let go.
+   */
+  public void release(ByteBuffer buffer) {
+    if (buffer == null || !buffer.hasArray()) {
+      return;
+    }
+    ArrayBlockingQueue<ByteBuffer> buffers = buffersBySize.get(buffer.capacity());
+    if (buffers != null) {
+      buffers.offer(buffer);
+    }
+  }
+
+  /**
+   * Lets go of all pooled buffers. Call this when the input resolution changes, so that buffers of
+   * the old sizes are not kept.
+   */
+  public void clear() {
+    buffersBySize.clear();
+  }
+
+  /** Number of sizes buffers are pooled for. */
+  int getSizeCount() {
+    return buffersBySize.size();
+  }
+
+  /** Acquires a buffer for a packed grayscale image and returns a view of it. */
+  ImageView acquireGrayscale(int width, int height) {
+    return ImageView.grayscale(width, height, width, acquire(width * height));
+  }
+}
@@ -0,0 +1,35 @@
+/*
+ * Copyright 2018 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.ar.core.examples.java.computervision;
+
+/**
+ * An image processing step. Operators have no Android dependencies, so they can run on the JVM.
+ *
+ * <p>An operator either works in place and returns its input, or writes into a buffer from the
+ * given pool and returns a view of that. It never releases its input: the caller does, through
+ * {@link ImageOperatorChain} when operators are chained.
+ */
+public interface ImageOperator {
+  /**
+   * Processes {@code input}.
+   *
+   * @param input the image to process. In-place operators modify it.
+   * @param pool where to take output buffers from.
+   * @return {@code input} itself, or a new view of a buffer acquired from {@code pool}.
+   */
+  ImageView apply(ImageView input, ImageBufferPool pool);
+}
@@ -0,0 +1,57 @@
+/*
+ * Copyright 2018 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.ar.core.examples.java.computervision;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Runs operators one after the other, each on the previous one's output. Intermediate outputs go
+ * back to the pool as soon as the next operator is done with them, so a chain needs only about
+ * two pooled buffers for each image size it produces. A chain is itself an operator and can be
+ * nested.
+ *
+ * <p>Operators that work in place modify the chain's input, so pass an image the caller owns.
+ */
+public class ImageOperatorChain implements ImageOperator {
+  private final List<ImageOperator> operators;
+
+  public ImageOperatorChain(ImageOperator... operators) {
+    this.operators = Arrays.asList(operators.clone());
+  }
+
+  @Override
+  public ImageView apply(ImageView input, ImageBufferPool pool) {
+    ImageView current = input;
+    for (ImageOperator operator : operators) {
+      ImageView next;
+      try {
+        next = operator.apply(current, pool);
+      } catch (RuntimeException e) {
+        if (current.buffer != input.buffer) {
+          pool.release(current.buffer);
+        }
+        throw e;
+      }
+      if (current.buffer != input.buffer && next.buffer != current.buffer) {
+        pool.release(current.buffer);
+      }
+      current = next;
+    }
+    return current;
+  }
+}
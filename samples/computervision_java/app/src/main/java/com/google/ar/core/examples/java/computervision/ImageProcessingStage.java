@@ -0,0 +1,309 @@
+/*
+ * Copyright 2018 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.ar.core.examples.java.computervision;
+
+import android.util.Log;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Runs an {@link ImageOperator}, such as edge detection, on a worker thread so that its cost does
+ * not lower the render frame rate.
+ *
+ * <p>The GL thread copies the grayscale plane of each camera image into a pooled buffer with
+ * {@link #submit} and goes on rendering. The worker always processes the newest submitted image;
+ * older images still waiting are dropped. The renderer picks up the newest completed result with
+ * {@link #pollResult}, and keeps showing the previous one while the worker is busy.
+ */
+public class ImageProcessingStage {
+  private static final String TAG = ImageProcessingStage.class.getSimpleName();
+
+  // Number of nanoseconds in one millisecond.
+  private static final float NANOSECONDS_PER_MILLISECOND = 1e6f;
+
+  // Rate by which smoothed latencies approach the momentary latency.
+  private static final float SMOOTHING_FACTOR = .03f;
+
+  // One buffer being processed, one waiting, and one being filled.
+  private static final int INPUT_BUFFER_COUNT = 3;
+
+  // Output buffers kept for reuse per size: one being uploaded, one completed, and intermediate
+  // ones.
+  private static final int MAX_POOLED_OUTPUTS = 4;
+
+  /**
+   * A processed grayscale image with packed rows, to be handed back with {@link #releaseResult}
+   * once uploaded.
+   */
+  public static class Result {
+    /** The width of the image, in pixels. */
+    public final int width;
+
+    /** The height of the image, in pixels. */
+    public final int height;
+
+    /** The processed pixels, width * height bytes. */
+    public final ByteBuffer buffer;
+
+    private final long submitNanos;
+
+    private Result(int width, int height, ByteBuffer buffer, long submitNanos) {
+      this.width = width;
+      this.height = height;
+      this.buffer = buffer;
+      this.submitNanos = submitNanos;
+    }
+  }
+
+  /** A copied input image. */
+  private static class Input {
+    int width;
+    int height;
+    int stride;
+    ByteBuffer buffer = ByteBuffer.allocateDirect(0);
+    long submitNanos;
+  }
+
+  private final ImageOperator operator;
+  private final ImageBufferPool outputPool = new ImageBufferPool(MAX_POOLED_OUTPUTS);
+  private final ArrayBlockingQueue<Input> freeInputs = new ArrayBlockingQueue<>(INPUT_BUFFER_COUNT);
+  private final AtomicReference<Input> pendingInput = new AtomicReference<>();
+  private final AtomicReference<Result> latestResult = new AtomicReference<>();
+  private final Object inputAvailable = new Object();
+  private Thread worker;
+
+  // Size of the last image processed, worker thread only.
+  private int lastInputWidth;
+  private int lastInputHeight;
+
+  private final AtomicLong submittedFrames = new AtomicLong();
+  private final AtomicLong processedFrames = new AtomicLong();
+  private final AtomicLong droppedFrames = new AtomicLong();
+
+  // Smoothed latencies in milliseconds, or zero until measured.
+  private volatile float smoothedCopyTime;
+  private volatile float smoothedProcessTime;
+  private volatile float smoothedTotalLatency;
+
+  /** @param operator the processing to run, typically an {@link ImageOperatorChain}. */
+  public ImageProcessingStage(ImageOperator operator) {
+    this.operator = operator;
+    for (int i = 0; i < INPUT_BUFFER_COUNT; i++) {
+      freeInputs.add(new Input());
+    }
+  }
+
+  /** Starts the worker thread. */
+  public synchronized void start() {
+    if (worker != null) {
+      return;
+    }
+    worker = new Thread(this::run, TAG);
+    worker.start();
+  }
+
+  /** Stops the worker thread, waiting for the image being processed, and drops pending work. */
+  public synchronized void stop() {
+    if (worker == null) {
+      return;
+    }
+    worker.interrupt();
+    try {
+      worker.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    worker = null;
+
+    Input input = pendingInput.getAndSet(null);
+    if (input != null) {
+      freeInputs.offer(input);
+    }
+    releaseResult(latestResult.getAndSet(null));
+  }
+
+  /**
+   * Copies a grayscale image for processing. The image may be released as soon as this returns.
+   *
+   * @param width image width.
+   * @param height image height.
+   * @param stride image stride (number of bytes per row).
+   * @param pixels bytes of the image; its position is not changed.
+   * @return false if the image was dropped because all buffers are in use.
+   */
+  public boolean submit(int width, int height, int stride, ByteBuffer pixels) {
+    submittedFrames.incrementAndGet();
+    Input input = freeInputs.poll();
+    if (input == null) {
+      droppedFrames.incrementAndGet();
+      return false;
+    }
+
+    long startNanos = System.nanoTime();
+    ByteBuffer source = pixels.duplicate();
+    source.clear();
+    if (input.buffer.capacity() < source.remaining()) {
+      input.buffer = ByteBuffer.allocateDirect(source.remaining());
+    }
+    input.buffer.clear();
+    input.buffer.put(source);
+    input.buffer.flip();
+    input.width = width;
+    input.height = height;
+    input.stride = stride;
+    input.submitNanos = startNanos;
+    smoothedCopyTime = smooth(smoothedCopyTime, System.nanoTime() - startNanos);
+
+    // Only the newest image is worth processing; one still waiting is replaced.
+    Input replaced = pendingInput.getAndSet(input);
+    if (replaced != null) {
+      droppedFrames.incrementAndGet();
+      freeInputs.offer(replaced);
+    }
+    synchronized (inputAvailable) {
+      inputAvailable.notify();
+    }
+    return true;
+  }
+
+  /**
+   * Takes the newest result completed since the last call, or returns null if there is none. Hand
+   * the result back with {@link #releaseResult} after using it.
+   */
+  public Result pollResult() {
+    Result result = latestResult.getAndSet(null);
+    if (result != null) {
+      smoothedTotalLatency =
+          smooth(smoothedTotalLatency, System.nanoTime() - result.submitNanos);
+    }
+    return result;
+  }
+
+  /** Returns the buffer of a result from {@link #pollResult} for reuse. Null is ignored. */
+  public void releaseResult(Result result) {
+    if (result != null) {
+      outputPool.release(result.buffer);
+    }
+  }
+
+  /** Drops the newest completed result, if any, without it counting as shown. */
+  public void discardResult() {
+    releaseResult(latestResult.getAndSet(null));
+  }
+
+  /** Smoothed time to copy an image in {@link #submit}, in milliseconds. */
+  public float getSmoothedCopyTime() {
+    return smoothedCopyTime;
+  }
+
+  /** Smoothed time to process an image on the worker, in milliseconds. */
+  public float getSmoothedProcessTime() {
+    return smoothedProcessTime;
+  }
+
+  /** Smoothed time from {@link #submit} to {@link #pollResult}, in milliseconds. */
+  public float getSmoothedTotalLatency() {
+    return smoothedTotalLatency;
+  }
+
+  public long getSubmittedCount() {
+    return submittedFrames.get();
+  }
+
+  public long getProcessedCount() {
+    return processedFrames.get();
+  }
+
+  /** Images dropped because the worker was busy, including results never picked up. */
+  public long getDroppedCount() {
+    return droppedFrames.get();
+  }
+
+  private void run() {
+    try {
+      while (!Thread.currentThread().isInterrupted()) {
+        Input input;
+        synchronized (inputAvailable) {
+          while ((input = pendingInput.getAndSet(null)) == null) {
+            inputAvailable.wait();
+          }
+        }
+        try {
+          if (input.width != lastInputWidth || input.height != lastInputHeight) {
+            // Outputs of the old resolution would never be acquired again.
+            outputPool.clear();
+            lastInputWidth = input.width;
+            lastInputHeight = input.height;
+          }
+          long startNanos = System.nanoTime();
+          ImageView output =
+              pack(
+                  operator.apply(
+                      ImageView.grayscale(input.width, input.height, input.stride, input.buffer),
+                      outputPool),
+                  input.buffer);
+          smoothedProcessTime = smooth(smoothedProcessTime, System.nanoTime() - startNanos);
+          processedFrames.incrementAndGet();
+
+          Result replaced =
+              latestResult.getAndSet(
+                  new Result(output.width, output.height, output.buffer, input.submitNanos));
+          if (replaced != null) {
+            // Completed but never shown, because the renderer did not poll in time.
+            droppedFrames.incrementAndGet();
+            releaseResult(replaced);
+          }
+        } catch (RuntimeException e) {
+          Log.e(TAG, "Failed to process image", e);
+        } finally {
+          freeInputs.offer(input);
+        }
+      }
+    } catch (InterruptedException e) {
+      // Stopping.
+    }
+  }
+
+  /**
+   * Returns {@code output} if the renderer can upload it as is, or a packed copy in a pooled buffer
+   * if it has row padding or is the input itself, which goes back to the input pool.
+   */
+  private ImageView pack(ImageView output, ByteBuffer inputBuffer) {
+    output.checkGrayscale();
+    if (output.isPacked() && output.buffer != inputBuffer && output.buffer.hasArray()) {
+      return output;
+    }
+    ImageView packed = outputPool.acquireGrayscale(output.width, output.height);
+    ByteBuffer source = output.buffer.duplicate();
+    byte[] pixels = packed.buffer.array();
+    for (int j = 0; j < output.height; j++) {
+      source.position(j * output.stride);
+      source.get(pixels, j * output.width, output.width);
+    }
+    if (output.buffer != inputBuffer) {
+      outputPool.release(output.buffer);
+    }
+    return packed;
+  }
+
+  private static float smooth(float smoothed, long nanos) {
+    float milliseconds = nanos / NANOSECONDS_PER_MILLISECOND;
+    return smoothed == 0f ? milliseconds : smoothed + SMOOTHING_FACTOR * (milliseconds - smoothed);
+  }
+}
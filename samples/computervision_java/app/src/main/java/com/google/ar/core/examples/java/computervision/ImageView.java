@@ -0,0 +1,130 @@
+/*
+ * Copyright 2018 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.ar.core.examples.java.computervision;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A view of an image stored in a {@link ByteBuffer}, without copying it. The view only describes
+ * the layout; the pixels are shared with whoever owns the buffer.
+ */
+public class ImageView {
+  /** The id corresponding to RGBA8888. */
+  public static final int FORMAT_RGBA = TextureReaderImage.IMAGE_FORMAT_RGBA;
+
+  /** The id corresponding to grayscale. */
+  public static final int FORMAT_I8 = TextureReaderImage.IMAGE_FORMAT_I8;
+
+  /** The width of the image, in pixels. */
+  public final int width;
+
+  /** The height of the image, in pixels. */
+  public final int height;
+
+  /** Number of bytes from the start of one row to the next. */
+  public final int stride;
+
+  /** Pixel format. Can be either FORMAT_RGBA or FORMAT_I8. */
+  public final int format;
+
+  /** The pixels; row y starts at absolute index y * stride. The position is not used. */
+  public final ByteBuffer buffer;
+
+  /**
+   * Constructor.
+   *
+   * @param width the width of the image, in pixels.
+   * @param height the height of the image, in pixels.
+   * @param stride the number of bytes per row, at least width times the bytes per pixel.
+   * @param format the format of the image.
+   * @param buffer the buffer of the image pixels. The last row may be shorter than the stride.
+   */
+  public ImageView(int width, int height, int stride, int format, ByteBuffer buffer) {
+    if (width <= 0 || height <= 0) {
+      throw new IllegalArgumentException("Invalid image size " + width + "x" + height);
+    }
+    if (format != FORMAT_RGBA && format != FORMAT_I8) {
+      throw new IllegalArgumentException("Invalid image format " + format);
+    }
+    if (stride < width * bytesPerPixel(format)
+        || buffer.capacity() < (height - 1) * stride + width * bytesPerPixel(format)) {
+      throw new IllegalArgumentException("Buffer too small for the image size and stride");
+    }
+    this.width = width;
+    this.height = height;
+    this.stride = stride;
+    this.format = format;
+    this.buffer = buffer;
+  }
+
+  /** Creates a view of a grayscale image. */
+  public static ImageView grayscale(int width, int height, int stride, ByteBuffer buffer) {
+    return new ImageView(width, height, stride, FORMAT_I8, buffer);
+  }
+
+  /**
+   * Creates a view of an image downloaded by {@link TextureReader}: the full image, pyramid level
+   * 0, or the Y plane of an NV12 image.
+   */
+  public static ImageView of(TextureReaderImage image) {
+    return ofLevel(image, 0);
+  }
+
+  /** Creates a view of one pyramid level of an image downloaded by {@link TextureReader}. */
+  public static ImageView ofLevel(TextureReaderImage image, int level) {
+    ByteBuffer levelBuffer = image.buffer.duplicate();
+    levelBuffer.clear();
+    levelBuffer.position(image.getLevelOffset(level));
+    return new ImageView(
+        image.getLevelWidth(level),
+        image.getLevelHeight(level),
+        image.getRowStride(),
+        image.format == FORMAT_RGBA ? FORMAT_RGBA : FORMAT_I8,
+        levelBuffer.slice());
+  }
+
+  /** Number of bytes per pixel of {@code format}. */
+  public static int bytesPerPixel(int format) {
+    return format == FORMAT_RGBA ? 4 : 1;
+  }
+
+  /** Whether rows follow each other without padding. */
+  public boolean isPacked() {
+    return stride == width * bytesPerPixel(format);
+  }
+
+  /** The value of the grayscale pixel at [x, y], from 0 to 255. */
+  public int get(int x, int y) {
+    return buffer.get(y * stride + x) & 0xFF;
+  }
+
+  /** Throws if the image is not grayscale; operators call this on their input. */
+  void checkGrayscale() {
+    if (format != FORMAT_I8) {
+      throw new IllegalArgumentException("Expected image in I8 format, got format " + format);
+    }
+  }
+
+  /**
+   * Reads the pixels of row {@code y} into {@code row}. {@code source} is a duplicate of {@link
+   * #buffer}, so that threads reading the same image do not move each other's position.
+   */
+  void readRow(ByteBuffer source, int y, byte[] row) {
+    source.position(y * stride);
+    source.get(row, 0, width * bytesPerPixel(format));
+  }
+}
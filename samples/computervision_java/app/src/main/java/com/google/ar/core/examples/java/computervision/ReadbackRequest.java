@@ -0,0 +1,98 @@
+/*
+ * Copyright 2018 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.ar.core.examples.java.computervision;
+
+/**
+ * What {@link TextureReader#submitFrame(int, int, int, ReadbackRequest)} should read back for one
+ * frame: the output size, a region of interest and the number of pyramid levels. The downscaling,
+ * cropping and format conversion all happen on the GPU, so only the requested bytes are read.
+ */
+public class ReadbackRequest {
+  private final int width;
+  private final int height;
+  private int levelCount = 1;
+  private float left = 0f;
+  private float top = 0f;
+  private float right = 1f;
+  private float bottom = 1f;
+
+  /**
+   * Constructor.
+   *
+   * @param width the width of the output image, in pixels. At most the width the reader was
+   *     created with.
+   * @param height the height of the output image, in pixels. At most the height the reader was
+   *     created with.
+   */
+  public ReadbackRequest(int width, int height) {
+    this.width = width;
+    this.height = height;
+  }
+
+  /** Sets the number of pyramid levels to read, 1 for a plain image. Not supported for NV12. */
+  public ReadbackRequest setLevelCount(int levelCount) {
+    this.levelCount = levelCount;
+    return this;
+  }
+
+  /**
+   * Sets the region of the image to read, as fractions of the image the reader would produce
+   * without a region of interest; (0, 0) is the first pixel of the output buffer.
+   */
+  public ReadbackRequest setRegionOfInterest(float left, float top, float right, float bottom) {
+    this.left = left;
+    this.top = top;
+    this.right = right;
+    this.bottom = bottom;
+    return this;
+  }
+
+  /** The width of the output image, in pixels. */
+  public int getWidth() {
+    return width;
+  }
+
+  /** The height of the output image, in pixels. */
+  public int getHeight() {
+    return height;
+  }
+
+  /** Number of pyramid levels to read. */
+  public int getLevelCount() {
+    return levelCount;
+  }
+
+  /** Left edge of the region of interest, from 0 to 1. */
+  public float getLeft() {
+    return left;
+  }
+
+  /** Top edge of the region of interest, from 0 to 1. */
+  public float getTop() {
+    return top;
+  }
+
+  /** Right edge of the region of interest, from 0 to 1. */
+  public float getRight() {
+    return right;
+  }
+
+  /** Bottom edge of the region of interest, from 0 to 1. */
+  public float getBottom() {
+    return bottom;
+  }
+}
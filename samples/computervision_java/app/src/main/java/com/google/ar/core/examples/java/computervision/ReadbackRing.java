@@ -0,0 +1,216 @@
+/*
+ * Copyright 2018 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.ar.core.examples.java.computervision;
+
+/**
+ * Bookkeeping for a ring of readback buffers, kept apart from OpenGL so it can be tested on the
+ * JVM. {@link TextureReader} owns the GL objects and tells the ring when a readback is submitted,
+ * when its fence signals and when the app takes or returns a buffer.
+ *
+ * <p>Each buffer is free, pending (the GPU is still writing it), ready or held by the app. When no
+ * buffer is free, the oldest one that is not held is reused and its readback is dropped, so the
+ * reader never runs out of buffers unless the app holds all of them. Not thread-safe; used on the
+ * GL thread only.
+ */
+class ReadbackRing {
+  static final int FREE = 0;
+  static final int PENDING = 1;
+  static final int READY = 2;
+  static final int HELD = 3;
+
+  // Number of nanoseconds in one millisecond.
+  private static final float NANOSECONDS_PER_MILLISECOND = 1e6f;
+
+  // Rate by which smoothed latencies approach the momentary latency.
+  private static final float SMOOTHING_FACTOR = .03f;
+
+  private final int[] states;
+  private final long[] sequences;
+  private final long[] submitNanos;
+  private long nextSequence;
+
+  private long submittedCount;
+  private long acquiredCount;
+  private long droppedCount;
+  private long stallCount;
+  private float smoothedLatency;
+  private float smoothedStallTime;
+
+  ReadbackRing(int size) {
+    if (size < 1) {
+      throw new IllegalArgumentException("Ring needs at least one buffer, got " + size);
+    }
+    states = new int[size];
+    sequences = new long[size];
+    submitNanos = new long[size];
+  }
+
+  int size() {
+    return states.length;
+  }
+
+  int getState(int index) {
+    return states[index];
+  }
+
+  /**
+   * Picks the buffer for a new readback and marks it pending: a free buffer if there is one,
+   * otherwise the oldest buffer not held by the app, whose readback is dropped.
+   *
+   * @return the buffer index, or -1 if the app holds every buffer. That counts as a stall.
+   */
+  int beginSubmit(long nowNanos) {
+    int index = -1;
+    for (int i = 0; i < states.length; i++) {
+      if (states[i] == FREE) {
+        index = i;
+        break;
+      }
+      if (states[i] != HELD && (index < 0 || sequences[i] < sequences[index])) {
+        index = i;
+      }
+    }
+    if (index < 0) {
+      stallCount++;
+      return -1;
+    }
+    if (states[index] != FREE) {
+      droppedCount++;
+    }
+    states[index] = PENDING;
+    sequences[index] = nextSequence++;
+    submitNanos[index] = nowNanos;
+    submittedCount++;
+    return index;
+  }
+
+  /** Records that the GPU finished writing a pending buffer. */
+  void markReady(int index, long nowNanos) {
+    checkState(index, PENDING);
+    states[index] = READY;
+    smoothedLatency = smooth(smoothedLatency, nowNanos - submitNanos[index]);
+  }
+
+  /**
+   * Hands the newest ready buffer to the app. Older ready buffers are freed, as the app will never
+   * want them anymore.
+   *
+   * @return the buffer index, or -1 if no readback has completed.
+   */
+  int acquireLatest() {
+    int newest = -1;
+    for (int i = 0; i < states.length; i++) {
+      if (states[i] == READY && (newest < 0 || sequences[i] > sequences[newest])) {
+        newest = i;
+      }
+    }
+    if (newest < 0) {
+      return -1;
+    }
+    for (int i = 0; i < states.length; i++) {
+      if (states[i] == READY && i != newest && sequences[i] < sequences[newest]) {
+        states[i] = FREE;
+        droppedCount++;
+      }
+    }
+    states[newest] = HELD;
+    acquiredCount++;
+    return newest;
+  }
+
+  /**
+   * Hands a specific pending or ready buffer to the app. If it was pending, the caller has waited
+   * for the GPU for {@code waitNanos}, which counts as a stall. Holding it again is a no-op.
+   */
+  void acquire(int index, long waitNanos) {
+    checkIndex(index);
+    if (states[index] == HELD) {
+      return;
+    }
+    if (states[index] != PENDING && states[index] != READY) {
+      throw new IllegalStateException("Buffer " + index + " has no readback to acquire.");
+    }
+    if (states[index] == PENDING) {
+      stallCount++;
+      smoothedStallTime = smooth(smoothedStallTime, waitNanos);
+    }
+    states[index] = HELD;
+    acquiredCount++;
+  }
+
+  /** Returns a buffer to the ring, whether or not the app acquired its readback. */
+  void release(int index) {
+    checkIndex(index);
+    if (states[index] == FREE) {
+      throw new IllegalStateException("Buffer " + index + " is not in use.");
+    }
+    states[index] = FREE;
+  }
+
+  /** Frees every buffer, as when the GL objects are recreated. */
+  void reset() {
+    for (int i = 0; i < states.length; i++) {
+      states[i] = FREE;
+    }
+  }
+
+  long getSubmittedCount() {
+    return submittedCount;
+  }
+
+  long getAcquiredCount() {
+    return acquiredCount;
+  }
+
+  /** Readbacks overwritten or superseded before the app took them. */
+  long getDroppedCount() {
+    return droppedCount;
+  }
+
+  /** Times a submission found every buffer held, or an acquire had to wait for the GPU. */
+  long getStallCount() {
+    return stallCount;
+  }
+
+  /** Smoothed time from submission until the readback was seen complete, in milliseconds. */
+  float getSmoothedLatency() {
+    return smoothedLatency;
+  }
+
+  /** Smoothed time an acquire waited for the GPU, in milliseconds. */
+  float getSmoothedStallTime() {
+    return smoothedStallTime;
+  }
+
+  private void checkState(int index, int expected) {
+    checkIndex(index);
+    if (states[index] != expected) {
+      throw new IllegalStateException("Invalid buffer index " + index + ".");
+    }
+  }
+
+  private void checkIndex(int index) {
+    if (index < 0 || index >= states.length) {
+      throw new IllegalStateException("Invalid buffer index " + index + ".");
+    }
+  }
+
+  private static float smooth(float smoothed, long nanos) {
+    float milliseconds = nanos / NANOSECONDS_PER_MILLISECOND;
+    return smoothed == 0f ? milliseconds : smoothed + SMOOTHING_FACTOR * (milliseconds - smoothed);
+  }
+}
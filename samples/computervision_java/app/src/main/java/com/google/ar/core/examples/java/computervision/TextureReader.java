@@ -26,6 +26,7 @@ import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.FloatBuffer;
 import java.nio.IntBuffer;
+import java.util.Arrays;
 
 /**
  * Helper class for ARCore apps to read camera image from an OpenGL OES texture.
@@ -57,6 +58,19 @@ import java.nio.IntBuffer;
  *
  * <p>releaseFrame(bufferIndex);
  *
+ * <p>Instead of tracking indices, you can also submit a request every frame and call
+ * tryAcquireLatest() to get the index of the newest readback the GPU has completed, if any. Each
+ * readback is fenced, so this never waits for the GPU:
+ *
+ * <p>bufferIndex = tryAcquireLatest();
+ *
+ * <p>The buffers form a ring whose size is set in the constructor. When all are in flight, the
+ * oldest readback not held by the app is dropped to make room for the new one.
+ *
+ * <p>Each request can also ask for a smaller output, a region of interest or a pyramid of
+ * downscaled levels through a ReadbackRequest, and the reader can produce NV12 instead of RGBA or
+ * grayscale. All of that is done by the shaders, so only the requested bytes are read back.
+ *
  * <p>Note: To use any of the above two methods, you need to call create() routine to initialize the
  * reader before calling any of the reading routine. You will also need to call destroy() method to
  * release the internal resource when you are done with the reader.
@@ -64,14 +78,27 @@ import java.nio.IntBuffer;
 public class TextureReader {
   private static final String TAG = TextureReader.class.getSimpleName();
 
-  // By default, we create only two internal buffers. So you can only hold more than one buffer
-  // index in your app without releasing it. If you need to hold more than one buffers, you can
-  // increase the bufferCount member.
-  private final int bufferCount = 2;
+  // By default, we create only two internal buffers. Use the constructor taking a buffer count to
+  // hold more buffer indices at once, or to keep more readbacks in flight.
+  private static final int DEFAULT_BUFFER_COUNT = 2;
+
+  // Maximum time acquireFrame() waits for a readback the GPU has not completed yet.
+  private static final long FENCE_TIMEOUT_NANOS = 1_000_000_000L;
+
+  private final int bufferCount;
+  private final ReadbackRing ring;
   private int[] frameBuffer;
   private int[] texture;
   private int[] pbo;
-  private Boolean[] bufferUsed;
+  // Fence signalled when the readback into each buffer completes, or 0.
+  private final long[] fences;
+  // Layout of the readback in each buffer.
+  private final int[] readbackWidth;
+  private final int[] readbackHeight;
+  private final int[] readbackLevelCount;
+  // Whether each buffer is mapped by acquireFrame(). A buffer from tryAcquireLatest() is held but
+  // not mapped until then.
+  private final boolean[] bufferMapped;
   private int frontIndex = -1;
   private int backIndex = -1;
 
@@ -81,12 +108,22 @@ public class TextureReader {
   private int imageHeight = 0;
   private int pixelBufferSize = 0;
   private Boolean keepAspectRatio = false;
+  // Reads the whole image, as submitFrame() without a request does.
+  private ReadbackRequest fullImageRequest;
 
   private FloatBuffer quadVertices;
   private FloatBuffer quadTexCoord;
   private int quadProgram;
   private int quadPositionAttrib;
   private int quadTexCoordAttrib;
+  private int quadTexelStepUniform;
+  // Draws the U and V plane of NV12; only created for that format.
+  private int chromaProgram;
+  private int chromaPositionAttrib;
+  private int chromaTexCoordAttrib;
+  private int chromaTexelStepUniform;
+  private int chromaPixelWidthUniform;
+  private final float[] texCoords = new float[8];
   private static final int COORDS_PER_VERTEX = 3;
   private static final int TEXCOORDS_PER_VERTEX = 2;
   private static final int FLOAT_SIZE = 4;
@@ -108,13 +145,29 @@ public class TextureReader {
         1.0f, 1.0f,
       };
 
+  public TextureReader() {
+    this(DEFAULT_BUFFER_COUNT);
+  }
+
+  /** @param bufferCount number of readback buffers in the ring, at least 1. */
+  public TextureReader(int bufferCount) {
+    this.bufferCount = bufferCount;
+    ring = new ReadbackRing(bufferCount);
+    fences = new long[bufferCount];
+    readbackWidth = new int[bufferCount];
+    readbackHeight = new int[bufferCount];
+    readbackLevelCount = new int[bufferCount];
+    bufferMapped = new boolean[bufferCount];
+  }
+
   /**
    * Creates the texture reader. This function needs to be called from the OpenGL rendering thread.
    *
-   * @param format the format of the output pixel buffer. It can be one of the two values:
-   *     TextureReaderImage.IMAGE_FORMAT_RGBA or TextureReaderImage.IMAGE_FORMAT_I8.
-   * @param width the width of the output image.
-   * @param height the height of the output image.
+   * @param format the format of the output pixel buffer. It can be one of the three values:
+   *     TextureReaderImage.IMAGE_FORMAT_RGBA, TextureReaderImage.IMAGE_FORMAT_I8 or
+   *     TextureReaderImage.IMAGE_FORMAT_NV12.
+   * @param width the width of the output image, and the largest width a request may ask for.
+   * @param height the height of the output image, and the largest height a request may ask for.
    * @param keepAspectRatio whether or not to keep aspect ratio. If true, the output image may be
    *     cropped if the image aspect ratio is different from the texture aspect ratio. If false, the
    *     output image covers the entire texture scope and no cropping is applied.
@@ -122,9 +175,13 @@ public class TextureReader {
   public void create(Context context, int format, int width, int height, Boolean keepAspectRatio)
       throws IOException {
     if (format != TextureReaderImage.IMAGE_FORMAT_RGBA
-        && format != TextureReaderImage.IMAGE_FORMAT_I8) {
+        && format != TextureReaderImage.IMAGE_FORMAT_I8
+        && format != TextureReaderImage.IMAGE_FORMAT_NV12) {
       throw new RuntimeException("Image format not supported.");
     }
+    if (format == TextureReaderImage.IMAGE_FORMAT_NV12 && (width % 2 != 0 || height % 2 != 0)) {
+      throw new RuntimeException("NV12 images need an even width and height.");
+    }
 
     this.keepAspectRatio = keepAspectRatio;
     imageFormat = format;
@@ -132,35 +189,38 @@ public class TextureReader {
     imageHeight = height;
     frontIndex = -1;
     backIndex = -1;
-
-    if (imageFormat == TextureReaderImage.IMAGE_FORMAT_RGBA) {
-      pixelBufferSize = imageWidth * imageHeight * 4;
-    } else if (imageFormat == TextureReaderImage.IMAGE_FORMAT_I8) {
-      pixelBufferSize = imageWidth * imageHeight;
-    }
+    ring.reset();
+    Arrays.fill(bufferMapped, false);
+    fullImageRequest = new ReadbackRequest(width, height);
+
+    // Leave room below the image for pyramid levels or the NV12 chroma plane.
+    int targetHeight =
+        TextureReaderImage.getBufferRows(
+            imageFormat, imageHeight, imageFormat == TextureReaderImage.IMAGE_FORMAT_NV12 ? 1 : 2);
+    pixelBufferSize =
+        imageWidth * targetHeight * TextureReaderImage.getBytesPerPixel(imageFormat);
+    boolean singleChannel = imageFormat != TextureReaderImage.IMAGE_FORMAT_RGBA;
 
     // Create framebuffers and PBOs.
     pbo = new int[bufferCount];
     frameBuffer = new int[bufferCount];
     texture = new int[bufferCount];
-    bufferUsed = new Boolean[bufferCount];
     GLES30.glGenBuffers(bufferCount, pbo, 0);
     GLES20.glGenFramebuffers(bufferCount, frameBuffer, 0);
     GLES20.glGenTextures(bufferCount, texture, 0);
 
     for (int i = 0; i < bufferCount; i++) {
-      bufferUsed[i] = false;
       GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, frameBuffer[i]);
 
       GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, texture[i]);
       GLES30.glTexImage2D(
           GLES30.GL_TEXTURE_2D,
           0,
-          imageFormat == TextureReaderImage.IMAGE_FORMAT_I8 ? GLES30.GL_R8 : GLES30.GL_RGBA,
+          singleChannel ? GLES30.GL_R8 : GLES30.GL_RGBA,
           imageWidth,
-          imageHeight,
+          targetHeight,
           0,
-          imageFormat == TextureReaderImage.IMAGE_FORMAT_I8 ? GLES30.GL_RED : GLES30.GL_RGBA,
+          singleChannel ? GLES30.GL_RED : GLES30.GL_RGBA,
           GLES30.GL_UNSIGNED_BYTE,
           null);
       GLES20.glTexParameteri(
@@ -212,29 +272,48 @@ public class TextureReader {
 
     int vertexShader =
         ShaderUtil.loadGLShader(TAG, context, GLES20.GL_VERTEX_SHADER, "shaders/gpu_download.vert");
-    int fragmentShader =
-        ShaderUtil.loadGLShader(
-            TAG,
+    quadProgram =
+        createProgram(
             context,
-            GLES20.GL_FRAGMENT_SHADER,
-            imageFormat == TextureReaderImage.IMAGE_FORMAT_I8
-                ? "shaders/gpu_download_i8.frag"
-                : "shaders/gpu_download_rgba.frag");
-
-    quadProgram = GLES20.glCreateProgram();
-    GLES20.glAttachShader(quadProgram, vertexShader);
-    GLES20.glAttachShader(quadProgram, fragmentShader);
-    GLES20.glLinkProgram(quadProgram);
-    GLES20.glUseProgram(quadProgram);
-
+            vertexShader,
+            singleChannel ? "shaders/gpu_download_i8.frag" : "shaders/gpu_download_rgba.frag");
     quadPositionAttrib = GLES20.glGetAttribLocation(quadProgram, "a_Position");
     quadTexCoordAttrib = GLES20.glGetAttribLocation(quadProgram, "a_TexCoord");
-    int texLoc = GLES20.glGetUniformLocation(quadProgram, "sTexture");
+    quadTexelStepUniform = GLES20.glGetUniformLocation(quadProgram, "u_TexelStep");
+
+    if (imageFormat == TextureReaderImage.IMAGE_FORMAT_NV12) {
+      chromaProgram = createProgram(context, vertexShader, "shaders/gpu_download_uv.frag");
+      chromaPositionAttrib = GLES20.glGetAttribLocation(chromaProgram, "a_Position");
+      chromaTexCoordAttrib = GLES20.glGetAttribLocation(chromaProgram, "a_TexCoord");
+      chromaTexelStepUniform = GLES20.glGetUniformLocation(chromaProgram, "u_TexelStep");
+      chromaPixelWidthUniform = GLES20.glGetUniformLocation(chromaProgram, "u_PixelWidth");
+    }
+  }
+
+  private int createProgram(Context context, int vertexShader, String fragmentShaderName)
+      throws IOException {
+    int fragmentShader =
+        ShaderUtil.loadGLShader(TAG, context, GLES20.GL_FRAGMENT_SHADER, fragmentShaderName);
+
+    int program = GLES20.glCreateProgram();
+    GLES20.glAttachShader(program, vertexShader);
+    GLES20.glAttachShader(program, fragmentShader);
+    GLES20.glLinkProgram(program);
+    GLES20.glUseProgram(program);
+
+    int texLoc = GLES20.glGetUniformLocation(program, "sTexture");
     GLES20.glUniform1i(texLoc, 0);
+    return program;
   }
 
   /** Destroy the texture reader. */
   public void destroy() {
+    for (int i = 0; i < bufferCount; i++) {
+      deleteFence(i);
+    }
+    ring.reset();
+    // Deleting the pixel buffers below unmaps them.
+    Arrays.fill(bufferMapped, false);
     if (frameBuffer != null) {
       GLES20.glDeleteFramebuffers(bufferCount, frameBuffer, 0);
       frameBuffer = null;
@@ -254,27 +333,47 @@ public class TextureReader {
    * immediately. Instead, it returns a frame buffer index, which can be used to acquire the frame
    * buffer later through acquireFrame().
    *
-   * <p>If there is no enough frame buffer available, an exception will be thrown.
+   * <p>If every buffer is in flight, the oldest readback not acquired by the app is dropped and its
+   * buffer reused. Only if the app holds every buffer is the request skipped.
    *
    * @param textureId the id of the input OpenGL texture.
    * @param textureWidth width of the texture in pixels.
    * @param textureHeight height of the texture in pixels.
    * @return the index to the frame buffer this request is associated to. You should use this index
    *     to acquire the frame using acquireFrame(); and you should release the frame buffer using
-   *     releaseBuffer() routine after using of the frame.
+   *     releaseBuffer() routine after using of the frame. -1 if the request was skipped.
    */
   public int submitFrame(int textureId, int textureWidth, int textureHeight) {
-    // Find next buffer.
-    int bufferIndex = -1;
-    for (int i = 0; i < bufferCount; i++) {
-      if (!bufferUsed[i]) {
-        bufferIndex = i;
-        break;
-      }
-    }
+    return submitFrame(textureId, textureWidth, textureHeight, fullImageRequest);
+  }
+
+  /**
+   * Submits a frame reading request for the size, region of interest and pyramid levels in {@code
+   * request}, which the GPU produces before the readback. Otherwise the same as above.
+   *
+   * @param textureId the id of the input OpenGL texture.
+   * @param textureWidth width of the texture in pixels.
+   * @param textureHeight height of the texture in pixels.
+   * @param request what to read back; no larger than the size the reader was created with.
+   * @return the index to the frame buffer this request is associated to, or -1 if the request was
+   *     skipped.
+   */
+  public int submitFrame(
+      int textureId, int textureWidth, int textureHeight, ReadbackRequest request) {
+    checkRequest(request);
+    int bufferIndex = ring.beginSubmit(System.nanoTime());
     if (bufferIndex == -1) {
-      throw new RuntimeException("No buffer available.");
+      return -1;
     }
+    // A dropped readback may still have a fence.
+    deleteFence(bufferIndex);
+    int width = request.getWidth();
+    int height = request.getHeight();
+    int levelCount = request.getLevelCount();
+    readbackWidth[bufferIndex] = width;
+    readbackHeight[bufferIndex] = height;
+    readbackLevelCount[bufferIndex] = levelCount;
+    int rows = TextureReaderImage.getBufferRows(imageFormat, height, levelCount);
 
     // Bind both read and write to framebuffer.
     GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, frameBuffer[bufferIndex]);
@@ -282,23 +381,48 @@ public class TextureReader {
     // Save and setup viewport
     IntBuffer viewport = IntBuffer.allocate(4);
     GLES20.glGetIntegerv(GLES20.GL_VIEWPORT, viewport);
-    GLES20.glViewport(0, 0, imageWidth, imageHeight);
-
-    // Draw texture to framebuffer.
-    drawTexture(textureId, textureWidth, textureHeight);
+    GLES20.glViewport(0, 0, width, rows);
+    prepareToDraw();
+
+    // Draw texture to framebuffer: every pyramid level, or the two planes of NV12.
+    computeTexCoords(textureWidth, textureHeight, request);
+    for (int level = 0; level < levelCount; level++) {
+      int levelWidth = width >> level;
+      int levelHeight = height >> level;
+      GLES20.glViewport(
+          TextureReaderImage.getLevelColumn(width, level),
+          TextureReaderImage.getLevelRow(height, level),
+          levelWidth,
+          levelHeight);
+      GLES20.glUseProgram(quadProgram);
+      setTexelStep(quadTexelStepUniform, textureWidth, textureHeight, levelWidth, levelHeight);
+      drawTexture(quadPositionAttrib, quadTexCoordAttrib, textureId);
+    }
+    if (imageFormat == TextureReaderImage.IMAGE_FORMAT_NV12) {
+      GLES20.glViewport(0, height, width, rows - height);
+      GLES20.glUseProgram(chromaProgram);
+      // Each U and V pair covers a 2x2 block of the Y plane.
+      setTexelStep(chromaTexelStepUniform, textureWidth, textureHeight, width / 2, rows - height);
+      GLES20.glUniform1f(chromaPixelWidthUniform, (texCoords[4] - texCoords[0]) / width);
+      drawTexture(chromaPositionAttrib, chromaTexCoordAttrib, textureId);
+    }
 
     // Start reading into PBO
     GLES30.glBindBuffer(GLES30.GL_PIXEL_PACK_BUFFER, pbo[bufferIndex]);
     GLES30.glReadBuffer(GLES30.GL_COLOR_ATTACHMENT0);
 
+    // Rows of single channel images are not padded to four bytes.
+    GLES20.glPixelStorei(GLES20.GL_PACK_ALIGNMENT, 1);
     GLES30.glReadPixels(
         0,
         0,
-        imageWidth,
-        imageHeight,
-        imageFormat == TextureReaderImage.IMAGE_FORMAT_I8 ? GLES30.GL_RED : GLES20.GL_RGBA,
+        width,
+        rows,
+        imageFormat == TextureReaderImage.IMAGE_FORMAT_RGBA ? GLES20.GL_RGBA : GLES30.GL_RED,
         GLES20.GL_UNSIGNED_BYTE,
         0);
+    GLES20.glPixelStorei(GLES20.GL_PACK_ALIGNMENT, 4);
+    fences[bufferIndex] = GLES30.glFenceSync(GLES30.GL_SYNC_GPU_COMMANDS_COMPLETE, 0);
 
     // Restore viewport.
     GLES20.glViewport(viewport.get(0), viewport.get(1), viewport.get(2), viewport.get(3));
@@ -306,35 +430,92 @@ public class TextureReader {
     GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, 0);
     GLES30.glBindBuffer(GLES30.GL_PIXEL_PACK_BUFFER, 0);
 
-    bufferUsed[bufferIndex] = true;
     return bufferIndex;
   }
 
+  private void checkRequest(ReadbackRequest request) {
+    int width = request.getWidth();
+    int height = request.getHeight();
+    int levelCount = request.getLevelCount();
+    if (width < 1 || height < 1 || width > imageWidth || height > imageHeight) {
+      throw new IllegalArgumentException(
+          "Requested size " + width + "x" + height + " does not fit the reader.");
+    }
+    if (levelCount < 1
+        || levelCount > TextureReaderImage.getMaxLevelCount(width, height)
+        || (levelCount > 1 && imageFormat == TextureReaderImage.IMAGE_FORMAT_NV12)) {
+      throw new IllegalArgumentException("Invalid pyramid level count " + levelCount);
+    }
+    if (imageFormat == TextureReaderImage.IMAGE_FORMAT_NV12
+        && (width % 2 != 0 || height % 2 != 0)) {
+      throw new IllegalArgumentException("NV12 images need an even width and height.");
+    }
+    if (!(0 <= request.getLeft()
+        && request.getLeft() < request.getRight()
+        && request.getRight() <= 1
+        && 0 <= request.getTop()
+        && request.getTop() < request.getBottom()
+        && request.getBottom() <= 1)) {
+      throw new IllegalArgumentException("Invalid region of interest.");
+    }
+  }
+
+  /**
+   * Returns the index of the newest readback the GPU has completed since the last call, without
+   * waiting. Older completed readbacks are dropped. The frame is acquired: read it through
+   * acquireFrame() and release it with releaseFrame() as usual.
+   *
+   * @return the buffer index, or -1 if no readback has completed yet.
+   */
+  public int tryAcquireLatest() {
+    long now = System.nanoTime();
+    for (int i = 0; i < bufferCount; i++) {
+      if (ring.getState(i) == ReadbackRing.PENDING && waitForFence(i, 0)) {
+        ring.markReady(i, now);
+      }
+    }
+    return ring.acquireLatest();
+  }
+
   /**
    * Acquires the frame requested earlier. This routine returns a TextureReaderImage object that
    * contains the pixels mapped to the frame buffer requested previously through submitFrame().
    *
-   * <p>If input buffer index is invalid, an exception will be thrown.
+   * <p>If the GPU has not finished the readback yet, this waits for it. If input buffer index is
+   * invalid, or its readback was dropped, an exception will be thrown.
    *
    * @param bufferIndex the index to the frame buffer to be acquired. It has to be a frame index
-   *     returned from submitFrame().
+   *     returned from submitFrame() or tryAcquireLatest().
    * @return a TextureReaderImage object if succeed. Null otherwise.
    */
   public TextureReaderImage acquireFrame(int bufferIndex) {
-    if (bufferIndex < 0 || bufferIndex >= bufferCount || !bufferUsed[bufferIndex]) {
+    if (bufferIndex < 0 || bufferIndex >= bufferCount) {
       throw new RuntimeException("Invalid buffer index.");
     }
-
-    // Bind the current PB and acquire the pixel buffer.
+    long waitStart = System.nanoTime();
+    if (ring.getState(bufferIndex) == ReadbackRing.PENDING
+        && !waitForFence(bufferIndex, FENCE_TIMEOUT_NANOS)) {
+      throw new RuntimeException("Timed out waiting for the readback.");
+    }
+    ring.acquire(bufferIndex, System.nanoTime() - waitStart);
+
+    // Bind the current PB and acquire the pixel buffer, only as much as was read back.
+    int width = readbackWidth[bufferIndex];
+    int height = readbackHeight[bufferIndex];
+    int levelCount = readbackLevelCount[bufferIndex];
+    int size =
+        width
+            * TextureReaderImage.getBufferRows(imageFormat, height, levelCount)
+            * TextureReaderImage.getBytesPerPixel(imageFormat);
     GLES30.glBindBuffer(GLES30.GL_PIXEL_PACK_BUFFER, pbo[bufferIndex]);
     ByteBuffer mapped =
         (ByteBuffer)
-            GLES30.glMapBufferRange(
-                GLES30.GL_PIXEL_PACK_BUFFER, 0, pixelBufferSize, GLES30.GL_MAP_READ_BIT);
+            GLES30.glMapBufferRange(GLES30.GL_PIXEL_PACK_BUFFER, 0, size, GLES30.GL_MAP_READ_BIT);
+    bufferMapped[bufferIndex] = mapped != null;
 
     // Wrap the mapped buffer into TextureReaderImage object.
     TextureReaderImage buffer =
-        new TextureReaderImage(imageWidth, imageHeight, imageFormat, mapped);
+        new TextureReaderImage(width, height, imageFormat, levelCount, mapped);
 
     return buffer;
   }
@@ -347,13 +528,35 @@ public class TextureReader {
    *     returned from submitFrame().
    */
   public void releaseFrame(int bufferIndex) {
-    if (bufferIndex < 0 || bufferIndex >= bufferCount || !bufferUsed[bufferIndex]) {
+    if (bufferIndex < 0
+        || bufferIndex >= bufferCount
+        || ring.getState(bufferIndex) == ReadbackRing.FREE) {
       throw new RuntimeException("Invalid buffer index.");
     }
-    GLES30.glBindBuffer(GLES30.GL_PIXEL_PACK_BUFFER, pbo[bufferIndex]);
-    GLES30.glUnmapBuffer(GLES30.GL_PIXEL_PACK_BUFFER);
-    GLES30.glBindBuffer(GLES30.GL_PIXEL_PACK_BUFFER, 0);
-    bufferUsed[bufferIndex] = false;
+    // Unmapping a buffer that is not mapped is a GL error.
+    if (bufferMapped[bufferIndex]) {
+      GLES30.glBindBuffer(GLES30.GL_PIXEL_PACK_BUFFER, pbo[bufferIndex]);
+      GLES30.glUnmapBuffer(GLES30.GL_PIXEL_PACK_BUFFER);
+      GLES30.glBindBuffer(GLES30.GL_PIXEL_PACK_BUFFER, 0);
+      bufferMapped[bufferIndex] = false;
+    }
+    deleteFence(bufferIndex);
+    ring.release(bufferIndex);
+  }
+
+  /** Smoothed time from submitFrame() until the readback was seen complete, in milliseconds. */
+  public float getSmoothedReadbackLatency() {
+    return ring.getSmoothedLatency();
+  }
+
+  /** Number of times the app held every buffer, or acquireFrame() had to wait for the GPU. */
+  public long getStallCount() {
+    return ring.getStallCount();
+  }
+
+  /** Number of readbacks dropped before the app acquired them. */
+  public long getDroppedCount() {
+    return ring.getDroppedCount();
   }
 
   /**
@@ -387,8 +590,38 @@ public class TextureReader {
     return null;
   }
 
-  /** Draws texture to full screen. */
-  private void drawTexture(int textureId, int textureWidth, int textureHeight) {
+  /**
+   * Waits up to {@code timeoutNanos} for the readback into a buffer to complete, and deletes its
+   * fence once it has.
+   *
+   * @return true if the readback is complete.
+   */
+  private boolean waitForFence(int bufferIndex, long timeoutNanos) {
+    long fence = fences[bufferIndex];
+    if (fence == 0) {
+      return true;
+    }
+    int status =
+        GLES30.glClientWaitSync(fence, GLES30.GL_SYNC_FLUSH_COMMANDS_BIT, timeoutNanos);
+    if (status == GLES30.GL_WAIT_FAILED) {
+      throw new RuntimeException("Failed to wait for the readback, error " + GLES20.glGetError());
+    }
+    if (status == GLES30.GL_TIMEOUT_EXPIRED) {
+      return false;
+    }
+    deleteFence(bufferIndex);
+    return true;
+  }
+
+  private void deleteFence(int bufferIndex) {
+    if (fences[bufferIndex] != 0) {
+      GLES30.glDeleteSync(fences[bufferIndex]);
+      fences[bufferIndex] = 0;
+    }
+  }
+
+  /** Sets up the state for drawing into the framebuffer, and clears it. */
+  private void prepareToDraw() {
     // Disable features that we don't use.
     GLES20.glDisable(GLES20.GL_DEPTH_TEST);
     GLES20.glDisable(GLES20.GL_CULL_FACE);
@@ -403,48 +636,79 @@ public class TextureReader {
     // Clear buffers.
     GLES20.glClearColor(0, 0, 0, 0);
     GLES20.glClear(GLES20.GL_COLOR_BUFFER_BIT | GLES20.GL_DEPTH_BUFFER_BIT);
+  }
 
-    // Set the vertex positions.
-    GLES20.glVertexAttribPointer(
-        quadPositionAttrib, COORDS_PER_VERTEX, GLES20.GL_FLOAT, false, 0, quadVertices);
-
-    // Calculate the texture coordinates.
+  /** Calculates the texture coordinates of the request's region into texCoords. */
+  private void computeTexCoords(int textureWidth, int textureHeight, ReadbackRequest request) {
+    float offsetU = 0;
+    float offsetV = 0;
     if (keepAspectRatio) {
+      int width = request.getWidth();
+      int height = request.getHeight();
       int renderWidth = 0;
       int renderHeight = 0;
       float textureAspectRatio = (float) textureWidth / textureHeight;
-      float imageAspectRatio = (float) imageWidth / imageHeight;
+      float imageAspectRatio = (float) width / height;
       if (textureAspectRatio < imageAspectRatio) {
-        renderWidth = imageWidth;
-        renderHeight = textureHeight * imageWidth / textureWidth;
+        renderWidth = width;
+        renderHeight = textureHeight * width / textureWidth;
       } else {
-        renderWidth = textureWidth * imageHeight / textureHeight;
-        renderHeight = imageHeight;
+        renderWidth = textureWidth * height / textureHeight;
+        renderHeight = height;
       }
-      float offsetU = (float) (renderWidth - imageWidth) / renderWidth / 2;
-      float offsetV = (float) (renderHeight - imageHeight) / renderHeight / 2;
-
-      float[] texCoords =
-          new float[] {
-            offsetU, offsetV, offsetU, 1 - offsetV, 1 - offsetU, offsetV, 1 - offsetU, 1 - offsetV
-          };
-
-      quadTexCoord.put(texCoords);
-      quadTexCoord.position(0);
-    } else {
-      quadTexCoord.put(QUAD_TEXCOORDS);
-      quadTexCoord.position(0);
+      offsetU = (float) (renderWidth - width) / renderWidth / 2;
+      offsetV = (float) (renderHeight - height) / renderHeight / 2;
     }
 
+    // The region of interest is a fraction of the (possibly cropped) image.
+    float spanU = 1 - 2 * offsetU;
+    float spanV = 1 - 2 * offsetV;
+    float left = offsetU + spanU * request.getLeft();
+    float right = offsetU + spanU * request.getRight();
+    float top = offsetV + spanV * request.getTop();
+    float bottom = offsetV + spanV * request.getBottom();
+    texCoords[0] = left;
+    texCoords[1] = top;
+    texCoords[2] = left;
+    texCoords[3] = bottom;
+    texCoords[4] = right;
+    texCoords[5] = top;
+    texCoords[6] = right;
+    texCoords[7] = bottom;
+    quadTexCoord.put(texCoords);
+    quadTexCoord.position(0);
+  }
+
+  /**
+   * Sets the offset of the four taps the shaders average per output pixel: a quarter of an output
+   * pixel along each axis where one output pixel covers two texels or more, so that downscaled
+   * levels do not alias, and zero otherwise.
+   */
+  private void setTexelStep(
+      int uniform, int textureWidth, int textureHeight, int outputWidth, int outputHeight) {
+    float spanU = texCoords[4] - texCoords[0];
+    float spanV = texCoords[3] - texCoords[1];
+    float texelsPerPixelU = spanU * textureWidth / outputWidth;
+    float texelsPerPixelV = spanV * textureHeight / outputHeight;
+    GLES20.glUniform2f(
+        uniform,
+        texelsPerPixelU >= 2 ? spanU / outputWidth / 4 : 0,
+        texelsPerPixelV >= 2 ? spanV / outputHeight / 4 : 0);
+  }
+
+  /** Draws the texture over the current viewport with the program in use. */
+  private void drawTexture(int positionAttrib, int texCoordAttrib, int textureId) {
+    // Set the vertex positions.
+    GLES20.glVertexAttribPointer(
+        positionAttrib, COORDS_PER_VERTEX, GLES20.GL_FLOAT, false, 0, quadVertices);
+
     // Set the texture coordinates.
     GLES20.glVertexAttribPointer(
-        quadTexCoordAttrib, TEXCOORDS_PER_VERTEX, GLES20.GL_FLOAT, false, 0, quadTexCoord);
+        texCoordAttrib, TEXCOORDS_PER_VERTEX, GLES20.GL_FLOAT, false, 0, quadTexCoord);
 
     // Enable vertex arrays
-    GLES20.glEnableVertexAttribArray(quadPositionAttrib);
-    GLES20.glEnableVertexAttribArray(quadTexCoordAttrib);
-
-    GLES20.glUseProgram(quadProgram);
+    GLES20.glEnableVertexAttribArray(positionAttrib);
+    GLES20.glEnableVertexAttribArray(texCoordAttrib);
 
     // Select input texture.
     GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
@@ -454,8 +718,8 @@ public class TextureReader {
     GLES20.glDrawArrays(GLES20.GL_TRIANGLE_STRIP, 0, 4);
 
     // Disable vertex arrays
-    GLES20.glDisableVertexAttribArray(quadPositionAttrib);
-    GLES20.glDisableVertexAttribArray(quadTexCoordAttrib);
+    GLES20.glDisableVertexAttribArray(positionAttrib);
+    GLES20.glDisableVertexAttribArray(texCoordAttrib);
 
     // Reset texture binding.
     GLES20.glBindTexture(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, 0);
@@ -24,6 +24,12 @@ public class TextureReaderImage {
   /** The id corresponding to grayscale. */
   public static final int IMAGE_FORMAT_I8 = 1;
 
+  /**
+   * The id corresponding to NV12: a full resolution Y plane followed by a half resolution plane of
+   * interleaved U and V bytes, with the same row stride.
+   */
+  public static final int IMAGE_FORMAT_NV12 = 2;
+
   /** The width of the image, in pixels. */
   public int width;
 
@@ -33,14 +39,22 @@ public class TextureReaderImage {
   /** The image buffer. */
   public ByteBuffer buffer;
 
-  /** Pixel format. Can be either IMAGE_FORMAT_RGBA or IMAGE_FORMAT_I8. */
+  /** Pixel format. Can be IMAGE_FORMAT_RGBA, IMAGE_FORMAT_I8 or IMAGE_FORMAT_NV12. */
   public int format;
 
+  /**
+   * Number of pyramid levels in the buffer. Level 0 is the full image at the top of the buffer;
+   * each further level is half the size of the previous one, and they are placed side by side
+   * below level 0. All levels share the row stride of level 0.
+   */
+  public int levelCount;
+
   /** Default constructor. */
   public TextureReaderImage() {
     width = 1;
     height = 1;
     format = IMAGE_FORMAT_RGBA;
+    levelCount = 1;
     buffer = ByteBuffer.allocateDirect(4);
   }
 
@@ -53,14 +67,36 @@ public class TextureReaderImage {
    * @param imgBuffer the buffer of the image pixels.
    */
   public TextureReaderImage(int imgWidth, int imgHeight, int imgFormat, ByteBuffer imgBuffer) {
+    this(imgWidth, imgHeight, imgFormat, 1, imgBuffer);
+  }
+
+  /**
+   * Constructor for an image with pyramid levels.
+   *
+   * @param imgWidth the width of the image, in pixels.
+   * @param imgHeight the height of the image, in pixels.
+   * @param imgFormat the format of the image.
+   * @param imgLevelCount the number of pyramid levels, 1 for a plain image.
+   * @param imgBuffer the buffer of the image pixels.
+   */
+  public TextureReaderImage(
+      int imgWidth, int imgHeight, int imgFormat, int imgLevelCount, ByteBuffer imgBuffer) {
     if (imgWidth == 0 || imgHeight == 0) {
       throw new RuntimeException("Invalid image size.");
     }
 
-    if (imgFormat != IMAGE_FORMAT_RGBA && imgFormat != IMAGE_FORMAT_I8) {
+    if (imgFormat != IMAGE_FORMAT_RGBA
+        && imgFormat != IMAGE_FORMAT_I8
+        && imgFormat != IMAGE_FORMAT_NV12) {
       throw new RuntimeException("Invalid image format.");
     }
 
+    if (imgLevelCount < 1
+        || imgLevelCount > getMaxLevelCount(imgWidth, imgHeight)
+        || (imgLevelCount > 1 && imgFormat == IMAGE_FORMAT_NV12)) {
+      throw new RuntimeException("Invalid pyramid level count.");
+    }
+
     if (imgBuffer == null) {
       throw new RuntimeException("Pixel buffer cannot be null.");
     }
@@ -68,6 +104,69 @@ public class TextureReaderImage {
     width = imgWidth;
     height = imgHeight;
     format = imgFormat;
+    levelCount = imgLevelCount;
     buffer = imgBuffer;
   }
+
+  /** Number of bytes from the start of one row of the buffer to the next. */
+  public int getRowStride() {
+    return width * getBytesPerPixel(format);
+  }
+
+  /** The width of a pyramid level, in pixels. */
+  public int getLevelWidth(int level) {
+    return width >> level;
+  }
+
+  /** The height of a pyramid level, in pixels. */
+  public int getLevelHeight(int level) {
+    return height >> level;
+  }
+
+  /** Offset in the buffer of the first pixel of a pyramid level. */
+  public int getLevelOffset(int level) {
+    return getRowStride() * getLevelRow(height, level)
+        + getBytesPerPixel(format) * getLevelColumn(width, level);
+  }
+
+  /** Offset in the buffer of the interleaved U and V plane of an NV12 image. */
+  public int getChromaOffset() {
+    return getRowStride() * height;
+  }
+
+  /** Number of bytes per pixel of {@code format}, 1 for each plane of NV12. */
+  static int getBytesPerPixel(int format) {
+    return format == IMAGE_FORMAT_RGBA ? 4 : 1;
+  }
+
+  /** Largest number of pyramid levels whose smallest level is still at least one pixel. */
+  static int getMaxLevelCount(int width, int height) {
+    int levels = 1;
+    while ((width >> levels) > 0 && (height >> levels) > 0) {
+      levels++;
+    }
+    return levels;
+  }
+
+  /** Number of rows in the buffer of an image with this format, height and levels. */
+  static int getBufferRows(int format, int height, int levelCount) {
+    if (format == IMAGE_FORMAT_NV12) {
+      return height + (height + 1) / 2;
+    }
+    return levelCount > 1 ? height + (height >> 1) : height;
+  }
+
+  /** First row of a pyramid level in the buffer. */
+  static int getLevelRow(int height, int level) {
+    return level == 0 ? 0 : height;
+  }
+
+  /** First column of a pyramid level in the buffer: levels 1 and up are side by side. */
+  static int getLevelColumn(int width, int level) {
+    int column = 0;
+    for (int k = 1; k < level; k++) {
+      column += width >> k;
+    }
+    return column;
+  }
 }
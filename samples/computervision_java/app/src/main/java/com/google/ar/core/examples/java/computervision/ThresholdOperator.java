@@ -0,0 +1,68 @@
+/*
+ * Copyright 2018 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.ar.core.examples.java.computervision;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Binarizes a grayscale image in place: pixels at or above the threshold become 255, the others 0.
+ */
+public class ThresholdOperator implements ImageOperator {
+  private final int threshold;
+
+  // One row, reused between calls, for images not backed by an array.
+  private final ThreadLocal<byte[]> rowBuffer = ThreadLocal.withInitial(() -> new byte[0]);
+
+  /** @param threshold the lowest value, from 0 to 255, that becomes 255. */
+  public ThresholdOperator(int threshold) {
+    this.threshold = threshold;
+  }
+
+  @Override
+  public ImageView apply(ImageView input, ImageBufferPool pool) {
+    input.checkGrayscale();
+    ByteBuffer buffer = input.buffer;
+    if (buffer.hasArray()) {
+      byte[] pixels = buffer.array();
+      for (int j = 0; j < input.height; j++) {
+        int offset = buffer.arrayOffset() + j * input.stride;
+        thresholdRow(pixels, offset, input.width);
+      }
+      return input;
+    }
+
+    byte[] row = rowBuffer.get();
+    if (row.length < input.width) {
+      row = new byte[input.width];
+      rowBuffer.set(row);
+    }
+    ByteBuffer target = buffer.duplicate();
+    for (int j = 0; j < input.height; j++) {
+      input.readRow(target, j, row);
+      thresholdRow(row, 0, input.width);
+      target.position(j * input.stride);
+      target.put(row, 0, input.width);
+    }
+    return input;
+  }
+
+  private void thresholdRow(byte[] pixels, int offset, int width) {
+    for (int i = offset; i < offset + width; i++) {
+      pixels[i] = (pixels[i] & 0xFF) >= threshold ? (byte) 0xFF : 0;
+    }
+  }
+}
@@ -0,0 +1,43 @@
+/*
+ * Copyright 2018 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.google.ar.core.examples.java.computervision;
+
+/**
+ * Times code for the JVM benchmarks, which run with the unit tests and print their results. The
+ * numbers are only comparable between runs on the same machine.
+ */
+final class Benchmarks {
+
+  private Benchmarks() {}
+
+  /** Runs {@code body} {@code warmups} times, then returns its mean time over {@code runs} runs. */
+  static double millisPerRun(int warmups, int runs, Runnable body) {
+    for (int i = 0; i < warmups; i++) {
+      body.run();
+    }
+    long start = System.nanoTime();
+    for (int i = 0; i < runs; i++) {
+      body.run();
+    }
+    return (System.nanoTime() - start) / 1e6 / runs;
+  }
+
+  static void report(String name, double millisPerRun) {
+    System.out.printf("%-48s %9.3f ms%n", name, millisPerRun);
+  }
+}
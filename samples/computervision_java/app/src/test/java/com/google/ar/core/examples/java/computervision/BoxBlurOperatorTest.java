@@ -0,0 +1,87 @@
+/*
+ * Copyright 2018 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.google.ar.core.examples.java.computervision;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import org.junit.Test;
+
+/** Applies {@link BoxBlurOperator} to small synthetic images. */
+public class BoxBlurOperatorTest {
+
+  private final BoxBlurOperator operator = new BoxBlurOperator();
+  private final ImageBufferPool pool = new ImageBufferPool(2);
+
+  @Test
+  public void flatImage_isUnchanged() {
+    int[] pixels = new int[5 * 4];
+    Arrays.fill(pixels, 77);
+    ImageView output = operator.apply(TestImages.of(5, 4, 5, false, pixels), pool);
+
+    for (int j = 0; j < 4; j++) {
+      for (int i = 0; i < 5; i++) {
+        assertEquals(77, output.get(i, j));
+      }
+    }
+  }
+
+  @Test
+  public void interior_isMeanOfNeighbourhood() {
+    ImageView input =
+        TestImages.of(
+            4, 4, 4, false,
+            0, 0, 0, 0,
+            0, 90, 0, 0,
+            0, 0, 0, 0,
+            0, 0, 0, 200);
+
+    ImageView output = operator.apply(input, pool);
+
+    assertEquals(10, output.get(1, 1));
+    assertEquals(10, output.get(2, 1));
+    assertEquals(10, output.get(1, 2));
+    assertEquals((90 + 200) / 9, output.get(2, 2));
+    // The border is copied.
+    assertEquals(200, output.get(3, 3));
+    assertEquals(0, output.get(0, 1));
+  }
+
+  @Test
+  public void paddedInput_givesPackedOutput() {
+    ImageView packed = TestImages.random(33, 17, 1);
+    ImageView padded = TestImages.of(33, 17, 48, true, TestImages.pixels(packed));
+
+    ImageView expected = operator.apply(packed, pool);
+    ImageView output = operator.apply(padded, pool);
+
+    assertTrue(output.isPacked());
+    assertEquals(expected.buffer, output.buffer);
+    assertTrue(TestImages.paddingIntact(padded));
+  }
+
+  @Test
+  public void singleRow_isCopied() {
+    ImageView output = operator.apply(TestImages.of(3, 1, 3, false, 1, 2, 3), pool);
+
+    assertEquals(1, output.get(0, 0));
+    assertEquals(2, output.get(1, 0));
+    assertEquals(3, output.get(2, 0));
+  }
+}
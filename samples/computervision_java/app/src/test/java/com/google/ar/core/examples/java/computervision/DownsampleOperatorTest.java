@@ -0,0 +1,86 @@
+/*
+ * Copyright 2018 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.google.ar.core.examples.java.computervision;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/** Applies {@link DownsampleOperator} to small synthetic images. */
+public class DownsampleOperatorTest {
+
+  private final DownsampleOperator operator = new DownsampleOperator();
+  private final ImageBufferPool pool = new ImageBufferPool(2);
+
+  @Test
+  public void blocks_areAveraged() {
+    ImageView input =
+        TestImages.of(
+            4, 2, 4, false,
+            10, 20, 100, 100,
+            30, 40, 0, 4);
+
+    ImageView output = operator.apply(input, pool);
+
+    assertEquals(2, output.width);
+    assertEquals(1, output.height);
+    assertTrue(output.isPacked());
+    assertEquals(25, output.get(0, 0));
+    assertEquals(51, output.get(1, 0));
+  }
+
+  @Test
+  public void oddRowAndColumn_areDropped() {
+    ImageView input =
+        TestImages.of(
+            3, 3, 3, false,
+            8, 8, 99,
+            8, 8, 99,
+            99, 99, 99);
+
+    ImageView output = operator.apply(input, pool);
+
+    assertEquals(1, output.width);
+    assertEquals(1, output.height);
+    assertEquals(8, output.get(0, 0));
+  }
+
+  @Test
+  public void singlePixel_staysOnePixel() {
+    ImageView output = operator.apply(TestImages.of(1, 1, 1, false, 42), pool);
+
+    assertEquals(1, output.width);
+    assertEquals(1, output.height);
+    assertEquals(42, output.get(0, 0));
+  }
+
+  @Test
+  public void paddedInput_matchesPacked() {
+    ImageView packed = TestImages.random(41, 29, 2);
+    ImageView padded = TestImages.of(41, 29, 64, true, TestImages.pixels(packed));
+
+    ImageView expected = operator.apply(packed, pool);
+    ImageView output = operator.apply(padded, pool);
+
+    assertEquals(20, output.width);
+    assertEquals(14, output.height);
+    assertEquals(expected.buffer, output.buffer);
+    assertTrue(TestImages.paddingIntact(padded));
+  }
+}
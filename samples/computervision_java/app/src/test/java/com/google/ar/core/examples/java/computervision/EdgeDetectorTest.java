@@ -0,0 +1,127 @@
+/*
+ * Copyright 2018 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.google.ar.core.examples.java.computervision;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import org.junit.After;
+import org.junit.Test;
+
+/** Runs {@link EdgeDetector} on synthetic images, with and without worker threads. */
+public class EdgeDetectorTest {
+
+  private static final int EDGE = 0xFF;
+  private static final int NO_EDGE = 0x1F;
+
+  private final EdgeDetector serial = new EdgeDetector(0);
+  private final EdgeDetector parallel = new EdgeDetector(3);
+  private final ImageBufferPool pool = new ImageBufferPool(2);
+
+  @After
+  public void tearDown() {
+    serial.shutdown();
+    parallel.shutdown();
+  }
+
+  /** {@code width} by {@code height} pixels, 0 left of column {@code step} and 100 from it on. */
+  private static ImageView step(int width, int height, int step) {
+    int[] pixels = new int[width * height];
+    for (int j = 0; j < height; j++) {
+      Arrays.fill(pixels, j * width + step, (j + 1) * width, 100);
+    }
+    return TestImages.of(width, height, width, false, pixels);
+  }
+
+  @Test
+  public void flatImage_hasNoEdges() {
+    int[] pixels = new int[8 * 6];
+    Arrays.fill(pixels, 60);
+    ImageView output = serial.apply(TestImages.of(8, 6, 8, false, pixels), pool);
+
+    assertEquals(NO_EDGE, output.get(3, 3));
+    assertEquals(0, output.get(0, 3));
+    assertEquals(0, output.get(3, 0));
+  }
+
+  @Test
+  public void verticalStep_isDetected() {
+    ImageView output = serial.apply(step(10, 6, 5), pool);
+
+    for (int j = 1; j < 5; j++) {
+      assertEquals(NO_EDGE, output.get(3, j));
+      assertEquals(EDGE, output.get(4, j));
+      assertEquals(EDGE, output.get(5, j));
+      assertEquals(NO_EDGE, output.get(6, j));
+    }
+  }
+
+  @Test
+  public void pooledOutput_hasBorderCleared() {
+    ByteBuffer dirty = pool.acquire(10 * 6);
+    Arrays.fill(dirty.array(), (byte) 0x55);
+    pool.release(dirty);
+
+    ImageView output = serial.apply(step(10, 6, 5), pool);
+
+    assertSame(dirty, output.buffer);
+    for (int i = 0; i < 10; i++) {
+      assertEquals(0, output.get(i, 0));
+      assertEquals(0, output.get(i, 5));
+    }
+    for (int j = 0; j < 6; j++) {
+      assertEquals(0, output.get(0, j));
+      assertEquals(0, output.get(9, j));
+    }
+  }
+
+  @Test
+  public void bands_matchSerialResult() {
+    ImageView input = TestImages.random(640, 480, 3);
+
+    ImageView expected = serial.apply(input, pool);
+    ImageView output = parallel.apply(input, pool);
+
+    assertEquals(expected.buffer, output.buffer);
+  }
+
+  @Test
+  public void detect_removesRowPadding() {
+    ImageView packed = TestImages.random(200, 150, 4);
+    ImageView padded = TestImages.of(200, 150, 256, true, TestImages.pixels(packed));
+
+    ByteBuffer expected = parallel.detect(200, 150, 200, packed.buffer);
+    ByteBuffer output = parallel.detect(200, 150, 256, padded.buffer);
+
+    assertEquals(200 * 150, output.capacity());
+    assertEquals(expected, output);
+    assertTrue(TestImages.paddingIntact(padded));
+  }
+
+  @Test
+  public void release_reusesOutput() {
+    ImageView input = TestImages.random(64, 48, 5);
+    ByteBuffer output = serial.detect(64, 48, 64, input.buffer);
+    serial.release(output);
+
+    assertSame(output, serial.detect(64, 48, 64, input.buffer));
+  }
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright 2018 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.google.ar.core.examples.java.computervision;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Test;
+
+/** Applies {@link HistogramOperator} to small synthetic images. */
+public class HistogramOperatorTest {
+
+  private final HistogramOperator operator = new HistogramOperator();
+  private final ImageBufferPool pool = new ImageBufferPool(2);
+  private final int[] histogram = new int[HistogramOperator.BIN_COUNT];
+
+  @Test
+  public void values_areCountedAndImagePassedOn() {
+    ImageView input = TestImages.of(3, 2, 3, false, 0, 7, 7, 255, 7, 0);
+
+    assertSame(input, operator.apply(input, pool));
+    operator.getHistogram(histogram);
+
+    assertEquals(2, histogram[0]);
+    assertEquals(3, histogram[7]);
+    assertEquals(1, histogram[255]);
+    assertEquals(6, sum(histogram));
+  }
+
+  @Test
+  public void padding_isNotCounted() {
+    operator.apply(TestImages.of(2, 2, 7, true, 1, 1, 1, 1), pool);
+    operator.getHistogram(histogram);
+
+    assertEquals(4, histogram[1]);
+    assertEquals(0, histogram[TestImages.PADDING & 0xFF]);
+  }
+
+  @Test
+  public void histogram_isOfLastImageOnly() {
+    operator.apply(TestImages.of(2, 1, 2, false, 5, 5), pool);
+    operator.apply(TestImages.of(2, 1, 2, false, 9, 9), pool);
+    operator.getHistogram(histogram);
+
+    assertEquals(0, histogram[5]);
+    assertEquals(2, histogram[9]);
+  }
+
+  private static int sum(int[] values) {
+    int sum = 0;
+    for (int value : values) {
+      sum += value;
+    }
+    return sum;
+  }
+}
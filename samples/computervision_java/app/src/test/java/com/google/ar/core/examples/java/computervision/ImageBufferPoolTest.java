@@ -0,0 +1,116 @@
+/*
+ * Copyright 2018 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.google.ar.core.examples.java.computervision;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import org.junit.Test;
+
+/** Checks that {@link ImageBufferPool} reuses buffers of every size it hands out. */
+public class ImageBufferPoolTest {
+
+  private static final int MAX_POOLED = 2;
+
+  private final ImageBufferPool pool = new ImageBufferPool(MAX_POOLED);
+
+  @Test
+  public void acquire_afterRelease_reusesBuffer() {
+    ByteBuffer buffer = pool.acquire(100);
+    buffer.position(10);
+    pool.release(buffer);
+
+    ByteBuffer reused = pool.acquire(100);
+
+    assertSame(buffer, reused);
+    assertEquals(0, reused.position());
+    assertEquals(100, reused.capacity());
+    assertTrue(reused.hasArray());
+  }
+
+  @Test
+  public void mixedSizes_areEachReused() {
+    ByteBuffer large = pool.acquire(100);
+    ByteBuffer small = pool.acquire(25);
+    pool.release(large);
+    pool.release(small);
+
+    // Acquiring the small size must not throw the large buffer away, nor the other way round.
+    assertSame(small, pool.acquire(25));
+    assertSame(large, pool.acquire(100));
+    assertEquals(2, pool.getSizeCount());
+  }
+
+  @Test
+  public void release_beyondBound_isDroppedPerSize() {
+    ByteBuffer[] buffers = new ByteBuffer[MAX_POOLED + 1];
+    for (int i = 0; i < buffers.length; i++) {
+      buffers[i] = pool.acquire(100);
+    }
+    ByteBuffer other = pool.acquire(25);
+    for (ByteBuffer buffer : buffers) {
+      pool.release(buffer);
+    }
+    pool.release(other);
+
+    for (int i = 0; i < MAX_POOLED; i++) {
+      assertSame(buffers[i], pool.acquire(100));
+    }
+    assertNotSame(buffers[MAX_POOLED], pool.acquire(100));
+    // A full size does not crowd out another.
+    assertSame(other, pool.acquire(25));
+  }
+
+  @Test
+  public void clear_dropsPooledAndLateReleasedBuffers() {
+    ByteBuffer pooled = pool.acquire(100);
+    ByteBuffer inUse = pool.acquire(100);
+    pool.release(pooled);
+
+    pool.clear();
+    // Still in use at the resolution change, and released afterwards.
+    pool.release(inUse);
+
+    assertEquals(0, pool.getSizeCount());
+    ByteBuffer fresh = pool.acquire(100);
+    assertNotSame(pooled, fresh);
+    assertNotSame(inUse, fresh);
+  }
+
+  @Test
+  public void release_ignoresNullAndDirectBuffers() {
+    pool.acquire(100);
+    pool.release(null);
+    ByteBuffer direct = ByteBuffer.allocateDirect(100);
+    pool.release(direct);
+
+    assertNotSame(direct, pool.acquire(100));
+  }
+
+  @Test
+  public void acquireGrayscale_isPacked() {
+    ImageView image = pool.acquireGrayscale(40, 30);
+
+    assertEquals(40, image.stride);
+    assertEquals(1200, image.buffer.capacity());
+    assertTrue(image.isPacked());
+  }
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright 2018 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.google.ar.core.examples.java.computervision;
+
+import org.junit.Test;
+
+/** Times each operator, and the activity's chain, on a camera-sized image. */
+public class ImageOperatorBenchmark {
+
+  private static final int WARMUPS = 50;
+  private static final int RUNS = 100;
+
+  private final ImageView input =
+      TestImages.random(ImageOperatorChainTest.WIDTH, ImageOperatorChainTest.HEIGHT, 1);
+  private final String size = input.width + "x" + input.height;
+  private final ImageBufferPool pool = new ImageBufferPool(4);
+
+  /** Times {@code operator} on a copy of the input, releasing its output as a chain would. */
+  private void run(String name, ImageOperator operator) {
+    ImageView image = TestImages.copy(input);
+    Benchmarks.report(
+        name + ", " + size,
+        Benchmarks.millisPerRun(
+            WARMUPS,
+            RUNS,
+            () -> {
+              ImageView output = operator.apply(image, pool);
+              if (output.buffer != image.buffer) {
+                pool.release(output.buffer);
+              }
+            }));
+  }
+
+  @Test
+  public void boxBlur() {
+    run("Box blur", new BoxBlurOperator());
+  }
+
+  @Test
+  public void downsample() {
+    run("Downsample", new DownsampleOperator());
+  }
+
+  @Test
+  public void threshold() {
+    run("Threshold", new ThresholdOperator(128));
+  }
+
+  @Test
+  public void histogram() {
+    run("Histogram", new HistogramOperator());
+  }
+
+  @Test
+  public void edgeDetector() {
+    EdgeDetector serial = new EdgeDetector(0);
+    EdgeDetector parallel = new EdgeDetector();
+    try {
+      run("Sobel, calling thread only", serial);
+      run("Sobel, all cores", parallel);
+    } finally {
+      serial.shutdown();
+      parallel.shutdown();
+    }
+  }
+
+  @Test
+  public void mixedSizeChain() {
+    EdgeDetector edgeDetector = new EdgeDetector();
+    ImageOperatorChain chain =
+        new ImageOperatorChain(new BoxBlurOperator(), new DownsampleOperator(), edgeDetector);
+    try {
+      run("Blur, downsample, Sobel, pooled", chain);
+      // Every buffer newly allocated, as when the pool dropped buffers of other sizes.
+      Benchmarks.report(
+          "Blur, downsample, Sobel, allocating, " + size,
+          Benchmarks.millisPerRun(
+              WARMUPS, RUNS, () -> chain.apply(input, new ImageBufferPool(1))));
+    } finally {
+      edgeDetector.shutdown();
+    }
+  }
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright 2018 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.google.ar.core.examples.java.computervision;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import org.junit.After;
+import org.junit.Test;
+
+/** Chains operators and checks that buffers go back to the pool. */
+public class ImageOperatorChainTest {
+
+  static final int WIDTH = 640;
+  static final int HEIGHT = 480;
+
+  /** A pool that remembers every distinct buffer it has handed out. */
+  static class TrackingPool extends ImageBufferPool {
+    final Set<ByteBuffer> acquired = Collections.newSetFromMap(new IdentityHashMap<>());
+
+    TrackingPool(int maxPooled) {
+      super(maxPooled);
+    }
+
+    @Override
+    public synchronized ByteBuffer acquire(int size) {
+      ByteBuffer buffer = super.acquire(size);
+      acquired.add(buffer);
+      return buffer;
+    }
+  }
+
+  private final EdgeDetector edgeDetector = new EdgeDetector(0);
+
+  @After
+  public void tearDown() {
+    edgeDetector.shutdown();
+  }
+
+  @Test
+  public void operators_runInOrderOnPreviousOutput() {
+    List<String> calls = new ArrayList<>();
+    ImageOperatorChain chain =
+        new ImageOperatorChain(
+            (input, pool) -> {
+              calls.add("first " + input.width);
+              return new DownsampleOperator().apply(input, pool);
+            },
+            (input, pool) -> {
+              calls.add("second " + input.width);
+              return input;
+            });
+
+    ImageView output = chain.apply(TestImages.random(8, 8, 1), new ImageBufferPool(2));
+
+    assertEquals(4, output.width);
+    assertEquals(Arrays.asList("first 8", "second 4"), calls);
+  }
+
+  @Test
+  public void mixedSizeChain_reusesOneBufferPerStep() {
+    TrackingPool pool = new TrackingPool(4);
+    ImageOperatorChain chain =
+        new ImageOperatorChain(new BoxBlurOperator(), new DownsampleOperator(), edgeDetector);
+    ImageView input = TestImages.random(WIDTH, HEIGHT, 2);
+    Set<ByteBuffer> outputs = Collections.newSetFromMap(new IdentityHashMap<>());
+
+    for (int frame = 0; frame < 50; frame++) {
+      ImageView output = chain.apply(input, pool);
+      outputs.add(output.buffer);
+      pool.release(output.buffer);
+    }
+
+    // One buffer each for the blurred, downsampled and Sobel images, however many frames.
+    assertEquals(3, pool.acquired.size());
+    assertEquals(1, outputs.size());
+  }
+
+  @Test
+  public void inPlaceSteps_neverReleaseChainInput() {
+    ImageBufferPool pool = new ImageBufferPool(2);
+    ImageView input = TestImages.random(16, 16, 3);
+    ImageOperatorChain chain =
+        new ImageOperatorChain(new ThresholdOperator(64), new HistogramOperator());
+
+    assertSame(input, chain.apply(input, pool));
+    assertNotSame(input.buffer, pool.acquire(16 * 16));
+  }
+
+  @Test
+  public void failure_releasesIntermediateOutput() {
+    TrackingPool pool = new TrackingPool(2);
+    ImageOperatorChain chain =
+        new ImageOperatorChain(
+            new BoxBlurOperator(),
+            (input, unused) -> {
+              throw new IllegalStateException("failed");
+            });
+    try {
+      chain.apply(TestImages.random(16, 16, 4), pool);
+      fail();
+    } catch (IllegalStateException expected) {
+      // The blurred image was released on the way out.
+    }
+    ByteBuffer blurred = pool.acquired.iterator().next();
+
+    assertSame(blurred, pool.acquire(16 * 16));
+  }
+
+  @Test
+  public void nestedChain_isAnOperator() {
+    ImageBufferPool pool = new ImageBufferPool(2);
+    ImageView input = TestImages.random(32, 32, 5);
+    ImageOperatorChain inner = new ImageOperatorChain(new BoxBlurOperator());
+    ImageOperatorChain outer = new ImageOperatorChain(inner, new DownsampleOperator());
+
+    ImageView expected =
+        new DownsampleOperator().apply(new BoxBlurOperator().apply(input, pool), pool);
+    ImageView output = outer.apply(input, new ImageBufferPool(2));
+
+    assertEquals(expected.buffer, output.buffer);
+  }
+}
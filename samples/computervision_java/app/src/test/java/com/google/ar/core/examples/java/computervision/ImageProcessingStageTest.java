@@ -0,0 +1,103 @@
+/*
+ * Copyright 2018 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.google.ar.core.examples.java.computervision;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Test;
+
+/** Runs chains through {@link ImageProcessingStage} as the activity does. */
+public class ImageProcessingStageTest {
+
+  private static final long TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(5);
+
+  private final EdgeDetector edgeDetector = new EdgeDetector(0);
+  private final ImageProcessingStage stage =
+      new ImageProcessingStage(
+          new ImageOperatorChain(new BoxBlurOperator(), new DownsampleOperator(), edgeDetector));
+
+  @After
+  public void tearDown() {
+    stage.stop();
+    edgeDetector.shutdown();
+  }
+
+  /** Submits a direct copy of {@code image} and waits for its result. */
+  private ImageProcessingStage.Result process(ImageView image) throws Exception {
+    ByteBuffer pixels = ByteBuffer.allocateDirect(image.buffer.capacity());
+    pixels.put(image.buffer.duplicate()).flip();
+    assertTrue(stage.submit(image.width, image.height, image.stride, pixels));
+    long deadline = System.nanoTime() + TIMEOUT_NANOS;
+    ImageProcessingStage.Result result;
+    while ((result = stage.pollResult()) == null) {
+      assertTrue("Timed out", System.nanoTime() < deadline);
+      Thread.sleep(1);
+    }
+    return result;
+  }
+
+  @Test
+  public void mixedSizeChain_reusesResultBuffers() throws Exception {
+    stage.start();
+    ImageView image =
+        TestImages.random(ImageOperatorChainTest.WIDTH, ImageOperatorChainTest.HEIGHT, 1);
+    Set<ByteBuffer> buffers = Collections.newSetFromMap(new IdentityHashMap<>());
+
+    for (int frame = 0; frame < 50; frame++) {
+      ImageProcessingStage.Result result = process(image);
+      assertEquals(ImageOperatorChainTest.WIDTH / 2, result.width);
+      assertEquals(ImageOperatorChainTest.HEIGHT / 2, result.height);
+      buffers.add(result.buffer);
+      stage.releaseResult(result);
+    }
+
+    assertEquals(50, stage.getProcessedCount());
+    assertTrue("Distinct result buffers: " + buffers.size(), buffers.size() <= 2);
+  }
+
+  @Test
+  public void resolutionChange_givesResultsOfNewSize() throws Exception {
+    stage.start();
+    stage.releaseResult(process(TestImages.random(64, 48, 2)));
+
+    ImageProcessingStage.Result result = process(TestImages.random(32, 24, 3));
+
+    assertEquals(16, result.width);
+    assertEquals(12, result.height);
+    assertEquals(16 * 12, result.buffer.capacity());
+  }
+
+  @Test
+  public void paddedInput_givesPackedResult() throws Exception {
+    stage.start();
+    ImageView packed = TestImages.random(40, 30, 4);
+    ImageView padded = TestImages.of(40, 30, 64, true, TestImages.pixels(packed));
+
+    ImageProcessingStage.Result expected = process(packed);
+    ImageProcessingStage.Result result = process(padded);
+
+    assertEquals(expected.buffer, result.buffer);
+  }
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright 2018 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.google.ar.core.examples.java.computervision;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+/** Synthetic grayscale images for the operator tests and benchmarks. */
+final class TestImages {
+
+  /** Value of the row padding bytes, which operators must neither read nor write. */
+  static final byte PADDING = (byte) 0xEE;
+
+  private TestImages() {}
+
+  /**
+   * An image with rows {@code stride} bytes apart, from {@code pixels} given row by row without
+   * padding.
+   */
+  static ImageView of(int width, int height, int stride, boolean direct, int... pixels) {
+    ByteBuffer buffer =
+        direct ? ByteBuffer.allocateDirect(stride * height) : ByteBuffer.allocate(stride * height);
+    for (int j = 0; j < height; j++) {
+      for (int i = 0; i < stride; i++) {
+        buffer.put(j * stride + i, i < width ? (byte) pixels[j * width + i] : PADDING);
+      }
+    }
+    return ImageView.grayscale(width, height, stride, buffer);
+  }
+
+  /** A packed heap image of {@code width} by {@code height} pixels from 0 to 127. */
+  static ImageView random(int width, int height, long seed) {
+    Random random = new Random(seed);
+    int[] pixels = new int[width * height];
+    for (int i = 0; i < pixels.length; i++) {
+      pixels[i] = random.nextInt(128);
+    }
+    return of(width, height, width, false, pixels);
+  }
+
+  /** A copy of {@code image} with packed rows, in a heap buffer. */
+  static ImageView copy(ImageView image) {
+    ByteBuffer buffer = ByteBuffer.allocate(image.width * image.height);
+    for (int j = 0; j < image.height; j++) {
+      for (int i = 0; i < image.width; i++) {
+        buffer.put(j * image.width + i, (byte) image.get(i, j));
+      }
+    }
+    return ImageView.grayscale(image.width, image.height, image.width, buffer);
+  }
+
+  /** The pixels of {@code image}, row by row without padding. */
+  static int[] pixels(ImageView image) {
+    int[] pixels = new int[image.width * image.height];
+    for (int j = 0; j < image.height; j++) {
+      for (int i = 0; i < image.width; i++) {
+        pixels[j * image.width + i] = image.get(i, j);
+      }
+    }
+    return pixels;
+  }
+
+  /** The padding bytes of {@code image}'s rows are all still {@link #PADDING}. */
+  static boolean paddingIntact(ImageView image) {
+    for (int j = 0; j < image.height; j++) {
+      for (int i = image.width; i < image.stride; i++) {
+        if (image.buffer.get(j * image.stride + i) != PADDING) {
+          return false;
+        }
+      }
+    }
+    return true;
+  }
+}
@@ -0,0 +1,154 @@
+/*
+ * Copyright 2018 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.google.ar.core.examples.java.computervision;
+
+import static org.junit.Assert.assertEquals;
+
+import java.nio.ByteBuffer;
+import org.junit.Test;
+
+/** Checks the buffer layout of pyramid and NV12 images from {@link TextureReader}. */
+public class TextureReaderImageTest {
+
+  private static final int WIDTH = 640;
+  private static final int HEIGHT = 480;
+
+  /** An image whose buffer is exactly as large as the reader reads back. */
+  private static TextureReaderImage image(int width, int height, int format, int levelCount) {
+    int size =
+        width
+            * TextureReaderImage.getBufferRows(format, height, levelCount)
+            * TextureReaderImage.getBytesPerPixel(format);
+    return new TextureReaderImage(width, height, format, levelCount, ByteBuffer.allocate(size));
+  }
+
+  @Test
+  public void rowStride_coversOneRowOfLevelZero() {
+    assertEquals(WIDTH, image(WIDTH, HEIGHT, TextureReaderImage.IMAGE_FORMAT_I8, 1).getRowStride());
+    assertEquals(
+        4 * WIDTH, image(WIDTH, HEIGHT, TextureReaderImage.IMAGE_FORMAT_RGBA, 1).getRowStride());
+    assertEquals(
+        WIDTH, image(WIDTH, HEIGHT, TextureReaderImage.IMAGE_FORMAT_NV12, 1).getRowStride());
+  }
+
+  @Test
+  public void levels_areSideBySideBelowLevelZero() {
+    TextureReaderImage gray = image(WIDTH, HEIGHT, TextureReaderImage.IMAGE_FORMAT_I8, 4);
+    TextureReaderImage rgba = image(WIDTH, HEIGHT, TextureReaderImage.IMAGE_FORMAT_RGBA, 4);
+
+    assertEquals(HEIGHT + HEIGHT / 2, TextureReaderImage.getBufferRows(gray.format, HEIGHT, 4));
+    assertEquals(0, gray.getLevelOffset(0));
+    assertEquals(WIDTH * HEIGHT, gray.getLevelOffset(1));
+    assertEquals(WIDTH * HEIGHT + 320, gray.getLevelOffset(2));
+    assertEquals(WIDTH * HEIGHT + 320 + 160, gray.getLevelOffset(3));
+    assertEquals(4 * WIDTH * HEIGHT + 4 * 320, rgba.getLevelOffset(2));
+    assertEquals(160, gray.getLevelWidth(2));
+    assertEquals(120, gray.getLevelHeight(2));
+  }
+
+  @Test
+  public void levels_fitTheBufferWithoutOverlapping() {
+    int width = 1280;
+    int height = 720;
+    int levelCount = TextureReaderImage.getMaxLevelCount(width, height);
+    TextureReaderImage image =
+        image(width, height, TextureReaderImage.IMAGE_FORMAT_I8, levelCount);
+
+    // Fill every level with its number; a level overlapping an earlier one would overwrite it.
+    for (int level = 0; level < levelCount; level++) {
+      ImageView view = ImageView.ofLevel(image, level);
+      for (int j = 0; j < view.height; j++) {
+        for (int i = 0; i < view.width; i++) {
+          view.buffer.put(j * view.stride + i, (byte) level);
+        }
+      }
+    }
+    for (int level = 0; level < levelCount; level++) {
+      ImageView view = ImageView.ofLevel(image, level);
+      assertEquals(width >> level, view.width);
+      assertEquals(height >> level, view.height);
+      for (int j = 0; j < view.height; j++) {
+        for (int i = 0; i < view.width; i++) {
+          assertEquals("level " + level, level, view.get(i, j));
+        }
+      }
+    }
+  }
+
+  @Test
+  public void maxLevelCount_endsAtOnePixel() {
+    assertEquals(9, TextureReaderImage.getMaxLevelCount(WIDTH, HEIGHT));
+    assertEquals(1, TextureReaderImage.getMaxLevelCount(1, 100));
+    assertEquals(2, TextureReaderImage.getMaxLevelCount(2, 3));
+  }
+
+  @Test
+  public void nv12_chromaPlaneFollowsLumaPlane() {
+    TextureReaderImage image = image(WIDTH, HEIGHT, TextureReaderImage.IMAGE_FORMAT_NV12, 1);
+
+    assertEquals(HEIGHT + HEIGHT / 2, TextureReaderImage.getBufferRows(image.format, HEIGHT, 1));
+    assertEquals(WIDTH * HEIGHT, image.getChromaOffset());
+    // Interleaved U and V for each 2x2 block: a full row of bytes for every two luma rows.
+    assertEquals(image.buffer.capacity(), image.getChromaOffset() + WIDTH * HEIGHT / 2);
+
+    ImageView luma = ImageView.of(image);
+    assertEquals(ImageView.FORMAT_I8, luma.format);
+    assertEquals(WIDTH, luma.stride);
+    assertEquals(HEIGHT, luma.height);
+  }
+
+  @Test
+  public void nv12_oddHeight_roundsChromaRowsUp() {
+    assertEquals(
+        5 + 3, TextureReaderImage.getBufferRows(TextureReaderImage.IMAGE_FORMAT_NV12, 5, 1));
+  }
+
+  @Test
+  public void plainImage_hasNoExtraRows() {
+    assertEquals(
+        HEIGHT, TextureReaderImage.getBufferRows(TextureReaderImage.IMAGE_FORMAT_I8, HEIGHT, 1));
+  }
+
+  @Test(expected = RuntimeException.class)
+  public void nv12_rejectsPyramid() {
+    image(WIDTH, HEIGHT, TextureReaderImage.IMAGE_FORMAT_NV12, 2);
+  }
+
+  @Test(expected = RuntimeException.class)
+  public void tooManyLevels_areRejected() {
+    image(WIDTH, HEIGHT, TextureReaderImage.IMAGE_FORMAT_I8, 10);
+  }
+
+  @Test
+  public void readbackRequest_defaultsToWholeImage() {
+    ReadbackRequest request = new ReadbackRequest(WIDTH, HEIGHT);
+
+    assertEquals(1, request.getLevelCount());
+    assertEquals(0, request.getLeft(), 0);
+    assertEquals(0, request.getTop(), 0);
+    assertEquals(1, request.getRight(), 0);
+    assertEquals(1, request.getBottom(), 0);
+
+    request.setLevelCount(3).setRegionOfInterest(.25f, .5f, .75f, 1);
+    assertEquals(3, request.getLevelCount());
+    assertEquals(.25f, request.getLeft(), 0);
+    assertEquals(.5f, request.getTop(), 0);
+    assertEquals(.75f, request.getRight(), 0);
+    assertEquals(1, request.getBottom(), 0);
+  }
+}
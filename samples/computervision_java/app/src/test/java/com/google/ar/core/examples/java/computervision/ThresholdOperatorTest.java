@@ -0,0 +1,71 @@
+/*
+ * Copyright 2018 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.google.ar.core.examples.java.computervision;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/** Applies {@link ThresholdOperator} to small synthetic images. */
+public class ThresholdOperatorTest {
+
+  private final ThresholdOperator operator = new ThresholdOperator(100);
+  private final ImageBufferPool pool = new ImageBufferPool(2);
+
+  @Test
+  public void heapImage_isBinarizedInPlace() {
+    ImageView input = TestImages.of(4, 1, 4, false, 0, 99, 100, 255);
+
+    ImageView output = operator.apply(input, pool);
+
+    assertSame(input, output);
+    assertEquals(0, output.get(0, 0));
+    assertEquals(0, output.get(1, 0));
+    assertEquals(255, output.get(2, 0));
+    assertEquals(255, output.get(3, 0));
+  }
+
+  @Test
+  public void directPaddedImage_keepsPadding() {
+    ImageView input =
+        TestImages.of(
+            2, 2, 5, true,
+            150, 50,
+            50, 150);
+
+    ImageView output = operator.apply(input, pool);
+
+    assertSame(input, output);
+    assertEquals(255, output.get(0, 0));
+    assertEquals(0, output.get(1, 0));
+    assertEquals(0, output.get(0, 1));
+    assertEquals(255, output.get(1, 1));
+    assertTrue(TestImages.paddingIntact(input));
+  }
+
+  @Test
+  public void heapPaddedImage_keepsPadding() {
+    ImageView input = TestImages.of(3, 2, 4, false, 1, 200, 3, 200, 5, 200);
+
+    operator.apply(input, pool);
+
+    assertTrue(TestImages.paddingIntact(input));
+  }
+}
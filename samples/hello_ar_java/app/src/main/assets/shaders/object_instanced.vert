@@ -0,0 +1,40 @@
+#version 300 es
+/*
+ * Copyright 2017 Google Inc. All Rights Reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+// Instanced variant of object.vert: the model matrix and color come per instance.
+
+uniform mat4 u_View;
+uniform mat4 u_ViewProjection;
+
+in vec4 a_Position;
+in vec3 a_Normal;
+in vec2 a_TexCoord;
+in mat4 a_ModelMatrix;
+in vec4 a_ObjColor;
+
+out vec3 v_ViewPosition;
+out vec3 v_ViewNormal;
+out vec2 v_TexCoord;
+flat out vec4 v_ObjColor;
+
+void main() {
+    mat4 modelView = u_View * a_ModelMatrix;
+    v_ViewPosition = (modelView * a_Position).xyz;
+    v_ViewNormal = normalize((modelView * vec4(a_Normal, 0.0)).xyz);
+    v_TexCoord = a_TexCoord;
+    v_ObjColor = a_ObjColor;
+    gl_Position = u_ViewProjection * (a_ModelMatrix * a_Position);
+}
@@ -18,8 +18,10 @@ import android.content.Context;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 import android.opengl.GLES20;
+import android.opengl.GLES30;
 import android.opengl.GLUtils;
 import android.opengl.Matrix;
+import android.util.Log;
 import de.javagl.obj.Obj;
 import de.javagl.obj.ObjData;
 import de.javagl.obj.ObjReader;
@@ -51,10 +53,19 @@ public class ObjectRenderer {
   // Shader names.
   private static final String VERTEX_SHADER_NAME = "shaders/object.vert";
   private static final String FRAGMENT_SHADER_NAME = "shaders/object.frag";
+  private static final String INSTANCED_VERTEX_SHADER_NAME = "shaders/object_instanced.vert";
+  private static final String INSTANCED_FRAGMENT_SHADER_NAME = "shaders/object_instanced.frag";
 
   private static final int COORDS_PER_VERTEX = 3;
   private static final float[] DEFAULT_COLOR = new float[] {0f, 0f, 0f, 0f};
 
+  // Per-instance data for drawInstances: a column-major model matrix, then a color.
+  private static final int FLOATS_PER_MATRIX = 16;
+  private static final int FLOATS_PER_COLOR = 4;
+  private static final int FLOATS_PER_INSTANCE = FLOATS_PER_MATRIX + FLOATS_PER_COLOR;
+  private static final int BYTES_PER_INSTANCE = 4 * FLOATS_PER_INSTANCE;
+  private static final int INITIAL_INSTANCES = 64;
+
   // Note: the last component must be zero to avoid applying the translational part of the matrix.
   private static final float[] LIGHT_DIRECTION = new float[] {0.250f, 0.866f, 0.433f, 0.0f};
   private final float[] viewLightDirection = new float[4];
@@ -94,12 +105,30 @@ public class ObjectRenderer {
   // Shader location: object color property (to change the primary color of the object).
   private int colorUniform;
 
+  // Instanced program, only created when the context is OpenGL ES 3.0 or later.
+  private int instancedProgram;
+  private int instancedViewUniform;
+  private int instancedViewProjectionUniform;
+  private int instancedPositionAttribute;
+  private int instancedNormalAttribute;
+  private int instancedTexCoordAttribute;
+  private int instancedModelMatrixAttribute;
+  private int instancedColorAttribute;
+  private int instancedTextureUniform;
+  private int instancedLightingParametersUniform;
+  private int instancedMaterialParametersUniform;
+  private int instancedColorCorrectionParameterUniform;
+  private int instanceBufferId;
+  private int instanceBufferCapacity;
+  private FloatBuffer instanceData;
+
   private BlendMode blendMode = null;
 
   // Temporary matrices allocated here to reduce number of allocations for each frame.
   private final float[] modelMatrix = new float[16];
   private final float[] modelViewMatrix = new float[16];
   private final float[] modelViewProjectionMatrix = new float[16];
+  private final float[] viewProjectionMatrix = new float[16];
 
   // Set some default material properties to use for lighting.
   private float ambient = 0.3f;
@@ -228,9 +257,77 @@ public class ObjectRenderer {
 
     ShaderUtil.checkGLError(TAG, "OBJ buffer load");
 
+    if (isGles3OrLater()) {
+      try {
+        createInstancedProgram(context);
+      } catch (RuntimeException e) {
+        Log.w(TAG, "Instanced rendering unavailable, drawing instances one by one", e);
+        instancedProgram = 0;
+      }
+    }
+
     Matrix.setIdentityM(modelMatrix, 0);
   }
 
+  private void createInstancedProgram(Context context) throws IOException {
+    final int vertexShader =
+        ShaderUtil.loadGLShader(
+            TAG, context, GLES20.GL_VERTEX_SHADER, INSTANCED_VERTEX_SHADER_NAME);
+    final int fragmentShader =
+        ShaderUtil.loadGLShader(
+            TAG, context, GLES20.GL_FRAGMENT_SHADER, INSTANCED_FRAGMENT_SHADER_NAME);
+
+    instancedProgram = GLES20.glCreateProgram();
+    GLES20.glAttachShader(instancedProgram, vertexShader);
+    GLES20.glAttachShader(instancedProgram, fragmentShader);
+    GLES20.glLinkProgram(instancedProgram);
+    final int[] linkStatus = new int[1];
+    GLES20.glGetProgramiv(instancedProgram, GLES20.GL_LINK_STATUS, linkStatus, 0);
+    if (linkStatus[0] == 0) {
+      String log = GLES20.glGetProgramInfoLog(instancedProgram);
+      GLES20.glDeleteProgram(instancedProgram);
+      throw new RuntimeException("Error linking instanced program: " + log);
+    }
+
+    instancedViewUniform = GLES20.glGetUniformLocation(instancedProgram, "u_View");
+    instancedViewProjectionUniform =
+        GLES20.glGetUniformLocation(instancedProgram, "u_ViewProjection");
+
+    instancedPositionAttribute = GLES20.glGetAttribLocation(instancedProgram, "a_Position");
+    instancedNormalAttribute = GLES20.glGetAttribLocation(instancedProgram, "a_Normal");
+    instancedTexCoordAttribute = GLES20.glGetAttribLocation(instancedProgram, "a_TexCoord");
+    // A mat4 attribute takes four consecutive locations, one per column.
+    instancedModelMatrixAttribute = GLES20.glGetAttribLocation(instancedProgram, "a_ModelMatrix");
+    instancedColorAttribute = GLES20.glGetAttribLocation(instancedProgram, "a_ObjColor");
+
+    instancedTextureUniform = GLES20.glGetUniformLocation(instancedProgram, "u_Texture");
+    instancedLightingParametersUniform =
+        GLES20.glGetUniformLocation(instancedProgram, "u_LightingParameters");
+    instancedMaterialParametersUniform =
+        GLES20.glGetUniformLocation(instancedProgram, "u_MaterialParameters");
+    instancedColorCorrectionParameterUniform =
+        GLES20.glGetUniformLocation(instancedProgram, "u_ColorCorrectionParameters");
+
+    final int[] buffers = new int[1];
+    GLES20.glGenBuffers(1, buffers, 0);
+    instanceBufferId = buffers[0];
+    instanceBufferCapacity = 0;
+
+    ShaderUtil.checkGLError(TAG, "Instanced program creation");
+  }
+
+  /** Whether the current context runs OpenGL ES 3.0 or later, which instancing needs. */
+  private static boolean isGles3OrLater() {
+    // The version string is "OpenGL ES N.M" followed by vendor information.
+    String version = GLES20.glGetString(GLES20.GL_VERSION);
+    String prefix = "OpenGL ES ";
+    return version != null
+        && version.startsWith(prefix)
+        && version.length() > prefix.length()
+        && Character.isDigit(version.charAt(prefix.length()))
+        && version.charAt(prefix.length()) >= '3';
+  }
+
   /**
    * Selects the blending mode for rendering.
    *
@@ -346,6 +443,260 @@ public class ObjectRenderer {
     GLES20.glEnableVertexAttribArray(normalAttribute);
     GLES20.glEnableVertexAttribArray(texCoordAttribute);
 
+    enableBlending();
+
+    GLES20.glBindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, indexBufferId);
+    GLES20.glDrawElements(GLES20.GL_TRIANGLES, indexCount, GLES20.GL_UNSIGNED_SHORT, 0);
+    GLES20.glBindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, 0);
+
+    disableBlending();
+
+    // Disable vertex arrays
+    GLES20.glDisableVertexAttribArray(positionAttribute);
+    GLES20.glDisableVertexAttribArray(normalAttribute);
+    GLES20.glDisableVertexAttribArray(texCoordAttribute);
+
+    GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, 0);
+
+    ShaderUtil.checkGLError(TAG, "After draw");
+  }
+
+  /**
+   * Draws the model once per instance, each with its own transform and color, in a single draw
+   * call on OpenGL ES 3.0 and later. On OpenGL ES 2.0 the program, texture and vertex state are
+   * still set only once, and each instance only changes its uniforms.
+   *
+   * <p>Lighting is computed from the camera view alone, which matches {@link #draw} for
+   * instances that are translated and uniformly scaled.
+   *
+   * @param cameraView A 4x4 view matrix, in column-major order.
+   * @param cameraPerspective A 4x4 projection matrix, in column-major order.
+   * @param modelMatrices {@code count} column-major 4x4 model-to-world matrices, back to back,
+   *     with any scaling already applied.
+   * @param colors {@code count} RGBA colors, back to back, as for {@code objColor} in {@link
+   *     #draw(float[], float[], float[], float[])}.
+   * @see #setModelMatrix(float[], int, float, float, float, float)
+   */
+  public void drawInstances(
+      float[] cameraView,
+      float[] cameraPerspective,
+      float[] colorCorrectionRgba,
+      float[] modelMatrices,
+      float[] colors,
+      int count) {
+    if (count <= 0) {
+      return;
+    }
+    ShaderUtil.checkGLError(TAG, "Before draw instances");
+
+    // Model matrices only translate and scale uniformly, so the light direction in view space
+    // does not depend on them.
+    Matrix.multiplyMV(viewLightDirection, 0, cameraView, 0, LIGHT_DIRECTION, 0);
+    normalizeVec3(viewLightDirection);
+
+    if (instancedProgram != 0) {
+      drawInstanced(
+          cameraView, cameraPerspective, colorCorrectionRgba, modelMatrices, colors, count);
+    } else {
+      drawInstancesOneByOne(
+          cameraView, cameraPerspective, colorCorrectionRgba, modelMatrices, colors, count);
+    }
+
+    ShaderUtil.checkGLError(TAG, "After draw instances");
+  }
+
+  /**
+   * Writes a model matrix that scales by {@code scaleFactor} and translates to {@code x, y, z}
+   * into slot {@code index} of {@code modelMatrices}, for {@link #drawInstances}.
+   */
+  public static void setModelMatrix(
+      float[] modelMatrices, int index, float x, float y, float z, float scaleFactor) {
+    int offset = index * FLOATS_PER_MATRIX;
+    Matrix.setIdentityM(modelMatrices, offset);
+    modelMatrices[offset] = scaleFactor;
+    modelMatrices[offset + 5] = scaleFactor;
+    modelMatrices[offset + 10] = scaleFactor;
+    modelMatrices[offset + 12] = x;
+    modelMatrices[offset + 13] = y;
+    modelMatrices[offset + 14] = z;
+  }
+
+  private void drawInstanced(
+      float[] cameraView,
+      float[] cameraPerspective,
+      float[] colorCorrectionRgba,
+      float[] modelMatrices,
+      float[] colors,
+      int count) {
+    uploadInstances(modelMatrices, colors, count);
+
+    GLES20.glUseProgram(instancedProgram);
+
+    GLES20.glUniform4f(
+        instancedLightingParametersUniform,
+        viewLightDirection[0],
+        viewLightDirection[1],
+        viewLightDirection[2],
+        1.f);
+    GLES20.glUniform4fv(instancedColorCorrectionParameterUniform, 1, colorCorrectionRgba, 0);
+    GLES20.glUniform4f(
+        instancedMaterialParametersUniform, ambient, diffuse, specular, specularPower);
+
+    GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
+    GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, textures[0]);
+    GLES20.glUniform1i(instancedTextureUniform, 0);
+
+    Matrix.multiplyMM(viewProjectionMatrix, 0, cameraPerspective, 0, cameraView, 0);
+    GLES20.glUniformMatrix4fv(instancedViewUniform, 1, false, cameraView, 0);
+    GLES20.glUniformMatrix4fv(instancedViewProjectionUniform, 1, false, viewProjectionMatrix, 0);
+
+    // Per-vertex attributes.
+    GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, vertexBufferId);
+    GLES20.glVertexAttribPointer(
+        instancedPositionAttribute,
+        COORDS_PER_VERTEX,
+        GLES20.GL_FLOAT,
+        false,
+        0,
+        verticesBaseAddress);
+    GLES20.glVertexAttribPointer(
+        instancedNormalAttribute, 3, GLES20.GL_FLOAT, false, 0, normalsBaseAddress);
+    GLES20.glVertexAttribPointer(
+        instancedTexCoordAttribute, 2, GLES20.GL_FLOAT, false, 0, texCoordsBaseAddress);
+    GLES20.glEnableVertexAttribArray(instancedPositionAttribute);
+    GLES20.glEnableVertexAttribArray(instancedNormalAttribute);
+    GLES20.glEnableVertexAttribArray(instancedTexCoordAttribute);
+
+    // Per-instance attributes: four matrix columns, then the color.
+    GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, instanceBufferId);
+    for (int column = 0; column < 4; column++) {
+      int attribute = instancedModelMatrixAttribute + column;
+      GLES20.glVertexAttribPointer(
+          attribute, 4, GLES20.GL_FLOAT, false, BYTES_PER_INSTANCE, 4 * 4 * column);
+      GLES20.glEnableVertexAttribArray(attribute);
+      GLES30.glVertexAttribDivisor(attribute, 1);
+    }
+    GLES20.glVertexAttribPointer(
+        instancedColorAttribute,
+        FLOATS_PER_COLOR,
+        GLES20.GL_FLOAT,
+        false,
+        BYTES_PER_INSTANCE,
+        4 * FLOATS_PER_MATRIX);
+    GLES20.glEnableVertexAttribArray(instancedColorAttribute);
+    GLES30.glVertexAttribDivisor(instancedColorAttribute, 1);
+    GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, 0);
+
+    enableBlending();
+
+    GLES20.glBindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, indexBufferId);
+    GLES30.glDrawElementsInstanced(
+        GLES20.GL_TRIANGLES, indexCount, GLES20.GL_UNSIGNED_SHORT, 0, count);
+    GLES20.glBindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, 0);
+
+    disableBlending();
+
+    // Reset the divisors so the attribute slots behave normally for other programs.
+    for (int column = 0; column < 4; column++) {
+      GLES30.glVertexAttribDivisor(instancedModelMatrixAttribute + column, 0);
+      GLES20.glDisableVertexAttribArray(instancedModelMatrixAttribute + column);
+    }
+    GLES30.glVertexAttribDivisor(instancedColorAttribute, 0);
+    GLES20.glDisableVertexAttribArray(instancedColorAttribute);
+    GLES20.glDisableVertexAttribArray(instancedPositionAttribute);
+    GLES20.glDisableVertexAttribArray(instancedNormalAttribute);
+    GLES20.glDisableVertexAttribArray(instancedTexCoordAttribute);
+
+    GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, 0);
+  }
+
+  /** Interleaves the instance data and streams it into the instance buffer. */
+  private void uploadInstances(float[] modelMatrices, float[] colors, int count) {
+    int floats = count * FLOATS_PER_INSTANCE;
+    if (instanceData == null || instanceData.capacity() < floats) {
+      int capacity = Math.max(INITIAL_INSTANCES, Integer.highestOneBit(count - 1) << 1);
+      instanceData =
+          ByteBuffer.allocateDirect(capacity * BYTES_PER_INSTANCE)
+              .order(ByteOrder.nativeOrder())
+              .asFloatBuffer();
+    }
+    instanceData.clear();
+    for (int i = 0; i < count; i++) {
+      instanceData.put(modelMatrices, i * FLOATS_PER_MATRIX, FLOATS_PER_MATRIX);
+      instanceData.put(colors, i * FLOATS_PER_COLOR, FLOATS_PER_COLOR);
+    }
+    instanceData.flip();
+
+    GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, instanceBufferId);
+    int bytes = floats * 4;
+    instanceBufferCapacity = Math.max(instanceBufferCapacity, instanceData.capacity() * 4);
+    // Respecifying the store orphans the previous contents, so the driver does not wait for
+    // draws that still read them.
+    GLES20.glBufferData(
+        GLES20.GL_ARRAY_BUFFER, instanceBufferCapacity, null, GLES20.GL_STREAM_DRAW);
+    GLES20.glBufferSubData(GLES20.GL_ARRAY_BUFFER, 0, bytes, instanceData);
+    GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, 0);
+  }
+
+  /** OpenGL ES 2.0 fallback: shared state is set once, each instance only sets uniforms. */
+  private void drawInstancesOneByOne(
+      float[] cameraView,
+      float[] cameraPerspective,
+      float[] colorCorrectionRgba,
+      float[] modelMatrices,
+      float[] colors,
+      int count) {
+    GLES20.glUseProgram(program);
+
+    GLES20.glUniform4f(
+        lightingParametersUniform,
+        viewLightDirection[0],
+        viewLightDirection[1],
+        viewLightDirection[2],
+        1.f);
+    GLES20.glUniform4fv(colorCorrectionParameterUniform, 1, colorCorrectionRgba, 0);
+    GLES20.glUniform4f(materialParametersUniform, ambient, diffuse, specular, specularPower);
+
+    GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
+    GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, textures[0]);
+    GLES20.glUniform1i(textureUniform, 0);
+
+    GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, vertexBufferId);
+    GLES20.glVertexAttribPointer(
+        positionAttribute, COORDS_PER_VERTEX, GLES20.GL_FLOAT, false, 0, verticesBaseAddress);
+    GLES20.glVertexAttribPointer(normalAttribute, 3, GLES20.GL_FLOAT, false, 0, normalsBaseAddress);
+    GLES20.glVertexAttribPointer(
+        texCoordAttribute, 2, GLES20.GL_FLOAT, false, 0, texCoordsBaseAddress);
+    GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, 0);
+
+    GLES20.glEnableVertexAttribArray(positionAttribute);
+    GLES20.glEnableVertexAttribArray(normalAttribute);
+    GLES20.glEnableVertexAttribArray(texCoordAttribute);
+
+    enableBlending();
+    GLES20.glBindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, indexBufferId);
+
+    for (int i = 0; i < count; i++) {
+      Matrix.multiplyMM(modelViewMatrix, 0, cameraView, 0, modelMatrices, i * FLOATS_PER_MATRIX);
+      Matrix.multiplyMM(modelViewProjectionMatrix, 0, cameraPerspective, 0, modelViewMatrix, 0);
+      GLES20.glUniformMatrix4fv(modelViewUniform, 1, false, modelViewMatrix, 0);
+      GLES20.glUniformMatrix4fv(
+          modelViewProjectionUniform, 1, false, modelViewProjectionMatrix, 0);
+      GLES20.glUniform4fv(colorUniform, 1, colors, i * FLOATS_PER_COLOR);
+      GLES20.glDrawElements(GLES20.GL_TRIANGLES, indexCount, GLES20.GL_UNSIGNED_SHORT, 0);
+    }
+
+    GLES20.glBindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, 0);
+    disableBlending();
+
+    GLES20.glDisableVertexAttribArray(positionAttribute);
+    GLES20.glDisableVertexAttribArray(normalAttribute);
+    GLES20.glDisableVertexAttribArray(texCoordAttribute);
+
+    GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, 0);
+  }
+
+  private void enableBlending() {
     if (blendMode != null) {
       GLES20.glDepthMask(false);
       GLES20.glEnable(GLES20.GL_BLEND);
@@ -360,24 +711,13 @@ public class ObjectRenderer {
           break;
       }
     }
+  }
 
-    GLES20.glBindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, indexBufferId);
-    GLES20.glDrawElements(GLES20.GL_TRIANGLES, indexCount, GLES20.GL_UNSIGNED_SHORT, 0);
-    GLES20.glBindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, 0);
-
+  private void disableBlending() {
     if (blendMode != null) {
       GLES20.glDisable(GLES20.GL_BLEND);
       GLES20.glDepthMask(true);
     }
-
-    // Disable vertex arrays
-    GLES20.glDisableVertexAttribArray(positionAttribute);
-    GLES20.glDisableVertexAttribArray(normalAttribute);
-    GLES20.glDisableVertexAttribArray(texCoordAttribute);
-
-    GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, 0);
-
-    ShaderUtil.checkGLError(TAG, "After draw");
   }
 
   private static void normalizeVec3(float[] v) {
@@ -0,0 +1,371 @@
+/*
+ * Copyright 2017 Google Inc. All Rights Reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ar.core.examples.java.common.rendering;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * An octree over a point cloud, used to draw only the part of a large cloud that is in view, at a
+ * level of detail that drops with distance.
+ *
+ * <p>{@link #build} reorders the points so that every leaf is a contiguous range, shuffled so that
+ * any prefix of a leaf is an even subsample of it. {@link #select} then turns a view into a list of
+ * {@code glDrawArrays} ranges: leaves outside the view frustum are skipped, farther leaves draw a
+ * shorter prefix, and the total stays within a point budget.
+ *
+ * <p>Plain Java with no OpenGL calls, so it can be built on any thread. Instances are immutable
+ * after {@link #build} except for the scratch state of {@link #select}, which must only be called
+ * from one thread.
+ */
+public final class PointOctree {
+  public static final int DEFAULT_MAX_LEAF_POINTS = 2048;
+
+  private static final int FLOATS_PER_POINT = 4; // X,Y,Z,confidence.
+  private static final int BYTES_PER_POINT = FLOATS_PER_POINT * Float.SIZE / 8;
+  private static final int MAX_DEPTH = 12;
+  private static final int INITIAL_NODES = 64;
+  // Leaves closer than this are never thinned out, whatever the configured distance.
+  private static final float MIN_LOD_DISTANCE = 1e-3f;
+
+  private final FloatBuffer points;
+  private final int pointCount;
+
+  // Nodes as parallel arrays. Children of a node are stored next to each other.
+  private int nodeCount;
+  private int leafCount;
+  private float[] bounds = new float[INITIAL_NODES * 6]; // min x, y, z, max x, y, z.
+  private int[] first = new int[INITIAL_NODES];
+  private int[] count = new int[INITIAL_NODES];
+  private int[] firstChild = new int[INITIAL_NODES]; // -1 for leaves.
+  private int[] childCount = new int[INITIAL_NODES];
+
+  // Scratch state of select().
+  private final float[] planes = new float[6 * 4];
+  private final int[] stack = new int[8 * MAX_DEPTH + 1];
+
+  private PointOctree(FloatBuffer points, int pointCount) {
+    this.points = points;
+    this.pointCount = pointCount;
+  }
+
+  /** Builds an octree with {@link #DEFAULT_MAX_LEAF_POINTS} points per leaf at most. */
+  public static PointOctree build(FloatBuffer source) {
+    return build(source, DEFAULT_MAX_LEAF_POINTS);
+  }
+
+  /**
+   * Builds an octree over the remaining points of {@code source}, x, y, z, confidence per point.
+   * {@code source} is not modified.
+   */
+  public static PointOctree build(FloatBuffer source, int maxLeafPoints) {
+    int n = source.remaining() / FLOATS_PER_POINT;
+    float[] input = new float[n * FLOATS_PER_POINT];
+    source.duplicate().get(input);
+
+    int[] order = new int[n];
+    for (int i = 0; i < n; i++) {
+      order[i] = i;
+    }
+
+    FloatBuffer points =
+        ByteBuffer.allocateDirect(n * BYTES_PER_POINT)
+            .order(ByteOrder.nativeOrder())
+            .asFloatBuffer();
+    PointOctree octree = new PointOctree(points, n);
+    if (n > 0) {
+      int root = octree.addNode(0, n);
+      octree.fitBounds(root, input, order);
+      // Fixed seed: the same model always gives the same layout.
+      octree.split(root, 0, Math.max(1, maxLeafPoints), input, order, new int[n], new Random(1));
+    }
+
+    for (int i = 0; i < n; i++) {
+      points.put(input, order[i] * FLOATS_PER_POINT, FLOATS_PER_POINT);
+    }
+    points.flip();
+    return octree;
+  }
+
+  /** The reordered points, to be uploaded as is. Every call returns a new view of them. */
+  public FloatBuffer getPoints() {
+    return points.duplicate();
+  }
+
+  public int getPointCount() {
+    return pointCount;
+  }
+
+  /** The most ranges {@link #select} can return. */
+  public int getLeafCount() {
+    return leafCount;
+  }
+
+  /**
+   * Chooses the points to draw for one view.
+   *
+   * @param viewProjection column-major view-projection matrix.
+   * @param cameraPosition camera position in world space.
+   * @param fullDetailDistance leaves up to this far from the camera are drawn in full; beyond it
+   *     the number of points drawn falls with the square of the distance, so the density on screen
+   *     stays about the same.
+   * @param pointBudget the most points to return in total.
+   * @param firsts receives the first point of each range, at least {@link #getLeafCount} long.
+   * @param counts receives the number of points of each range, at least {@link #getLeafCount}
+   *     long.
+   * @return the number of ranges.
+   */
+  public int select(
+      float[] viewProjection,
+      float[] cameraPosition,
+      float fullDetailDistance,
+      int pointBudget,
+      int[] firsts,
+      int[] counts) {
+    if (nodeCount == 0) {
+      return 0;
+    }
+    extractFrustumPlanes(viewProjection, planes);
+    float lodDistance = Math.max(fullDetailDistance, MIN_LOD_DISTANCE);
+
+    int ranges = 0;
+    long total = 0;
+    int top = 0;
+    stack[top++] = 0;
+    while (top > 0) {
+      int node = stack[--top];
+      if (!intersectsFrustum(node)) {
+        continue;
+      }
+      if (firstChild[node] >= 0) {
+        for (int child = firstChild[node] + childCount[node] - 1;
+            child >= firstChild[node];
+            child--) {
+          stack[top++] = child;
+        }
+        continue;
+      }
+      float distance = distanceToBox(node, cameraPosition);
+      int wanted = count[node];
+      if (distance > lodDistance) {
+        float ratio = lodDistance / distance;
+        wanted = Math.max(1, (int) (count[node] * ratio * ratio));
+      }
+      firsts[ranges] = first[node];
+      counts[ranges] = wanted;
+      ranges++;
+      total += wanted;
+    }
+
+    if (total > pointBudget) {
+      float scale = (float) pointBudget / total;
+      int kept = 0;
+      for (int i = 0; i < ranges; i++) {
+        int scaled = (int) (counts[i] * scale);
+        if (scaled > 0) {
+          firsts[kept] = firsts[i];
+          counts[kept] = scaled;
+          kept++;
+        }
+      }
+      ranges = kept;
+    }
+    return mergeAdjacent(firsts, counts, ranges);
+  }
+
+  /** Merges ranges that continue one another, which happens for leaves drawn in full. */
+  private static int mergeAdjacent(int[] firsts, int[] counts, int ranges) {
+    if (ranges == 0) {
+      return 0;
+    }
+    int merged = 0;
+    for (int i = 1; i < ranges; i++) {
+      if (firsts[merged] + counts[merged] == firsts[i]) {
+        counts[merged] += counts[i];
+      } else {
+        merged++;
+        firsts[merged] = firsts[i];
+        counts[merged] = counts[i];
+      }
+    }
+    return merged + 1;
+  }
+
+  private void split(
+      int node,
+      int depth,
+      int maxLeafPoints,
+      float[] input,
+      int[] order,
+      int[] scratch,
+      Random random) {
+    int start = first[node];
+    int n = count[node];
+    // Points that all coincide cannot be split any further.
+    boolean coincident =
+        bounds[node * 6] == bounds[node * 6 + 3]
+            && bounds[node * 6 + 1] == bounds[node * 6 + 4]
+            && bounds[node * 6 + 2] == bounds[node * 6 + 5];
+    if (n <= maxLeafPoints || depth == MAX_DEPTH || coincident) {
+      firstChild[node] = -1;
+      leafCount++;
+      // Shuffle, so that every prefix of the leaf is spread over all of it.
+      for (int i = n - 1; i > 0; i--) {
+        int j = random.nextInt(i + 1);
+        int swap = order[start + i];
+        order[start + i] = order[start + j];
+        order[start + j] = swap;
+      }
+      return;
+    }
+
+    float centerX = (bounds[node * 6] + bounds[node * 6 + 3]) / 2;
+    float centerY = (bounds[node * 6 + 1] + bounds[node * 6 + 4]) / 2;
+    float centerZ = (bounds[node * 6 + 2] + bounds[node * 6 + 5]) / 2;
+
+    // Counting sort of the node's points into octants.
+    int[] octantSizes = new int[8];
+    for (int i = start; i < start + n; i++) {
+      octantSizes[octant(input, order[i], centerX, centerY, centerZ)]++;
+    }
+    int[] octantStarts = new int[8];
+    for (int octant = 1; octant < 8; octant++) {
+      octantStarts[octant] = octantStarts[octant - 1] + octantSizes[octant - 1];
+    }
+    int[] next = octantStarts.clone();
+    for (int i = start; i < start + n; i++) {
+      int point = order[i];
+      scratch[next[octant(input, point, centerX, centerY, centerZ)]++] = point;
+    }
+    System.arraycopy(scratch, 0, order, start, n);
+
+    int children = 0;
+    for (int octant = 0; octant < 8; octant++) {
+      if (octantSizes[octant] > 0) {
+        children++;
+      }
+    }
+    int firstChildNode = nodeCount;
+    for (int octant = 0; octant < 8; octant++) {
+      if (octantSizes[octant] > 0) {
+        int child = addNode(start + octantStarts[octant], octantSizes[octant]);
+        fitBounds(child, input, order);
+      }
+    }
+    firstChild[node] = firstChildNode;
+    childCount[node] = children;
+    for (int child = firstChildNode; child < firstChildNode + children; child++) {
+      split(child, depth + 1, maxLeafPoints, input, order, scratch, random);
+    }
+  }
+
+  private static int octant(
+      float[] input, int point, float centerX, float centerY, float centerZ) {
+    int offset = point * FLOATS_PER_POINT;
+    return (input[offset] >= centerX ? 1 : 0)
+        | (input[offset + 1] >= centerY ? 2 : 0)
+        | (input[offset + 2] >= centerZ ? 4 : 0);
+  }
+
+  private int addNode(int start, int n) {
+    if (nodeCount == first.length) {
+      int capacity = nodeCount * 2;
+      bounds = Arrays.copyOf(bounds, capacity * 6);
+      first = Arrays.copyOf(first, capacity);
+      count = Arrays.copyOf(count, capacity);
+      firstChild = Arrays.copyOf(firstChild, capacity);
+      childCount = Arrays.copyOf(childCount, capacity);
+    }
+    int node = nodeCount++;
+    first[node] = start;
+    count[node] = n;
+    firstChild[node] = -1;
+    childCount[node] = 0;
+    return node;
+  }
+
+  /** Sets the bounds of {@code node} to the tight box around its points. */
+  private void fitBounds(int node, float[] input, int[] order) {
+    float minX = Float.POSITIVE_INFINITY;
+    float minY = Float.POSITIVE_INFINITY;
+    float minZ = Float.POSITIVE_INFINITY;
+    float maxX = Float.NEGATIVE_INFINITY;
+    float maxY = Float.NEGATIVE_INFINITY;
+    float maxZ = Float.NEGATIVE_INFINITY;
+    for (int i = first[node]; i < first[node] + count[node]; i++) {
+      int offset = order[i] * FLOATS_PER_POINT;
+      minX = Math.min(minX, input[offset]);
+      minY = Math.min(minY, input[offset + 1]);
+      minZ = Math.min(minZ, input[offset + 2]);
+      maxX = Math.max(maxX, input[offset]);
+      maxY = Math.max(maxY, input[offset + 1]);
+      maxZ = Math.max(maxZ, input[offset + 2]);
+    }
+    int offset = node * 6;
+    bounds[offset] = minX;
+    bounds[offset + 1] = minY;
+    bounds[offset + 2] = minZ;
+    bounds[offset + 3] = maxX;
+    bounds[offset + 4] = maxY;
+    bounds[offset + 5] = maxZ;
+  }
+
+  /**
+   * Extracts the six clip planes, a x + b y + c z + d >= 0 inside, from a column-major
+   * view-projection matrix.
+   */
+  static void extractFrustumPlanes(float[] m, float[] planes) {
+    for (int plane = 0; plane < 6; plane++) {
+      int row = plane / 2;
+      float sign = plane % 2 == 0 ? 1 : -1;
+      for (int column = 0; column < 4; column++) {
+        planes[plane * 4 + column] = m[column * 4 + 3] + sign * m[column * 4 + row];
+      }
+    }
+  }
+
+  /** False only if the bounds of {@code node} are entirely outside one of the planes. */
+  private boolean intersectsFrustum(int node) {
+    int offset = node * 6;
+    for (int plane = 0; plane < 6; plane++) {
+      float a = planes[plane * 4];
+      float b = planes[plane * 4 + 1];
+      float c = planes[plane * 4 + 2];
+      float d = planes[plane * 4 + 3];
+      // The corner farthest along the plane normal.
+      float x = a >= 0 ? bounds[offset + 3] : bounds[offset];
+      float y = b >= 0 ? bounds[offset + 4] : bounds[offset + 1];
+      float z = c >= 0 ? bounds[offset + 5] : bounds[offset + 2];
+      if (a * x + b * y + c * z + d < 0) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private float distanceToBox(int node, float[] position) {
+    int offset = node * 6;
+    float dx =
+        Math.max(0, Math.max(bounds[offset] - position[0], position[0] - bounds[offset + 3]));
+    float dy =
+        Math.max(0, Math.max(bounds[offset + 1] - position[1], position[1] - bounds[offset + 4]));
+    float dz =
+        Math.max(0, Math.max(bounds[offset + 2] - position[2], position[2] - bounds[offset + 5]));
+    return (float) Math.sqrt(dx * dx + dy * dy + dz * dz);
+  }
+}
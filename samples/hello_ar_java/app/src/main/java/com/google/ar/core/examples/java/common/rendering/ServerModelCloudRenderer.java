@@ -21,9 +21,20 @@ import android.opengl.Matrix;
 import com.google.ar.core.PointCloud;
 import java.io.IOException;
 import java.nio.FloatBuffer;
-import java.util.Arrays;
 
-/** Renders a point cloud. */
+/**
+ * Renders a point cloud received from the server.
+ *
+ * <p>The model is versioned: {@link #update(FloatBuffer, long, long, int)} uploads nothing when the
+ * version has not changed, and only the points that changed when a new version keeps a prefix of
+ * the previous one, which is how a growing model arrives. Points are kept in two vertex buffers:
+ * uploads go to the one that was not drawn last, so they never wait for a draw still reading the
+ * other.
+ *
+ * <p>Large models can come with a {@link PointOctree}, see {@link #update(PointOctree, long)}.
+ * Then only the part of the model in view is drawn, thinned out with distance, and never more
+ * than the {@link #setLevelOfDetail point budget}.
+ */
 public class ServerModelCloudRenderer {
   private static final String TAG = PointCloud.class.getSimpleName();
 
@@ -35,9 +46,25 @@ public class ServerModelCloudRenderer {
   private static final int FLOATS_PER_POINT = 4; // X,Y,Z,confidence.
   private static final int BYTES_PER_POINT = BYTES_PER_FLOAT * FLOATS_PER_POINT;
   private static final int INITIAL_BUFFER_POINTS = 1000;
+  private static final long NO_VERSION = -1;
+  private static final long RATE_WINDOW_NANOS = 1_000_000_000L;
+  private static final int DEFAULT_POINT_BUDGET = 200_000;
+  private static final float DEFAULT_FULL_DETAIL_DISTANCE = 2.0f;
 
-  private int vbo;
-  private int vboSize;
+  /** One of the two vertex buffers. */
+  private static class PointBuffer {
+    int vbo;
+    int size;
+    int numPoints;
+    // Leading points that match the latest model.
+    int validPoints;
+    // The index the contents were laid out by, if any.
+    PointOctree octree;
+  }
+
+  private final PointBuffer[] buffers = {new PointBuffer(), new PointBuffer()};
+  private int front;
+  private long version = NO_VERSION;
 
   private int programName;
   private int positionAttribute;
@@ -45,11 +72,23 @@ public class ServerModelCloudRenderer {
   private int colorUniform;
   private int pointSizeUniform;
 
-  private int numPoints = 0;
+  private final float[] modelViewProjection = new float[16];
+
+  // Level of detail, only used for models with an octree.
+  private int pointBudget = DEFAULT_POINT_BUDGET;
+  private float fullDetailDistance = DEFAULT_FULL_DETAIL_DISTANCE;
+  private final float[] cameraPosition = new float[3];
+  private int[] rangeFirsts = new int[0];
+  private int[] rangeCounts = new int[0];
+  private int drawnPoints;
 
-  // Keep track of the last point cloud rendered to avoid updating the VBO if point cloud
-  // was not changed.  Do this using the timestamp since we can't compare PointCloud objects.
-  private long lastTimestamp = 0;
+  // Upload counters.
+  private long uploadedBytes;
+  private long uploads;
+  private long skippedUpdates;
+  private long windowStartNanos = System.nanoTime();
+  private long windowBytes;
+  private long bytesPerSecond;
 
   public ServerModelCloudRenderer() {}
 
@@ -62,14 +101,19 @@ public class ServerModelCloudRenderer {
   public void createOnGlThread(Context context) throws IOException {
     ShaderUtil.checkGLError(TAG, "before create");
 
-    int[] buffers = new int[1];
-    GLES20.glGenBuffers(1, buffers, 0);
-    vbo = buffers[0];
-    GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, vbo);
-
-    vboSize = INITIAL_BUFFER_POINTS * BYTES_PER_POINT;
-    GLES20.glBufferData(GLES20.GL_ARRAY_BUFFER, vboSize, null, GLES20.GL_DYNAMIC_DRAW);
+    int[] ids = new int[buffers.length];
+    GLES20.glGenBuffers(buffers.length, ids, 0);
+    for (int i = 0; i < buffers.length; i++) {
+      PointBuffer buffer = buffers[i];
+      buffer.vbo = ids[i];
+      buffer.size = INITIAL_BUFFER_POINTS * BYTES_PER_POINT;
+      buffer.numPoints = 0;
+      buffer.validPoints = 0;
+      GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, buffer.vbo);
+      GLES20.glBufferData(GLES20.GL_ARRAY_BUFFER, buffer.size, null, GLES20.GL_DYNAMIC_DRAW);
+    }
     GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, 0);
+    version = NO_VERSION;
 
     ShaderUtil.checkGLError(TAG, "buffer alloc");
 
@@ -95,59 +139,155 @@ public class ServerModelCloudRenderer {
   }
 
   /**
-   * Updates the OpenGL buffer contents to the provided point. Repeated calls with the same point
-   * cloud will be ignored.
+   * Updates the OpenGL buffer contents to the provided points, uploading all of them. Prefer
+   * {@link #update(FloatBuffer, long, long, int)}, which skips unchanged models.
    */
   public void update(FloatBuffer cloud) {
-//    if (cloud.getTimestamp() == lastTimestamp) {
-//      // Redundant call.
-//      return;
-//    }
-    ShaderUtil.checkGLError(TAG, "before update");
+    for (PointBuffer buffer : buffers) {
+      buffer.validPoints = 0;
+    }
+    version = NO_VERSION;
+    upload(cloud, null);
+  }
 
-    GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, vbo);
-//    lastTimestamp = cloud.getTimestamp();
+  /** Same as {@link #update(FloatBuffer)}. */
+  public void updateFB(FloatBuffer fb) {
+    update(fb);
+  }
 
-    // If the VBO is not large enough to fit the new point cloud, resize it.
-    numPoints = cloud.remaining() / FLOATS_PER_POINT;
-    if (numPoints * BYTES_PER_POINT > vboSize) {
-      while (numPoints * BYTES_PER_POINT > vboSize) {
-        vboSize *= 2;
+  /**
+   * Updates the OpenGL buffer contents to version {@code version} of the model. Repeated calls
+   * with the same version are ignored.
+   *
+   * @param cloud x, y, z, confidence per point, preferably in a direct buffer.
+   * @param baseVersion the version this one was derived from, or a negative value if unknown.
+   * @param unchangedPoints how many leading points are the same as in {@code baseVersion}.
+   */
+  public void update(FloatBuffer cloud, long version, long baseVersion, int unchangedPoints) {
+    if (version == this.version) {
+      skippedUpdates++;
+      return;
+    }
+    for (PointBuffer buffer : buffers) {
+      if (baseVersion == this.version && baseVersion != NO_VERSION) {
+        buffer.validPoints = Math.min(buffer.validPoints, unchangedPoints);
+      } else {
+        buffer.validPoints = 0;
       }
-      GLES20.glBufferData(GLES20.GL_ARRAY_BUFFER, vboSize, null, GLES20.GL_STATIC_DRAW);
     }
-    GLES20.glBufferSubData(
-            GLES20.GL_ARRAY_BUFFER, 0, numPoints * BYTES_PER_POINT, cloud);
-    GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, 0);
+    this.version = version;
+    upload(cloud, null);
+  }
 
-    ShaderUtil.checkGLError(TAG, "after update");
+  /**
+   * Updates the OpenGL buffer contents to version {@code version} of a model indexed by {@code
+   * octree}, whose points are uploaded in full. Repeated calls with the same version are ignored.
+   */
+  public void update(PointOctree octree, long version) {
+    if (version == this.version) {
+      skippedUpdates++;
+      return;
+    }
+    // The octree reorders points, so nothing uploaded before lines up with them.
+    for (PointBuffer buffer : buffers) {
+      buffer.validPoints = 0;
+    }
+    this.version = version;
+    upload(octree.getPoints(), octree);
+    if (rangeFirsts.length < octree.getLeafCount()) {
+      rangeFirsts = new int[octree.getLeafCount()];
+      rangeCounts = new int[octree.getLeafCount()];
+    }
   }
 
-  public void updateFB(FloatBuffer fb) {
-//    if (cloud.getTimestamp() == lastTimestamp) {
-//      // Redundant call.
-//      return;
-//    }
+  /**
+   * Sets how much of an indexed model is drawn.
+   *
+   * @param pointBudget the most points drawn per frame.
+   * @param fullDetailDistance distance in meters up to which points are not thinned out.
+   */
+  public void setLevelOfDetail(int pointBudget, float fullDetailDistance) {
+    this.pointBudget = pointBudget;
+    this.fullDetailDistance = fullDetailDistance;
+  }
+
+  /** Points drawn by the last {@link #draw} call. */
+  public int getDrawnPointCount() {
+    return drawnPoints;
+  }
+
+  /** Number of times point data was sent to the GPU. */
+  public long getUploadCount() {
+    return uploads;
+  }
+
+  /** Number of versioned updates that were ignored because the version had not changed. */
+  public long getSkippedUpdateCount() {
+    return skippedUpdates;
+  }
+
+  public long getUploadedBytes() {
+    return uploadedBytes;
+  }
+
+  /** Bytes uploaded over the last completed one-second window. */
+  public long getUploadedBytesPerSecond() {
+    rollRateWindow();
+    return bytesPerSecond;
+  }
+
+  /** Writes the points of {@code cloud} that are not valid yet into the back buffer. */
+  private void upload(FloatBuffer cloud, PointOctree octree) {
     ShaderUtil.checkGLError(TAG, "before update");
 
-    GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, vbo);
-//    lastTimestamp = cloud.getTimestamp();
+    PointBuffer back = buffers[1 - front];
+    int numPoints = cloud.remaining() / FLOATS_PER_POINT;
 
-    // If the VBO is not large enough to fit the new point cloud, resize it.
-    numPoints = fb.remaining() / FLOATS_PER_POINT;
-    if (numPoints * BYTES_PER_POINT > vboSize) {
-      while (numPoints * BYTES_PER_POINT > vboSize) {
-        vboSize *= 2;
+    GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, back.vbo);
+    // If the VBO is not large enough to fit the new point cloud, resize it, which drops its
+    // contents.
+    if (numPoints * BYTES_PER_POINT > back.size) {
+      while (numPoints * BYTES_PER_POINT > back.size) {
+        back.size *= 2;
       }
-      GLES20.glBufferData(GLES20.GL_ARRAY_BUFFER, vboSize, null, GLES20.GL_DYNAMIC_DRAW);
+      GLES20.glBufferData(GLES20.GL_ARRAY_BUFFER, back.size, null, GLES20.GL_DYNAMIC_DRAW);
+      back.validPoints = 0;
+    }
+    int firstPoint = Math.min(back.validPoints, numPoints);
+    int bytes = (numPoints - firstPoint) * BYTES_PER_POINT;
+    if (bytes > 0) {
+      FloatBuffer changed = cloud.duplicate();
+      changed.position(cloud.position() + firstPoint * FLOATS_PER_POINT);
+      GLES20.glBufferSubData(
+              GLES20.GL_ARRAY_BUFFER, firstPoint * BYTES_PER_POINT, bytes, changed);
     }
-    GLES20.glBufferSubData(
-            GLES20.GL_ARRAY_BUFFER, 0, numPoints * BYTES_PER_POINT, fb);
     GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, 0);
 
+    back.numPoints = numPoints;
+    back.validPoints = octree == null ? numPoints : 0;
+    back.octree = octree;
+    front = 1 - front;
+
+    uploads++;
+    uploadedBytes += bytes;
+    rollRateWindow();
+    windowBytes += bytes;
+
     ShaderUtil.checkGLError(TAG, "after update");
   }
 
+  private void rollRateWindow() {
+    long now = System.nanoTime();
+    long elapsed = now - windowStartNanos;
+    if (elapsed >= RATE_WINDOW_NANOS) {
+      // A window with no uploads at all reads as zero rather than the last busy one.
+      bytesPerSecond =
+          elapsed >= 2 * RATE_WINDOW_NANOS ? 0 : windowBytes * RATE_WINDOW_NANOS / elapsed;
+      windowBytes = 0;
+      windowStartNanos = now;
+    }
+  }
+
   /**
    * Renders the point cloud. ARCore point cloud is given in world space.
    *
@@ -157,23 +297,52 @@ public class ServerModelCloudRenderer {
    *     com.google.ar.core.Camera#getProjectionMatrix(float[], int, float, float)}.
    */
   public void draw(float[] cameraView, float[] cameraPerspective) {
-    float[] modelViewProjection = new float[16];
     Matrix.multiplyMM(modelViewProjection, 0, cameraPerspective, 0, cameraView, 0);
 
     ShaderUtil.checkGLError(TAG, "Before draw");
 
     GLES20.glUseProgram(programName);
     GLES20.glEnableVertexAttribArray(positionAttribute);
-    GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, vbo);
+    PointBuffer buffer = buffers[front];
+    GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, buffer.vbo);
     GLES20.glVertexAttribPointer(positionAttribute, 4, GLES20.GL_FLOAT, false, BYTES_PER_POINT, 0);
     GLES20.glUniform4f(colorUniform, 255.0f / 255.0f, 10.0f / 255.0f,  10.0f / 255.0f, 1.0f);
     GLES20.glUniformMatrix4fv(modelViewProjectionUniform, 1, false, modelViewProjection, 0);
     GLES20.glUniform1f(pointSizeUniform, 30.0f);
 
-    GLES20.glDrawArrays(GLES20.GL_POINTS, 0, numPoints);
+    if (buffer.octree == null) {
+      GLES20.glDrawArrays(GLES20.GL_POINTS, 0, buffer.numPoints);
+      drawnPoints = buffer.numPoints;
+    } else {
+      drawVisible(buffer.octree, cameraView);
+    }
     GLES20.glDisableVertexAttribArray(positionAttribute);
     GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, 0);
 
     ShaderUtil.checkGLError(TAG, "Draw");
   }
+
+  /** Draws the ranges of {@code octree} that are in view, within the point budget. */
+  private void drawVisible(PointOctree octree, float[] cameraView) {
+    // The camera sits at -R^T t for a view matrix with rotation R and translation t.
+    for (int i = 0; i < 3; i++) {
+      cameraPosition[i] =
+          -(cameraView[i * 4] * cameraView[12]
+              + cameraView[i * 4 + 1] * cameraView[13]
+              + cameraView[i * 4 + 2] * cameraView[14]);
+    }
+    int ranges =
+        octree.select(
+            modelViewProjection,
+            cameraPosition,
+            fullDetailDistance,
+            pointBudget,
+            rangeFirsts,
+            rangeCounts);
+    drawnPoints = 0;
+    for (int i = 0; i < ranges; i++) {
+      GLES20.glDrawArrays(GLES20.GL_POINTS, rangeFirsts[i], rangeCounts[i]);
+      drawnPoints += rangeCounts[i];
+    }
+  }
 }
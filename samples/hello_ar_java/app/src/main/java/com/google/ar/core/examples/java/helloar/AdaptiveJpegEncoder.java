@@ -0,0 +1,257 @@
+package com.google.ar.core.examples.java.helloar;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+/**
+ * Chooses JPEG quality and downscaling for keyframes on top of a {@link JpegEncoder}. In {@link
+ * Mode#FIXED} it always uses the configured settings. In the other modes it adjusts them after
+ * every frame so the encoded size tracks a byte budget, either fixed or derived from the upload
+ * bandwidth measured by {@link ClientWrapper} and the rate frames actually arrive at: quality moves
+ * first, and the image is halved (or restored) only once quality hits its limits. Callers that
+ * send the JPEG on must pass the {@link Settings} to {@link #encode} to learn the downscale used.
+ *
+ * <p>Safe to share between threads as long as the wrapped encoder is; {@link YuvImageJpegEncoder}
+ * is, {@link ReferenceJpegEncoder} is not.
+ */
+class AdaptiveJpegEncoder {
+
+  enum Mode {
+    FIXED,
+    TARGET_BYTES,
+    BANDWIDTH
+  }
+
+  /** Source of the current upload throughput, in bytes per second, or 0 when unknown. */
+  interface BandwidthEstimate {
+    long getUploadBytesPerSecond();
+  }
+
+  /** The settings one {@link #encode} call used. */
+  static final class Settings {
+    int quality;
+    int downscale;
+  }
+
+  static final int MIN_QUALITY = 40;
+  static final int MAX_QUALITY = 95;
+  static final int MAX_DOWNSCALE = 4;
+
+  private static final int QUALITY_STEP = 5;
+  // Only grow when comfortably under budget, to avoid oscillating around it.
+  private static final float GROW_THRESHOLD = 0.7f;
+  // Leave part of the measured bandwidth for poses, point clouds and other requests.
+  private static final float BANDWIDTH_SHARE = 0.8f;
+  // Weight of each new frame interval in the average, and the longest interval it counts: a pause
+  // between frames is not bandwidth to spend on the next one.
+  private static final float FRAME_INTERVAL_SMOOTHING = 0.2f;
+  private static final long MAX_FRAME_INTERVAL_MS = 1000;
+
+  private final JpegEncoder encoder;
+  private final FrameBufferPool pool;
+
+  private Mode mode = Mode.FIXED;
+  private int quality = MAX_QUALITY;
+  private int downscale = 1;
+  private int targetBytes;
+  private BandwidthEstimate bandwidthEstimate;
+  private long lastFrameTimeMs = -1;
+  private float frameIntervalMs;
+
+  AdaptiveJpegEncoder(JpegEncoder encoder, FrameBufferPool pool) {
+    this.encoder = encoder;
+    this.pool = pool;
+  }
+
+  /** Always encode at {@code quality}, dividing both dimensions by {@code downscale} (1, 2 or 4). */
+  synchronized void setFixed(int quality, int downscale) {
+    this.mode = Mode.FIXED;
+    this.quality = clampQuality(quality);
+    this.downscale = clampDownscale(downscale);
+  }
+
+  /** Adapt so that each encoded frame is about {@code targetBytes}. */
+  synchronized void setTargetBytes(int targetBytes) {
+    this.mode = Mode.TARGET_BYTES;
+    this.targetBytes = targetBytes;
+  }
+
+  /**
+   * Adapt so that frames, at the rate {@link #recordFrameTime} sees them, fit in the measured
+   * upload bandwidth. Falls back to {@code fallbackTargetBytes} until both the bandwidth and the
+   * frame rate are known.
+   */
+  synchronized void setBandwidthTarget(BandwidthEstimate estimate, int fallbackTargetBytes) {
+    this.mode = Mode.BANDWIDTH;
+    this.bandwidthEstimate = estimate;
+    this.targetBytes = fallbackTargetBytes;
+  }
+
+  /**
+   * Records the capture time of a frame about to be encoded, so {@link Mode#BANDWIDTH} budgets
+   * against the real frame rate. Times that do not move forward, such as from frames encoded out
+   * of order on other threads, are ignored.
+   */
+  synchronized void recordFrameTime(long timestampMs) {
+    if (lastFrameTimeMs >= 0 && timestampMs > lastFrameTimeMs) {
+      long interval = Math.min(MAX_FRAME_INTERVAL_MS, timestampMs - lastFrameTimeMs);
+      frameIntervalMs =
+          frameIntervalMs == 0
+              ? interval
+              : frameIntervalMs + FRAME_INTERVAL_SMOOTHING * (interval - frameIntervalMs);
+    }
+    lastFrameTimeMs = Math.max(lastFrameTimeMs, timestampMs);
+  }
+
+  synchronized int getQuality() {
+    return quality;
+  }
+
+  synchronized int getDownscale() {
+    return downscale;
+  }
+
+  /**
+   * Encodes a tightly packed NV21 image, appending the JPEG to {@code out}.
+   *
+   * @return the number of bytes written.
+   */
+  int encode(byte[] nv21, int width, int height, ByteArrayOutputStream out) throws IOException {
+    return encode(nv21, width, height, out, null);
+  }
+
+  /** As above, also filling {@code used}, if not null, with the quality and downscale applied. */
+  int encode(byte[] nv21, int width, int height, ByteArrayOutputStream out, Settings used)
+      throws IOException {
+    int frameQuality;
+    int frameDownscale;
+    synchronized (this) {
+      frameQuality = quality;
+      frameDownscale = downscale;
+    }
+    if (used != null) {
+      used.quality = frameQuality;
+      used.downscale = frameDownscale;
+    }
+
+    int start = out.size();
+    if (frameDownscale == 1) {
+      encoder.encode(nv21, width, height, frameQuality, out);
+    } else {
+      int scaledWidth = width / frameDownscale;
+      int scaledHeight = height / frameDownscale;
+      byte[] scaled = pool.acquire(scaledWidth, scaledHeight, YuvConverter.Format.NV21);
+      try {
+        downscaleNV21(nv21, width, height, frameDownscale, scaled);
+        encoder.encode(scaled, scaledWidth, scaledHeight, frameQuality, out);
+      } finally {
+        pool.release(scaledWidth, scaledHeight, YuvConverter.Format.NV21, scaled);
+      }
+    }
+    int size = out.size() - start;
+
+    adapt(size);
+    return size;
+  }
+
+  private synchronized void adapt(int encodedBytes) {
+    if (mode == Mode.FIXED) {
+      return;
+    }
+    int budget = currentBudget();
+    if (budget <= 0) {
+      return;
+    }
+
+    if (encodedBytes > budget) {
+      if (quality > MIN_QUALITY) {
+        // Step harder the further over budget we are.
+        int overshoot = (int) ((long) quality * (encodedBytes - budget) / encodedBytes);
+        quality = clampQuality(quality - Math.max(QUALITY_STEP, overshoot));
+      } else if (downscale < MAX_DOWNSCALE) {
+        downscale *= 2;
+        quality = MAX_QUALITY;
+      }
+    } else if (encodedBytes < budget * GROW_THRESHOLD) {
+      if (quality < MAX_QUALITY) {
+        quality = clampQuality(quality + QUALITY_STEP);
+      } else if (downscale > 1 && encodedBytes * 4 < budget * GROW_THRESHOLD) {
+        // Doubling the resolution roughly quadruples the size.
+        downscale /= 2;
+        quality = MIN_QUALITY;
+      }
+    }
+  }
+
+  private int currentBudget() {
+    if (mode == Mode.BANDWIDTH && bandwidthEstimate != null) {
+      long bytesPerSecond = bandwidthEstimate.getUploadBytesPerSecond();
+      if (bytesPerSecond > 0 && frameIntervalMs > 0) {
+        return (int)
+            Math.min(Integer.MAX_VALUE, bytesPerSecond * frameIntervalMs / 1000 * BANDWIDTH_SHARE);
+      }
+    }
+    return targetBytes;
+  }
+
+  /**
+   * Box-filters an NV21 image down by an integer {@code factor}. The output is {@code width /
+   * factor} x {@code height / factor}, tightly packed.
+   */
+  static void downscaleNV21(byte[] src, int width, int height, int factor, byte[] dst) {
+    int scaledWidth = width / factor;
+    int scaledHeight = height / factor;
+    int area = factor * factor;
+
+    for (int y = 0; y < scaledHeight; y++) {
+      for (int x = 0; x < scaledWidth; x++) {
+        int sum = 0;
+        for (int dy = 0; dy < factor; dy++) {
+          int rowStart = (y * factor + dy) * width + x * factor;
+          for (int dx = 0; dx < factor; dx++) {
+            sum += src[rowStart + dx] & 0xFF;
+          }
+        }
+        dst[y * scaledWidth + x] = (byte) (sum / area);
+      }
+    }
+
+    int chromaWidth = (width + 1) / 2;
+    int chromaHeight = (height + 1) / 2;
+    int scaledChromaWidth = (scaledWidth + 1) / 2;
+    int scaledChromaHeight = (scaledHeight + 1) / 2;
+    int srcOffset = width * height;
+    int dstOffset = scaledWidth * scaledHeight;
+    for (int y = 0; y < scaledChromaHeight; y++) {
+      for (int x = 0; x < scaledChromaWidth; x++) {
+        int sumV = 0;
+        int sumU = 0;
+        int count = 0;
+        for (int dy = 0; dy < factor; dy++) {
+          int row = Math.min(y * factor + dy, chromaHeight - 1);
+          for (int dx = 0; dx < factor; dx++) {
+            int column = Math.min(x * factor + dx, chromaWidth - 1);
+            int index = srcOffset + row * chromaWidth * 2 + column * 2;
+            sumV += src[index] & 0xFF;
+            sumU += src[index + 1] & 0xFF;
+            count++;
+          }
+        }
+        int index = dstOffset + (y * scaledChromaWidth + x) * 2;
+        dst[index] = (byte) (sumV / count);
+        dst[index + 1] = (byte) (sumU / count);
+      }
+    }
+  }
+
+  private static int clampQuality(int quality) {
+    return Math.max(MIN_QUALITY, Math.min(MAX_QUALITY, quality));
+  }
+
+  private static int clampDownscale(int downscale) {
+    if (downscale >= 4) {
+      return 4;
+    }
+    return downscale >= 2 ? 2 : 1;
+  }
+}
@@ -0,0 +1,41 @@
+package com.google.ar.core.examples.java.helloar;
+
+import java.nio.FloatBuffer;
+
+/**
+ * The parts of an ARCore {@code Frame}, its {@code Camera}, {@code PointCloud} and the session
+ * anchors that the keyframe processing reads. {@link RecordedFrameData} serves a keyframe from a
+ * recorded session so the processing can run on a desktop JVM.
+ *
+ * <p>Poses are 7 floats (tx, ty, tz, qx, qy, qz, qw) and matrices are column-major, as in {@link
+ * FramePacket}.
+ */
+interface ArFrameData {
+
+  /**
+   * When the frame was captured, in milliseconds. Only differences between frames from the same
+   * source are meaningful; recorded frames use {@link FramePacket#timestamp}.
+   */
+  long getTimestamp();
+
+  void getCameraPose(float[] pose);
+
+  void getDisplayOrientedPose(float[] pose);
+
+  void getViewMatrix(float[] matrix);
+
+  void getProjectionMatrix(float[] matrix);
+
+  /** Points as x, y, z, confidence; the returned buffer may be consumed by the caller. */
+  FloatBuffer getPointCloud();
+
+  int getAnchorCount();
+
+  void getAnchorPose(int index, float[] pose);
+
+  /**
+   * Maps {@code count} x, y pairs from view (screen) pixels to CPU image pixels, like {@code
+   * Frame.transformCoordinates2d(VIEW, ..., IMAGE_PIXELS, ...)}.
+   */
+  void viewToImagePixels(float[] view, float[] image, int count);
+}
@@ -1,6 +1,8 @@
 package com.google.ar.core.examples.java.helloar;
 
 interface CallBackAction {
-  void updateResultPointCloud(ServerResponsePoints serverResponsePoints);
-  void setServerPoints(ServerPoints serverPoints);
+  /** Called with the server's model, parsed off the GL thread. */
+  void updateResultPointCloud(ServerPointStore model);
+  /** Called with the points returned for a localised frame, parsed off the GL thread. */
+  void setServerPoints(ServerPointStore serverPoints);
 }
@@ -0,0 +1,58 @@
+package com.google.ar.core.examples.java.helloar;
+
+import android.media.Image;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A pooled copy of one camera image plus the {@link FramePacket} describing it. The GL thread
+ * copies the YUV_420_888 planes in as-is, with their strides, so the {@link Image} can be closed
+ * immediately and all conversion happens on a worker.
+ */
+class CapturedFrame {
+
+  static final int PLANE_COUNT = 3;
+
+  final FramePacket packet = new FramePacket();
+
+  int width;
+  int height;
+
+  final byte[][] planes = new byte[PLANE_COUNT][0];
+  final int[] planeLengths = new int[PLANE_COUNT];
+  final int[] rowStrides = new int[PLANE_COUNT];
+  final int[] pixelStrides = new int[PLANE_COUNT];
+
+  /** Copies the planes of {@code image}, growing the pooled arrays only when needed. */
+  void copyPlanes(Image image) {
+    width = image.getWidth();
+    height = image.getHeight();
+
+    Image.Plane[] imagePlanes = image.getPlanes();
+    for (int i = 0; i < PLANE_COUNT; i++) {
+      ByteBuffer buffer = imagePlanes[i].getBuffer().duplicate();
+      int length = buffer.remaining();
+      if (planes[i].length < length) {
+        planes[i] = new byte[length];
+      }
+      buffer.get(planes[i], 0, length);
+      planeLengths[i] = length;
+      rowStrides[i] = imagePlanes[i].getRowStride();
+      pixelStrides[i] = imagePlanes[i].getPixelStride();
+    }
+  }
+
+  /** Converts the copied planes with {@code converter}; release the result to its pool. */
+  byte[] convert(YuvConverter converter, YuvConverter.Format format) {
+    return converter.convert(
+        width,
+        height,
+        ByteBuffer.wrap(planes[0], 0, planeLengths[0]),
+        rowStrides[0],
+        ByteBuffer.wrap(planes[1], 0, planeLengths[1]),
+        ByteBuffer.wrap(planes[2], 0, planeLengths[2]),
+        rowStrides[1],
+        pixelStrides[1],
+        format);
+  }
+}
@@ -4,6 +4,7 @@ import android.opengl.Matrix;
 
 import com.google.ar.core.Anchor;
 import com.google.ar.core.Camera;
+import com.google.ar.core.CameraIntrinsics;
 import com.google.ar.core.Pose;
 import com.google.gson.Gson;
 
@@ -11,31 +12,123 @@ import org.json.JSONException;
 import org.json.JSONObject;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import okhttp3.Call;
 import okhttp3.Callback;
+import okhttp3.HttpUrl;
 import okhttp3.MediaType;
 import okhttp3.OkHttpClient;
 import okhttp3.Request;
 import okhttp3.RequestBody;
 import okhttp3.Response;
 import okhttp3.ResponseBody;
+import okio.Buffer;
+import okio.BufferedSink;
+import okio.ForwardingSink;
+import okio.Okio;
+
+public class ClientWrapper implements FrameUploader {
+
+    /**
+     * Request body encoding for {@link #sendData} and {@link #sendLocaliseCommand}. {@code BINARY}
+     * posts a {@link FramePacketCodec} message with raw float blocks and JPEG bytes to the same
+     * endpoints; the server tells the two apart by Content-Type. {@code BINARY_DELTA} posts frames
+     * as {@link FrameDeltaCodec} messages, relative to the last frame the server acknowledged;
+     * localise commands are sent as {@code BINARY}.
+     */
+    public enum WireFormat {
+        JSON,
+        BINARY,
+        BINARY_DELTA
+    }
 
-public class ClientWrapper {
+    private static final MediaType BINARY_FRAME = MediaType.get(FramePacketCodec.MEDIA_TYPE);
+    private static final MediaType BINARY_FRAME_DELTA = MediaType.get(FrameDeltaCodec.MEDIA_TYPE);
+    private static final MediaType POINT_MAP = MediaType.get(PointMapCodec.MEDIA_TYPE);
+    // The server answers this when a point map or frame delta does not apply to what it holds.
+    private static final int HTTP_CONFLICT = 409;
+    // Answered by servers without a /map endpoint; point map uploads stop for good.
+    private static final int HTTP_NOT_FOUND = 404;
+    // After any other failure, point map uploads wait this long, doubling up to the maximum.
+    private static final long MAP_MIN_BACKOFF_NANOS = TimeUnit.SECONDS.toNanos(1);
+    private static final long MAP_MAX_BACKOFF_NANOS = TimeUnit.SECONDS.toNanos(60);
+    private static final long MAP_EXECUTOR_KEEP_ALIVE_S = 10;
+    private static final int MAX_POOLED_BINARY_BUFFERS = 4;
+    // Frame uploads: how many may be in flight, when a newer frame may cancel one, and how long
+    // one may take at most. Commands keep the client's long timeouts.
+    private static final int MAX_FRAMES_IN_FLIGHT = 2;
+    private static final long FRAME_SUPERSEDE_TIMEOUT_MS = 5000;
+    private static final long FRAME_CALL_TIMEOUT_S = 15;
+    // Weight of each new sample in the upload rate average.
+    private static final double UPLOAD_RATE_SMOOTHING = 0.2;
+    // Delta frames: at most this many in a row before a full snapshot, and how far, in meters, a
+    // point may move before it is sent again.
+    private static final int DELTA_SNAPSHOT_INTERVAL = 30;
+    private static final float DELTA_POINT_TOLERANCE = 0.001f;
 
     private OkHttpClient client;
+    private final HttpTransport transport;
+    private final String baseUrl;
     private CallBackAction callBackAction;
     private static final String IP_ADDRESS = "localhost";
     private Gson gson;
+    private WireFormat wireFormat = WireFormat.JSON;
+
+    // Packets are reused between calls: sendData runs on the GL thread, localise on the UI thread.
+    // Point cloud text is shared, so the methods building it are synchronized.
+    private final FramePacket dataPacket = new FramePacket();
+    private final FramePacket localisePacket = new FramePacket();
+    private final FramePacket posePacket = new FramePacket();
+    private volatile TelemetryChannel telemetryChannel;
+    private final ArrayDeque<ByteBuffer> freeBinaryBuffers = new ArrayDeque<>();
+    private final PointCloudEncoder pointCloudEncoder = new PointCloudEncoder();
+    private final StringBuilder pointCloudText = new StringBuilder();
+    // Point map uploads, see sendPointMap: exported and encoded on mapExecutor, one at a time.
+    // pointMapChanges is the export scratch and guards the writes to the fields after it.
+    private final ThreadPoolExecutor mapExecutor = new ThreadPoolExecutor(0, 1,
+            MAP_EXECUTOR_KEEP_ALIVE_S, TimeUnit.SECONDS, new LinkedBlockingQueue<>(),
+            runnable -> new Thread(runnable, "PointMapUpload"));
+    private final AtomicBoolean mapUploadPending = new AtomicBoolean();
+    private final PointMap.Changes pointMapChanges = new PointMap.Changes();
+    // The last point map version the server confirmed, 0 if none.
+    private volatile long acknowledgedMapVersion;
+    private volatile long nextMapUploadNanos;
+    private long mapBackoffNanos;
+    private volatile boolean pointMapAccepted;
+    private volatile boolean pointMapUnsupported;
+    // Guarded by itself.
+    private final FrameDeltaCodec.Encoder deltaEncoder =
+            new FrameDeltaCodec.Encoder(DELTA_SNAPSHOT_INTERVAL, DELTA_POINT_TOLERANCE);
+    private final ThroughputMeter uploadMeter = new ThroughputMeter(UPLOAD_RATE_SMOOTHING);
 
     public ClientWrapper() {
+        this("http://"+IP_ADDRESS+":3000");
+    }
+
+    /** @param baseUrl server root, for example a local mock server. */
+    public ClientWrapper(String baseUrl) {
+        this.baseUrl = baseUrl;
         this.client = new OkHttpClient.Builder()
                 .connectTimeout(50, TimeUnit.SECONDS)
                 .writeTimeout(50, TimeUnit.SECONDS)
                 .readTimeout(70, TimeUnit.SECONDS)
                 .build();
+        // Shares the client's connection pool and dispatcher, so keep-alive connections are reused.
+        OkHttpClient frameClient = client.newBuilder()
+                .callTimeout(FRAME_CALL_TIMEOUT_S, TimeUnit.SECONDS)
+                .build();
+        this.transport = new HttpTransport(frameClient, HttpUrl.get(baseUrl), MAX_FRAMES_IN_FLIGHT, FRAME_SUPERSEDE_TIMEOUT_MS);
         gson = new Gson();
     }
 
@@ -43,58 +136,169 @@ public class ClientWrapper {
         this.callBackAction = callBackAction;
     }
 
-    public void sendData(Camera camera, String frameBase64, Anchor anchor, float[] projmtx, float[] viewmtx, FloatBuffer pointCloudServer) throws JSONException {
+    public void setWireFormat(WireFormat wireFormat) {
+        this.wireFormat = wireFormat;
+    }
 
-        String cameraPose = getCameraPoseString(camera.getPose());
-        String cameraPoseCamCenter = getCameraCenter(camera.getPose());
-        String cameraPoseLocalAxes = getLocalAxes(camera.getPose());
+    public void sendData(Camera camera, byte[] frameJpeg, Anchor anchor, float[] projmtx, float[] viewmtx, FloatBuffer pointCloudServer) throws JSONException {
 
-        String cameraDisplayOrientedPose = getCameraPoseString(camera.getDisplayOrientedPose());
-        String cameraDisplayOrientedPoseLocalAxes = getLocalAxes(camera.getDisplayOrientedPose());
-        String cameraDisplayOrientedPoseCamCenter = getCameraCenter(camera.getDisplayOrientedPose());
+        synchronized (dataPacket) {
+            fillFramePacket(dataPacket, camera, anchor, projmtx, viewmtx, pointCloudServer);
+            if (frameJpeg != null) {
+                dataPacket.setJpeg(frameJpeg, frameJpeg.length);
+            }
+            sendFrame(dataPacket);
+        }
+    }
 
-        String viewMatrix = getMatrixString(viewmtx);
-        String projMatrix = getMatrixString(projmtx);
+    /**
+     * Switches frame uploads to a persistent WebSocket at {@code /stream}, which also carries
+     * {@link #sendPose} updates and server-pushed model updates. Frames sent while the socket is
+     * reconnecting are buffered and resumed; see {@link TelemetryChannel}.
+     */
+    public synchronized void openTelemetryChannel() {
+        if (telemetryChannel != null) {
+            return;
+        }
+        String streamUrl = baseUrl.replaceFirst("^http", "ws") + "/stream";
+        telemetryChannel = new TelemetryChannel(client, streamUrl, gson,
+                model -> callBackAction.updateResultPointCloud(ServerPointStore.fromBuffer(model)));
+        telemetryChannel.open();
+    }
 
-        float[] matrix = new float[16];
-        camera.getPose().toMatrix(matrix,0);
-        String cameraPoseMatrix = getMatrixString(matrix);
+    /** Closes the telemetry channel; frame uploads go back to HTTP. */
+    public synchronized void closeTelemetryChannel() {
+        if (telemetryChannel != null) {
+            telemetryChannel.close();
+            telemetryChannel = null;
+        }
+    }
 
-        matrix = new float[16];
-        camera.getDisplayOrientedPose().toMatrix(matrix,0);
-        String cameraDisplayOrientedPoseMatrix = getMatrixString(matrix);
+    /**
+     * Streams the current camera poses over the telemetry channel. Cheap enough to call every
+     * frame; does nothing unless the channel is open and connected.
+     */
+    public void sendPose(Camera camera) {
+        TelemetryChannel channel = telemetryChannel;
+        if (channel == null || !channel.isConnected()) {
+            return;
+        }
+        synchronized (posePacket) {
+            posePacket.reset(FramePacket.TYPE_FRAME);
+            posePacket.timestamp = System.currentTimeMillis();
+            fillCameraPoses(posePacket, camera);
+            channel.sendPose(posePacket);
+        }
+    }
 
-        String debugAnchorPositionForCameraPose =  getDebugAnchorPosition(new float[]{1.f,0.f,0.f}, camera.getPose());
-        String debugAnchorPositionForDisplayOrientedPose =  getDebugAnchorPosition(new float[]{1.f,0.f,0.f}, camera.getDisplayOrientedPose());
+    /**
+     * Posts what changed in {@code map} since the server last acknowledged an upload to
+     * {@code /map}, as a {@link PointMapCodec} message. Sends the whole map the first time, and
+     * again whenever the server answers 409 because it lost track. Cheap enough for the GL thread:
+     * the export and encoding run on a worker into a pooled buffer, and does nothing while an
+     * upload is still in progress or when nothing changed.
+     *
+     * <p>A server answering 404 has no {@code /map} endpoint, and map uploads stop. After any
+     * other failure they back off, from one second up to a minute.
+     */
+    public void sendPointMap(PointMap map) {
+        if (pointMapUnsupported
+                || System.nanoTime() < nextMapUploadNanos
+                || map.getVersion() == acknowledgedMapVersion
+                || !mapUploadPending.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            mapExecutor.execute(() -> postPointMap(map));
+        } catch (RejectedExecutionException e) {
+            mapUploadPending.set(false);
+        }
+    }
 
-        String anchorPosition = getAnchorsPosition(anchor);
-        String pointCloud = getPointCloudAsString(pointCloudServer);
+    /**
+     * Whether frames may leave their raw point cloud out because the server keeps the point map:
+     * {@code /map} has accepted an upload and has not since answered 404.
+     */
+    public boolean isPointMapAccepted() {
+        return pointMapAccepted && !pointMapUnsupported;
+    }
 
-        JSONObject postData = new JSONObject();
-        postData.put("cameraPose", cameraPose);
-        postData.put("cameraDisplayOrientedPose", cameraDisplayOrientedPose);
-        postData.put("anchorPosition", anchorPosition);
-        postData.put("frameString", frameBase64);
-        postData.put("pointCloud", pointCloud);
-        postData.put("cameraPoseLocalAxes", cameraPoseLocalAxes);
-        postData.put("cameraDisplayOrientedPoseLocalAxes", cameraDisplayOrientedPoseLocalAxes);
-        postData.put("cameraPoseCamCenter", cameraPoseCamCenter);
-        postData.put("cameraDisplayOrientedPoseCamCenter", cameraDisplayOrientedPoseCamCenter);
-        postData.put("debugAnchorPositionForCameraPose", debugAnchorPositionForCameraPose);
-        postData.put("debugAnchorPositionForDisplayOrientedPose", debugAnchorPositionForDisplayOrientedPose);
-        postData.put("viewmtx", viewMatrix);
-        postData.put("projMatrix", projMatrix);
-        postData.put("cameraPoseMatrix", cameraPoseMatrix);
-        postData.put("cameraDisplayOrientedPoseMatrix", cameraDisplayOrientedPoseMatrix);
+    private void postPointMap(PointMap map) {
+        final ByteBuffer message;
+        final long version;
+        final boolean full;
+        boolean posted = false;
+        try {
+            synchronized (pointMapChanges) {
+                map.exportChanges(acknowledgedMapVersion, pointMapChanges);
+                if (!pointMapChanges.full
+                        && pointMapChanges.updatedCount == 0
+                        && pointMapChanges.removedCount == 0) {
+                    return;
+                }
+                version = pointMapChanges.version;
+                full = pointMapChanges.full;
+                message = PointMapCodec.encode(pointMapChanges, acquireBinaryBuffer());
+            }
+            Runnable onDone = () -> {
+                releaseBinaryBuffer(message);
+                mapUploadPending.set(false);
+            };
+            transport.post("/map", binaryBody(message, POINT_MAP), new Callback() {
+                @Override public void onFailure(Call call, IOException e) {
+                    e.printStackTrace();
+                    synchronized (pointMapChanges) {
+                        backOffPointMap();
+                    }
+                }
 
-        MediaType JSON = MediaType.get("application/json; charset=utf-8");
+                @Override public void onResponse(Call call, Response response) {
+                    response.close();
+                    synchronized (pointMapChanges) {
+                        if (response.isSuccessful()) {
+                            acknowledgedMapVersion = Math.max(acknowledgedMapVersion, version);
+                            map.acknowledge(version);
+                            pointMapAccepted = true;
+                            mapBackoffNanos = 0;
+                            nextMapUploadNanos = 0;
+                        } else if (response.code() == HTTP_NOT_FOUND) {
+                            pointMapUnsupported = true;
+                        } else if (response.code() == HTTP_CONFLICT && !full) {
+                            // Resend everything straight away.
+                            acknowledgedMapVersion = 0;
+                        } else {
+                            backOffPointMap();
+                        }
+                    }
+                }
+            }, onDone, true);
+            posted = true;
+        } finally {
+            if (!posted) {
+                mapUploadPending.set(false);
+            }
+        }
+    }
 
-        Request request = new Request.Builder()
-                .url("http://"+IP_ADDRESS+":3000/")
-                .post(RequestBody.create(postData.toString(), JSON))
-                .build();
+    /** Delays the next point map upload. Called with {@code pointMapChanges} held. */
+    private void backOffPointMap() {
+        mapBackoffNanos = Math.min(MAP_MAX_BACKOFF_NANOS,
+                Math.max(MAP_MIN_BACKOFF_NANOS, 2 * mapBackoffNanos));
+        nextMapUploadNanos = System.nanoTime() + mapBackoffNanos;
+    }
 
-        client.newCall(request).enqueue(new Callback() {
+    /**
+     * Posts a frame captured with {@link #fillFramePacket}, or streams it as a keyframe when the
+     * telemetry channel is open. Either way the message is fully built before this returns, so the
+     * caller may reuse {@code packet} straight away.
+     */
+    void sendFrame(FramePacket packet) throws JSONException {
+        TelemetryChannel channel = telemetryChannel;
+        if (channel != null) {
+            channel.sendKeyframe(packet);
+            return;
+        }
+        postFrame("/", packet, true, new Callback() {
             @Override public void onFailure(Call call, IOException e) {
                 e.printStackTrace();
             }
@@ -110,33 +314,340 @@ public class ClientWrapper {
         });
     }
 
-    private String getPointCloudByViewMatrixAsString(float[] viewmtx, FloatBuffer pointCloud) {
-        String points3DText = "";
+    /** {@link #sendFrame} for code that uploads keyframes without depending on org.json. */
+    @Override
+    public void upload(FramePacket packet) throws IOException {
+        try {
+            sendFrame(packet);
+        } catch (JSONException e) {
+            throw new IOException(e);
+        }
+    }
 
-        if(pointCloud == null){
-            return "";
+    /**
+     * Snapshots everything {@link #sendData} uploads, except the image, into {@code packet}.
+     * {@code anchor} may be null.
+     */
+    static void fillFramePacket(FramePacket packet, Camera camera, Anchor anchor, float[] projmtx, float[] viewmtx, FloatBuffer pointCloudServer) {
+        fillFramePacket(packet, camera, anchor, projmtx, viewmtx, pointCloudServer, null);
+    }
+
+    /** As above, also recording the ARCore {@code pointIds} that delta uploads match points by. */
+    static void fillFramePacket(FramePacket packet, Camera camera, Anchor anchor, float[] projmtx, float[] viewmtx, FloatBuffer pointCloudServer, IntBuffer pointIds) {
+        packet.reset(FramePacket.TYPE_FRAME);
+        packet.timestamp = System.currentTimeMillis();
+        fillCameraPoses(packet, camera);
+
+        System.arraycopy(viewmtx, 0, packet.viewMatrix, 0, FramePacket.FLOATS_PER_MATRIX);
+        System.arraycopy(projmtx, 0, packet.projectionMatrix, 0, FramePacket.FLOATS_PER_MATRIX);
+        packet.hasViewProjection = true;
+
+        if (anchor != null) {
+            Pose anchorPose = anchor.getPose();
+            packet.anchorPosition[0] = anchorPose.tx();
+            packet.anchorPosition[1] = anchorPose.ty();
+            packet.anchorPosition[2] = anchorPose.tz();
+            packet.hasAnchor = true;
         }
 
-        while (pointCloud.hasRemaining()){
+        packet.setPoints(pointCloudServer, pointIds);
+    }
 
-            float[] res = new float[4];
-            float[] point3D = new float[4];
+    /** Records the intrinsics of the CPU camera image, the one that is JPEG encoded. */
+    static void fillIntrinsics(FramePacket packet, Camera camera) {
+        CameraIntrinsics intrinsics = camera.getImageIntrinsics();
+        intrinsics.getFocalLength(packet.intrinsics, 0);
+        intrinsics.getPrincipalPoint(packet.intrinsics, 2);
+        int[] dimensions = intrinsics.getImageDimensions();
+        packet.intrinsics[4] = dimensions[0];
+        packet.intrinsics[5] = dimensions[1];
+        packet.hasIntrinsics = true;
+    }
 
-            float x = pointCloud.get();
-            float y = pointCloud.get();
-            float z = pointCloud.get();
-            float c = pointCloud.get(); //need this to move on!
+    private static void fillCameraPoses(FramePacket packet, Camera camera) {
+        Pose cameraPose = camera.getPose();
+        Pose displayOrientedPose = camera.getDisplayOrientedPose();
 
-            point3D[0] = x;
-            point3D[1] = y;
-            point3D[2] = z;
-            point3D[3] = 1.f;
+        cameraPose.getTranslation(packet.cameraPose, 0);
+        cameraPose.getRotationQuaternion(packet.cameraPose, 3);
+        displayOrientedPose.getTranslation(packet.displayOrientedPose, 0);
+        displayOrientedPose.getRotationQuaternion(packet.displayOrientedPose, 3);
 
-            Matrix.multiplyMV(res, 0, viewmtx, 0, point3D, 0);
+        cameraPose.toMatrix(packet.cameraPoseMatrix, 0);
+        displayOrientedPose.toMatrix(packet.displayOrientedPoseMatrix, 0);
+    }
 
-            points3DText = points3DText.concat(res[0] + " " + res[1] + " " + res[2] + " " + res[3] + "\n");
+    /**
+     * Posts {@code packet} to {@code path} in the current {@link WireFormat} through the
+     * {@link HttpTransport}; {@code coalesce} lets a newer frame replace this one while it waits.
+     * Binary messages, and the points of JSON frames, go into pooled buffers that are handed back
+     * once the transport is done with the request.
+     */
+    private void postFrame(String path, FramePacket packet, boolean coalesce, Callback callback) throws JSONException {
+        final ByteBuffer message;
+        final RequestBody body;
+        final long deltaSequence;
+        if (wireFormat == WireFormat.BINARY_DELTA && packet.type == FramePacket.TYPE_FRAME) {
+            synchronized (deltaEncoder) {
+                message = deltaEncoder.encode(packet, acquireBinaryBuffer());
+                deltaSequence = deltaEncoder.getLastSequence();
+            }
+            body = binaryBody(message, BINARY_FRAME_DELTA);
+        } else if (wireFormat == WireFormat.JSON) {
+            deltaSequence = 0;
+            // The point cloud is streamed into the body while OkHttp writes it, from a pooled copy
+            // since the caller reuses packet.
+            String json = getFrameJson(packet).toString();
+            if (packet.type == FramePacket.TYPE_FRAME) {
+                message = copyPoints(packet, acquireBinaryBuffer());
+                body = new StreamedJsonBody(json, message.asFloatBuffer());
+            } else {
+                MediaType JSON = MediaType.get("application/json; charset=utf-8");
+                message = null;
+                body = RequestBody.create(json, JSON);
+            }
+        } else {
+            deltaSequence = 0;
+            message = FramePacketCodec.encode(packet, acquireBinaryBuffer());
+            body = binaryBody(message, BINARY_FRAME);
         }
-        return points3DText;
+
+        MeteredBody metered = new MeteredBody(body, uploadMeter);
+        Callback measured = new Callback() {
+            @Override public void onFailure(Call call, IOException e) {
+                callback.onFailure(call, e);
+            }
+
+            @Override public void onResponse(Call call, Response response) throws IOException {
+                if (response.isSuccessful()) {
+                    metered.delivered = true;
+                }
+                if (deltaSequence != 0) {
+                    synchronized (deltaEncoder) {
+                        if (response.isSuccessful()) {
+                            deltaEncoder.acknowledge(deltaSequence);
+                        } else if (response.code() == HTTP_CONFLICT) {
+                            // The server lost the frame this one refers to, start over.
+                            deltaEncoder.reset();
+                        }
+                    }
+                }
+                callback.onResponse(call, response);
+            }
+        };
+        Runnable onDone = () -> {
+            metered.finish();
+            if (message != null) {
+                releaseBinaryBuffer(message);
+            }
+        };
+        transport.post(path, metered, measured, onDone, coalesce);
+    }
+
+    private static RequestBody binaryBody(ByteBuffer message, MediaType contentType) {
+        return new RequestBody() {
+            @Override public MediaType contentType() {
+                return contentType;
+            }
+
+            @Override public long contentLength() {
+                return message.remaining();
+            }
+
+            @Override public void writeTo(BufferedSink sink) throws IOException {
+                // Duplicate so OkHttp can replay the body on retries.
+                sink.write(message.duplicate());
+            }
+        };
+    }
+
+    /**
+     * A frame's JSON body with the point cloud text streamed into its {@code pointCloud} string
+     * by {@link PointCloudEncoder} as OkHttp writes the request, so the cloud is never built as
+     * one String. {@code json} is the rest of the frame, without {@code pointCloud}.
+     */
+    private static final class StreamedJsonBody extends RequestBody {
+        private static final MediaType JSON = MediaType.get("application/json; charset=utf-8");
+        private static final String POINT_CLOUD_START = "{\"pointCloud\":\"";
+
+        private final String json;
+        private final FloatBuffer points;
+
+        StreamedJsonBody(String json, FloatBuffer points) {
+            this.json = json;
+            this.points = points;
+        }
+
+        @Override public MediaType contentType() {
+            return JSON;
+        }
+
+        @Override public long contentLength() {
+            return -1;
+        }
+
+        @Override public void writeTo(BufferedSink sink) throws IOException {
+            // The JSON object is never empty, so the cloud is followed by a comma and its fields.
+            sink.writeUtf8(POINT_CLOUD_START);
+            PointCloudEncoder.forCurrentThread()
+                    .writeJsonText(points, FramePacket.FLOATS_PER_POINT, null, sink);
+            sink.writeUtf8("\",").writeUtf8(json, 1, json.length());
+        }
+    }
+
+    /**
+     * Wraps a frame body to tell a {@link ThroughputMeter} when OkHttp starts writing it, and on
+     * {@link #finish} how many bytes it wrote if the server accepted them.
+     */
+    private static final class MeteredBody extends RequestBody {
+        private final RequestBody body;
+        private final ThroughputMeter meter;
+        private final AtomicBoolean started = new AtomicBoolean();
+        private volatile long writtenBytes;
+        // Set when the server answered with a success.
+        volatile boolean delivered;
+
+        MeteredBody(RequestBody body, ThroughputMeter meter) {
+            this.body = body;
+            this.meter = meter;
+        }
+
+        @Override public MediaType contentType() {
+            return body.contentType();
+        }
+
+        @Override public long contentLength() throws IOException {
+            return body.contentLength();
+        }
+
+        @Override public void writeTo(BufferedSink sink) throws IOException {
+            if (started.compareAndSet(false, true)) {
+                meter.onStart(System.nanoTime());
+            }
+            long length = body.contentLength();
+            if (length >= 0) {
+                body.writeTo(sink);
+                writtenBytes = length;
+                return;
+            }
+            // Streamed, so count what it writes.
+            long[] count = {0};
+            BufferedSink counting = Okio.buffer(new ForwardingSink(sink) {
+                @Override public void write(Buffer source, long byteCount) throws IOException {
+                    super.write(source, byteCount);
+                    count[0] += byteCount;
+                }
+            });
+            body.writeTo(counting);
+            // Hand everything to the real sink without closing it, OkHttp does that.
+            counting.emit();
+            writtenBytes = count[0];
+        }
+
+        /** Called once when the transport is done with the request. */
+        void finish() {
+            if (started.get()) {
+                meter.onFinish(System.nanoTime(), delivered ? writtenBytes : 0);
+            }
+        }
+    }
+
+    /** Copies the points of {@code packet} into {@code buffer}, or a new one if it is too small. */
+    private static ByteBuffer copyPoints(FramePacket packet, ByteBuffer buffer) {
+        int floats = packet.pointCount * FramePacket.FLOATS_PER_POINT;
+        if (buffer == null || buffer.capacity() < floats * 4) {
+            buffer = ByteBuffer.allocate(floats * 4);
+        }
+        buffer.clear();
+        buffer.asFloatBuffer().put(packet.points, 0, floats);
+        buffer.limit(floats * 4);
+        return buffer;
+    }
+
+    /** Per-endpoint counters and latency of frame and localise requests. */
+    HttpTransport.EndpointStats getTransportStats(String path) {
+        return transport.getStats(path);
+    }
+
+    /** Drops queued frames and cancels the requests in flight, for example when pausing. */
+    public void cancelPendingFrames() {
+        transport.cancelAll();
+    }
+
+    /**
+     * Smoothed upload throughput of frame requests in bytes per second, or 0 before the first one
+     * completes. Measured by a {@link ThroughputMeter} from when OkHttp starts writing each body,
+     * so time spent queued in the transport does not count, and overlapping requests share time.
+     */
+    public long getUploadBytesPerSecond() {
+        return uploadMeter.getBytesPerSecond();
+    }
+
+    private ByteBuffer acquireBinaryBuffer() {
+        synchronized (freeBinaryBuffers) {
+            return freeBinaryBuffers.poll();
+        }
+    }
+
+    private void releaseBinaryBuffer(ByteBuffer buffer) {
+        synchronized (freeBinaryBuffers) {
+            if (freeBinaryBuffers.size() < MAX_POOLED_BINARY_BUFFERS) {
+                freeBinaryBuffers.push(buffer);
+            }
+        }
+    }
+
+    private JSONObject getFrameJson(FramePacket packet) throws JSONException {
+        Pose cameraPose = toPose(packet.cameraPose);
+        Pose cameraDisplayOrientedPose = toPose(packet.displayOrientedPose);
+
+        JSONObject postData = new JSONObject();
+        postData.put("cameraPose", getCameraPoseString(cameraPose));
+        postData.put("cameraDisplayOrientedPose", getCameraPoseString(cameraDisplayOrientedPose));
+        if (packet.hasAnchor) {
+            postData.put("anchorPosition", packet.anchorPosition[0] + "," + packet.anchorPosition[1] + "," + packet.anchorPosition[2]);
+        }
+        if (packet.jpegLength > 0) {
+            postData.put("frameString", Base64.getEncoder().encodeToString(Arrays.copyOf(packet.jpeg, packet.jpegLength)));
+        }
+        postData.put("cameraPoseLocalAxes", getLocalAxes(cameraPose));
+        postData.put("cameraDisplayOrientedPoseLocalAxes", getLocalAxes(cameraDisplayOrientedPose));
+        postData.put("cameraPoseCamCenter", getCameraCenter(cameraPose));
+        postData.put("cameraDisplayOrientedPoseCamCenter", getCameraCenter(cameraDisplayOrientedPose));
+        postData.put("debugAnchorPositionForCameraPose", getDebugAnchorPosition(new float[]{1.f,0.f,0.f}, cameraPose));
+        postData.put("debugAnchorPositionForDisplayOrientedPose", getDebugAnchorPosition(new float[]{1.f,0.f,0.f}, cameraDisplayOrientedPose));
+        if (packet.hasViewProjection) {
+            postData.put("viewmtx", getMatrixString(packet.viewMatrix));
+            postData.put("projMatrix", getMatrixString(packet.projectionMatrix));
+        }
+        postData.put("cameraPoseMatrix", getMatrixString(packet.cameraPoseMatrix));
+        postData.put("cameraDisplayOrientedPoseMatrix", getMatrixString(packet.displayOrientedPoseMatrix));
+        if (packet.hasIntrinsics) {
+            // fx, fy, cx, cy, image width and height, in pixels of the uploaded JPEG.
+            postData.put("intrinsics", packet.intrinsics[0] + "," + packet.intrinsics[1] + "," + packet.intrinsics[2] + "," + packet.intrinsics[3] + "," + packet.intrinsics[4] + "," + packet.intrinsics[5]);
+        }
+        if (packet.hasQuality) {
+            // Relative sharpness, Laplacian variance, mean luma, under- and overexposed fractions.
+            postData.put("imageQuality", packet.quality[0] + "," + packet.quality[1] + "," + packet.quality[2] + "," + packet.quality[3] + "," + packet.quality[4]);
+        }
+        if (packet.type == FramePacket.TYPE_LOCALISE) {
+            postData.put("frameName", packet.frameName);
+        }
+        return postData;
+    }
+
+    private static Pose toPose(float[] pose) {
+        return new Pose(Arrays.copyOfRange(pose, 0, 3), Arrays.copyOfRange(pose, 3, FramePacket.FLOATS_PER_POSE));
+    }
+
+    private synchronized String getPointCloudByViewMatrixAsString(float[] viewmtx, FloatBuffer pointCloud) {
+        if(pointCloud == null){
+            return "";
+        }
+
+        pointCloudText.setLength(0);
+        pointCloudEncoder.appendText(pointCloud, 4, viewmtx, pointCloudText);
+        return pointCloudText.toString();
     }
 
     private String getDebugAnchorPosition(float[] localPoint, Pose pose) {
@@ -196,49 +707,29 @@ public class ClientWrapper {
     }
 
 
-    public void sendLocaliseCommand(Camera camera, String frameData, String frameName) throws JSONException {
-
-        String cameraPose = getCameraPoseString(camera.getPose());
-        String cameraPoseCamCenter = getCameraCenter(camera.getPose());
-        String cameraPoseLocalAxes = getLocalAxes(camera.getPose());
-
-        String cameraDisplayOrientedPose = getCameraPoseString(camera.getDisplayOrientedPose());
-        String cameraDisplayOrientedPoseLocalAxes = getLocalAxes(camera.getDisplayOrientedPose());
-        String cameraDisplayOrientedPoseCamCenter = getCameraCenter(camera.getDisplayOrientedPose());
-
-        float[] matrix = new float[16];
-        camera.getPose().toMatrix(matrix,0);
-        String cameraPoseMatrix = getMatrixString(matrix);
-
-        matrix = new float[16];
-        camera.getDisplayOrientedPose().toMatrix(matrix,0);
-        String cameraDisplayOrientedPoseMatrix = getMatrixString(matrix);
-
-        String debugAnchorPositionForCameraPose =  getDebugAnchorPosition(new float[]{1.f,0.f,0.f}, camera.getPose());
-        String debugAnchorPositionForDisplayOrientedPose =  getDebugAnchorPosition(new float[]{1.f,0.f,0.f}, camera.getDisplayOrientedPose());
-
-        JSONObject postData = new JSONObject();
-        postData.put("cameraPose", cameraPose);
-        postData.put("cameraDisplayOrientedPose", cameraDisplayOrientedPose);
-        postData.put("frameString", frameData);
-        postData.put("cameraPoseLocalAxes", cameraPoseLocalAxes);
-        postData.put("cameraDisplayOrientedPoseLocalAxes", cameraDisplayOrientedPoseLocalAxes);
-        postData.put("cameraPoseCamCenter", cameraPoseCamCenter);
-        postData.put("cameraDisplayOrientedPoseCamCenter", cameraDisplayOrientedPoseCamCenter);
-        postData.put("debugAnchorPositionForCameraPose", debugAnchorPositionForCameraPose);
-        postData.put("debugAnchorPositionForDisplayOrientedPose", debugAnchorPositionForDisplayOrientedPose);
-        postData.put("cameraPoseMatrix", cameraPoseMatrix);
-        postData.put("cameraDisplayOrientedPoseMatrix", cameraDisplayOrientedPoseMatrix);
-        postData.put("frameName", frameName);
-
-        MediaType JSON = MediaType.get("application/json; charset=utf-8");
+    public void sendLocaliseCommand(Camera camera, byte[] frameJpeg, String frameName) throws JSONException {
+        sendLocaliseCommand(camera, frameJpeg, null, frameName);
+    }
 
-        Request request = new Request.Builder()
-                .url("http://"+IP_ADDRESS+":3000/localise")
-                .post(RequestBody.create(postData.toString(), JSON))
-                .build();
+    /**
+     * As above, also sending the {@code intrinsics} of {@code frameJpeg}, laid out as in
+     * {@link FramePacket}, if not null.
+     */
+    public void sendLocaliseCommand(Camera camera, byte[] frameJpeg, float[] intrinsics, String frameName) throws JSONException {
+
+        localisePacket.reset(FramePacket.TYPE_LOCALISE);
+        localisePacket.timestamp = System.currentTimeMillis();
+        localisePacket.frameName = frameName;
+        fillCameraPoses(localisePacket, camera);
+        if (frameJpeg != null) {
+            localisePacket.setJpeg(frameJpeg, frameJpeg.length);
+        }
+        if (intrinsics != null) {
+            System.arraycopy(intrinsics, 0, localisePacket.intrinsics, 0, FramePacket.FLOATS_PER_INTRINSICS);
+            localisePacket.hasIntrinsics = true;
+        }
 
-        client.newCall(request).enqueue(new Callback() {
+        postFrame("/localise", localisePacket, false, new Callback() {
             @Override public void onFailure(Call call, IOException e) {
                 e.printStackTrace();
             }
@@ -251,7 +742,7 @@ public class ClientWrapper {
                     System.out.println("HTTP Request Done");
                     //String foo = responseBody.string();
                     ServerPoints serverPoints = gson.fromJson(responseBody.string(), ServerPoints.class);
-                    callBackAction.setServerPoints(serverPoints);
+                    callBackAction.setServerPoints(ServerPointStore.fromStrings(serverPoints.getPoints()));
 
 
                 }
@@ -266,8 +757,10 @@ public class ClientWrapper {
 
         MediaType JSON = MediaType.get("application/json; charset=utf-8");
 
+        // Servers that support it answer with raw floats, older ones with the JSON string list.
         Request request = new Request.Builder()
-                .url("http://"+IP_ADDRESS+":3000/getModel")
+                .url(baseUrl+"/getModel")
+                .header("Accept", ModelDecoder.BINARY_MEDIA_TYPE + ", application/json;q=0.5")
                 .post(RequestBody.create(postData.toString(), JSON))
                 .build();
 
@@ -281,43 +774,20 @@ public class ClientWrapper {
 
                     if (!response.isSuccessful()) throw new IOException("Unexpected code " + response);
 
-                    ServerResponsePoints serverResponsePoints = gson.fromJson(responseBody.string(), ServerResponsePoints.class);
-                    callBackAction.updateResultPointCloud(serverResponsePoints);
+                    MediaType contentType = responseBody.contentType();
+                    FloatBuffer model;
+                    if (contentType != null && ModelDecoder.BINARY_MEDIA_TYPE.equals(contentType.type() + "/" + contentType.subtype())) {
+                        model = ModelDecoder.readBinary(responseBody.byteStream(), responseBody.contentLength());
+                    } else {
+                        model = ModelDecoder.parseText(responseBody.charStream());
+                    }
+                    callBackAction.updateResultPointCloud(ServerPointStore.fromBuffer(model));
 
                 }
             }
         });
     }
 
-    private String getPointCloudAsString(FloatBuffer pointCloudServer) {
-
-        String points3DText = "";
-
-        if(pointCloudServer == null){
-            return "";
-        }
-
-        while (pointCloudServer.hasRemaining()){
-
-            float x = pointCloudServer.get();
-            float y = pointCloudServer.get();
-            float z = pointCloudServer.get();
-            float c = pointCloudServer.get();
-
-            points3DText = points3DText.concat(x + " " + y + " " + z + " " + c + "\n");
-
-        }
-
-        return points3DText;
-    }
-
-    private String getAnchorsPosition(Anchor anchor) {
-        String anchorPosition =  Float.toString(anchor.getPose().tx()) + ","
-                                + Float.toString(anchor.getPose().ty()) + ","
-                                + Float.toString(anchor.getPose().tz());
-        return anchorPosition;
-    }
-
     private String getCameraPoseString(Pose pose) {
         String poseString = Float.toString(pose.tx()) + ","
                             + Float.toString(pose.ty()) + ","
@@ -348,7 +818,7 @@ public class ClientWrapper {
         MediaType JSON = MediaType.get("application/json; charset=utf-8");
 
         Request request = new Request.Builder()
-                .url("http://"+IP_ADDRESS+":3000/reload")
+                .url(baseUrl+"/reload")
                 .post(RequestBody.create(postData.toString(), JSON))
                 .build();
 
@@ -0,0 +1,11 @@
+package com.google.ar.core.examples.java.helloar;
+
+import java.io.ByteArrayOutputStream;
+
+/** Gives access to the backing array so encoded data can be copied without toByteArray(). */
+class ExposedByteArrayOutputStream extends ByteArrayOutputStream {
+
+  byte[] buffer() {
+    return buf;
+  }
+}
@@ -0,0 +1,71 @@
+package com.google.ar.core.examples.java.helloar;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+
+/**
+ * Thread-safe pool of image byte arrays keyed by resolution and {@link YuvConverter.Format}. Keeps
+ * at most {@code maxPerKey} idle arrays per key. There are only ever a handful of keys, so they
+ * are kept in a list and looked up without allocating.
+ */
+class FrameBufferPool {
+
+  private static class Slot {
+    final int width;
+    final int height;
+    final YuvConverter.Format format;
+    final ArrayDeque<byte[]> buffers;
+
+    Slot(int width, int height, YuvConverter.Format format, int capacity) {
+      this.width = width;
+      this.height = height;
+      this.format = format;
+      this.buffers = new ArrayDeque<>(capacity);
+    }
+  }
+
+  private final int maxPerKey;
+  private final ArrayList<Slot> slots = new ArrayList<>();
+  private long allocations;
+
+  FrameBufferPool(int maxPerKey) {
+    this.maxPerKey = maxPerKey;
+  }
+
+  /** Returns an array of exactly {@code format.bufferSize(width, height)} bytes. */
+  synchronized byte[] acquire(int width, int height, YuvConverter.Format format) {
+    Slot slot = find(width, height, format);
+    if (slot != null && !slot.buffers.isEmpty()) {
+      return slot.buffers.pop();
+    }
+    allocations++;
+    return new byte[format.bufferSize(width, height)];
+  }
+
+  /** Returns {@code buffer}, previously acquired for the same key, to the pool. */
+  synchronized void release(int width, int height, YuvConverter.Format format, byte[] buffer) {
+    Slot slot = find(width, height, format);
+    if (slot == null) {
+      slot = new Slot(width, height, format, maxPerKey);
+      slots.add(slot);
+    }
+    if (slot.buffers.size() < maxPerKey) {
+      slot.buffers.push(buffer);
+    }
+  }
+
+  /** Number of arrays allocated so far, useful to check that the steady state is allocation-free. */
+  synchronized long getAllocationCount() {
+    return allocations;
+  }
+
+  private Slot find(int width, int height, YuvConverter.Format format) {
+    for (int i = 0; i < slots.size(); i++) {
+      Slot slot = slots.get(i);
+      if (slot.width == width && slot.height == height && slot.format == format) {
+        return slot;
+      }
+    }
+    return null;
+  }
+}
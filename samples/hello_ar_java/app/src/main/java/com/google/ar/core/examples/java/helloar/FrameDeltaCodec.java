@@ -0,0 +1,721 @@
+package com.google.ar.core.examples.java.helloar;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+
+/**
+ * Delta wire format for {@link FramePacket}s, the {@code BINARY_DELTA} alternative to {@link
+ * FramePacketCodec}. Each message is encoded against the last frame the receiver acknowledged and
+ * only carries what changed since: poses and matrices that differ, and the points added, moved or
+ * removed, matched by ARCore point ID. Every so often, and whenever there is no acknowledged frame
+ * to refer to, a full snapshot is sent instead. Everything is little-endian:
+ *
+ * <pre>
+ *   u32  magic            'A' 'R' 'F' 'D'
+ *   u16  version          {@link #VERSION}
+ *   u16  type             {@link FramePacket#TYPE_FRAME} or {@link FramePacket#TYPE_LOCALISE}
+ *   i64  sequence         increases with every message
+ *   i64  base sequence    the frame this one is relative to, 0 for a full snapshot
+ *   i64  timestamp        milliseconds
+ *   u16  name length      followed by the UTF-8 frame name
+ *   u16  flags            {@code FLAG_*}: which optional sections the frame has
+ *   u16  sections         {@code SECTION_*}: which sections follow, the others are as in the base
+ *   sections, in bit order: floats; anchor poses are preceded by a u32 count
+ *   u32  removed points, u32 changed points
+ *   i32  removed point ids, ascending
+ *   changed points, ascending by id: i32 id, f32 x, y, z, confidence
+ *   u32  JPEG length, followed by the JPEG
+ * </pre>
+ *
+ * A point whose position and confidence all moved less than the encoder's tolerance is not sent
+ * and keeps its base values. Points without IDs are numbered by their index, which is correct but
+ * saves nothing. Decoded points come out sorted by ID.
+ *
+ * <p>Both ends keep the frames they may be asked to refer to, so an {@link Encoder} and a {@link
+ * Decoder} are stateful and not thread-safe. Like {@link FramePacketCodec}, this class has no
+ * Android dependencies so the server side can decode frames.
+ */
+final class FrameDeltaCodec {
+
+  static final String MEDIA_TYPE = "application/x-ar-frame-delta";
+  static final int MAGIC = 'A' | 'R' << 8 | 'F' << 16 | 'D' << 24;
+  static final int VERSION = 1;
+
+  static final int FLAG_VIEW_PROJECTION = 1;
+  static final int FLAG_ANCHOR = 1 << 1;
+  static final int FLAG_INTRINSICS = 1 << 2;
+  static final int FLAG_QUALITY = 1 << 3;
+
+  static final int SECTION_CAMERA_POSE = 1;
+  static final int SECTION_DISPLAY_ORIENTED_POSE = 1 << 1;
+  static final int SECTION_CAMERA_POSE_MATRIX = 1 << 2;
+  static final int SECTION_DISPLAY_ORIENTED_POSE_MATRIX = 1 << 3;
+  static final int SECTION_VIEW_MATRIX = 1 << 4;
+  static final int SECTION_PROJECTION_MATRIX = 1 << 5;
+  static final int SECTION_ANCHOR_POSITION = 1 << 6;
+  static final int SECTION_INTRINSICS = 1 << 7;
+  static final int SECTION_ANCHOR_POSES = 1 << 8;
+  static final int SECTION_QUALITY = 1 << 9;
+  static final int ALL_SECTIONS = (1 << 10) - 1;
+
+  private static final int FIXED_BYTES = 4 + 2 + 2 + 8 + 8 + 8 + 2 + 2 + 2 + 4 + 4 + 4;
+  private static final int BYTES_PER_FLOAT = Float.SIZE / 8;
+  private static final int BYTES_PER_ID = Integer.SIZE / 8;
+  private static final int BYTES_PER_POINT =
+      BYTES_PER_ID + FramePacket.FLOATS_PER_POINT * BYTES_PER_FLOAT;
+
+  private FrameDeltaCodec() {}
+
+  /**
+   * Encodes frames against the last one the receiver {@link #acknowledge acknowledged}. Callers
+   * must serialize access.
+   */
+  static final class Encoder {
+    // Sent frames that may still be acknowledged. Older ones are dropped once this many wait.
+    private static final int MAX_PENDING = 8;
+
+    private final int fullSnapshotInterval;
+    private final float pointTolerance;
+    private final ArrayDeque<Frame> pending = new ArrayDeque<>();
+    private final ArrayDeque<Frame> free = new ArrayDeque<>();
+    private Frame acknowledged;
+    private long nextSequence = 1;
+    private long lastSequence;
+    private int deltasSinceSnapshot;
+
+    // Scratch space for one encode.
+    private long[] sortKeys = new long[0];
+    private int[] removedIds = new int[0];
+    private int removedCount;
+    private int[] changedIndices = new int[0];
+
+    /**
+     * @param fullSnapshotInterval deltas sent in a row before a full snapshot, at most.
+     * @param pointTolerance how far, in meters, a point may move before it is sent again. Also
+     *     applies to its confidence.
+     */
+    Encoder(int fullSnapshotInterval, float pointTolerance) {
+      this.fullSnapshotInterval = fullSnapshotInterval;
+      this.pointTolerance = pointTolerance;
+    }
+
+    /**
+     * Encodes {@code packet} into {@code target}, reusing it when it is large enough. Returns the
+     * buffer holding the message, flipped and ready to be read; its sequence is {@link
+     * #getLastSequence}.
+     */
+    ByteBuffer encode(FramePacket packet, ByteBuffer target) {
+      Frame base = acknowledged;
+      if (base != null && deltasSinceSnapshot >= fullSnapshotInterval) {
+        base = null;
+      }
+      Frame next = obtain();
+      next.sequence = nextSequence++;
+      next.copyFrom(packet);
+      int sections = base == null ? next.presentSections() : next.changedSections(base);
+      int changed = mergePoints(packet, base, next);
+      int removed = removedCount;
+
+      byte[] name = packet.frameName.getBytes(StandardCharsets.UTF_8);
+      int size = FIXED_BYTES + name.length + sectionBytes(next, sections);
+      size += removed * BYTES_PER_ID + changed * BYTES_PER_POINT + packet.jpegLength;
+      if (target == null || target.capacity() < size) {
+        target = ByteBuffer.allocate(size);
+      }
+      target.clear();
+      target.order(ByteOrder.LITTLE_ENDIAN);
+
+      target.putInt(MAGIC);
+      target.putShort((short) VERSION);
+      target.putShort((short) packet.type);
+      target.putLong(next.sequence);
+      target.putLong(base == null ? 0 : base.sequence);
+      target.putLong(packet.timestamp);
+      target.putShort((short) name.length);
+      target.put(name);
+      target.putShort((short) next.flags());
+      target.putShort((short) sections);
+      putSections(target, next.packet, sections);
+      target.putInt(removed);
+      target.putInt(changed);
+      for (int i = 0; i < removed; i++) {
+        target.putInt(removedIds[i]);
+      }
+      float[] points = next.packet.points;
+      for (int i = 0; i < changed; i++) {
+        int index = changedIndices[i];
+        int offset = index * FramePacket.FLOATS_PER_POINT;
+        target.putInt(next.packet.pointIds[index]);
+        target.putFloat(points[offset]);
+        target.putFloat(points[offset + 1]);
+        target.putFloat(points[offset + 2]);
+        target.putFloat(points[offset + 3]);
+      }
+      target.putInt(packet.jpegLength);
+      target.put(packet.jpeg, 0, packet.jpegLength);
+      target.flip();
+
+      deltasSinceSnapshot = base == null ? 0 : deltasSinceSnapshot + 1;
+      lastSequence = next.sequence;
+      if (pending.size() == MAX_PENDING) {
+        free.push(pending.poll());
+      }
+      pending.add(next);
+      return target;
+    }
+
+    /** The sequence of the last message {@link #encode} returned. */
+    long getLastSequence() {
+      return lastSequence;
+    }
+
+    /**
+     * Records that the receiver holds frame {@code sequence}, so later frames may be sent relative
+     * to it. Acknowledgements of frames older than the current base are ignored.
+     */
+    void acknowledge(long sequence) {
+      if (acknowledged != null && sequence <= acknowledged.sequence) {
+        return;
+      }
+      while (!pending.isEmpty() && pending.peek().sequence <= sequence) {
+        Frame frame = pending.poll();
+        if (frame.sequence == sequence) {
+          if (acknowledged != null) {
+            free.push(acknowledged);
+          }
+          acknowledged = frame;
+        } else {
+          free.push(frame);
+        }
+      }
+    }
+
+    /** Forgets every frame sent, so the next message is a full snapshot. */
+    void reset() {
+      if (acknowledged != null) {
+        free.push(acknowledged);
+        acknowledged = null;
+      }
+      while (!pending.isEmpty()) {
+        free.push(pending.poll());
+      }
+    }
+
+    private Frame obtain() {
+      Frame frame = free.poll();
+      return frame != null ? frame : new Frame();
+    }
+
+    /**
+     * Fills {@code next}'s points with what the receiver will hold: the packet's points sorted by
+     * ID, keeping the base values of those that did not move. Records the IDs removed since {@code
+     * base} and returns how many points must be sent, listed in {@code changedIndices}.
+     */
+    private int mergePoints(FramePacket packet, Frame base, Frame next) {
+      int count = packet.pointCount;
+      if (sortKeys.length < count) {
+        sortKeys = new long[count];
+        changedIndices = new int[count];
+      }
+      for (int i = 0; i < count; i++) {
+        int id = packet.hasPointIds ? packet.pointIds[i] : i;
+        sortKeys[i] = (long) id << 32 | i;
+      }
+      Arrays.sort(sortKeys, 0, count);
+
+      FramePacket out = next.packet;
+      out.ensurePointCapacity(count);
+      out.hasPointIds = true;
+      int baseCount = base == null ? 0 : base.packet.pointCount;
+      int[] baseIds = base == null ? null : base.packet.pointIds;
+      float[] basePoints = base == null ? null : base.packet.points;
+      if (removedIds.length < baseCount) {
+        removedIds = new int[baseCount];
+      }
+
+      int written = 0;
+      int changed = 0;
+      int removed = 0;
+      int b = 0;
+      for (int i = 0; i < count; i++) {
+        int id = (int) (sortKeys[i] >> 32);
+        if (written > 0 && out.pointIds[written - 1] == id) {
+          continue; // Duplicate ID, keep the first.
+        }
+        int source = (int) sortKeys[i] * FramePacket.FLOATS_PER_POINT;
+        while (b < baseCount && baseIds[b] < id) {
+          removedIds[removed++] = baseIds[b++];
+        }
+        int offset = written * FramePacket.FLOATS_PER_POINT;
+        if (b < baseCount && baseIds[b] == id && near(basePoints, b, packet.points, source)) {
+          System.arraycopy(
+              basePoints, b * FramePacket.FLOATS_PER_POINT, out.points, offset,
+              FramePacket.FLOATS_PER_POINT);
+        } else {
+          System.arraycopy(
+              packet.points, source, out.points, offset, FramePacket.FLOATS_PER_POINT);
+          changedIndices[changed++] = written;
+        }
+        if (b < baseCount && baseIds[b] == id) {
+          b++;
+        }
+        out.pointIds[written++] = id;
+      }
+      while (b < baseCount) {
+        removedIds[removed++] = baseIds[b++];
+      }
+      out.pointCount = written;
+      removedCount = removed;
+      return changed;
+    }
+
+    private boolean near(float[] basePoints, int baseIndex, float[] points, int offset) {
+      int baseOffset = baseIndex * FramePacket.FLOATS_PER_POINT;
+      for (int i = 0; i < FramePacket.FLOATS_PER_POINT; i++) {
+        if (!(Math.abs(basePoints[baseOffset + i] - points[offset + i]) <= pointTolerance)) {
+          return false;
+        }
+      }
+      return true;
+    }
+  }
+
+  /**
+   * Rebuilds full frames from messages. Keeps the last few decoded frames for later messages to
+   * refer to.
+   */
+  static final class Decoder {
+    private static final int HISTORY = 16;
+
+    private final Frame[] history = new Frame[HISTORY];
+    private int historyEnd;
+
+    /**
+     * Decodes one message from {@code source} into {@code packet}, reusing its arrays, and
+     * returns its sequence. The source position is advanced past the message.
+     *
+     * @throws IllegalArgumentException if the message is malformed or of an unsupported version.
+     * @throws IllegalStateException if the frame it refers to is not known, in which case the
+     *     sender should start over with a full snapshot.
+     */
+    long decode(ByteBuffer source, FramePacket packet) {
+      ByteOrder originalOrder = source.order();
+      source.order(ByteOrder.LITTLE_ENDIAN);
+      try {
+        if (source.getInt() != MAGIC) {
+          throw new IllegalArgumentException("Not a frame delta");
+        }
+        int version = source.getShort() & 0xFFFF;
+        if (version > VERSION) {
+          throw new IllegalArgumentException("Unsupported frame delta version " + version);
+        }
+        int type = source.getShort() & 0xFFFF;
+        long sequence = source.getLong();
+        long baseSequence = source.getLong();
+        Frame base = null;
+        if (baseSequence != 0) {
+          base = find(baseSequence);
+          if (base == null) {
+            throw new IllegalStateException("Unknown base frame " + baseSequence);
+          }
+        }
+
+        packet.reset(type);
+        packet.timestamp = source.getLong();
+        byte[] name = new byte[source.getShort() & 0xFFFF];
+        source.get(name);
+        packet.frameName = new String(name, StandardCharsets.UTF_8);
+        int flags = source.getShort() & 0xFFFF;
+        int sections = source.getShort() & 0xFFFF;
+        if (base != null) {
+          copySections(base.packet, packet, ALL_SECTIONS & ~sections);
+        }
+        getSections(source, packet, sections);
+        packet.hasViewProjection = (flags & FLAG_VIEW_PROJECTION) != 0;
+        packet.hasAnchor = (flags & FLAG_ANCHOR) != 0;
+        packet.hasIntrinsics = (flags & FLAG_INTRINSICS) != 0;
+        packet.hasQuality = (flags & FLAG_QUALITY) != 0;
+
+        int removed = source.getInt();
+        int changed = source.getInt();
+        if (removed < 0
+            || changed < 0
+            || (long) removed * BYTES_PER_ID + (long) changed * BYTES_PER_POINT
+                > source.remaining()) {
+          throw new IllegalArgumentException("Bad point counts " + removed + ", " + changed);
+        }
+        applyPoints(source, base == null ? null : base.packet, removed, changed, packet);
+
+        int jpegLength = source.getInt();
+        if (jpegLength < 0 || jpegLength > source.remaining()) {
+          throw new IllegalArgumentException("Bad JPEG length " + jpegLength);
+        }
+        packet.ensureJpegCapacity(jpegLength);
+        source.get(packet.jpeg, 0, jpegLength);
+        packet.jpegLength = jpegLength;
+
+        remember(sequence, packet);
+        return sequence;
+      } catch (BufferUnderflowException e) {
+        throw new IllegalArgumentException("Frame delta truncated", e);
+      } finally {
+        source.order(originalOrder);
+      }
+    }
+
+    /** Forgets every frame decoded, for example when the sender reconnects. */
+    void reset() {
+      Arrays.fill(history, null);
+    }
+
+    private Frame find(long sequence) {
+      for (Frame frame : history) {
+        if (frame != null && frame.sequence == sequence) {
+          return frame;
+        }
+      }
+      return null;
+    }
+
+    private void remember(long sequence, FramePacket packet) {
+      int slot = historyEnd++ % HISTORY;
+      Frame frame = history[slot];
+      if (frame == null) {
+        frame = new Frame();
+        history[slot] = frame;
+      }
+      frame.sequence = sequence;
+      frame.copyFrom(packet);
+      frame.packet.ensurePointCapacity(packet.pointCount);
+      System.arraycopy(
+          packet.points, 0, frame.packet.points, 0,
+          packet.pointCount * FramePacket.FLOATS_PER_POINT);
+      System.arraycopy(packet.pointIds, 0, frame.packet.pointIds, 0, packet.pointCount);
+      frame.packet.pointCount = packet.pointCount;
+      frame.packet.hasPointIds = true;
+    }
+
+    /** Merges the base points, minus the removed ones, with the changed ones, all sorted by ID. */
+    private static void applyPoints(
+        ByteBuffer source, FramePacket base, int removed, int changed, FramePacket out) {
+      int baseCount = base == null ? 0 : base.pointCount;
+      out.ensurePointCapacity(baseCount + changed);
+      out.hasPointIds = true;
+      int[] removedIds = new int[removed];
+      for (int i = 0; i < removed; i++) {
+        removedIds[i] = source.getInt();
+      }
+
+      int written = 0;
+      int b = 0;
+      int r = 0;
+      for (int c = 0; c <= changed; c++) {
+        int id = 0;
+        if (c < changed) {
+          id = source.getInt();
+        }
+        // Copy the base points that come before this one and were not removed.
+        while (b < baseCount && (c == changed || base.pointIds[b] < id)) {
+          int baseId = base.pointIds[b];
+          while (r < removed && removedIds[r] < baseId) {
+            r++;
+          }
+          if (r == removed || removedIds[r] != baseId) {
+            copyPoint(base, b, out, written++);
+          }
+          b++;
+        }
+        if (c == changed) {
+          break;
+        }
+        if (b < baseCount && base.pointIds[b] == id) {
+          b++; // Replaced.
+        }
+        int offset = written * FramePacket.FLOATS_PER_POINT;
+        out.pointIds[written] = id;
+        out.points[offset] = source.getFloat();
+        out.points[offset + 1] = source.getFloat();
+        out.points[offset + 2] = source.getFloat();
+        out.points[offset + 3] = source.getFloat();
+        written++;
+      }
+      out.pointCount = written;
+    }
+
+    private static void copyPoint(FramePacket from, int index, FramePacket to, int toIndex) {
+      System.arraycopy(
+          from.points, index * FramePacket.FLOATS_PER_POINT,
+          to.points, toIndex * FramePacket.FLOATS_PER_POINT,
+          FramePacket.FLOATS_PER_POINT);
+      to.pointIds[toIndex] = from.pointIds[index];
+    }
+  }
+
+  /** A frame as the receiver holds it: every section, and the points sorted by ID. No JPEG. */
+  private static final class Frame {
+    long sequence;
+    final FramePacket packet = new FramePacket();
+
+    /** Copies everything but the points and the JPEG. */
+    void copyFrom(FramePacket from) {
+      packet.reset(from.type);
+      packet.timestamp = from.timestamp;
+      packet.frameName = from.frameName;
+      packet.hasViewProjection = from.hasViewProjection;
+      packet.hasAnchor = from.hasAnchor;
+      packet.hasIntrinsics = from.hasIntrinsics;
+      packet.hasQuality = from.hasQuality;
+      copySections(from, packet, ALL_SECTIONS);
+    }
+
+    int flags() {
+      return (packet.hasViewProjection ? FLAG_VIEW_PROJECTION : 0)
+          | (packet.hasAnchor ? FLAG_ANCHOR : 0)
+          | (packet.hasIntrinsics ? FLAG_INTRINSICS : 0)
+          | (packet.hasQuality ? FLAG_QUALITY : 0);
+    }
+
+    /** The sections this frame has; a full snapshot sends all of them. */
+    int presentSections() {
+      int sections = ALL_SECTIONS;
+      if (!packet.hasViewProjection) {
+        sections &= ~(SECTION_VIEW_MATRIX | SECTION_PROJECTION_MATRIX);
+      }
+      if (!packet.hasAnchor) {
+        sections &= ~SECTION_ANCHOR_POSITION;
+      }
+      if (!packet.hasIntrinsics) {
+        sections &= ~SECTION_INTRINSICS;
+      }
+      if (!packet.hasQuality) {
+        sections &= ~SECTION_QUALITY;
+      }
+      return sections;
+    }
+
+    int changedSections(Frame base) {
+      FramePacket a = packet;
+      FramePacket b = base.packet;
+      int sections = 0;
+      if (!same(a.cameraPose, b.cameraPose, FramePacket.FLOATS_PER_POSE)) {
+        sections |= SECTION_CAMERA_POSE;
+      }
+      if (!same(a.displayOrientedPose, b.displayOrientedPose, FramePacket.FLOATS_PER_POSE)) {
+        sections |= SECTION_DISPLAY_ORIENTED_POSE;
+      }
+      if (!same(a.cameraPoseMatrix, b.cameraPoseMatrix, FramePacket.FLOATS_PER_MATRIX)) {
+        sections |= SECTION_CAMERA_POSE_MATRIX;
+      }
+      if (!same(
+          a.displayOrientedPoseMatrix,
+          b.displayOrientedPoseMatrix,
+          FramePacket.FLOATS_PER_MATRIX)) {
+        sections |= SECTION_DISPLAY_ORIENTED_POSE_MATRIX;
+      }
+      if (a.hasViewProjection
+          && !(b.hasViewProjection
+              && same(a.viewMatrix, b.viewMatrix, FramePacket.FLOATS_PER_MATRIX))) {
+        sections |= SECTION_VIEW_MATRIX;
+      }
+      if (a.hasViewProjection
+          && !(b.hasViewProjection
+              && same(a.projectionMatrix, b.projectionMatrix, FramePacket.FLOATS_PER_MATRIX))) {
+        sections |= SECTION_PROJECTION_MATRIX;
+      }
+      if (a.hasAnchor && !(b.hasAnchor && same(a.anchorPosition, b.anchorPosition, 3))) {
+        sections |= SECTION_ANCHOR_POSITION;
+      }
+      if (a.hasIntrinsics
+          && !(b.hasIntrinsics
+              && same(a.intrinsics, b.intrinsics, FramePacket.FLOATS_PER_INTRINSICS))) {
+        sections |= SECTION_INTRINSICS;
+      }
+      if (a.anchorCount != b.anchorCount
+          || !same(a.anchorPoses, b.anchorPoses, a.anchorCount * FramePacket.FLOATS_PER_POSE)) {
+        sections |= SECTION_ANCHOR_POSES;
+      }
+      if (a.hasQuality
+          && !(b.hasQuality && same(a.quality, b.quality, FramePacket.FLOATS_PER_QUALITY))) {
+        sections |= SECTION_QUALITY;
+      }
+      return sections;
+    }
+  }
+
+  private static int sectionBytes(Frame frame, int sections) {
+    int floats = 0;
+    if ((sections & SECTION_CAMERA_POSE) != 0) {
+      floats += FramePacket.FLOATS_PER_POSE;
+    }
+    if ((sections & SECTION_DISPLAY_ORIENTED_POSE) != 0) {
+      floats += FramePacket.FLOATS_PER_POSE;
+    }
+    if ((sections & SECTION_CAMERA_POSE_MATRIX) != 0) {
+      floats += FramePacket.FLOATS_PER_MATRIX;
+    }
+    if ((sections & SECTION_DISPLAY_ORIENTED_POSE_MATRIX) != 0) {
+      floats += FramePacket.FLOATS_PER_MATRIX;
+    }
+    if ((sections & SECTION_VIEW_MATRIX) != 0) {
+      floats += FramePacket.FLOATS_PER_MATRIX;
+    }
+    if ((sections & SECTION_PROJECTION_MATRIX) != 0) {
+      floats += FramePacket.FLOATS_PER_MATRIX;
+    }
+    if ((sections & SECTION_ANCHOR_POSITION) != 0) {
+      floats += 3;
+    }
+    if ((sections & SECTION_INTRINSICS) != 0) {
+      floats += FramePacket.FLOATS_PER_INTRINSICS;
+    }
+    if ((sections & SECTION_QUALITY) != 0) {
+      floats += FramePacket.FLOATS_PER_QUALITY;
+    }
+    int bytes = floats * BYTES_PER_FLOAT;
+    if ((sections & SECTION_ANCHOR_POSES) != 0) {
+      bytes += 4 + frame.packet.anchorCount * FramePacket.FLOATS_PER_POSE * BYTES_PER_FLOAT;
+    }
+    return bytes;
+  }
+
+  private static void putSections(ByteBuffer target, FramePacket packet, int sections) {
+    if ((sections & SECTION_CAMERA_POSE) != 0) {
+      putFloats(target, packet.cameraPose, FramePacket.FLOATS_PER_POSE);
+    }
+    if ((sections & SECTION_DISPLAY_ORIENTED_POSE) != 0) {
+      putFloats(target, packet.displayOrientedPose, FramePacket.FLOATS_PER_POSE);
+    }
+    if ((sections & SECTION_CAMERA_POSE_MATRIX) != 0) {
+      putFloats(target, packet.cameraPoseMatrix, FramePacket.FLOATS_PER_MATRIX);
+    }
+    if ((sections & SECTION_DISPLAY_ORIENTED_POSE_MATRIX) != 0) {
+      putFloats(target, packet.displayOrientedPoseMatrix, FramePacket.FLOATS_PER_MATRIX);
+    }
+    if ((sections & SECTION_VIEW_MATRIX) != 0) {
+      putFloats(target, packet.viewMatrix, FramePacket.FLOATS_PER_MATRIX);
+    }
+    if ((sections & SECTION_PROJECTION_MATRIX) != 0) {
+      putFloats(target, packet.projectionMatrix, FramePacket.FLOATS_PER_MATRIX);
+    }
+    if ((sections & SECTION_ANCHOR_POSITION) != 0) {
+      putFloats(target, packet.anchorPosition, 3);
+    }
+    if ((sections & SECTION_INTRINSICS) != 0) {
+      putFloats(target, packet.intrinsics, FramePacket.FLOATS_PER_INTRINSICS);
+    }
+    if ((sections & SECTION_ANCHOR_POSES) != 0) {
+      target.putInt(packet.anchorCount);
+      putFloats(target, packet.anchorPoses, packet.anchorCount * FramePacket.FLOATS_PER_POSE);
+    }
+    if ((sections & SECTION_QUALITY) != 0) {
+      putFloats(target, packet.quality, FramePacket.FLOATS_PER_QUALITY);
+    }
+  }
+
+  private static void getSections(ByteBuffer source, FramePacket packet, int sections) {
+    if ((sections & SECTION_CAMERA_POSE) != 0) {
+      getFloats(source, packet.cameraPose, FramePacket.FLOATS_PER_POSE);
+    }
+    if ((sections & SECTION_DISPLAY_ORIENTED_POSE) != 0) {
+      getFloats(source, packet.displayOrientedPose, FramePacket.FLOATS_PER_POSE);
+    }
+    if ((sections & SECTION_CAMERA_POSE_MATRIX) != 0) {
+      getFloats(source, packet.cameraPoseMatrix, FramePacket.FLOATS_PER_MATRIX);
+    }
+    if ((sections & SECTION_DISPLAY_ORIENTED_POSE_MATRIX) != 0) {
+      getFloats(source, packet.displayOrientedPoseMatrix, FramePacket.FLOATS_PER_MATRIX);
+    }
+    if ((sections & SECTION_VIEW_MATRIX) != 0) {
+      getFloats(source, packet.viewMatrix, FramePacket.FLOATS_PER_MATRIX);
+    }
+    if ((sections & SECTION_PROJECTION_MATRIX) != 0) {
+      getFloats(source, packet.projectionMatrix, FramePacket.FLOATS_PER_MATRIX);
+    }
+    if ((sections & SECTION_ANCHOR_POSITION) != 0) {
+      getFloats(source, packet.anchorPosition, 3);
+    }
+    if ((sections & SECTION_INTRINSICS) != 0) {
+      getFloats(source, packet.intrinsics, FramePacket.FLOATS_PER_INTRINSICS);
+    }
+    if ((sections & SECTION_ANCHOR_POSES) != 0) {
+      int anchors = source.getInt();
+      int maxAnchors = source.remaining() / (FramePacket.FLOATS_PER_POSE * BYTES_PER_FLOAT);
+      if (anchors < 0 || anchors > maxAnchors) {
+        throw new IllegalArgumentException("Bad anchor count " + anchors);
+      }
+      packet.ensureAnchorCapacity(anchors);
+      getFloats(source, packet.anchorPoses, anchors * FramePacket.FLOATS_PER_POSE);
+      packet.anchorCount = anchors;
+    }
+    if ((sections & SECTION_QUALITY) != 0) {
+      getFloats(source, packet.quality, FramePacket.FLOATS_PER_QUALITY);
+    }
+  }
+
+  /** Copies the given sections; the caller sets the has-flags. */
+  private static void copySections(FramePacket from, FramePacket to, int sections) {
+    if ((sections & SECTION_CAMERA_POSE) != 0) {
+      System.arraycopy(from.cameraPose, 0, to.cameraPose, 0, FramePacket.FLOATS_PER_POSE);
+    }
+    if ((sections & SECTION_DISPLAY_ORIENTED_POSE) != 0) {
+      System.arraycopy(
+          from.displayOrientedPose, 0, to.displayOrientedPose, 0, FramePacket.FLOATS_PER_POSE);
+    }
+    if ((sections & SECTION_CAMERA_POSE_MATRIX) != 0) {
+      System.arraycopy(
+          from.cameraPoseMatrix, 0, to.cameraPoseMatrix, 0, FramePacket.FLOATS_PER_MATRIX);
+    }
+    if ((sections & SECTION_DISPLAY_ORIENTED_POSE_MATRIX) != 0) {
+      System.arraycopy(
+          from.displayOrientedPoseMatrix, 0,
+          to.displayOrientedPoseMatrix, 0,
+          FramePacket.FLOATS_PER_MATRIX);
+    }
+    if ((sections & SECTION_VIEW_MATRIX) != 0) {
+      System.arraycopy(from.viewMatrix, 0, to.viewMatrix, 0, FramePacket.FLOATS_PER_MATRIX);
+    }
+    if ((sections & SECTION_PROJECTION_MATRIX) != 0) {
+      System.arraycopy(
+          from.projectionMatrix, 0, to.projectionMatrix, 0, FramePacket.FLOATS_PER_MATRIX);
+    }
+    if ((sections & SECTION_ANCHOR_POSITION) != 0) {
+      System.arraycopy(from.anchorPosition, 0, to.anchorPosition, 0, 3);
+    }
+    if ((sections & SECTION_INTRINSICS) != 0) {
+      System.arraycopy(from.intrinsics, 0, to.intrinsics, 0, FramePacket.FLOATS_PER_INTRINSICS);
+    }
+    if ((sections & SECTION_ANCHOR_POSES) != 0) {
+      to.ensureAnchorCapacity(from.anchorCount);
+      System.arraycopy(
+          from.anchorPoses, 0, to.anchorPoses, 0, from.anchorCount * FramePacket.FLOATS_PER_POSE);
+      to.anchorCount = from.anchorCount;
+    }
+    if ((sections & SECTION_QUALITY) != 0) {
+      System.arraycopy(from.quality, 0, to.quality, 0, FramePacket.FLOATS_PER_QUALITY);
+    }
+  }
+
+  /** Bitwise equality, so that a section is only skipped when the receiver already has it. */
+  private static boolean same(float[] a, float[] b, int count) {
+    for (int i = 0; i < count; i++) {
+      if (Float.floatToIntBits(a[i]) != Float.floatToIntBits(b[i])) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static void putFloats(ByteBuffer target, float[] values, int count) {
+    target.asFloatBuffer().put(values, 0, count);
+    target.position(target.position() + count * BYTES_PER_FLOAT);
+  }
+
+  private static void getFloats(ByteBuffer source, float[] values, int count) {
+    source.asFloatBuffer().get(values, 0, count);
+    source.position(source.position() + count * BYTES_PER_FLOAT);
+  }
+}
@@ -0,0 +1,137 @@
+package com.google.ar.core.examples.java.helloar;
+
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+
+/**
+ * Plain-data snapshot of everything that is uploaded for a single frame. Holds no ARCore objects
+ * so it can be filled on the GL thread and encoded on any other thread, and all arrays are
+ * allocated once and reused between frames.
+ */
+class FramePacket {
+
+  static final int TYPE_FRAME = 1;
+  static final int TYPE_LOCALISE = 2;
+
+  static final int FLOATS_PER_POSE = 7; // tx, ty, tz, qx, qy, qz, qw.
+  static final int FLOATS_PER_MATRIX = 16; // Column-major, as android.opengl.Matrix.
+  static final int FLOATS_PER_POINT = 4; // X, Y, Z, confidence.
+  static final int FLOATS_PER_INTRINSICS = 6; // fx, fy, cx, cy, image width, image height.
+  // Relative sharpness, Laplacian variance, mean luma, underexposed and overexposed fractions.
+  static final int FLOATS_PER_QUALITY = 5;
+
+  int type = TYPE_FRAME;
+  long timestamp;
+  String frameName = "";
+
+  final float[] cameraPose = new float[FLOATS_PER_POSE];
+  final float[] displayOrientedPose = new float[FLOATS_PER_POSE];
+  final float[] cameraPoseMatrix = new float[FLOATS_PER_MATRIX];
+  final float[] displayOrientedPoseMatrix = new float[FLOATS_PER_MATRIX];
+
+  boolean hasViewProjection;
+  final float[] viewMatrix = new float[FLOATS_PER_MATRIX];
+  final float[] projectionMatrix = new float[FLOATS_PER_MATRIX];
+
+  boolean hasAnchor;
+  final float[] anchorPosition = new float[3];
+
+  boolean hasIntrinsics;
+  final float[] intrinsics = new float[FLOATS_PER_INTRINSICS];
+
+  // Image quality as measured by FrameQualityAnalyzer.
+  boolean hasQuality;
+  final float[] quality = new float[FLOATS_PER_QUALITY];
+
+  // Poses of every anchor in the session, FLOATS_PER_POSE each.
+  float[] anchorPoses = new float[0];
+  int anchorCount;
+
+  float[] points = new float[0];
+  int pointCount;
+  // ARCore IDs of the points, when hasPointIds.
+  int[] pointIds = new int[0];
+  boolean hasPointIds;
+
+  byte[] jpeg = new byte[0];
+  int jpegLength;
+
+  /** Clears the optional sections so the packet can be refilled for the next frame. */
+  void reset(int type) {
+    this.type = type;
+    timestamp = 0;
+    frameName = "";
+    hasViewProjection = false;
+    hasAnchor = false;
+    hasIntrinsics = false;
+    hasQuality = false;
+    anchorCount = 0;
+    pointCount = 0;
+    hasPointIds = false;
+    jpegLength = 0;
+  }
+
+  /** Copies the remaining points of {@code cloud} without moving its position. */
+  void setPoints(FloatBuffer cloud) {
+    setPoints(cloud, null);
+  }
+
+  /**
+   * Copies the remaining points of {@code cloud} and, if {@code ids} is not null, their ARCore
+   * IDs, one per point. Neither buffer's position moves.
+   */
+  void setPoints(FloatBuffer cloud, IntBuffer ids) {
+    hasPointIds = false;
+    if (cloud == null) {
+      pointCount = 0;
+      return;
+    }
+    int floats = cloud.remaining() - cloud.remaining() % FLOATS_PER_POINT;
+    ensurePointCapacity(floats / FLOATS_PER_POINT);
+    cloud.duplicate().get(points, 0, floats);
+    pointCount = floats / FLOATS_PER_POINT;
+    if (ids != null && ids.remaining() >= pointCount) {
+      ids.duplicate().get(pointIds, 0, pointCount);
+      hasPointIds = true;
+    }
+  }
+
+  /**
+   * Rescales the intrinsics to the image downscaled by {@code factor}, as by
+   * {@link AdaptiveJpegEncoder}: the size is divided and rounded down, and each output pixel
+   * averages a {@code factor} x {@code factor} block, so pixel centers shift by half a block.
+   */
+  void downscaleIntrinsics(int factor) {
+    intrinsics[0] /= factor;
+    intrinsics[1] /= factor;
+    intrinsics[2] = (intrinsics[2] + 0.5f) / factor - 0.5f;
+    intrinsics[3] = (intrinsics[3] + 0.5f) / factor - 0.5f;
+    intrinsics[4] = (int) intrinsics[4] / factor;
+    intrinsics[5] = (int) intrinsics[5] / factor;
+  }
+
+  void setJpeg(byte[] data, int length) {
+    ensureJpegCapacity(length);
+    System.arraycopy(data, 0, jpeg, 0, length);
+    jpegLength = length;
+  }
+
+  void ensureAnchorCapacity(int count) {
+    if (anchorPoses.length < count * FLOATS_PER_POSE) {
+      anchorPoses = new float[count * FLOATS_PER_POSE];
+    }
+  }
+
+  void ensurePointCapacity(int count) {
+    if (points.length < count * FLOATS_PER_POINT) {
+      points = new float[count * FLOATS_PER_POINT];
+      pointIds = new int[count];
+    }
+  }
+
+  void ensureJpegCapacity(int length) {
+    if (jpeg.length < length) {
+      jpeg = new byte[length];
+    }
+  }
+}
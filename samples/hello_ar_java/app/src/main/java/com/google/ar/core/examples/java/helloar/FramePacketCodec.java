@@ -0,0 +1,311 @@
+package com.google.ar.core.examples.java.helloar;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Binary wire format for {@link FramePacket}, used as the compact alternative to the JSON body
+ * built by {@link ClientWrapper}. Everything is little-endian:
+ *
+ * <pre>
+ *   u32  magic            'A' 'R' 'F' 'P'
+ *   u16  version          {@link #VERSION}
+ *   u16  type             {@link FramePacket#TYPE_FRAME} or {@link FramePacket#TYPE_LOCALISE}
+ *   u32  header length    bytes of header that follow this field
+ *   i64  timestamp        milliseconds
+ *   u16  block count
+ *   u16  name length      followed by the UTF-8 frame name
+ *   blocks:
+ *     u16 block id, u16 reserved, u32 payload length, payload
+ * </pre>
+ *
+ * Poses, matrices and points are raw float blocks and the JPEG is stored as raw bytes. Decoders
+ * skip block ids they do not know, so new blocks can be added without bumping the version.
+ *
+ * <p>This class has no Android dependencies so the server side and JVM tests can decode frames.
+ */
+final class FramePacketCodec {
+
+  static final String MEDIA_TYPE = "application/x-ar-frame";
+  static final int MAGIC = 'A' | 'R' << 8 | 'F' << 16 | 'P' << 24;
+  static final int VERSION = 1;
+
+  static final int BLOCK_CAMERA_POSE = 1;
+  static final int BLOCK_DISPLAY_ORIENTED_POSE = 2;
+  static final int BLOCK_CAMERA_POSE_MATRIX = 3;
+  static final int BLOCK_DISPLAY_ORIENTED_POSE_MATRIX = 4;
+  static final int BLOCK_VIEW_MATRIX = 5;
+  static final int BLOCK_PROJECTION_MATRIX = 6;
+  static final int BLOCK_ANCHOR_POSITION = 7;
+  static final int BLOCK_POINT_CLOUD = 8;
+  static final int BLOCK_JPEG = 9;
+  static final int BLOCK_INTRINSICS = 10;
+  static final int BLOCK_ANCHOR_POSES = 11;
+  static final int BLOCK_IMAGE_QUALITY = 12;
+
+  private static final int PREAMBLE_BYTES = 4 + 2 + 2 + 4;
+  private static final int BLOCK_HEADER_BYTES = 2 + 2 + 4;
+  private static final int BYTES_PER_FLOAT = Float.SIZE / 8;
+
+  private FramePacketCodec() {}
+
+  /** Returns the exact number of bytes {@link #encode} will write for {@code packet}. */
+  static int encodedSize(FramePacket packet) {
+    int size = PREAMBLE_BYTES + headerLength(packet);
+    size += 2 * floatBlockSize(FramePacket.FLOATS_PER_POSE);
+    size += 2 * floatBlockSize(FramePacket.FLOATS_PER_MATRIX);
+    if (packet.hasViewProjection) {
+      size += 2 * floatBlockSize(FramePacket.FLOATS_PER_MATRIX);
+    }
+    if (packet.hasAnchor) {
+      size += floatBlockSize(3);
+    }
+    if (packet.hasIntrinsics) {
+      size += floatBlockSize(FramePacket.FLOATS_PER_INTRINSICS);
+    }
+    if (packet.hasQuality) {
+      size += floatBlockSize(FramePacket.FLOATS_PER_QUALITY);
+    }
+    if (packet.anchorCount > 0) {
+      size += floatBlockSize(packet.anchorCount * FramePacket.FLOATS_PER_POSE);
+    }
+    if (packet.pointCount > 0) {
+      size += floatBlockSize(packet.pointCount * FramePacket.FLOATS_PER_POINT);
+    }
+    if (packet.jpegLength > 0) {
+      size += BLOCK_HEADER_BYTES + packet.jpegLength;
+    }
+    return size;
+  }
+
+  /**
+   * Encodes {@code packet} into {@code target}, reusing it when it is large enough. Returns the
+   * buffer holding the message, flipped and ready to be read.
+   */
+  static ByteBuffer encode(FramePacket packet, ByteBuffer target) {
+    int size = encodedSize(packet);
+    if (target == null || target.capacity() < size) {
+      target = ByteBuffer.allocate(size);
+    }
+    target.clear();
+    target.order(ByteOrder.LITTLE_ENDIAN);
+
+    byte[] name = packet.frameName.getBytes(StandardCharsets.UTF_8);
+    target.putInt(MAGIC);
+    target.putShort((short) VERSION);
+    target.putShort((short) packet.type);
+    target.putInt(headerLength(packet));
+    target.putLong(packet.timestamp);
+    target.putShort((short) blockCount(packet));
+    target.putShort((short) name.length);
+    target.put(name);
+
+    putFloats(target, BLOCK_CAMERA_POSE, packet.cameraPose, FramePacket.FLOATS_PER_POSE);
+    putFloats(
+        target,
+        BLOCK_DISPLAY_ORIENTED_POSE,
+        packet.displayOrientedPose,
+        FramePacket.FLOATS_PER_POSE);
+    putFloats(
+        target, BLOCK_CAMERA_POSE_MATRIX, packet.cameraPoseMatrix, FramePacket.FLOATS_PER_MATRIX);
+    putFloats(
+        target,
+        BLOCK_DISPLAY_ORIENTED_POSE_MATRIX,
+        packet.displayOrientedPoseMatrix,
+        FramePacket.FLOATS_PER_MATRIX);
+    if (packet.hasViewProjection) {
+      putFloats(target, BLOCK_VIEW_MATRIX, packet.viewMatrix, FramePacket.FLOATS_PER_MATRIX);
+      putFloats(
+          target, BLOCK_PROJECTION_MATRIX, packet.projectionMatrix, FramePacket.FLOATS_PER_MATRIX);
+    }
+    if (packet.hasAnchor) {
+      putFloats(target, BLOCK_ANCHOR_POSITION, packet.anchorPosition, 3);
+    }
+    if (packet.hasIntrinsics) {
+      putFloats(target, BLOCK_INTRINSICS, packet.intrinsics, FramePacket.FLOATS_PER_INTRINSICS);
+    }
+    if (packet.hasQuality) {
+      putFloats(target, BLOCK_IMAGE_QUALITY, packet.quality, FramePacket.FLOATS_PER_QUALITY);
+    }
+    if (packet.anchorCount > 0) {
+      putFloats(
+          target,
+          BLOCK_ANCHOR_POSES,
+          packet.anchorPoses,
+          packet.anchorCount * FramePacket.FLOATS_PER_POSE);
+    }
+    if (packet.pointCount > 0) {
+      putFloats(
+          target,
+          BLOCK_POINT_CLOUD,
+          packet.points,
+          packet.pointCount * FramePacket.FLOATS_PER_POINT);
+    }
+    if (packet.jpegLength > 0) {
+      putBlockHeader(target, BLOCK_JPEG, packet.jpegLength);
+      target.put(packet.jpeg, 0, packet.jpegLength);
+    }
+
+    target.flip();
+    return target;
+  }
+
+  /**
+   * Decodes one message from {@code source} into {@code packet}, reusing its arrays. The source
+   * position is advanced past the message.
+   *
+   * @throws IllegalArgumentException if the message is not a frame packet of a supported version,
+   *     or is cut short.
+   */
+  static void decode(ByteBuffer source, FramePacket packet) {
+    ByteOrder originalOrder = source.order();
+    source.order(ByteOrder.LITTLE_ENDIAN);
+    try {
+      if (source.getInt() != MAGIC) {
+        throw new IllegalArgumentException("Not a frame packet");
+      }
+      int version = source.getShort() & 0xFFFF;
+      if (version > VERSION) {
+        throw new IllegalArgumentException("Unsupported frame packet version " + version);
+      }
+      packet.reset(source.getShort() & 0xFFFF);
+
+      int headerLength = source.getInt();
+      checkLength(source, headerLength);
+      int blocksStart = source.position() + headerLength;
+      packet.timestamp = source.getLong();
+      int blockCount = source.getShort() & 0xFFFF;
+      byte[] name = new byte[source.getShort() & 0xFFFF];
+      source.get(name);
+      packet.frameName = new String(name, StandardCharsets.UTF_8);
+      source.position(blocksStart);
+
+      for (int i = 0; i < blockCount; i++) {
+        int id = source.getShort() & 0xFFFF;
+        source.getShort(); // Reserved.
+        int length = source.getInt();
+        checkLength(source, length);
+        int next = source.position() + length;
+        switch (id) {
+          case BLOCK_CAMERA_POSE:
+            getFloats(source, packet.cameraPose, length);
+            break;
+          case BLOCK_DISPLAY_ORIENTED_POSE:
+            getFloats(source, packet.displayOrientedPose, length);
+            break;
+          case BLOCK_CAMERA_POSE_MATRIX:
+            getFloats(source, packet.cameraPoseMatrix, length);
+            break;
+          case BLOCK_DISPLAY_ORIENTED_POSE_MATRIX:
+            getFloats(source, packet.displayOrientedPoseMatrix, length);
+            break;
+          case BLOCK_VIEW_MATRIX:
+            getFloats(source, packet.viewMatrix, length);
+            packet.hasViewProjection = true;
+            break;
+          case BLOCK_PROJECTION_MATRIX:
+            getFloats(source, packet.projectionMatrix, length);
+            packet.hasViewProjection = true;
+            break;
+          case BLOCK_ANCHOR_POSITION:
+            getFloats(source, packet.anchorPosition, length);
+            packet.hasAnchor = true;
+            break;
+          case BLOCK_INTRINSICS:
+            getFloats(source, packet.intrinsics, length);
+            packet.hasIntrinsics = true;
+            break;
+          case BLOCK_IMAGE_QUALITY:
+            getFloats(source, packet.quality, length);
+            packet.hasQuality = true;
+            break;
+          case BLOCK_ANCHOR_POSES:
+            int anchors = length / (BYTES_PER_FLOAT * FramePacket.FLOATS_PER_POSE);
+            packet.ensureAnchorCapacity(anchors);
+            getFloats(
+                source, packet.anchorPoses, anchors * FramePacket.FLOATS_PER_POSE * BYTES_PER_FLOAT);
+            packet.anchorCount = anchors;
+            break;
+          case BLOCK_POINT_CLOUD:
+            int count = length / (BYTES_PER_FLOAT * FramePacket.FLOATS_PER_POINT);
+            packet.ensurePointCapacity(count);
+            getFloats(source, packet.points, count * FramePacket.FLOATS_PER_POINT * BYTES_PER_FLOAT);
+            packet.pointCount = count;
+            break;
+          case BLOCK_JPEG:
+            packet.ensureJpegCapacity(length);
+            source.get(packet.jpeg, 0, length);
+            packet.jpegLength = length;
+            break;
+          default:
+            // Unknown block from a newer writer, skip it.
+            break;
+        }
+        source.position(next);
+      }
+    } catch (BufferUnderflowException e) {
+      throw new IllegalArgumentException("Truncated frame packet", e);
+    } finally {
+      source.order(originalOrder);
+    }
+  }
+
+  private static void checkLength(ByteBuffer source, int length) {
+    if (length < 0 || length > source.remaining()) {
+      throw new IllegalArgumentException("Truncated frame packet");
+    }
+  }
+
+  private static int headerLength(FramePacket packet) {
+    return 8 + 2 + 2 + packet.frameName.getBytes(StandardCharsets.UTF_8).length;
+  }
+
+  private static int blockCount(FramePacket packet) {
+    int count = 4;
+    if (packet.hasViewProjection) {
+      count += 2;
+    }
+    if (packet.hasAnchor) {
+      count++;
+    }
+    if (packet.hasIntrinsics) {
+      count++;
+    }
+    if (packet.hasQuality) {
+      count++;
+    }
+    if (packet.anchorCount > 0) {
+      count++;
+    }
+    if (packet.pointCount > 0) {
+      count++;
+    }
+    if (packet.jpegLength > 0) {
+      count++;
+    }
+    return count;
+  }
+
+  private static int floatBlockSize(int floats) {
+    return BLOCK_HEADER_BYTES + floats * BYTES_PER_FLOAT;
+  }
+
+  private static void putBlockHeader(ByteBuffer target, int id, int length) {
+    target.putShort((short) id);
+    target.putShort((short) 0);
+    target.putInt(length);
+  }
+
+  private static void putFloats(ByteBuffer target, int id, float[] values, int count) {
+    putBlockHeader(target, id, count * BYTES_PER_FLOAT);
+    target.asFloatBuffer().put(values, 0, count);
+    target.position(target.position() + count * BYTES_PER_FLOAT);
+  }
+
+  private static void getFloats(ByteBuffer source, float[] values, int lengthBytes) {
+    int count = Math.min(values.length, lengthBytes / BYTES_PER_FLOAT);
+    source.asFloatBuffer().get(values, 0, count);
+  }
+}
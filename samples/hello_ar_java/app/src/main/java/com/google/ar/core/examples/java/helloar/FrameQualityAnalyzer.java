@@ -0,0 +1,294 @@
+package com.google.ar.core.examples.java.helloar;
+
+import android.media.Image;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Measures how sharp and how well exposed camera frames are, so blurred or badly exposed ones are
+ * not picked as keyframes. The GL thread only copies the Y plane into a pooled buffer; a worker
+ * thread downscales it and measures:
+ *
+ * <ul>
+ *   <li>sharpness: the variance of the Laplacian, which motion blur and defocus lower. It depends
+ *       on how textured the scene is, so it is also reported relative to the best recent frame;
+ *   <li>exposure: the mean luma and the fractions of pixels that are nearly black or white.
+ * </ul>
+ *
+ * The latest result is available from {@link #getLatest}. Frames arriving while both buffers are
+ * in use are skipped, so the analyzer never slows down rendering.
+ */
+class FrameQualityAnalyzer {
+
+  /** Quality of one frame. */
+  static final class Quality {
+    /** Camera timestamp of the frame, as {@code Frame.getTimestamp}. */
+    final long timestampNanos;
+    /** Laplacian variance over the best recent frame's, from 0 to 1. */
+    final float sharpness;
+    final float laplacianVariance;
+    /** Mean luma, from 0 to 255. */
+    final float meanLuma;
+    /** Fractions of pixels at most {@link #DARK_LUMA} and at least {@link #BRIGHT_LUMA}. */
+    final float underexposed;
+    final float overexposed;
+
+    Quality(
+        long timestampNanos,
+        float sharpness,
+        float laplacianVariance,
+        float meanLuma,
+        float underexposed,
+        float overexposed) {
+      this.timestampNanos = timestampNanos;
+      this.sharpness = sharpness;
+      this.laplacianVariance = laplacianVariance;
+      this.meanLuma = meanLuma;
+      this.underexposed = underexposed;
+      this.overexposed = overexposed;
+    }
+
+    /** Whether the mean is in a usable range and not too much of the image is clipped. */
+    boolean isWellExposed() {
+      return meanLuma >= MIN_MEAN_LUMA
+          && meanLuma <= MAX_MEAN_LUMA
+          && underexposed + overexposed <= MAX_CLIPPED_FRACTION;
+    }
+
+    /** Copies the values into {@code out}, {@link FramePacket#FLOATS_PER_QUALITY} floats. */
+    void toArray(float[] out) {
+      out[0] = sharpness;
+      out[1] = laplacianVariance;
+      out[2] = meanLuma;
+      out[3] = underexposed;
+      out[4] = overexposed;
+    }
+  }
+
+  static final int DARK_LUMA = 16;
+  static final int BRIGHT_LUMA = 240;
+  private static final float MIN_MEAN_LUMA = 40;
+  private static final float MAX_MEAN_LUMA = 215;
+  private static final float MAX_CLIPPED_FRACTION = 0.3f;
+
+  // Frames are box-filtered down to at most this width before measuring.
+  private static final int ANALYSIS_WIDTH = 320;
+  private static final int BUFFER_COUNT = 2;
+  // How fast the reference for relative sharpness forgets a sharp frame, per frame measured.
+  private static final float REFERENCE_DECAY = 0.99f;
+
+  /** A copied Y plane, and the downscaled image measured from it. */
+  private static final class Sample {
+    long timestampNanos;
+    int width;
+    int height;
+    int rowStride;
+    byte[] luma = new byte[0];
+    int scaledWidth;
+    int scaledHeight;
+    byte[] scaled = new byte[0];
+  }
+
+  private final ArrayBlockingQueue<Sample> freeSamples = new ArrayBlockingQueue<>(BUFFER_COUNT);
+  private final ArrayBlockingQueue<Sample> pendingSamples =
+      new ArrayBlockingQueue<>(BUFFER_COUNT);
+  private final AtomicLong analyzedFrames = new AtomicLong();
+  private final AtomicLong skippedFrames = new AtomicLong();
+  private volatile Quality latest;
+  private Thread thread;
+
+  // Worker thread only.
+  private final int[] histogram = new int[256];
+  private float reference;
+
+  FrameQualityAnalyzer() {
+    for (int i = 0; i < BUFFER_COUNT; i++) {
+      freeSamples.add(new Sample());
+    }
+  }
+
+  synchronized void start() {
+    if (thread != null) {
+      return;
+    }
+    thread = new Thread(this::run, "FrameQualityAnalyzer");
+    thread.start();
+  }
+
+  synchronized void shutdown() {
+    if (thread == null) {
+      return;
+    }
+    thread.interrupt();
+    try {
+      thread.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    thread = null;
+  }
+
+  /**
+   * Copies the Y plane of {@code image} for measuring. Call on the GL thread while the image is
+   * valid; it may be closed as soon as this returns.
+   *
+   * @return false if the frame was skipped because the worker is busy.
+   */
+  boolean submit(Image image, long timestampNanos) {
+    Image.Plane plane = image.getPlanes()[0];
+    return submit(
+        plane.getBuffer(),
+        image.getWidth(),
+        image.getHeight(),
+        plane.getRowStride(),
+        timestampNanos);
+  }
+
+  /**
+   * Copies a Y plane of {@code width} by {@code height} pixels, {@code rowStride} bytes apart, for
+   * measuring. {@code plane}'s position does not move.
+   *
+   * @return false if the frame was skipped because the worker is busy.
+   */
+  boolean submit(ByteBuffer plane, int width, int height, int rowStride, long timestampNanos) {
+    Sample sample = freeSamples.poll();
+    if (sample == null) {
+      skippedFrames.incrementAndGet();
+      return false;
+    }
+    ByteBuffer buffer = plane.duplicate();
+    int length = buffer.remaining();
+    if (sample.luma.length < length) {
+      sample.luma = new byte[length];
+    }
+    buffer.get(sample.luma, 0, length);
+    sample.width = width;
+    sample.height = height;
+    sample.rowStride = rowStride;
+    sample.timestampNanos = timestampNanos;
+    pendingSamples.offer(sample);
+    return true;
+  }
+
+  /** The quality of the most recently measured frame, or null if none was measured yet. */
+  Quality getLatest() {
+    return latest;
+  }
+
+  long getAnalyzedCount() {
+    return analyzedFrames.get();
+  }
+
+  long getSkippedCount() {
+    return skippedFrames.get();
+  }
+
+  private void run() {
+    try {
+      while (!Thread.currentThread().isInterrupted()) {
+        Sample sample = pendingSamples.take();
+        try {
+          latest = measure(sample);
+          analyzedFrames.incrementAndGet();
+        } finally {
+          freeSamples.offer(sample);
+        }
+      }
+    } catch (InterruptedException e) {
+      // Shutting down.
+    }
+  }
+
+  private Quality measure(Sample sample) {
+    downscale(sample);
+    int width = sample.scaledWidth;
+    int height = sample.scaledHeight;
+    byte[] pixels = sample.scaled;
+
+    float variance = laplacianVariance(pixels, width, height);
+    reference = Math.max(variance, reference * REFERENCE_DECAY);
+    float sharpness = reference > 0 ? variance / reference : 0;
+
+    Arrays.fill(histogram, 0);
+    int count = width * height;
+    for (int i = 0; i < count; i++) {
+      histogram[pixels[i] & 0xFF]++;
+    }
+    long sum = 0;
+    int dark = 0;
+    int bright = 0;
+    for (int value = 0; value < histogram.length; value++) {
+      sum += (long) value * histogram[value];
+      if (value <= DARK_LUMA) {
+        dark += histogram[value];
+      } else if (value >= BRIGHT_LUMA) {
+        bright += histogram[value];
+      }
+    }
+    return new Quality(
+        sample.timestampNanos,
+        sharpness,
+        variance,
+        count == 0 ? 0 : (float) sum / count,
+        count == 0 ? 0 : (float) dark / count,
+        count == 0 ? 0 : (float) bright / count);
+  }
+
+  /** Box-filters the copied plane by a whole factor so it is at most ANALYSIS_WIDTH wide. */
+  private static void downscale(Sample sample) {
+    int factor = Math.max(1, (sample.width + ANALYSIS_WIDTH - 1) / ANALYSIS_WIDTH);
+    int width = sample.width / factor;
+    int height = sample.height / factor;
+    if (sample.scaled.length < width * height) {
+      sample.scaled = new byte[width * height];
+    }
+    byte[] luma = sample.luma;
+    byte[] scaled = sample.scaled;
+    int area = factor * factor;
+    for (int y = 0; y < height; y++) {
+      int rowStart = y * factor * sample.rowStride;
+      for (int x = 0; x < width; x++) {
+        int sum = 0;
+        int offset = rowStart + x * factor;
+        for (int dy = 0; dy < factor; dy++) {
+          for (int dx = 0; dx < factor; dx++) {
+            sum += luma[offset + dx] & 0xFF;
+          }
+          offset += sample.rowStride;
+        }
+        scaled[y * width + x] = (byte) (sum / area);
+      }
+    }
+    sample.scaledWidth = width;
+    sample.scaledHeight = height;
+  }
+
+  /** Variance of the 4-neighbour Laplacian over the interior of a tightly packed image. */
+  static float laplacianVariance(byte[] pixels, int width, int height) {
+    if (width < 3 || height < 3) {
+      return 0;
+    }
+    long sum = 0;
+    long sumOfSquares = 0;
+    for (int y = 1; y < height - 1; y++) {
+      int row = y * width;
+      for (int x = 1; x < width - 1; x++) {
+        int i = row + x;
+        int laplacian =
+            4 * (pixels[i] & 0xFF)
+                - (pixels[i - 1] & 0xFF)
+                - (pixels[i + 1] & 0xFF)
+                - (pixels[i - width] & 0xFF)
+                - (pixels[i + width] & 0xFF);
+        sum += laplacian;
+        sumOfSquares += laplacian * laplacian;
+      }
+    }
+    long count = (long) (width - 2) * (height - 2);
+    double mean = (double) sum / count;
+    return (float) ((double) sumOfSquares / count - mean * mean);
+  }
+}
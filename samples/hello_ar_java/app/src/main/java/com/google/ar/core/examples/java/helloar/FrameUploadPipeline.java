@@ -0,0 +1,311 @@
+package com.google.ar.core.examples.java.helloar;
+
+import android.media.Image;
+import android.util.Log;
+
+import com.google.ar.core.Anchor;
+import com.google.ar.core.Camera;
+
+import java.io.IOException;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Moves frame uploads off the GL thread. The pipeline has three stages:
+ *
+ * <ol>
+ *   <li>capture, on the GL thread: copy the camera image planes and poses into a pooled
+ *       {@link CapturedFrame} and hand it off;
+ *   <li>encode, on a pool of worker threads: {@link YuvConverter} to NV21, then JPEG through an
+ *       {@link AdaptiveJpegEncoder};
+ *   <li>upload, on one thread: post the frame through a {@link FrameUploader}, such as
+ *       {@link ClientWrapper}.
+ * </ol>
+ *
+ * Stages are connected by bounded {@link StageQueue}s and the frame pool is fixed, so a slow
+ * server can never make the pipeline grow. The {@link StageQueue.DropPolicy} decides what happens
+ * when it falls behind.
+ */
+class FrameUploadPipeline {
+  private static final String TAG = FrameUploadPipeline.class.getSimpleName();
+
+  private final FrameUploader uploader;
+  private final StageQueue.DropPolicy dropPolicy;
+  private final int encoderCount;
+
+  private final ArrayBlockingQueue<CapturedFrame> freeFrames;
+  private final StageQueue<CapturedFrame> encodeQueue;
+  private final StageQueue<CapturedFrame> uploadQueue;
+  private final ArrayList<Thread> threads = new ArrayList<>();
+  private final FrameBufferPool bufferPool;
+  private final YuvConverter yuvConverter;
+  private final AdaptiveJpegEncoder jpegEncoder;
+
+  private final AtomicLong submittedFrames = new AtomicLong();
+  private final AtomicLong uploadedFrames = new AtomicLong();
+  private final AtomicLong captureDrops = new AtomicLong();
+
+  // Last encoded JPEG and its intrinsics, kept for the localise command.
+  private final Object latestJpegLock = new Object();
+  private byte[] latestJpeg = new byte[0];
+  private int latestJpegLength;
+  private final float[] latestIntrinsics = new float[FramePacket.FLOATS_PER_INTRINSICS];
+  private boolean hasLatestIntrinsics;
+
+  /**
+   * @param queueCapacity frames each stage queue can hold.
+   * @param encoderCount number of JPEG encoding threads; they share {@code jpegEncoder}.
+   */
+  FrameUploadPipeline(
+      FrameUploader uploader,
+      AdaptiveJpegEncoder jpegEncoder,
+      int queueCapacity,
+      int encoderCount,
+      StageQueue.DropPolicy dropPolicy) {
+    this.uploader = uploader;
+    this.jpegEncoder = jpegEncoder;
+    this.dropPolicy = dropPolicy;
+    this.encoderCount = encoderCount;
+
+    // Enough frames for both queues to be full while every worker holds one.
+    int poolSize = 2 * queueCapacity + encoderCount + 1;
+    freeFrames = new ArrayBlockingQueue<>(poolSize);
+    for (int i = 0; i < poolSize; i++) {
+      freeFrames.add(new CapturedFrame());
+    }
+    bufferPool = new FrameBufferPool(encoderCount);
+    yuvConverter = new YuvConverter(bufferPool);
+    encodeQueue = new StageQueue<>(queueCapacity, dropPolicy, this::recycle);
+    uploadQueue = new StageQueue<>(queueCapacity, dropPolicy, this::recycle);
+  }
+
+  synchronized void start() {
+    if (!threads.isEmpty()) {
+      return;
+    }
+    for (int i = 0; i < encoderCount; i++) {
+      threads.add(new Thread(this::runEncoder, "FrameEncoder-" + i));
+    }
+    threads.add(new Thread(this::runUploader, "FrameUploader"));
+    for (Thread thread : threads) {
+      thread.start();
+    }
+  }
+
+  /** Stops the worker threads and returns all queued frames to the pool. */
+  synchronized void shutdown() {
+    for (Thread thread : threads) {
+      thread.interrupt();
+    }
+    for (Thread thread : threads) {
+      try {
+        thread.join();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+    threads.clear();
+    encodeQueue.clear();
+    uploadQueue.clear();
+  }
+
+  /**
+   * Captures {@code image} and the camera state for upload. Must be called on the GL thread while
+   * {@code camera} and {@code image} are valid; the image may be closed as soon as this returns.
+   * {@code pointIds}, the ARCore IDs of {@code pointCloud}, and the image {@code quality} may be
+   * null.
+   *
+   * @return false if the frame was dropped because the pipeline is full.
+   */
+  boolean submit(
+      Image image,
+      Camera camera,
+      Anchor anchor,
+      float[] projmtx,
+      float[] viewmtx,
+      FloatBuffer pointCloud,
+      IntBuffer pointIds,
+      FrameQualityAnalyzer.Quality quality)
+      throws InterruptedException {
+    CapturedFrame frame = acquireForCapture();
+    if (frame == null) {
+      return false;
+    }
+    ClientWrapper.fillFramePacket(
+        frame.packet, camera, anchor, projmtx, viewmtx, pointCloud, pointIds);
+    ClientWrapper.fillIntrinsics(frame.packet, camera);
+    if (quality != null) {
+      quality.toArray(frame.packet.quality);
+      frame.packet.hasQuality = true;
+    }
+    frame.copyPlanes(image);
+    return offer(encodeQueue, frame);
+  }
+
+  /**
+   * Same as {@link #submit(Image, Camera, Anchor, float[], float[], FloatBuffer, IntBuffer,
+   * FrameQualityAnalyzer.Quality)} for a frame that {@code capture} fills in, planes and packet,
+   * from somewhere other than the camera.
+   */
+  boolean submit(Consumer<CapturedFrame> capture) throws InterruptedException {
+    CapturedFrame frame = acquireForCapture();
+    if (frame == null) {
+      return false;
+    }
+    capture.accept(frame);
+    return offer(encodeQueue, frame);
+  }
+
+  /** A copy of an encoded JPEG and, if known, its intrinsics scaled to its size. */
+  static final class EncodedJpeg {
+    final byte[] jpeg;
+    final float[] intrinsics;
+
+    EncodedJpeg(byte[] jpeg, float[] intrinsics) {
+      this.jpeg = jpeg;
+      this.intrinsics = intrinsics;
+    }
+  }
+
+  /** Returns a copy of the most recently encoded JPEG, or null if nothing was encoded yet. */
+  EncodedJpeg copyLatestJpeg() {
+    synchronized (latestJpegLock) {
+      if (latestJpegLength == 0) {
+        return null;
+      }
+      byte[] copy = new byte[latestJpegLength];
+      System.arraycopy(latestJpeg, 0, copy, 0, latestJpegLength);
+      return new EncodedJpeg(copy, hasLatestIntrinsics ? latestIntrinsics.clone() : null);
+    }
+  }
+
+  long getSubmittedCount() {
+    return submittedFrames.get();
+  }
+
+  long getUploadedCount() {
+    return uploadedFrames.get();
+  }
+
+  long getDroppedCount() {
+    return captureDrops.get() + encodeQueue.getDroppedCount() + uploadQueue.getDroppedCount();
+  }
+
+  /** Frames in the pool, that is not being captured, queued, encoded or uploaded. */
+  int getFreeFrameCount() {
+    return freeFrames.size();
+  }
+
+  private CapturedFrame acquireForCapture() throws InterruptedException {
+    CapturedFrame frame = acquireFrame();
+    if (frame == null) {
+      captureDrops.incrementAndGet();
+      return null;
+    }
+    submittedFrames.incrementAndGet();
+    return frame;
+  }
+
+  private CapturedFrame acquireFrame() throws InterruptedException {
+    CapturedFrame frame = freeFrames.poll();
+    if (frame != null) {
+      return frame;
+    }
+    switch (dropPolicy) {
+      case BLOCK:
+        return freeFrames.take();
+      case DROP_OLDEST:
+        // Reuse the oldest frame that is still waiting to be encoded, if any.
+        frame = encodeQueue.poll();
+        if (frame != null) {
+          captureDrops.incrementAndGet();
+        }
+        return frame;
+      case DROP_NEWEST:
+      default:
+        return null;
+    }
+  }
+
+  /** Offers {@code frame} to {@code queue}, recycling it if interrupted while waiting for room. */
+  private boolean offer(StageQueue<CapturedFrame> queue, CapturedFrame frame)
+      throws InterruptedException {
+    try {
+      return queue.offer(frame);
+    } catch (InterruptedException e) {
+      recycle(frame);
+      throw e;
+    }
+  }
+
+  private void recycle(CapturedFrame frame) {
+    freeFrames.offer(frame);
+  }
+
+  private void runEncoder() {
+    ExposedByteArrayOutputStream jpegStream = new ExposedByteArrayOutputStream();
+    AdaptiveJpegEncoder.Settings used = new AdaptiveJpegEncoder.Settings();
+    try {
+      while (!Thread.currentThread().isInterrupted()) {
+        CapturedFrame frame = encodeQueue.take();
+        byte[] nv21 = null;
+        try {
+          nv21 = frame.convert(yuvConverter, YuvConverter.Format.NV21);
+
+          jpegStream.reset();
+          jpegEncoder.recordFrameTime(frame.packet.timestamp);
+          jpegEncoder.encode(nv21, frame.width, frame.height, jpegStream, used);
+          frame.packet.setJpeg(jpegStream.buffer(), jpegStream.size());
+          if (used.downscale > 1 && frame.packet.hasIntrinsics) {
+            // The server must see the size and intrinsics of the JPEG it gets, not the camera's.
+            frame.packet.downscaleIntrinsics(used.downscale);
+          }
+        } catch (IOException | RuntimeException e) {
+          Log.e(TAG, "Failed to encode frame", e);
+          recycle(frame);
+          continue;
+        } finally {
+          if (nv21 != null) {
+            bufferPool.release(frame.width, frame.height, YuvConverter.Format.NV21, nv21);
+          }
+        }
+        offer(uploadQueue, frame);
+      }
+    } catch (InterruptedException e) {
+      // Shutting down.
+    }
+  }
+
+  private void runUploader() {
+    try {
+      while (!Thread.currentThread().isInterrupted()) {
+        CapturedFrame frame = uploadQueue.take();
+        try {
+          synchronized (latestJpegLock) {
+            if (latestJpeg.length < frame.packet.jpegLength) {
+              latestJpeg = new byte[frame.packet.jpegLength];
+            }
+            System.arraycopy(frame.packet.jpeg, 0, latestJpeg, 0, frame.packet.jpegLength);
+            latestJpegLength = frame.packet.jpegLength;
+            hasLatestIntrinsics = frame.packet.hasIntrinsics;
+            System.arraycopy(
+                frame.packet.intrinsics, 0, latestIntrinsics, 0, FramePacket.FLOATS_PER_INTRINSICS);
+          }
+          // The request body is fully encoded before this returns, so the frame can be reused.
+          uploader.upload(frame.packet);
+          uploadedFrames.incrementAndGet();
+        } catch (IOException | RuntimeException e) {
+          Log.e(TAG, "Failed to upload frame", e);
+        } finally {
+          recycle(frame);
+        }
+      }
+    } catch (InterruptedException e) {
+      // Shutting down.
+    }
+  }
+}
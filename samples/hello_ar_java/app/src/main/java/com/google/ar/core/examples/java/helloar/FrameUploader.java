@@ -0,0 +1,13 @@
+package com.google.ar.core.examples.java.helloar;
+
+import java.io.IOException;
+
+/**
+ * Sends keyframes to the reconstruction server. {@link ClientWrapper} is the implementation on the
+ * device; {@link HttpFrameUploader} is a plain Java one for replays on a desktop JVM.
+ */
+interface FrameUploader {
+
+  /** Uploads {@code packet}, which may be reused as soon as this returns. */
+  void upload(FramePacket packet) throws IOException;
+}
@@ -17,14 +17,10 @@
 package com.google.ar.core.examples.java.helloar;
 
 import android.graphics.Bitmap;
-import android.graphics.ImageFormat;
-import android.graphics.Rect;
-import android.graphics.YuvImage;
 import android.media.Image;
 import android.opengl.GLES20;
 import android.opengl.GLException;
 import android.opengl.GLSurfaceView;
-import android.opengl.Matrix;
 import android.os.Bundle;
 import android.os.Environment;
 import android.support.v7.app.AppCompatActivity;
@@ -40,7 +36,6 @@ import com.google.ar.core.Camera;
 import com.google.ar.core.CameraConfig;
 import com.google.ar.core.CameraIntrinsics;
 import com.google.ar.core.Config;
-import com.google.ar.core.Coordinates2d;
 import com.google.ar.core.Frame;
 import com.google.ar.core.Plane;
 import com.google.ar.core.PointCloud;
@@ -67,18 +62,15 @@ import com.google.ar.core.exceptions.UnavailableUserDeclinedInstallationExceptio
 
 import org.json.JSONException;
 
-import java.io.BufferedOutputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.FloatBuffer;
 import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.Charset;
 import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.Base64;
 import java.util.List;
 import javax.microedition.khronos.egl.EGLConfig;
 import javax.microedition.khronos.opengles.GL10;
@@ -93,6 +85,8 @@ public class HelloArActivity extends AppCompatActivity implements GLSurfaceView.
   private static final String TAG = HelloArActivity.class.getSimpleName();
   private static final String DEV_TAG = "DEBUG-ALEX";
   private static final float ANCHOR_SCALE_FACTOR = 0.0010f;
+  // Server models with at least this many points are culled and thinned out when drawn.
+  private static final int SERVER_POINTS_INDEX_THRESHOLD = 100_000;
 
   private float[] yellow = new float[]{255.0f, 255.0f, 0.0f, 255.0f};
   private float[] red = new float[]{255.0f, 0.0f, 0.0f, 255.0f};
@@ -121,10 +115,15 @@ public class HelloArActivity extends AppCompatActivity implements GLSurfaceView.
   private final PointCloudRenderer pointCloudRenderer = new PointCloudRenderer();
   private final ServerModelCloudRenderer serverModelCloudRenderer = new ServerModelCloudRenderer();
   private ClientWrapper client;
+  private FrameUploadPipeline uploadPipeline;
+  private final PointCloudEncoder pointCloudEncoder = new PointCloudEncoder();
+  private SessionRecorder sessionRecorder;
+  private final ArrayList<Anchor> recordedAnchors = new ArrayList<>();
+  private final KeyframeProcessor keyframeProcessor = new KeyframeProcessor();
 
   // Temporary matrix allocated here to reduce number of allocations for each frame.
   private final float[] anchorMatrix = new float[16];
-  private final float[] pointMatrix = new float[16];
+  private final MarkerBatch markers = new MarkerBatch();
   private final float[] serverPoseMatrix = new float[16];
   private final float[] mobilePoseMatrix = new float[16];
 
@@ -136,9 +135,26 @@ public class HelloArActivity extends AppCompatActivity implements GLSurfaceView.
   private int glViewportHeight = 0;
 
   private long startTime = 0;
+  // Period of point map uploads. Keyframes are chosen by the keyframe selector instead.
   private static final int TIME_DELAY = 300;
-  private static final int ANCHORS_LIMIT = 1;
-  private static final float ANCHOR_CONFIDENCE = 0.7f;
+  private static final ClientWrapper.WireFormat WIRE_FORMAT = ClientWrapper.WireFormat.JSON;
+  // Stream poses and keyframes over one WebSocket instead of a POST per keyframe.
+  private static final boolean USE_TELEMETRY_CHANNEL = false;
+  private static final int UPLOAD_QUEUE_CAPACITY = 2;
+  private static final int UPLOAD_ENCODER_THREADS = 2;
+  private static final StageQueue.DropPolicy UPLOAD_DROP_POLICY = StageQueue.DropPolicy.DROP_OLDEST;
+  // Per-frame JPEG budget until the client has measured the upload bandwidth.
+  private static final int UPLOAD_JPEG_TARGET_BYTES = 96 * 1024;
+  private static final int SAVED_FRAME_JPEG_QUALITY = 95;
+  private static final int RECORDER_QUEUE_CAPACITY = 4;
+  // Image quality older than this is not used to judge a keyframe candidate.
+  private static final long QUALITY_MAX_AGE_NANOS = 100_000_000L;
+  // ARCore points are fused into a map of this resolution, in meters, and size.
+  private static final float POINT_MAP_VOXEL_SIZE = 0.02f;
+  private static final int POINT_MAP_MAX_POINTS = 100_000;
+  // Also upload the fused map incrementally to /map. Frames keep carrying the raw cloud until the
+  // server has accepted a map upload, so servers without /map see the usual frames.
+  private static final boolean UPLOAD_POINT_MAP = false;
   private ArrayList<Point3D> points3D = new ArrayList<>();
   private boolean isSaving = false;
   private boolean isSending = false;
@@ -166,11 +182,20 @@ public class HelloArActivity extends AppCompatActivity implements GLSurfaceView.
   private int trackingLostTimes = 0;
   private boolean drawAxes = false;
   private Anchor mainAnchor = null;
+  private final KeyframeSelector.Config keyframeConfig = new KeyframeSelector.Config();
+  private final KeyframeSelector keyframeSelector = new KeyframeSelector(keyframeConfig);
+  private final float[] keyframePose = new float[FramePacket.FLOATS_PER_POSE];
+  private final FrameQualityAnalyzer qualityAnalyzer = new FrameQualityAnalyzer();
+  // GL thread only: copies of the latest ARCore point cloud, which is released every frame.
   private FloatBuffer pointCloudServer = null;
-  private FloatBuffer pointCloudVMServer = null;
-  private FloatBuffer modelServer = null;
-  private ArrayList<String> serverPoints = null;
-  private String frameData;
+  private IntBuffer pointIdsServer = null;
+  private final PointMap pointMap = new PointMap(POINT_MAP_VOXEL_SIZE, POINT_MAP_MAX_POINTS);
+  // GL thread only: the copy of the map the point cloud renderer last uploaded.
+  private FloatBuffer pointMapPoints;
+  private long renderedPointMapVersion = -1;
+  // Replaced wholesale from network threads, read on the GL thread.
+  private volatile ServerPointStore pointCloudVMServer = ServerPointStore.EMPTY;
+  private volatile ServerPointStore modelServer = ServerPointStore.EMPTY;
   private float[] projmtx;
   private float[] viewmtx;
   private Camera camera;
@@ -195,6 +220,13 @@ public class HelloArActivity extends AppCompatActivity implements GLSurfaceView.
   }
 
   private final ArrayList<ColoredAnchor> anchors = new ArrayList<>();
+  private final KeyframeProcessor.AnchorFactory sessionAnchorFactory = (x, y, z) -> {
+    mainAnchor = session.createAnchor(Pose.makeTranslation(x, y, z));
+
+    if(anchors.size() < KeyframeProcessor.ANCHORS_LIMIT) {
+      anchors.add(new ColoredAnchor(mainAnchor, yellow, MAIN_ANCHOR));
+    }
+  };
 
   @Override
   protected void onCreate(Bundle savedInstanceState) {
@@ -209,6 +241,18 @@ public class HelloArActivity extends AppCompatActivity implements GLSurfaceView.
 
     client = new ClientWrapper();
     client.setCallBackActionListener(this);
+    client.setWireFormat(WIRE_FORMAT);
+    if (USE_TELEMETRY_CHANNEL) {
+      client.openTelemetryChannel();
+    }
+
+    AdaptiveJpegEncoder uploadEncoder = new AdaptiveJpegEncoder(
+            new YuvImageJpegEncoder(), new FrameBufferPool(UPLOAD_ENCODER_THREADS));
+    uploadEncoder.setBandwidthTarget(client::getUploadBytesPerSecond, UPLOAD_JPEG_TARGET_BYTES);
+    uploadPipeline = new FrameUploadPipeline(
+            client, uploadEncoder, UPLOAD_QUEUE_CAPACITY, UPLOAD_ENCODER_THREADS, UPLOAD_DROP_POLICY);
+    uploadPipeline.start();
+    qualityAnalyzer.start();
 
     // Set up renderer.
     surfaceView.setPreserveEGLContextOnPause(true);
@@ -279,7 +323,13 @@ public class HelloArActivity extends AppCompatActivity implements GLSurfaceView.
     localiseButton.setOnClickListener( v -> {
       try {
         String frameName = "frame_"+getTimestamp()+".jpg";
-        client.sendLocaliseCommand(camera, frameData, frameName);
+        FrameUploadPipeline.EncodedJpeg latest = uploadPipeline.copyLatestJpeg();
+        if (latest == null) {
+          client.sendLocaliseCommand(camera, null, frameName);
+        } else {
+          // The JPEG may have been downscaled, so send the intrinsics that match it.
+          client.sendLocaliseCommand(camera, latest.jpeg, latest.intrinsics, frameName);
+        }
       } catch (Exception e) {
         e.printStackTrace();
       }
@@ -304,7 +354,20 @@ public class HelloArActivity extends AppCompatActivity implements GLSurfaceView.
     installRequested = false;
 
     startTime = System.currentTimeMillis();
+    // Earlier sessions are kept; the ones that did not close cleanly get their index rebuilt.
     deleteFiles("data_ar");
+    repairSessions("data_ar");
+
+    File sessionFile = new File(Environment.getExternalStorageDirectory() + "/data_ar/session_" + getTimestamp() + SessionFile.EXTENSION);
+    // Keyframes are dropped, and counted, rather than stalling rendering when the disk is slow.
+    sessionRecorder = new SessionRecorder(sessionFile, new YuvImageJpegEncoder(), SAVED_FRAME_JPEG_QUALITY,
+            RECORDER_QUEUE_CAPACITY, StageQueue.DropPolicy.DROP_NEWEST);
+    try {
+      sessionRecorder.start();
+    } catch (IOException e) {
+      Log.e(TAG, "Failed to create session file " + sessionFile, e);
+      sessionRecorder = null;
+    }
 
 //    external_points = loadPoints();
 
@@ -396,6 +459,28 @@ public class HelloArActivity extends AppCompatActivity implements GLSurfaceView.
     }
   }
 
+  @Override
+  protected void onDestroy() {
+    Log.d(TAG, "Server model: " + serverModelCloudRenderer.getUploadCount() + " uploads, "
+        + serverModelCloudRenderer.getUploadedBytes() + " bytes, "
+        + serverModelCloudRenderer.getSkippedUpdateCount() + " unchanged frames");
+    Log.d(TAG, "Keyframes: " + keyframeSelector.getSelectedCount() + " of "
+        + keyframeSelector.getConsideredCount() + " frames, "
+        + qualityAnalyzer.getAnalyzedCount() + " measured, "
+        + qualityAnalyzer.getSkippedCount() + " skipped by the quality analyzer");
+    uploadPipeline.shutdown();
+    qualityAnalyzer.shutdown();
+    client.cancelPendingFrames();
+    client.closeTelemetryChannel();
+    if (sessionRecorder != null) {
+      sessionRecorder.close();
+      Log.d(TAG, "Session " + sessionRecorder.getFile().getName() + ": "
+          + sessionRecorder.getRecordedCount() + " keyframes recorded, "
+          + sessionRecorder.getDroppedCount() + " dropped");
+    }
+    super.onDestroy();
+  }
+
   @Override
   public void onRequestPermissionsResult(int requestCode, String[] permissions, int[] results) {
     if (!CameraPermissionHelper.hasCameraPermission(this)) {
@@ -530,60 +615,71 @@ public class HelloArActivity extends AppCompatActivity implements GLSurfaceView.
         }
       }
 
+      // Markers are collected here and below and drawn in one instanced call.
+      markers.clear();
       if(drawAxes){
 
-        for(int i = 0; i < serverPoints.size(); i++){
-          if(!serverPoints.get(i).isEmpty()) {
-            String[] point = serverPoints.get(i).split(" ");
-
-            float x = Float.parseFloat(point[0]);
-            float y = Float.parseFloat(point[1]);
-            float z = Float.parseFloat(point[2]);
-            float h = Float.parseFloat(point[3]);
-
-            Pose pose = Pose.makeTranslation(x,y,z);
-            pose.toMatrix(pointMatrix, 0);
-            virtualObject.updateModelMatrix(pointMatrix, ANCHOR_SCALE_FACTOR);
-            virtualObject.draw(viewmtx, projmtx, colorCorrectionRgba, white);
-          }
+        ServerPointStore model = modelServer;
+        for(int i = 0; i < model.size(); i++){
+          markers.add(model.getX(i), model.getY(i), model.getZ(i), ANCHOR_SCALE_FACTOR, white);
         }
 
-        Pose pose = Pose.makeTranslation(0,0,0);
-        pose.toMatrix(pointMatrix, 0);
-        virtualObject.updateModelMatrix(pointMatrix, ANCHOR_SCALE_FACTOR);
-        virtualObject.draw(viewmtx, projmtx, colorCorrectionRgba, white);
+        markers.add(0, 0, 0, ANCHOR_SCALE_FACTOR, white);
 
         float starting_offset = 0.02f;
         for (int i = 1; i <= 10; i++) {
           float offset = i/20f;
-          pose = Pose.makeTranslation(starting_offset + offset,0,0);
-          pose.toMatrix(pointMatrix, 0);
-          // Update and draw the model and its shadow.
-          virtualObject.updateModelMatrix(pointMatrix, ANCHOR_SCALE_FACTOR);
-          virtualObject.draw(viewmtx, projmtx, colorCorrectionRgba, red);
+          markers.add(starting_offset + offset, 0, 0, ANCHOR_SCALE_FACTOR, red);
         }
 
         for (int i = 1; i <= 10; i++) {
           float offset = i/20f;
-          pose = Pose.makeTranslation(0, starting_offset + offset, 0);
-          pose.toMatrix(pointMatrix, 0);
-          // Update and draw the model and its shadow.
-          virtualObject.updateModelMatrix(pointMatrix, ANCHOR_SCALE_FACTOR);
-          virtualObject.draw(viewmtx, projmtx, colorCorrectionRgba, green);
+          markers.add(0, starting_offset + offset, 0, ANCHOR_SCALE_FACTOR, green);
         }
 
         for (int i = -5; i <= 10; i++) {
           float offset = i/20f;
-          pose = Pose.makeTranslation(0,0,starting_offset + offset);
-          pose.toMatrix(pointMatrix, 0);
-          // Update and draw the model and its shadow.
-          virtualObject.updateModelMatrix(pointMatrix, ANCHOR_SCALE_FACTOR);
-          virtualObject.draw(viewmtx, projmtx, colorCorrectionRgba, blue);
+          markers.add(0, 0, starting_offset + offset, ANCHOR_SCALE_FACTOR, blue);
         }
       }
 
-      long elapsedTime = nowTime - startTime;
-      if(elapsedTime > TIME_DELAY) {
+      // Full frame rate pose stream, a no-op unless the telemetry channel is connected.
+      if(isSending) client.sendPose(camera);
+
+      // Take this frame's point cloud first: keyframe selection scores the coverage of its IDs
+      // and the keyframe saves and uploads below send its points. Use try-with-resources to
+      // release it; everything after works on the copies.
+      try (PointCloud pointCloud = frame.acquirePointCloud()) {
+        copyPointCloud(pointCloud);
+        addAnchors(pointCloudServer.duplicate());
+//        write3DPoints(pointCloudLocal);
+        pointMap.integrate(pointCloud.getPoints(), pointCloud.getIds(), pointCloud.getTimestamp());
+      }
+
+      // Save and send keyframes only when the view has changed enough since the last one, and
+      // the image is sharp and well exposed. Quality is measured on a worker, so candidates are
+      // judged by the most recent measurement, normally of the previous frame.
+      FrameQualityAnalyzer.Quality quality = null;
+      if (isSaving || isSending) {
+        quality = qualityAnalyzer.getLatest();
+        if (quality != null
+            && frame.getTimestamp() - quality.timestampNanos > QUALITY_MAX_AGE_NANOS) {
+          quality = null;
+        }
+        try (Image qualityImage = frame.acquireCameraImage()) {
+          qualityAnalyzer.submit(qualityImage, frame.getTimestamp());
+        } catch (NotYetAvailableException e) {
+          // No CPU image for this frame yet.
+        }
+      }
+      float sharpness =
+          quality == null ? Float.NaN : quality.isWellExposed() ? quality.sharpness : 0;
+      Pose cameraPose = camera.getPose();
+      cameraPose.getTranslation(keyframePose, 0);
+      cameraPose.getRotationQuaternion(keyframePose, 3);
+      boolean tracking = camera.getTrackingState() == TrackingState.TRACKING;
+      if ((isSaving || isSending)
+          && keyframeSelector.select(nowTime, tracking, keyframePose, pointIdsServer, sharpness)) {
 
         if(isSaving) saveData(anchors, viewmtx, projmtx, frame, camera);
 
@@ -591,13 +687,25 @@ public class HelloArActivity extends AppCompatActivity implements GLSurfaceView.
           if(anchors.size() > 0) {
             Anchor mainAnchor = anchors.get(0).anchor;
             Image image = frame.acquireCameraImage();
-            frameData = getFrameBase64String(image);
-            client.sendData(camera, frameData, mainAnchor, projmtx, viewmtx, pointCloudServer);
-            image.close();
+            try {
+              // Only copies the planes here, encoding and upload happen on the pipeline threads.
+              boolean mapOnServer = UPLOAD_POINT_MAP && client.isPointMapAccepted();
+              uploadPipeline.submit(
+                  image, camera, mainAnchor, projmtx, viewmtx,
+                  mapOnServer ? null : pointCloudServer,
+                  mapOnServer ? null : pointIdsServer,
+                  quality);
+            } finally {
+              image.close();
+            }
           }
         }
-        startTime = System.currentTimeMillis();
+      }
 
+      long elapsedTime = nowTime - startTime;
+      if(elapsedTime > TIME_DELAY) {
+        if (isSending && UPLOAD_POINT_MAP) client.sendPointMap(pointMap);
+        startTime = System.currentTimeMillis();
       }
 
       // draw anchor LOCAL anchor axes
@@ -609,45 +717,34 @@ public class HelloArActivity extends AppCompatActivity implements GLSurfaceView.
         float[] y_point_world = anchoPose.transformPoint(y_point);
         float[] z_point_world = anchoPose.transformPoint(z_point);
 
-        Pose tempPose;
-        tempPose = Pose.makeTranslation(x_point_world);
-        tempPose.toMatrix(pointMatrix, 0);
-        // Update and draw the model and its shadow.
-        virtualObject.updateModelMatrix(pointMatrix, ANCHOR_SCALE_FACTOR);
-        virtualObject.draw(viewmtx, projmtx, colorCorrectionRgba, red);
-
-        tempPose = Pose.makeTranslation(y_point_world);
-        tempPose.toMatrix(pointMatrix, 0);
-        // Update and draw the model and its shadow.
-        virtualObject.updateModelMatrix(pointMatrix, ANCHOR_SCALE_FACTOR);
-        virtualObject.draw(viewmtx, projmtx, colorCorrectionRgba, blue);
-
-        tempPose = Pose.makeTranslation(z_point_world);
-        tempPose.toMatrix(pointMatrix, 0);
-        // Update and draw the model and its shadow.
-        virtualObject.updateModelMatrix(pointMatrix, ANCHOR_SCALE_FACTOR);
-        virtualObject.draw(viewmtx, projmtx, colorCorrectionRgba, green);
+        markers.add(x_point_world[0], x_point_world[1], x_point_world[2], ANCHOR_SCALE_FACTOR, red);
+        markers.add(y_point_world[0], y_point_world[1], y_point_world[2], ANCHOR_SCALE_FACTOR, blue);
+        markers.add(z_point_world[0], z_point_world[1], z_point_world[2], ANCHOR_SCALE_FACTOR, green);
       }
-
-      // Visualize tracked points.
-      // Use try-with-resources to automatically release the point cloud.
-      try (PointCloud pointCloud = frame.acquirePointCloud()) {
-
-        FloatBuffer pointCloudAnchors = pointCloud.getPoints().duplicate();
-        pointCloudServer = pointCloud.getPoints().duplicate();
-
-        addAnchors(pointCloudAnchors);
-//        write3DPoints(pointCloudLocal);
-
-        pointCloudRenderer.update(pointCloud); // this "uses" up the pointcloud
-        pointCloudRenderer.draw(viewmtx, projmtx, camera.getDisplayOrientedPose(), pointSize);
-
-        if(pointCloudVMServer != null){
-          System.out.println("Drawing Server points");
-          //pointCloudVMServer = pointCloudVMServer.duplicate().asReadOnlyBuffer();
-          serverModelCloudRenderer.update(pointCloudVMServer); // this "uses" up the pointcloud
-          serverModelCloudRenderer.draw(viewmtx, projmtx);
+      markers.draw(virtualObject, viewmtx, projmtx, colorCorrectionRgba);
+
+      // Visualize tracked points: the map this frame's points were fused into above, drawn
+      // after copying it only when it changed.
+      if (pointMap.getVersion() != renderedPointMapVersion) {
+        renderedPointMapVersion = pointMap.getVersion();
+        pointMapPoints = pointMap.copyPoints(pointMapPoints);
+        pointCloudRenderer.updateFB(pointMapPoints);
+      }
+      pointCloudRenderer.draw(viewmtx, projmtx, camera.getDisplayOrientedPose(), pointSize);
+
+      ServerPointStore serverPoints = pointCloudVMServer;
+      if(!serverPoints.isEmpty()){
+        // Uploads nothing unless the server sent new points since the last frame.
+        if (serverPoints.getIndex() != null) {
+          serverModelCloudRenderer.update(serverPoints.getIndex(), serverPoints.getVersion());
+        } else {
+          serverModelCloudRenderer.update(
+              serverPoints.asFloatBuffer(),
+              serverPoints.getVersion(),
+              serverPoints.getBaseVersion(),
+              serverPoints.getUnchangedPoints());
         }
+        serverModelCloudRenderer.draw(viewmtx, projmtx);
       }
 
       updateStatusTextView(isSaving, numberOfKeyframesSaved, trackingLostTimes);
@@ -659,23 +756,6 @@ public class HelloArActivity extends AppCompatActivity implements GLSurfaceView.
 
   }
 
-  private FloatBuffer createFloatBuffer(ArrayList<String> points) {
-
-    FloatBuffer fb = FloatBuffer.allocate(points.size());
-
-    for (int i = 0; i < points.size(); i+=4) {
-      float x = Float.parseFloat(points.get(i));
-      fb.put(x);
-      float y = Float.parseFloat(points.get(i+1));
-      fb.put(y);
-      float z = Float.parseFloat(points.get(i+2));
-      fb.put(z);
-      float c = Float.parseFloat(points.get(i+3));
-      fb.put(c);
-    }
-    return (FloatBuffer) fb.rewind();
-  }
-
   private FloatBuffer getRandomFloatBuffer() {
 
     FloatBuffer fb = FloatBuffer.allocate(500*4);
@@ -694,14 +774,19 @@ public class HelloArActivity extends AppCompatActivity implements GLSurfaceView.
   }
 
   @Override
-  public void setServerPoints(ServerPoints serverPoints){
+  public synchronized void setServerPoints(ServerPointStore serverPoints){
 //    ArrayList<String> serverPoseValues = pose.getServer_pose();
 //    ArrayList<String> mobilePoseValues = pose.getArcore_pose();
 //
 //    getARCorePoseFromServerResponseMatrix(serverPoseValues).toMatrix(serverPoseMatrix, 0);
 //    getARCorePoseFromServerResponseMatrix(mobilePoseValues).toMatrix(mobilePoseMatrix, 0);
-    ArrayList<String> points = serverPoints.getPoints();
-    pointCloudVMServer = createFloatBuffer(points);
+    // Relative to the current points, so the renderer only uploads what changed.
+    ServerPointStore points = serverPoints.withBase(pointCloudVMServer);
+    if (points.size() >= SERVER_POINTS_INDEX_THRESHOLD) {
+      // Too many to draw every frame, index them for culling and level of detail.
+      points = points.withIndex();
+    }
+    pointCloudVMServer = points;
     //pointCloudVMServer = getRandomFloatBuffer();
   }
 
@@ -721,58 +806,10 @@ public class HelloArActivity extends AppCompatActivity implements GLSurfaceView.
 
 
   @Override
-  public void updateResultPointCloud(ServerResponsePoints serverResponsePoints) {
-    serverPoints = serverResponsePoints.points;
-    int capacity = 0;
-
-    for(int i = 0; i < serverPoints.size(); i++){
-      if(!serverPoints.get(i).isEmpty()) {
-        capacity++;
-      }
-    }
-
-    modelServer = FloatBuffer.allocate(capacity * 4);
-
-    for(int i = 0; i < serverPoints.size(); i++){
-      if(!serverPoints.get(i).isEmpty()) {
-        String[] point = serverPoints.get(i).split(" ");
-
-        float x = Float.parseFloat(point[0]);
-        float y = Float.parseFloat(point[1]);
-        float z = Float.parseFloat(point[2]);
-        float h = 1.f;
-
-        System.out.println("Adding Point x " + x);
-        System.out.println("Adding Point y " + y);
-        System.out.println("Adding Point z " + z);
-        System.out.println("Adding Point h " + h);
-
-        modelServer.put(x);
-        modelServer.put(y);
-        modelServer.put(z);
-        modelServer.put(h);
-      }
-    }
-
-    modelServer.rewind();
-
-    System.out.println("Original FloatBuffer:  "
-            + Arrays.toString(modelServer.array()));
-
-    System.out.println("Original FloatBuffer Size:  "
-            + modelServer.array().length);
-
-    System.out.println("Model in Memory!");
-//    serverModelCloudRenderer.update(modelServer);
-    System.out.println("serverModelCloudRenderer updated!");
-
-  }
-
-  private String getFrameBase64String(Image image) {
-    byte[] imageData = NV21toJPEG(YUV_420_888toNV21(image), image.getWidth(), image.getHeight());
-    byte[] imageDataBase64 = Base64.getEncoder().encode(imageData);
-
-    return new String(imageDataBase64);
+  public void updateResultPointCloud(ServerPointStore model) {
+    modelServer = model;
+    Log.d(TAG, "Model in memory: " + model.size() + " points");
+//    serverModelCloudRenderer.update(modelServer.asFloatBuffer());
   }
 
   private String getTimestamp(){
@@ -782,64 +819,49 @@ public class HelloArActivity extends AppCompatActivity implements GLSurfaceView.
   }
 
   private void saveData(ArrayList<ColoredAnchor> anchors, float[] viewmtx, float[] projmtx, Frame frame, Camera camera) throws NotYetAvailableException {
+    if (sessionRecorder == null) return;
     String timestamp = getTimestamp();
 
-    ArrayList<double[]> imageAnchorCorrespondences = getImageAnchorCorrespondences(frame, this.anchors, viewmtx, projmtx);
+    recordedAnchors.clear();
+    for (ColoredAnchor coloredAnchor : anchors) {
+      recordedAnchors.add(coloredAnchor.anchor);
+    }
 
-    Image frameImage = null;
+    Image frameImage = frame.acquireCameraImage();
     try {
-
-//      writeIntrinsicsToFile(camera.getImageIntrinsics(), "imageIntrinsics_" + timestamp);
-//      writeCorrespondences(imageAnchorCorrespondences, "imageAnchorCorrespondences_" + timestamp); //be careful about its position (if / else)
-
-      frameImage = frame.acquireCameraImage();
-      saveCPUFrameJPEG(frameImage, timestamp);
-      numberOfKeyframesSaved++;
-      frameImage.close();
-
-      float[] poseOrientedMatrix = new float[16];
-      float[] cameraPoseMatrix = new float[16];
-
-      Pose cameraPoseOriented = camera.getDisplayOrientedPose();
-      cameraPoseOriented.toMatrix(poseOrientedMatrix,0);
-      writeMatrixToFile(poseOrientedMatrix,"displayOrientedPose_"+timestamp);
-
-      Pose cameraPose = camera.getPose();
-      cameraPose.toMatrix(cameraPoseMatrix,0);
-//      writeMatrixToFile(cameraPoseMatrix,"cameraPose_"+timestamp);
-
-      for (int i=0; i<anchors.size(); i++){
-        Pose anchorPose = anchors.get(i).anchor.getPose();
-        float[] anchorPoseMatrix = new float[16];
-        anchorPose.toMatrix(anchorPoseMatrix, 0);
-//        writeMatrixToFile(anchorPoseMatrix, "anchor_"+i+"_pose_"+timestamp); // replace this with a i loop and save multiple!
+      // Only copies the image and poses here, encoding and writing happen on the recorder thread.
+      if (sessionRecorder.record(frameImage, camera, recordedAnchors, projmtx, viewmtx, pointCloudServer, timestamp)) {
+        numberOfKeyframesSaved++;
       }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } finally {
+      frameImage.close();
+    }
+  }
 
-    } catch (IOException e) {
-      e.printStackTrace();
+  /**
+   * Copies the points and IDs of {@code pointCloud} into {@link #pointCloudServer} and {@link
+   * #pointIdsServer}, which stay valid after the point cloud is closed. The buffers are reused, and
+   * grown with headroom when a cloud does not fit.
+   */
+  private void copyPointCloud(PointCloud pointCloud) {
+    FloatBuffer points = pointCloud.getPoints();
+    IntBuffer ids = pointCloud.getIds();
+    if (pointCloudServer == null || pointCloudServer.capacity() < points.remaining()) {
+      pointCloudServer = FloatBuffer.allocate(2 * points.remaining());
     }
+    if (pointIdsServer == null || pointIdsServer.capacity() < ids.remaining()) {
+      pointIdsServer = IntBuffer.allocate(2 * ids.remaining());
+    }
+    pointCloudServer.clear();
+    pointCloudServer.put(points.duplicate()).flip();
+    pointIdsServer.clear();
+    pointIdsServer.put(ids.duplicate()).flip();
   }
 
   private void addAnchors(FloatBuffer pointCloud){
-
-    if(anchors.size() == ANCHORS_LIMIT) return;
-
-    while (pointCloud.hasRemaining()) {
-
-      float x = pointCloud.get();
-      float y = pointCloud.get();
-      float z = pointCloud.get();
-      float c = pointCloud.get(); //just to get the position moving - not used
-
-      if(c >= ANCHOR_CONFIDENCE ) {
-        Pose pose = Pose.makeTranslation(x,y,z);
-        mainAnchor = session.createAnchor(pose);
-
-        if(anchors.size() < ANCHORS_LIMIT) {
-          anchors.add(new ColoredAnchor(mainAnchor, yellow, MAIN_ANCHOR));
-        }
-      }
-    }
+    keyframeProcessor.addAnchors(pointCloud, anchors.size(), sessionAnchorFactory);
   }
 
   // Handle only one tap per frame, as taps are usually low frequency compared to frame rate.
@@ -888,175 +910,9 @@ public class HelloArActivity extends AppCompatActivity implements GLSurfaceView.
     outputStream.close();
   }
 
-  private void saveCPUFrameJPEG(Image frameImage, String filename) throws IOException {
-    byte[] imageData = NV21toJPEG(YUV_420_888toNV21(frameImage),
-            frameImage.getWidth(), frameImage.getHeight());
-
-    String path = Environment.getExternalStorageDirectory().toString() + "/data_ar/frame_"+filename+".jpg";
-    BufferedOutputStream bos = new BufferedOutputStream(new FileOutputStream(path));
-    bos.write(imageData);
-    bos.flush();
-    bos.close();
-  }
-
-  private ArrayList<double[]> getImageAnchorCorrespondences(Frame frame, ArrayList<ColoredAnchor> anchors, float[] viewmtx, float[] projmtx){
-
-    ArrayList<double[]> imageAnchorCorrespondences = new ArrayList<>();
-    float[] world2screenMatrix = new float[16];
-    float[] ndcPoint = new float[4];
-    float[] point3D = new float[4];
-    float w = 1;
-
-    ArrayList<double[]> correspondences2D3D = new ArrayList<>();
-
-    Matrix.multiplyMM(world2screenMatrix, 0, projmtx, 0, viewmtx, 0);
-
-    for (int i = 0; i < anchors.size(); i++) {
-
-      //these two need to be declared here!
-      double[] screenPoint = new double[]{0,0};
-      double[] correspondence2D3D = new double[]{0,0,0,0,0};
-
-      point3D[0] = anchors.get(i).anchor.getPose().tx();
-      point3D[1] = anchors.get(i).anchor.getPose().ty();
-      point3D[2] = anchors.get(i).anchor.getPose().tz();
-      point3D[3] = w;
-
-      Matrix.multiplyMV(ndcPoint, 0,  world2screenMatrix, 0,  point3D, 0);
-
-      ndcPoint[0] = ndcPoint[0] / ndcPoint[3];
-      ndcPoint[1] = ndcPoint[1] / ndcPoint[3];
-
-      screenPoint[0] = glViewportWidth * ((ndcPoint[0] + 1.0) / 2.0);
-      screenPoint[1] = glViewportHeight * ((1.0 - ndcPoint[1]) / 2.0);
-
-      correspondence2D3D[0] = screenPoint[0];
-      correspondence2D3D[1] = screenPoint[1];
-      correspondence2D3D[2] = point3D[0];
-      correspondence2D3D[3] = point3D[1];
-      correspondence2D3D[4] = point3D[2];
-
-      correspondences2D3D.add(correspondence2D3D);
-    }
-
-    imageAnchorCorrespondences = getCPUImageCorrespondences(frame, correspondences2D3D);
-    return imageAnchorCorrespondences;
-  }
-
-  private ArrayList<double[]> getCPUImageCorrespondences(Frame frame, ArrayList<double[]> correspondences) {
-
-    ArrayList<double[]> cpuImageCorrespondences = new ArrayList<>();
-
-    float[] xyVIEW = new float[correspondences.size() * 2];
-    float[] xyCPU = new float[correspondences.size() * 2];
-
-    for (int i = 0; i < correspondences.size(); i++) {
-
-      xyVIEW[2*i] = (float) correspondences.get(i)[0];
-      xyVIEW[2*i+1] = (float) correspondences.get(i)[1];
-    }
-
-    frame.transformCoordinates2d(Coordinates2d.VIEW, xyVIEW, Coordinates2d.IMAGE_PIXELS, xyCPU);
-
-    ArrayList<double[]> tempCPUImageCorrespondenceXY = new ArrayList<>();
-
-    for (int i = 0; i < xyCPU.length; i+=2) {
-
-      double[] cpuImageCorrespondenceXY = new double[]{0,0};
-
-      cpuImageCorrespondenceXY[0] = xyCPU[i];
-      cpuImageCorrespondenceXY[1] = xyCPU[i+1];
-
-      tempCPUImageCorrespondenceXY.add(cpuImageCorrespondenceXY);
-    }
-
-    for (int i = 0; i < tempCPUImageCorrespondenceXY.size(); i++) {
-
-      double[] cpuImageCorrespondence2D3D = new double[]{0,0,0,0,0};
-
-      cpuImageCorrespondence2D3D[0] = tempCPUImageCorrespondenceXY.get(i)[0];
-      cpuImageCorrespondence2D3D[1] = tempCPUImageCorrespondenceXY.get(i)[1];
-      cpuImageCorrespondence2D3D[2] = correspondences.get(i)[2];
-      cpuImageCorrespondence2D3D[3] = correspondences.get(i)[3];
-      cpuImageCorrespondence2D3D[4] = correspondences.get(i)[4];
-
-      cpuImageCorrespondences.add(cpuImageCorrespondence2D3D);
-
-    }
-
-    return cpuImageCorrespondences;
-  }
-
-  private ArrayList<double[]> get2D3DCorrespondences(FloatBuffer points3D, float[] viewmtx, float[] projmtx) {
-
-    float x = 0;
-    float y = 0;
-    float z = 0;
-    float w = 1;
-    float c = 0; // not used
-    float[] point3D = new float[4];
-    float[] world2screenMatrix = new float[16];
-    float[] ndcPoint = new float[4];
-
-    ArrayList<double[]> correspondences2D3D = new ArrayList<>();
-
-    Matrix.multiplyMM(world2screenMatrix, 0, projmtx, 0, viewmtx, 0);
-
-    while (points3D.hasRemaining()){
-
-      //these two need to be declared here!
-      double[] screenPoint = new double[]{0,0};
-      double[] correspondence2D3D = new double[]{0,0,0,0,0};
-
-      x = points3D.get();
-      y = points3D.get();
-      z = points3D.get();
-      c = points3D.get(); //just to get the position moving - not used
-
-      point3D[0] = x;
-      point3D[1] = y;
-      point3D[2] = z;
-      point3D[3] = w;
+  private void writeLog(int correspondences, int cpuImageCorrespondences, String timestamp) throws IOException {
 
-      Matrix.multiplyMV(ndcPoint, 0,  world2screenMatrix, 0,  point3D, 0);
-
-      ndcPoint[0] = ndcPoint[0] / ndcPoint[3];
-      ndcPoint[1] = ndcPoint[1] / ndcPoint[3];
-
-      screenPoint[0] = glViewportWidth * ((ndcPoint[0] + 1.0) / 2.0);
-      screenPoint[1] = glViewportHeight * ((1.0 - ndcPoint[1]) / 2.0);
-
-      correspondence2D3D[0] = screenPoint[0];
-      correspondence2D3D[1] = screenPoint[1];
-      correspondence2D3D[2] = point3D[0];
-      correspondence2D3D[3] = point3D[1];
-      correspondence2D3D[4] = point3D[2];
-
-      correspondences2D3D.add(correspondence2D3D);
-    }
-
-    return correspondences2D3D;
-
-  }
-
-  private void writeCorrespondences(ArrayList<double[]> correspondences, String filename) throws IOException {
-    String txt = "";
-
-    for (double[] correspondence : correspondences){
-      txt = txt.concat(correspondence[0] + " " + correspondence[1] + " " + correspondence[2] + " " + correspondence[3] + " " + correspondence[4] + "\n");
-    }
-
-    File arrayFile = new File(Environment.getExternalStorageDirectory().toString() + "/data_ar/"+filename+".txt");
-    FileOutputStream outputStream = new FileOutputStream(arrayFile);
-
-    outputStream.write(txt.getBytes(Charset.forName("UTF-8")));
-    outputStream.flush();
-    outputStream.close();
-  }
-
-  private void writeLog(ArrayList<double[]> correspondences, ArrayList<double[]> cpuImageCorrespondences, String timestamp) throws IOException {
-
-    String txt = correspondences.size() + " " + cpuImageCorrespondences.size();
+    String txt = correspondences + " " + cpuImageCorrespondences;
 
     File logFile = new File(Environment.getExternalStorageDirectory().toString() + "/data_ar/log_file_"+timestamp+".txt");
     FileOutputStream outputStream = new FileOutputStream(logFile);
@@ -1108,28 +964,13 @@ public class HelloArActivity extends AppCompatActivity implements GLSurfaceView.
   }
 
   private void write3DPoints(FloatBuffer points) throws IOException {
-    String txt = "";
-
-    while (points.hasRemaining()){
-
-      String x = Float.toString(points.get());
-      String y = Float.toString(points.get());
-      String z = Float.toString(points.get());
-      String c = Float.toString(points.get()); //just to get the position moving - not used
-
-      txt = txt.concat(x + " " + y + " " + z + "\n");
-    }
-
     File matrixFile = new File(Environment.getExternalStorageDirectory().toString() + "/data_ar/points3Dworld.txt");
-    FileOutputStream outputStream = new FileOutputStream(matrixFile);
 
-    outputStream.write(txt.getBytes(Charset.forName("UTF-8")));
-    outputStream.flush();
-    outputStream.close();
+    try (FileChannel channel = new FileOutputStream(matrixFile).getChannel()) {
+      pointCloudEncoder.writeText(points, 3, null, channel);
+    }
   }
 
-
-
   private void writeMatrixToFile(float[] matrix, String filename) throws IOException {
     String matrixString = matrix[0] + " " + matrix[4] + " " + matrix[8] + " " +  matrix[12] + "\n" +
             matrix[1] + " " + matrix[5] + " " + matrix[9] + " " +  matrix[13] + "\n" +
@@ -1144,32 +985,6 @@ public class HelloArActivity extends AppCompatActivity implements GLSurfaceView.
     outputStream.close();
   }
 
-  private byte[] NV21toJPEG(byte[] nv21, int width, int height) {
-    ByteArrayOutputStream out = new ByteArrayOutputStream();
-    YuvImage yuv = new YuvImage(nv21, ImageFormat.NV21, width, height, null);
-    yuv.compressToJpeg(new Rect(0, 0, width, height), 100, out);
-    return out.toByteArray();
-  }
-
-  private byte[] YUV_420_888toNV21(Image image) {
-    byte[] nv21;
-    ByteBuffer yBuffer = image.getPlanes()[0].getBuffer();
-    ByteBuffer uBuffer = image.getPlanes()[1].getBuffer();
-    ByteBuffer vBuffer = image.getPlanes()[2].getBuffer();
-
-    int ySize = yBuffer.remaining();
-    int uSize = uBuffer.remaining();
-    int vSize = vBuffer.remaining();
-
-    nv21 = new byte[ySize + uSize + vSize];
-
-    //U and V are swapped
-    yBuffer.get(nv21, 0, ySize);
-    vBuffer.get(nv21, ySize, vSize);
-    uBuffer.get(nv21, ySize + vSize, uSize);
-
-    return nv21;
-  }
 
   /** Checks if we detected at least one plane. */
   private boolean hasTrackingPlane() {
@@ -1181,6 +996,7 @@ public class HelloArActivity extends AppCompatActivity implements GLSurfaceView.
     return false;
   }
 
+  /** Deletes the scratch files of earlier runs, keeping recorded sessions. */
   private void deleteFiles(String path) {
     File dir = new File(Environment.getExternalStorageDirectory()+"/"+path);
     if (dir.isDirectory())
@@ -1188,9 +1004,33 @@ public class HelloArActivity extends AppCompatActivity implements GLSurfaceView.
       String[] children = dir.list();
       if(children != null) {
         for (int i = 0; i < children.length; i++) {
-          new File(dir, children[i]).delete();
+          if (!children[i].endsWith(SessionFile.EXTENSION)) {
+            new File(dir, children[i]).delete();
+          }
         }
       }
     }
   }
+
+  /**
+   * Rebuilds the index of every session left open by a crash, on a background thread since it
+   * scans the whole file. Must run before the new session file is created.
+   */
+  private void repairSessions(String path) {
+    File dir = new File(Environment.getExternalStorageDirectory()+"/"+path);
+    File[] sessions = dir.listFiles((parent, name) -> name.endsWith(SessionFile.EXTENSION));
+    if (sessions == null || sessions.length == 0) {
+      return;
+    }
+    new Thread(() -> {
+      for (File session : sessions) {
+        try {
+          int keyframes = SessionReader.repair(session);
+          Log.d(TAG, "Session " + session.getName() + ": " + keyframes + " keyframes");
+        } catch (IOException e) {
+          Log.e(TAG, "Failed to recover session " + session.getName(), e);
+        }
+      }
+    }, "SessionRepair").start();
+  }
 }
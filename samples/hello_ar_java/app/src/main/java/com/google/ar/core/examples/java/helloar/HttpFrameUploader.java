@@ -0,0 +1,60 @@
+package com.google.ar.core.examples.java.helloar;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import okhttp3.HttpUrl;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+
+/**
+ * {@link FrameUploader} that posts each keyframe to the server root as a {@link FramePacketCodec}
+ * message, the same request {@link ClientWrapper} makes with {@link ClientWrapper.WireFormat#BINARY},
+ * and waits for the answer, so a replay measures whole round trips. Depends on OkHttp only.
+ *
+ * <p>Not thread-safe; the message buffer is reused between uploads.
+ */
+final class HttpFrameUploader implements FrameUploader {
+
+  private static final MediaType BINARY_FRAME = MediaType.get(FramePacketCodec.MEDIA_TYPE);
+
+  private final OkHttpClient client;
+  private final HttpUrl url;
+  private ByteBuffer message;
+  private int uploadCount;
+  private long uploadedBytes;
+
+  /** @param baseUrl server root, for example {@code http://localhost:3000}. */
+  HttpFrameUploader(OkHttpClient client, String baseUrl) {
+    this.client = client;
+    this.url = HttpUrl.get(baseUrl).resolve("/");
+  }
+
+  @Override
+  public void upload(FramePacket packet) throws IOException {
+    message = FramePacketCodec.encode(packet, message);
+    int length = message.remaining();
+    RequestBody body =
+        RequestBody.create(
+            message.array(), BINARY_FRAME, message.arrayOffset() + message.position(), length);
+    Request request = new Request.Builder().url(url).post(body).build();
+    try (Response response = client.newCall(request).execute()) {
+      if (!response.isSuccessful()) {
+        throw new IOException("Unexpected code " + response);
+      }
+    }
+    uploadCount++;
+    uploadedBytes += length;
+  }
+
+  int getUploadCount() {
+    return uploadCount;
+  }
+
+  long getUploadedBytes() {
+    return uploadedBytes;
+  }
+}
@@ -0,0 +1,318 @@
+package com.google.ar.core.examples.java.helloar;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.HttpUrl;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+
+/**
+ * Sends requests for {@link ClientWrapper} over one pooled {@link OkHttpClient} with a bounded
+ * number of calls in flight.
+ *
+ * <p>Coalesced requests (frame and pose updates) only ever have one request waiting per path:
+ * while the window is full a newer one replaces the one waiting, which is never sent. When a newer
+ * request is waiting and a coalesced call has been in flight longer than the supersede timeout,
+ * that call is cancelled to make room. Other requests (commands) are always sent and do not count
+ * against the window.
+ *
+ * <p>Every request gets exactly one {@code onDone} run, whether it completed, failed, was
+ * cancelled or was replaced, so callers can recycle request buffers there. Per-path latency and
+ * outcome counters are available from {@link #getStats}.
+ */
+class HttpTransport {
+
+  /** Outcome counters and latency for one path. Latencies are in milliseconds. */
+  static class EndpointStats {
+    private static final int SAMPLES = 64;
+
+    private long sent;
+    private long succeeded;
+    private long failed;
+    private long coalesced;
+    private long cancelled;
+    private long maxLatencyMs;
+    private long totalLatencyMs;
+    private final long[] recentLatencyMs = new long[SAMPLES];
+    private int recentCount;
+
+    synchronized long getSent() {
+      return sent;
+    }
+
+    synchronized long getSucceeded() {
+      return succeeded;
+    }
+
+    synchronized long getFailed() {
+      return failed;
+    }
+
+    /** Requests replaced by a newer one before they were sent. */
+    synchronized long getCoalesced() {
+      return coalesced;
+    }
+
+    /** In-flight requests cancelled because a newer one was waiting. */
+    synchronized long getCancelled() {
+      return cancelled;
+    }
+
+    synchronized long getMaxLatencyMs() {
+      return maxLatencyMs;
+    }
+
+    synchronized double getMeanLatencyMs() {
+      long completed = succeeded + failed;
+      return completed == 0 ? 0 : (double) totalLatencyMs / completed;
+    }
+
+    /** Latency percentile, 0 to 100, over the last {@value #SAMPLES} completed requests. */
+    synchronized long getRecentLatencyPercentileMs(double percentile) {
+      int count = Math.min(recentCount, SAMPLES);
+      if (count == 0) {
+        return 0;
+      }
+      long[] sorted = Arrays.copyOf(recentLatencyMs, count);
+      Arrays.sort(sorted);
+      int index = (int) Math.ceil(percentile / 100 * count) - 1;
+      return sorted[Math.max(0, Math.min(count - 1, index))];
+    }
+
+    @Override
+    public synchronized String toString() {
+      return String.format(
+          "sent %d, ok %d, failed %d, coalesced %d, cancelled %d, latency mean %.0f p95 %d max %d ms",
+          sent,
+          succeeded,
+          failed,
+          coalesced,
+          cancelled,
+          getMeanLatencyMs(),
+          getRecentLatencyPercentileMs(95),
+          maxLatencyMs);
+    }
+
+    private synchronized void recordCompletion(boolean success, long latencyMs) {
+      if (success) {
+        succeeded++;
+      } else {
+        failed++;
+      }
+      totalLatencyMs += latencyMs;
+      maxLatencyMs = Math.max(maxLatencyMs, latencyMs);
+      recentLatencyMs[recentCount++ % SAMPLES] = latencyMs;
+    }
+
+    private synchronized void recordSent() {
+      sent++;
+    }
+
+    private synchronized void recordCoalesced() {
+      coalesced++;
+    }
+
+    private synchronized void recordCancelled() {
+      cancelled++;
+    }
+  }
+
+  private static class Pending {
+    final String path;
+    final RequestBody body;
+    final Callback callback;
+    final Runnable onDone;
+    final boolean coalesce;
+    Call call;
+    long startMs;
+    boolean superseded;
+
+    Pending(String path, RequestBody body, Callback callback, Runnable onDone, boolean coalesce) {
+      this.path = path;
+      this.body = body;
+      this.callback = callback;
+      this.onDone = onDone;
+      this.coalesce = coalesce;
+    }
+  }
+
+  private final OkHttpClient client;
+  private final HttpUrl baseUrl;
+  private final int maxInFlight;
+  private final long supersedeTimeoutMs;
+
+  private final Object lock = new Object();
+  // Coalesced requests waiting for a free slot, at most one per path, oldest first.
+  private final LinkedHashMap<String, Pending> waiting = new LinkedHashMap<>();
+  private final ArrayList<Pending> inFlight = new ArrayList<>();
+  private final HashMap<String, EndpointStats> stats = new HashMap<>();
+
+  /**
+   * @param maxInFlight coalesced requests that may be in flight at once.
+   * @param supersedeTimeoutMs how long a coalesced call may run before a newer request for the
+   *     same path cancels it, or 0 to never cancel.
+   */
+  HttpTransport(OkHttpClient client, HttpUrl baseUrl, int maxInFlight, long supersedeTimeoutMs) {
+    this.client = client;
+    this.baseUrl = baseUrl;
+    this.maxInFlight = maxInFlight;
+    this.supersedeTimeoutMs = supersedeTimeoutMs;
+  }
+
+  /**
+   * Posts {@code body} to {@code path}. {@code callback} is only called for requests that were
+   * sent; {@code onDone}, if not null, runs once after the callback or when the request is
+   * dropped.
+   */
+  void post(String path, RequestBody body, Callback callback, Runnable onDone, boolean coalesce) {
+    Pending request = new Pending(path, body, callback, onDone, coalesce);
+    Pending replaced = null;
+    synchronized (lock) {
+      if (!coalesce || countCoalescedInFlight() < maxInFlight) {
+        start(request);
+      } else {
+        replaced = waiting.remove(path);
+        waiting.put(path, request);
+        cancelSuperseded(path);
+      }
+    }
+    if (replaced != null) {
+      statsFor(path).recordCoalesced();
+      runDone(replaced);
+    }
+  }
+
+  EndpointStats getStats(String path) {
+    return statsFor(path);
+  }
+
+  int getInFlightCount() {
+    synchronized (lock) {
+      return inFlight.size();
+    }
+  }
+
+  /** Drops everything waiting and cancels everything in flight. */
+  void cancelAll() {
+    ArrayList<Pending> dropped;
+    synchronized (lock) {
+      dropped = new ArrayList<>(waiting.values());
+      waiting.clear();
+      for (Pending request : inFlight) {
+        request.call.cancel();
+      }
+    }
+    for (Pending request : dropped) {
+      runDone(request);
+    }
+  }
+
+  private void start(Pending request) {
+    Request httpRequest =
+        new Request.Builder().url(baseUrl.resolve(request.path)).post(request.body).build();
+    request.call = client.newCall(httpRequest);
+    request.startMs = System.currentTimeMillis();
+    inFlight.add(request);
+    statsFor(request.path).recordSent();
+    request.call.enqueue(
+        new Callback() {
+          @Override
+          public void onFailure(Call call, IOException e) {
+            boolean superseded = finish(request);
+            EndpointStats endpoint = statsFor(request.path);
+            if (superseded) {
+              endpoint.recordCancelled();
+            } else {
+              endpoint.recordCompletion(false, System.currentTimeMillis() - request.startMs);
+            }
+            try {
+              request.callback.onFailure(call, e);
+            } finally {
+              runDone(request);
+            }
+          }
+
+          @Override
+          public void onResponse(Call call, Response response) throws IOException {
+            finish(request);
+            statsFor(request.path)
+                .recordCompletion(
+                    response.isSuccessful(), System.currentTimeMillis() - request.startMs);
+            try {
+              request.callback.onResponse(call, response);
+            } finally {
+              runDone(request);
+            }
+          }
+        });
+  }
+
+  /** Frees the slot of {@code request} and starts the oldest waiting request. */
+  private boolean finish(Pending request) {
+    synchronized (lock) {
+      inFlight.remove(request);
+      if (request.coalesce && !waiting.isEmpty()) {
+        Iterator<Map.Entry<String, Pending>> oldest = waiting.entrySet().iterator();
+        Pending next = oldest.next().getValue();
+        oldest.remove();
+        start(next);
+      }
+      return request.superseded;
+    }
+  }
+
+  /** Cancels the oldest call for {@code path} if it has been running for too long. */
+  private void cancelSuperseded(String path) {
+    if (supersedeTimeoutMs <= 0) {
+      return;
+    }
+    long now = System.currentTimeMillis();
+    for (Pending request : inFlight) {
+      if (request.coalesce
+          && !request.superseded
+          && request.path.equals(path)
+          && now - request.startMs > supersedeTimeoutMs) {
+        request.superseded = true;
+        request.call.cancel();
+        return;
+      }
+    }
+  }
+
+  private int countCoalescedInFlight() {
+    int count = 0;
+    for (Pending request : inFlight) {
+      if (request.coalesce) {
+        count++;
+      }
+    }
+    return count;
+  }
+
+  private EndpointStats statsFor(String path) {
+    synchronized (stats) {
+      EndpointStats endpoint = stats.get(path);
+      if (endpoint == null) {
+        endpoint = new EndpointStats();
+        stats.put(path, endpoint);
+      }
+      return endpoint;
+    }
+  }
+
+  private static void runDone(Pending request) {
+    if (request.onDone != null) {
+      request.onDone.run();
+    }
+  }
+}
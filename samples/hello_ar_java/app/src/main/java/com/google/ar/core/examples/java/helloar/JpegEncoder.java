@@ -0,0 +1,17 @@
+package com.google.ar.core.examples.java.helloar;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/** Compresses NV21 images to JPEG. */
+interface JpegEncoder {
+
+  /**
+   * Writes {@code nv21}, a tightly packed {@code width} x {@code height} NV21 image, to {@code out}
+   * as a baseline JPEG.
+   *
+   * @param quality 1 to 100, with the usual IJG meaning.
+   */
+  void encode(byte[] nv21, int width, int height, int quality, OutputStream out)
+      throws IOException;
+}
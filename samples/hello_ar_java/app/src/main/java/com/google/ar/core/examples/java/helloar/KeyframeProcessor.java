@@ -0,0 +1,113 @@
+package com.google.ar.core.examples.java.helloar;
+
+import java.nio.FloatBuffer;
+
+/**
+ * Per-keyframe processing shared by the activity and {@link SessionReplayer}: creating anchors at
+ * confident points of the point cloud and projecting anchors into the CPU image. Reads frames only
+ * through {@link ArFrameData} and has no Android dependencies.
+ *
+ * <p>Not thread-safe; scratch arrays are reused between calls.
+ */
+class KeyframeProcessor {
+
+  /** Number of anchors kept, and the confidence a point needs to become one. */
+  static final int ANCHORS_LIMIT = 1;
+  static final float ANCHOR_CONFIDENCE = 0.7f;
+
+  /** Creates an anchor at a world position: an ARCore anchor on the device, a pose in a replay. */
+  interface AnchorFactory {
+    void createAnchor(float x, float y, float z);
+  }
+
+  private final float[] viewMatrix = new float[FramePacket.FLOATS_PER_MATRIX];
+  private final float[] projectionMatrix = new float[FramePacket.FLOATS_PER_MATRIX];
+  private final float[] worldToScreen = new float[FramePacket.FLOATS_PER_MATRIX];
+  private final float[] pose = new float[FramePacket.FLOATS_PER_POSE];
+  private final float[] anchorCandidate = new float[3];
+  private FloatBuffer anchorPoints = FloatBuffer.allocate(0);
+
+  /**
+   * Unless there are already {@link #ANCHORS_LIMIT} anchors, hands every point of {@code
+   * pointCloud} with at least {@link #ANCHOR_CONFIDENCE} to {@code factory}. Consumes the buffer.
+   */
+  void addAnchors(FloatBuffer pointCloud, int anchorCount, AnchorFactory factory) {
+    if (anchorCount >= ANCHORS_LIMIT) {
+      return;
+    }
+    while (nextAnchorCandidate(pointCloud, ANCHOR_CONFIDENCE, anchorCandidate)) {
+      factory.createAnchor(anchorCandidate[0], anchorCandidate[1], anchorCandidate[2]);
+    }
+  }
+
+  /**
+   * Advances {@code points} to the next point whose confidence is at least {@code minConfidence}
+   * and stores its position in {@code position}.
+   *
+   * @return false once the buffer is exhausted.
+   */
+  static boolean nextAnchorCandidate(FloatBuffer points, float minConfidence, float[] position) {
+    while (points.remaining() >= FramePacket.FLOATS_PER_POINT) {
+      float x = points.get();
+      float y = points.get();
+      float z = points.get();
+      float confidence = points.get();
+      if (confidence >= minConfidence) {
+        position[0] = x;
+        position[1] = y;
+        position[2] = z;
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Projects every anchor of {@code frame} into the CPU image, filling {@code out} with the image
+   * and world position of each anchor.
+   */
+  void imageAnchorCorrespondences(
+      ArFrameData frame, int viewportWidth, int viewportHeight, PointProjector.Projection out) {
+    frame.getViewMatrix(viewMatrix);
+    frame.getProjectionMatrix(projectionMatrix);
+    multiplyMM(worldToScreen, projectionMatrix, viewMatrix);
+
+    int count = frame.getAnchorCount();
+    if (anchorPoints.capacity() < count * FramePacket.FLOATS_PER_POINT) {
+      anchorPoints = FloatBuffer.allocate(count * FramePacket.FLOATS_PER_POINT);
+    }
+    anchorPoints.clear();
+    for (int i = 0; i < count; i++) {
+      frame.getAnchorPose(i, pose);
+      anchorPoints.put(pose[0]).put(pose[1]).put(pose[2]).put(1);
+    }
+    anchorPoints.flip();
+
+    PointProjector.project(anchorPoints, worldToScreen, viewportWidth, viewportHeight, out);
+    out.mapToImage(frame);
+  }
+
+  /** {@code result = lhs * rhs} for column-major 4x4 matrices, like {@code Matrix.multiplyMM}. */
+  static void multiplyMM(float[] result, float[] lhs, float[] rhs) {
+    for (int column = 0; column < 4; column++) {
+      for (int row = 0; row < 4; row++) {
+        float sum = 0;
+        for (int k = 0; k < 4; k++) {
+          sum += lhs[k * 4 + row] * rhs[column * 4 + k];
+        }
+        result[column * 4 + row] = sum;
+      }
+    }
+  }
+
+  /** {@code result = matrix * vector} for a column-major 4x4 matrix, like {@code multiplyMV}. */
+  static void multiplyMV(float[] result, float[] matrix, float[] vector) {
+    for (int row = 0; row < 4; row++) {
+      result[row] =
+          matrix[row] * vector[0]
+              + matrix[4 + row] * vector[1]
+              + matrix[8 + row] * vector[2]
+              + matrix[12 + row] * vector[3];
+    }
+  }
+}
@@ -0,0 +1,182 @@
+package com.google.ar.core.examples.java.helloar;
+
+import java.nio.IntBuffer;
+import java.util.Arrays;
+
+/**
+ * Decides which frames become keyframes, to save and upload, from how much new the frame would
+ * add rather than from a fixed period. A frame is a candidate while tracking, when it is sharp
+ * enough and at least {@link Config#minIntervalMs} after the last keyframe. It is selected when it
+ * has moved or turned far enough since the last keyframe, or sees enough points the last keyframe
+ * did not; so a phone held still sends nothing, and fast motion is sampled up to the maximum rate.
+ *
+ * <p>Sharpness comes from an image measurement when the caller has one. Otherwise fast rotation,
+ * the main cause of motion blur, is used as a proxy. Has no Android dependencies; not thread-safe.
+ */
+class KeyframeSelector {
+
+  /** Thresholds. The defaults suit a handheld phone scanning a room. */
+  static class Config {
+    /** Camera movement, in meters, that on its own makes a keyframe. */
+    float minTranslationMeters = 0.1f;
+    /** Camera rotation, in degrees, that on its own makes a keyframe. */
+    float minRotationDegrees = 10f;
+    /** Fraction of the current points not seen by the last keyframe that on its own does. */
+    float minNewCoverage = 0.3f;
+    /** Frames less sharp than this, on the caller's scale, are skipped. */
+    float minSharpness = 0.5f;
+    /** Without a sharpness measurement, frames turning faster than this are skipped. */
+    float maxAngularSpeedDegreesPerSecond = 90f;
+    /** Keyframes are at least this far apart, which caps the rate. */
+    long minIntervalMs = 150;
+    /** If positive, a tracking, sharp frame is selected at least this often anyway. */
+    long maxIntervalMs = 0;
+  }
+
+  private static final double RADIANS_TO_DEGREES = 180 / Math.PI;
+
+  private final Config config;
+
+  private boolean hasKeyframe;
+  private long keyframeTimeMs;
+  private final float[] keyframePose = new float[FramePacket.FLOATS_PER_POSE];
+  // Sorted IDs of the points the last keyframe saw.
+  private int[] keyframeIds = new int[0];
+  private int keyframeIdCount;
+
+  private boolean hasPrevious;
+  private long previousTimeMs;
+  private final float[] previousPose = new float[FramePacket.FLOATS_PER_POSE];
+
+  private float lastScore;
+  private long considered;
+  private long selected;
+
+  KeyframeSelector(Config config) {
+    this.config = config;
+  }
+
+  /**
+   * Scores the current frame and records it as the last keyframe if it is selected.
+   *
+   * @param timeMs when the frame was captured.
+   * @param tracking whether the camera is tracking; frames are never selected otherwise.
+   * @param pose the camera pose, tx, ty, tz, qx, qy, qz, qw.
+   * @param pointIds IDs of the points the frame sees, or null. The position is not moved.
+   * @param sharpness the frame's measured sharpness, or NaN if it was not measured.
+   * @return true if the frame should be used as a keyframe.
+   */
+  boolean select(long timeMs, boolean tracking, float[] pose, IntBuffer pointIds, float sharpness) {
+    considered++;
+    float angularSpeed = 0;
+    if (hasPrevious && timeMs > previousTimeMs) {
+      angularSpeed = rotationDegrees(previousPose, pose) * 1000f / (timeMs - previousTimeMs);
+    }
+    hasPrevious = tracking;
+    previousTimeMs = timeMs;
+    System.arraycopy(pose, 0, previousPose, 0, FramePacket.FLOATS_PER_POSE);
+
+    lastScore = 0;
+    if (!tracking) {
+      return false;
+    }
+    if (hasKeyframe && timeMs - keyframeTimeMs < config.minIntervalMs) {
+      return false;
+    }
+    boolean sharp =
+        Float.isNaN(sharpness)
+            ? angularSpeed <= config.maxAngularSpeedDegreesPerSecond
+            : sharpness >= config.minSharpness;
+    if (!sharp) {
+      return false;
+    }
+
+    if (hasKeyframe) {
+      float translation = translationMeters(keyframePose, pose);
+      float rotation = rotationDegrees(keyframePose, pose);
+      float coverage = newCoverage(pointIds);
+      lastScore =
+          Math.max(
+              translation / config.minTranslationMeters,
+              Math.max(
+                  rotation / config.minRotationDegrees, coverage / config.minNewCoverage));
+      boolean overdue =
+          config.maxIntervalMs > 0 && timeMs - keyframeTimeMs >= config.maxIntervalMs;
+      if (lastScore < 1 && !overdue) {
+        return false;
+      }
+    } else {
+      lastScore = Float.POSITIVE_INFINITY;
+    }
+
+    hasKeyframe = true;
+    keyframeTimeMs = timeMs;
+    System.arraycopy(pose, 0, keyframePose, 0, FramePacket.FLOATS_PER_POSE);
+    rememberIds(pointIds);
+    selected++;
+    return true;
+  }
+
+  /** Forgets the last keyframe, so the next sharp, tracking frame is selected. */
+  void reset() {
+    hasKeyframe = false;
+    hasPrevious = false;
+    keyframeIdCount = 0;
+  }
+
+  /**
+   * How far the last frame was from being selected: 1 or more means it had moved, turned or
+   * discovered enough. 0 if it was not a candidate.
+   */
+  float getLastScore() {
+    return lastScore;
+  }
+
+  long getConsideredCount() {
+    return considered;
+  }
+
+  long getSelectedCount() {
+    return selected;
+  }
+
+  private float newCoverage(IntBuffer pointIds) {
+    if (pointIds == null || !pointIds.hasRemaining()) {
+      return 0;
+    }
+    int count = pointIds.remaining();
+    int base = pointIds.position();
+    int unseen = 0;
+    for (int i = 0; i < count; i++) {
+      if (Arrays.binarySearch(keyframeIds, 0, keyframeIdCount, pointIds.get(base + i)) < 0) {
+        unseen++;
+      }
+    }
+    return (float) unseen / count;
+  }
+
+  private void rememberIds(IntBuffer pointIds) {
+    int count = pointIds == null ? 0 : pointIds.remaining();
+    if (keyframeIds.length < count) {
+      keyframeIds = new int[count];
+    }
+    if (count > 0) {
+      pointIds.duplicate().get(keyframeIds, 0, count);
+      Arrays.sort(keyframeIds, 0, count);
+    }
+    keyframeIdCount = count;
+  }
+
+  private static float translationMeters(float[] a, float[] b) {
+    float dx = b[0] - a[0];
+    float dy = b[1] - a[1];
+    float dz = b[2] - a[2];
+    return (float) Math.sqrt(dx * dx + dy * dy + dz * dz);
+  }
+
+  /** The angle of the rotation between two poses' unit quaternions. */
+  private static float rotationDegrees(float[] a, float[] b) {
+    double dot = Math.abs(a[3] * b[3] + a[4] * b[4] + a[5] * b[5] + a[6] * b[6]);
+    return (float) (2 * Math.acos(Math.min(1, dot)) * RADIANS_TO_DEGREES);
+  }
+}
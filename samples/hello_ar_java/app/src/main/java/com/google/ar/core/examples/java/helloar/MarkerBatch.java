@@ -0,0 +1,46 @@
+package com.google.ar.core.examples.java.helloar;
+
+import com.google.ar.core.examples.java.common.rendering.ObjectRenderer;
+import java.util.Arrays;
+
+/**
+ * Marker positions and colors collected during a frame and drawn with one {@link
+ * ObjectRenderer#drawInstances} call. Arrays grow as needed and are kept between frames.
+ */
+class MarkerBatch {
+  private static final int FLOATS_PER_MATRIX = 16;
+  private static final int FLOATS_PER_COLOR = 4;
+  private static final int INITIAL_CAPACITY = 64;
+
+  private float[] modelMatrices = new float[INITIAL_CAPACITY * FLOATS_PER_MATRIX];
+  private float[] colors = new float[INITIAL_CAPACITY * FLOATS_PER_COLOR];
+  private int count;
+
+  void clear() {
+    count = 0;
+  }
+
+  int size() {
+    return count;
+  }
+
+  /** Adds a marker at {@code x, y, z}, scaled by {@code scaleFactor}. */
+  void add(float x, float y, float z, float scaleFactor, float[] color) {
+    if (count * FLOATS_PER_COLOR == colors.length) {
+      modelMatrices = Arrays.copyOf(modelMatrices, modelMatrices.length * 2);
+      colors = Arrays.copyOf(colors, colors.length * 2);
+    }
+    ObjectRenderer.setModelMatrix(modelMatrices, count, x, y, z, scaleFactor);
+    System.arraycopy(color, 0, colors, count * FLOATS_PER_COLOR, FLOATS_PER_COLOR);
+    count++;
+  }
+
+  void draw(
+      ObjectRenderer renderer,
+      float[] cameraView,
+      float[] cameraPerspective,
+      float[] colorCorrectionRgba) {
+    renderer.drawInstances(
+        cameraView, cameraPerspective, colorCorrectionRgba, modelMatrices, colors, count);
+  }
+}
@@ -0,0 +1,402 @@
+package com.google.ar.core.examples.java.helloar;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+
+/**
+ * Decodes server model point clouds straight into direct, native-order {@link FloatBuffer}s of
+ * x, y, z, 1 per point, the layout {@code ServerModelCloudRenderer} uploads.
+ *
+ * <p>The binary payload ({@link #BINARY_MEDIA_TYPE}) is little-endian:
+ *
+ * <pre>
+ *   u32 magic 'A' 'R' 'P' 'C', u32 point count, u32 floats per point (3 or 4), floats
+ * </pre>
+ *
+ * The text fallback accepts the JSON {@code {"points":["x y z", ...]}} that {@code getModel} has
+ * always returned, with any other keys, or plain "x y z" lines. It scans characters without
+ * building strings; numbers are parsed to within a rounding step of {@link Float#parseFloat},
+ * which is plenty for vertices.
+ */
+final class ModelDecoder {
+
+  static final String BINARY_MEDIA_TYPE = "application/x-ar-points";
+  static final int MAGIC = 'A' | 'R' << 8 | 'P' << 16 | 'C' << 24;
+
+  private static final int BYTES_PER_FLOAT = Float.SIZE / 8;
+  private static final int OUTPUT_FLOATS_PER_POINT = 4;
+  private static final int OUTPUT_BYTES_PER_POINT = OUTPUT_FLOATS_PER_POINT * BYTES_PER_FLOAT;
+  private static final int HEADER_BYTES = 12;
+  private static final int CHUNK_BYTES = 64 * 1024;
+  private static final int INITIAL_TEXT_POINTS = 4096;
+  private static final int INITIAL_BINARY_BYTES = 1024 * 1024;
+  private static final int MAX_POINTS = Integer.MAX_VALUE / OUTPUT_BYTES_PER_POINT;
+
+  private static final double[] POWERS_OF_TEN = {
+    1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11, 1e12, 1e13, 1e14, 1e15, 1e16,
+    1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+  };
+
+  private ModelDecoder() {}
+
+  /**
+   * Reads a binary model from {@code in}, which is left positioned after it. {@code length} is the
+   * size of the whole message, such as the Content-Length, or -1 if unknown; a header counting
+   * more points than that holds is rejected up front. Either way the output only grows as points
+   * actually arrive, so a bad header cannot make it allocate much more than was sent.
+   */
+  static FloatBuffer readBinary(InputStream in, long length) throws IOException {
+    byte[] chunk = new byte[CHUNK_BYTES];
+    readFully(in, chunk, HEADER_BYTES);
+    ByteBuffer header = ByteBuffer.wrap(chunk, 0, HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+    if (header.getInt() != MAGIC) {
+      throw new IOException("Not a binary point cloud");
+    }
+    int count = header.getInt();
+    int floatsPerPoint = header.getInt();
+    if (count < 0 || count > MAX_POINTS) {
+      throw new IOException("Bad point count " + count);
+    }
+    if (floatsPerPoint != 3 && floatsPerPoint != 4) {
+      throw new IOException("Unsupported floats per point " + floatsPerPoint);
+    }
+    int inputBytesPerPoint = floatsPerPoint * BYTES_PER_FLOAT;
+    long remaining = (long) count * inputBytesPerPoint;
+    if (length >= 0 && HEADER_BYTES + remaining > length) {
+      throw new EOFException("Point count " + count + " does not fit in " + length + " bytes");
+    }
+
+    long outputBytes = (long) count * OUTPUT_BYTES_PER_POINT;
+    ByteBuffer out = newBinaryOutput(Math.min(outputBytes, INITIAL_BINARY_BYTES));
+
+    if (floatsPerPoint == OUTPUT_FLOATS_PER_POINT
+        && ByteOrder.nativeOrder() == ByteOrder.LITTLE_ENDIAN) {
+      // Same layout on both ends: copy the bytes through.
+      while (remaining > 0) {
+        int read = in.read(chunk, 0, (int) Math.min(chunk.length, remaining));
+        if (read < 0) {
+          throw new EOFException("Point cloud truncated");
+        }
+        out = ensureRemaining(out, read, outputBytes);
+        out.put(chunk, 0, read);
+        remaining -= read;
+      }
+    } else {
+      ByteBuffer input = ByteBuffer.wrap(chunk).order(ByteOrder.LITTLE_ENDIAN);
+      int pointsPerChunk = chunk.length / inputBytesPerPoint;
+      while (remaining > 0) {
+        int points = (int) Math.min(pointsPerChunk, remaining / inputBytesPerPoint);
+        readFully(in, chunk, points * inputBytesPerPoint);
+        out = ensureRemaining(out, points * OUTPUT_BYTES_PER_POINT, outputBytes);
+        input.clear();
+        for (int i = 0; i < points; i++) {
+          out.putFloat(input.getFloat());
+          out.putFloat(input.getFloat());
+          out.putFloat(input.getFloat());
+          out.putFloat(floatsPerPoint == 4 ? input.getFloat() : 1f);
+        }
+        remaining -= (long) points * inputBytesPerPoint;
+      }
+    }
+
+    out.flip();
+    return out.asFloatBuffer();
+  }
+
+  /**
+   * Parses a text model. In a JSON object, every string of the top-level {@code points} array
+   * holding at least three numbers becomes a point from its first three, and everything else is
+   * skipped. Otherwise the same goes for every line.
+   */
+  static FloatBuffer parseText(Reader reader) throws IOException {
+    TextParser parser = new TextParser();
+    char[] chunk = new char[CHUNK_BYTES / 2];
+    int read;
+    while ((read = reader.read(chunk)) >= 0) {
+      for (int i = 0; i < read; i++) {
+        parser.accept(chunk[i]);
+      }
+    }
+    parser.accept('\n');
+    return parser.finish();
+  }
+
+  /** {@link #parseText} for a message that is already in memory. */
+  static FloatBuffer parseText(CharSequence text) {
+    TextParser parser = new TextParser();
+    for (int i = 0; i < text.length(); i++) {
+      parser.accept(text.charAt(i));
+    }
+    parser.accept('\n');
+    return parser.finish();
+  }
+
+  private static ByteBuffer newBinaryOutput(long bytes) {
+    return ByteBuffer.allocateDirect((int) bytes).order(ByteOrder.nativeOrder());
+  }
+
+  /**
+   * Returns {@code out}, or a copy at least twice as large but at most {@code maxBytes}, with room
+   * for {@code bytes} more.
+   */
+  private static ByteBuffer ensureRemaining(ByteBuffer out, int bytes, long maxBytes) {
+    if (out.remaining() >= bytes) {
+      return out;
+    }
+    long needed = (long) out.position() + bytes;
+    ByteBuffer larger = newBinaryOutput(Math.min(maxBytes, Math.max(needed, 2L * out.capacity())));
+    out.flip();
+    larger.put(out);
+    return larger;
+  }
+
+  private static void readFully(InputStream in, byte[] buffer, int length) throws IOException {
+    int offset = 0;
+    while (offset < length) {
+      int read = in.read(buffer, offset, length - offset);
+      if (read < 0) {
+        throw new EOFException("Point cloud truncated");
+      }
+      offset += read;
+    }
+  }
+
+  /** Character-at-a-time state machine behind {@link #parseText}. */
+  private static final class TextParser {
+    private static final String POINTS_KEY = "points";
+
+    private FloatBuffer out = newPoints(INITIAL_TEXT_POINTS);
+
+    // Whether the text is a JSON object, decided by its first character other than whitespace.
+    private boolean started;
+    private boolean json;
+
+    // JSON structure: strings, how many of the characters of POINTS_KEY the current one matched
+    // (-1 once it differs), object and array nesting, and where the points array is.
+    private boolean inString;
+    private boolean escaped;
+    private int keyMatch;
+    private boolean stringIsPointsKey;
+    private boolean expectPoints;
+    private int depth;
+    private int pointsDepth;
+
+    // Values of the group (quoted string or line) being read.
+    private final float[] group = new float[3];
+    private int groupCount;
+
+    // Number being read.
+    private boolean inNumber;
+    private boolean negative;
+    private long mantissa;
+    private int mantissaDigits;
+    private int decimalExponent;
+    private boolean inFraction;
+    private boolean inExponent;
+    private boolean exponentNegative;
+    private int exponent;
+    private boolean sawDigit;
+
+    void accept(char c) {
+      if (!started) {
+        if (Character.isWhitespace(c)) {
+          return;
+        }
+        started = true;
+        json = c == '{';
+      }
+      if (json) {
+        acceptJson(c);
+      } else {
+        acceptValues(c);
+      }
+    }
+
+    private void acceptJson(char c) {
+      boolean inPoints = pointsDepth > 0 && depth == pointsDepth;
+      if (inString) {
+        if (escaped) {
+          escaped = false;
+          if (inPoints) {
+            acceptValues(' ');
+          }
+        } else if (c == '\\') {
+          escaped = true;
+        } else if (c == '"') {
+          inString = false;
+          stringIsPointsKey = keyMatch == POINTS_KEY.length();
+          if (inPoints) {
+            acceptValues(c);
+          }
+        } else if (inPoints) {
+          acceptValues(c);
+        } else if (keyMatch >= 0) {
+          boolean matches = keyMatch < POINTS_KEY.length() && POINTS_KEY.charAt(keyMatch) == c;
+          keyMatch = matches ? keyMatch + 1 : -1;
+        }
+        return;
+      }
+      if (Character.isWhitespace(c)) {
+        return;
+      }
+
+      switch (c) {
+        case '"':
+          inString = true;
+          keyMatch = 0;
+          if (inPoints) {
+            acceptValues(c);
+          }
+          return;
+        case ':':
+          // Only the key of the top-level object counts.
+          expectPoints = stringIsPointsKey && depth == 1;
+          break;
+        case '[':
+        case '{':
+          depth++;
+          if (c == '[' && expectPoints) {
+            pointsDepth = depth;
+          }
+          expectPoints = false;
+          break;
+        case ']':
+        case '}':
+          if (depth == pointsDepth) {
+            pointsDepth = 0;
+          }
+          depth--;
+          expectPoints = false;
+          break;
+        default:
+          expectPoints = false;
+          break;
+      }
+      stringIsPointsKey = false;
+    }
+
+    /** Reads numbers, ending a group on a quote or line end. */
+    private void acceptValues(char c) {
+      if (inNumber) {
+        if (c >= '0' && c <= '9') {
+          digit(c - '0');
+          return;
+        }
+        if (c == '.' && !inFraction && !inExponent) {
+          inFraction = true;
+          return;
+        }
+        if ((c == 'e' || c == 'E') && !inExponent && sawDigit) {
+          inExponent = true;
+          return;
+        }
+        if ((c == '-' || c == '+') && inExponent && exponent == 0 && !exponentNegative) {
+          exponentNegative = c == '-';
+          return;
+        }
+        endNumber();
+      }
+
+      if ((c >= '0' && c <= '9') || c == '-' || c == '+' || c == '.') {
+        startNumber();
+        if (c == '-') {
+          negative = true;
+        } else if (c == '.') {
+          inFraction = true;
+        } else if (c != '+') {
+          digit(c - '0');
+        }
+      } else if (c == '"' || c == '\n' || c == '\r') {
+        endGroup();
+      }
+    }
+
+    FloatBuffer finish() {
+      out.flip();
+      return out;
+    }
+
+    private void startNumber() {
+      inNumber = true;
+      negative = false;
+      mantissa = 0;
+      mantissaDigits = 0;
+      decimalExponent = 0;
+      inFraction = false;
+      inExponent = false;
+      exponentNegative = false;
+      exponent = 0;
+      sawDigit = false;
+    }
+
+    private void digit(int value) {
+      if (inExponent) {
+        if (exponent < 1000) {
+          exponent = exponent * 10 + value;
+        }
+        return;
+      }
+      sawDigit = true;
+      if (mantissaDigits < 18) {
+        mantissa = mantissa * 10 + value;
+        if (mantissa != 0) {
+          mantissaDigits++;
+        }
+        if (inFraction) {
+          decimalExponent--;
+        }
+      } else if (!inFraction) {
+        // Digits beyond long precision only scale the value.
+        decimalExponent++;
+      }
+    }
+
+    private void endNumber() {
+      inNumber = false;
+      if (!sawDigit) {
+        return;
+      }
+      int scale = decimalExponent + (exponentNegative ? -exponent : exponent);
+      double value = mantissa;
+      if (scale < 0) {
+        value = -scale < POWERS_OF_TEN.length ? value / POWERS_OF_TEN[-scale]
+            : value / Math.pow(10, -scale);
+      } else if (scale > 0) {
+        value = scale < POWERS_OF_TEN.length ? value * POWERS_OF_TEN[scale]
+            : value * Math.pow(10, scale);
+      }
+      if (groupCount < group.length) {
+        group[groupCount] = (float) (negative ? -value : value);
+      }
+      groupCount++;
+    }
+
+    private void endGroup() {
+      if (groupCount >= 3) {
+        if (out.remaining() < OUTPUT_FLOATS_PER_POINT) {
+          grow();
+        }
+        out.put(group[0]).put(group[1]).put(group[2]).put(1f);
+      }
+      groupCount = 0;
+    }
+
+    private void grow() {
+      FloatBuffer larger = newPoints(out.capacity() / OUTPUT_FLOATS_PER_POINT * 2);
+      out.flip();
+      larger.put(out);
+      out = larger;
+    }
+
+    private static FloatBuffer newPoints(int points) {
+      return ByteBuffer.allocateDirect(points * OUTPUT_BYTES_PER_POINT)
+          .order(ByteOrder.nativeOrder())
+          .asFloatBuffer();
+    }
+  }
+}
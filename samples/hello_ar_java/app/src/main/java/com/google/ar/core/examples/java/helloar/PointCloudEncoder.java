@@ -0,0 +1,194 @@
+package com.google.ar.core.examples.java.helloar;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.channels.WritableByteChannel;
+
+import okhttp3.MediaType;
+import okhttp3.RequestBody;
+import okio.BufferedSink;
+
+/**
+ * Serializes packed X,Y,Z,confidence point clouds straight from a {@link FloatBuffer}, either into
+ * a reusable {@link StringBuilder} or to a channel such as an OkHttp {@link BufferedSink} or a
+ * {@link java.nio.channels.FileChannel} through one fixed-size chunk buffer. Serialization is
+ * linear in the number of points and does not build the whole text in memory when streaming.
+ *
+ * <p>The text format is one point per line with space separated values, the same as the
+ * {@code pointCloud} field the server already parses. The binary format is the raw little-endian
+ * floats.
+ *
+ * <p>Instances reuse their buffers and are not thread-safe; use one encoder per thread, or
+ * {@link #forCurrentThread} on threads that OkHttp writes request bodies on.
+ */
+class PointCloudEncoder {
+
+  enum Format {
+    TEXT,
+    BINARY
+  }
+
+  static final MediaType TEXT_POINTS = MediaType.get("text/plain; charset=utf-8");
+  static final MediaType BINARY_POINTS = MediaType.get("application/octet-stream");
+
+  private static final int FLOATS_PER_POINT = 4; // X,Y,Z,confidence.
+  private static final int CHUNK_BYTES = 16 * 1024;
+
+  private static final ThreadLocal<PointCloudEncoder> PER_THREAD =
+      ThreadLocal.withInitial(PointCloudEncoder::new);
+
+  private final ByteBuffer chunk = ByteBuffer.allocate(CHUNK_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+  private final StringBuilder line = new StringBuilder(64);
+  private final float[] point = new float[FLOATS_PER_POINT];
+
+  /**
+   * Appends the remaining points of {@code points} as text to {@code out}, without moving the
+   * position of {@code points}.
+   *
+   * @param valuesPerLine 3 to write X,Y,Z only, 4 to also write confidence (or W when transformed).
+   * @param transform optional column-major 4x4 matrix applied to (X,Y,Z,1) before writing. When
+   *     set, the written values are the transformed X,Y,Z,W.
+   */
+  void appendText(FloatBuffer points, int valuesPerLine, float[] transform, StringBuilder out) {
+    FloatBuffer source = points.duplicate();
+    while (source.remaining() >= FLOATS_PER_POINT) {
+      nextPoint(source, transform);
+      appendLine(out, valuesPerLine, false);
+    }
+  }
+
+  /**
+   * Same as {@link #appendText} but streams the UTF-8 text to {@code out}.
+   *
+   * @return the number of bytes written.
+   */
+  long writeText(FloatBuffer points, int valuesPerLine, float[] transform, WritableByteChannel out)
+      throws IOException {
+    return writeText(points, valuesPerLine, transform, false, out);
+  }
+
+  /**
+   * Same as {@link #writeText}, but ends lines with the two characters of the JSON escape
+   * {@code \n}, so the text can be streamed as the contents of a JSON string.
+   */
+  long writeJsonText(
+      FloatBuffer points, int valuesPerLine, float[] transform, WritableByteChannel out)
+      throws IOException {
+    return writeText(points, valuesPerLine, transform, true, out);
+  }
+
+  /** Streams the remaining points as raw little-endian floats, four per point. */
+  void writeBinary(FloatBuffer points, WritableByteChannel out) throws IOException {
+    FloatBuffer source = points.duplicate();
+    chunk.clear();
+    while (source.hasRemaining()) {
+      int count = Math.min(source.remaining(), chunk.remaining() / 4);
+      int limit = source.limit();
+      source.limit(source.position() + count);
+      chunk.asFloatBuffer().put(source);
+      source.limit(limit);
+      chunk.position(chunk.position() + count * 4);
+      drain(out);
+    }
+  }
+
+  /** Returns the number of bytes {@link #writeBinary} writes for {@code points}. */
+  static long binaryLength(FloatBuffer points) {
+    return (long) points.remaining() * 4;
+  }
+
+  /** Returns this thread's encoder, for request bodies that OkHttp writes on its own threads. */
+  static PointCloudEncoder forCurrentThread() {
+    return PER_THREAD.get();
+  }
+
+  /**
+   * Wraps {@code points} in a request body that is encoded while OkHttp writes it, so the cloud
+   * is never materialized as a String. The buffer must not change until the call completes.
+   */
+  static RequestBody asRequestBody(FloatBuffer points, Format format) {
+    FloatBuffer snapshot = points.duplicate();
+    return new RequestBody() {
+      @Override
+      public MediaType contentType() {
+        return format == Format.TEXT ? TEXT_POINTS : BINARY_POINTS;
+      }
+
+      @Override
+      public long contentLength() {
+        return format == Format.TEXT ? -1 : binaryLength(snapshot);
+      }
+
+      @Override
+      public void writeTo(BufferedSink sink) throws IOException {
+        PointCloudEncoder encoder = forCurrentThread();
+        if (format == Format.TEXT) {
+          encoder.writeText(snapshot, FLOATS_PER_POINT, null, sink);
+        } else {
+          encoder.writeBinary(snapshot, sink);
+        }
+      }
+    };
+  }
+
+  private long writeText(
+      FloatBuffer points,
+      int valuesPerLine,
+      float[] transform,
+      boolean jsonEscaped,
+      WritableByteChannel out)
+      throws IOException {
+    FloatBuffer source = points.duplicate();
+    long written = 0;
+    chunk.clear();
+    while (source.remaining() >= FLOATS_PER_POINT) {
+      nextPoint(source, transform);
+      line.setLength(0);
+      appendLine(line, valuesPerLine, jsonEscaped);
+      if (chunk.remaining() < line.length()) {
+        drain(out);
+      }
+      // Float text is plain ASCII, so chars map one to one onto bytes.
+      for (int i = 0; i < line.length(); i++) {
+        chunk.put((byte) line.charAt(i));
+      }
+      written += line.length();
+    }
+    drain(out);
+    return written;
+  }
+
+  private void nextPoint(FloatBuffer source, float[] transform) {
+    source.get(point, 0, FLOATS_PER_POINT);
+    if (transform == null) {
+      return;
+    }
+    float x = point[0];
+    float y = point[1];
+    float z = point[2];
+    for (int row = 0; row < 4; row++) {
+      point[row] =
+          transform[row] * x + transform[4 + row] * y + transform[8 + row] * z + transform[12 + row];
+    }
+  }
+
+  private void appendLine(StringBuilder out, int valuesPerLine, boolean jsonEscaped) {
+    for (int i = 0; i < valuesPerLine; i++) {
+      if (i > 0) {
+        out.append(' ');
+      }
+      out.append(point[i]);
+    }
+    out.append(jsonEscaped ? "\\n" : "\n");
+  }
+
+  private void drain(WritableByteChannel out) throws IOException {
+    chunk.flip();
+    while (chunk.hasRemaining()) {
+      out.write(chunk);
+    }
+    chunk.clear();
+  }
+}
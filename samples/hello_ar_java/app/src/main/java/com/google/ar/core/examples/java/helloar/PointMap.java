@@ -0,0 +1,570 @@
+package com.google.ar.core.examples.java.helloar;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+
+/**
+ * A world-space map of ARCore feature points, accumulated over frames. Points are hashed into
+ * voxels: a point keeps its entry for as long as ARCore keeps its ID, even as its estimate moves,
+ * and different points that fall into one voxel are fused. Each entry keeps a confidence-weighted
+ * position, a running confidence and when it was last seen.
+ *
+ * <p>Entries that were seen only a few times, or whose confidence stayed low, are evicted once
+ * they have not been seen for a while. The map never holds more than its maximum number of points:
+ * when it is full, the entries with the lowest confidence and fewest observations make room.
+ *
+ * <p>Every change bumps the {@link #getVersion version}, so the renderer only copies the map when
+ * it changed and uploads only send what changed since the server last acknowledged, see {@link
+ * #exportChanges}. Entries are published, to both, as of their last noticeable change: a quarter
+ * voxel of movement or a small change in confidence. Thread-safe.
+ */
+class PointMap {
+  static final int FLOATS_PER_POINT = 4; // X, Y, Z, confidence.
+
+  /** Entries changed and removed since a version, see {@link #exportChanges}. */
+  static class Changes {
+    /** The version the changes apply to, or 0 for a full snapshot. */
+    long baseVersion;
+    /** The version of the map once the changes are applied. */
+    long version;
+    /** Whether this is the whole map, to replace whatever the receiver has. */
+    boolean full;
+
+    int updatedCount;
+    int[] updatedIds = new int[0];
+    /** {@link #FLOATS_PER_POINT} floats per updated entry. */
+    float[] updatedPoints = new float[0];
+
+    /** Removals come before updates: an ID may be removed and then reused. */
+    int removedCount;
+    int[] removedIds = new int[0];
+
+    void ensureCapacity(int updated, int removed) {
+      if (updatedIds.length < updated) {
+        updatedIds = new int[updated];
+        updatedPoints = new float[updated * FLOATS_PER_POINT];
+      }
+      if (removedIds.length < removed) {
+        removedIds = new int[removed];
+      }
+    }
+  }
+
+  // Observations of a point are averaged with at most this much weight on the past, so a point
+  // that ARCore moves follows its new estimate.
+  private static final float MAX_POSITION_WEIGHT = 10f;
+  private static final float CONFIDENCE_SMOOTHING = 0.2f;
+  // Changes smaller than these, in voxels and in confidence, do not count as modifications.
+  private static final float POSITION_TOLERANCE = 0.25f;
+  private static final float CONFIDENCE_TOLERANCE = 0.05f;
+  // Entries seen fewer times than this, or less confident, go once they are stale.
+  private static final int MIN_OBSERVATIONS = 3;
+  private static final float MIN_CONFIDENCE = 0.1f;
+  private static final long STALE_NANOS = 5_000_000_000L;
+  private static final long SWEEP_INTERVAL_NANOS = 1_000_000_000L;
+  // When full, this fraction of the entries is evicted at once.
+  private static final int EVICT_FRACTION = 8;
+  private static final int MAX_REMOVALS_LOGGED = 64 * 1024;
+  private static final int FREE = -1;
+
+  private final float voxelSize;
+  private final int maxPoints;
+
+  // Entries as parallel arrays, indexed by slot.
+  private final float[] points; // Mean x, y, z and running confidence.
+  private final float[] published; // The points as of their last modification.
+  private final float[] weights;
+  private final int[] observations;
+  private final long[] lastSeenNanos;
+  private final long[] modifiedVersions;
+  private final long[] voxelKeys;
+  private final int[] arcoreIds; // Last ARCore ID seen for the entry, or FREE.
+  private final int[] pointIds; // Stable ID for uploads, or FREE for a free slot.
+  private final int[] freeSlots;
+  private int freeCount;
+  private int size;
+  private int nextPointId = 1;
+
+  private final LongIntMap voxelIndex;
+  private final LongIntMap idIndex;
+
+  private long version;
+  private long lastSweepNanos;
+
+  // Removals not yet acknowledged, oldest first. Every removal after removedFloor is in here.
+  private int[] removedLogIds = new int[256];
+  private long[] removedLogVersions = new long[256];
+  private int removedLogStart;
+  private int removedLogEnd;
+  private long removedFloor;
+
+  private float[] scoreScratch = new float[0];
+
+  /**
+   * @param voxelSize edge of a voxel in meters; points closer than this are fused.
+   * @param maxPoints the most entries the map keeps.
+   */
+  PointMap(float voxelSize, int maxPoints) {
+    this.voxelSize = voxelSize;
+    this.maxPoints = maxPoints;
+    points = new float[maxPoints * FLOATS_PER_POINT];
+    published = new float[maxPoints * FLOATS_PER_POINT];
+    weights = new float[maxPoints];
+    observations = new int[maxPoints];
+    lastSeenNanos = new long[maxPoints];
+    modifiedVersions = new long[maxPoints];
+    voxelKeys = new long[maxPoints];
+    arcoreIds = new int[maxPoints];
+    pointIds = new int[maxPoints];
+    freeSlots = new int[maxPoints];
+    for (int slot = maxPoints - 1; slot >= 0; slot--) {
+      pointIds[slot] = FREE;
+      freeSlots[freeCount++] = slot;
+    }
+    voxelIndex = new LongIntMap(maxPoints);
+    idIndex = new LongIntMap(maxPoints);
+  }
+
+  /**
+   * Merges one ARCore point cloud into the map.
+   *
+   * @param cloud x, y, z, confidence per point; read without moving its position.
+   * @param ids the ARCore ID of every point, or null to fuse by position only.
+   * @param timestampNanos when the cloud was captured, for staleness.
+   */
+  synchronized void integrate(FloatBuffer cloud, IntBuffer ids, long timestampNanos) {
+    long next = version + 1;
+    int count = cloud.remaining() / FLOATS_PER_POINT;
+    int base = cloud.position();
+    int idBase = ids == null ? 0 : ids.position();
+    boolean changed = false;
+
+    if (timestampNanos - lastSweepNanos >= SWEEP_INTERVAL_NANOS) {
+      changed |= evictStale(timestampNanos, next);
+      lastSweepNanos = timestampNanos;
+    }
+
+    for (int i = 0; i < count; i++) {
+      int offset = base + i * FLOATS_PER_POINT;
+      float x = cloud.get(offset);
+      float y = cloud.get(offset + 1);
+      float z = cloud.get(offset + 2);
+      float confidence = cloud.get(offset + 3);
+      int id = ids == null ? FREE : ids.get(idBase + i);
+
+      int slot = FREE;
+      if (id != FREE) {
+        slot = idIndex.get(id);
+        if (slot != FREE && arcoreIds[slot] != id) {
+          // The entry was evicted or has since been fused under another ID.
+          idIndex.remove(id);
+          slot = FREE;
+        }
+      }
+      long key = voxelKey(x, y, z);
+      if (slot == FREE) {
+        slot = voxelIndex.get(key);
+      }
+
+      if (slot == FREE) {
+        if (freeCount == 0) {
+          // Full: make room for this and the next new points in one pass.
+          evictLowest(Math.max(1, maxPoints / EVICT_FRACTION), next);
+          changed = true;
+        }
+        slot = allocate(key, x, y, z, confidence);
+        if (slot == FREE) {
+          continue;
+        }
+        markModified(slot, next);
+        changed = true;
+      } else {
+        observe(slot, x, y, z, confidence);
+        int fused = rehash(slot, next);
+        if (fused != slot || movedNoticeably(fused)) {
+          markModified(fused, next);
+          changed = true;
+        }
+        slot = fused;
+      }
+      if (id != FREE) {
+        arcoreIds[slot] = id;
+        idIndex.put(id, slot);
+      }
+      lastSeenNanos[slot] = timestampNanos;
+    }
+
+    if (changed) {
+      version = next;
+    }
+    if (idIndex.size() > 2 * maxPoints) {
+      rebuildIdIndex();
+    }
+  }
+
+  /** Increases whenever the map changes. */
+  synchronized long getVersion() {
+    return version;
+  }
+
+  synchronized int size() {
+    return size;
+  }
+
+  /**
+   * Copies every entry, x, y, z, confidence, into {@code reuse} if it is large enough or into a
+   * new direct buffer otherwise, ready to draw.
+   *
+   * @return the buffer holding the points, from position 0.
+   */
+  synchronized FloatBuffer copyPoints(FloatBuffer reuse) {
+    FloatBuffer out = reuse;
+    if (out == null || out.capacity() < size * FLOATS_PER_POINT) {
+      out =
+          ByteBuffer.allocateDirect(maxPoints * FLOATS_PER_POINT * Float.SIZE / 8)
+              .order(ByteOrder.nativeOrder())
+              .asFloatBuffer();
+    }
+    out.clear();
+    for (int slot = 0; slot < maxPoints; slot++) {
+      if (pointIds[slot] != FREE) {
+        out.put(published, slot * FLOATS_PER_POINT, FLOATS_PER_POINT);
+      }
+    }
+    out.flip();
+    return out;
+  }
+
+  /**
+   * Fills {@code out} with what changed after {@code sinceVersion}, or with the whole map if
+   * {@code sinceVersion} is 0 or too old to have its removals logged.
+   */
+  synchronized void exportChanges(long sinceVersion, Changes out) {
+    boolean full = sinceVersion <= 0 || sinceVersion < removedFloor || sinceVersion > version;
+    int updated = 0;
+    for (int slot = 0; slot < maxPoints; slot++) {
+      if (pointIds[slot] != FREE && (full || modifiedVersions[slot] > sinceVersion)) {
+        updated++;
+      }
+    }
+    int removed = 0;
+    if (!full) {
+      for (int i = removedLogStart; i < removedLogEnd; i++) {
+        if (removedLogVersions[i] > sinceVersion) {
+          removed++;
+        }
+      }
+    }
+
+    out.ensureCapacity(updated, removed);
+    out.baseVersion = full ? 0 : sinceVersion;
+    out.version = version;
+    out.full = full;
+    out.updatedCount = 0;
+    for (int slot = 0; slot < maxPoints; slot++) {
+      if (pointIds[slot] != FREE && (full || modifiedVersions[slot] > sinceVersion)) {
+        out.updatedIds[out.updatedCount] = pointIds[slot];
+        System.arraycopy(
+            published,
+            slot * FLOATS_PER_POINT,
+            out.updatedPoints,
+            out.updatedCount * FLOATS_PER_POINT,
+            FLOATS_PER_POINT);
+        out.updatedCount++;
+      }
+    }
+    out.removedCount = 0;
+    if (!full) {
+      for (int i = removedLogStart; i < removedLogEnd; i++) {
+        if (removedLogVersions[i] > sinceVersion) {
+          out.removedIds[out.removedCount++] = removedLogIds[i];
+        }
+      }
+    }
+  }
+
+  /** Forgets removals up to {@code version}, which the receiver now has. */
+  synchronized void acknowledge(long version) {
+    while (removedLogStart < removedLogEnd && removedLogVersions[removedLogStart] <= version) {
+      removedLogStart++;
+    }
+    removedFloor = Math.max(removedFloor, Math.min(version, this.version));
+  }
+
+  private long voxelKey(float x, float y, float z) {
+    long ix = (long) Math.floor(x / voxelSize) & 0x1FFFFF;
+    long iy = (long) Math.floor(y / voxelSize) & 0x1FFFFF;
+    long iz = (long) Math.floor(z / voxelSize) & 0x1FFFFF;
+    return ix << 42 | iy << 21 | iz;
+  }
+
+  private int allocate(long key, float x, float y, float z, float confidence) {
+    if (freeCount == 0) {
+      return FREE;
+    }
+    int slot = freeSlots[--freeCount];
+    int offset = slot * FLOATS_PER_POINT;
+    points[offset] = x;
+    points[offset + 1] = y;
+    points[offset + 2] = z;
+    points[offset + 3] = confidence;
+    weights[slot] = Math.max(confidence, Float.MIN_NORMAL);
+    observations[slot] = 1;
+    voxelKeys[slot] = key;
+    arcoreIds[slot] = FREE;
+    pointIds[slot] = nextPointId++;
+    if (nextPointId <= 0) {
+      nextPointId = 1;
+    }
+    voxelIndex.put(key, slot);
+    size++;
+    return slot;
+  }
+
+  private void observe(int slot, float x, float y, float z, float confidence) {
+    int offset = slot * FLOATS_PER_POINT;
+    float weight = Math.max(confidence, Float.MIN_NORMAL);
+    float total = weights[slot] + weight;
+    points[offset] += (x - points[offset]) * weight / total;
+    points[offset + 1] += (y - points[offset + 1]) * weight / total;
+    points[offset + 2] += (z - points[offset + 2]) * weight / total;
+    points[offset + 3] += (confidence - points[offset + 3]) * CONFIDENCE_SMOOTHING;
+    weights[slot] = Math.min(total, MAX_POSITION_WEIGHT);
+    observations[slot]++;
+  }
+
+  /**
+   * Moves {@code slot} to the voxel its position now falls in, fusing it into the entry already
+   * there if there is one.
+   *
+   * @return the slot now holding the point.
+   */
+  private int rehash(int slot, long next) {
+    int offset = slot * FLOATS_PER_POINT;
+    long key = voxelKey(points[offset], points[offset + 1], points[offset + 2]);
+    if (key == voxelKeys[slot]) {
+      return slot;
+    }
+    int other = voxelIndex.get(key);
+    if (other == FREE) {
+      voxelIndex.remove(voxelKeys[slot]);
+      voxelIndex.put(key, slot);
+      voxelKeys[slot] = key;
+      return slot;
+    }
+    int otherOffset = other * FLOATS_PER_POINT;
+    float total = weights[other] + weights[slot];
+    for (int i = 0; i < 3; i++) {
+      points[otherOffset + i] +=
+          (points[offset + i] - points[otherOffset + i]) * weights[slot] / total;
+    }
+    points[otherOffset + 3] = Math.max(points[otherOffset + 3], points[offset + 3]);
+    weights[other] = Math.min(total, MAX_POSITION_WEIGHT);
+    observations[other] += observations[slot];
+    remove(slot, next);
+    return other;
+  }
+
+  private boolean movedNoticeably(int slot) {
+    int offset = slot * FLOATS_PER_POINT;
+    float tolerance = POSITION_TOLERANCE * voxelSize;
+    return Math.abs(points[offset] - published[offset]) > tolerance
+        || Math.abs(points[offset + 1] - published[offset + 1]) > tolerance
+        || Math.abs(points[offset + 2] - published[offset + 2]) > tolerance
+        || Math.abs(points[offset + 3] - published[offset + 3]) > CONFIDENCE_TOLERANCE;
+  }
+
+  private void markModified(int slot, long next) {
+    int offset = slot * FLOATS_PER_POINT;
+    System.arraycopy(points, offset, published, offset, FLOATS_PER_POINT);
+    modifiedVersions[slot] = next;
+  }
+
+  private void remove(int slot, long next) {
+    voxelIndex.remove(voxelKeys[slot]);
+    if (arcoreIds[slot] != FREE && idIndex.get(arcoreIds[slot]) == slot) {
+      idIndex.remove(arcoreIds[slot]);
+    }
+    logRemoval(pointIds[slot], next);
+    pointIds[slot] = FREE;
+    arcoreIds[slot] = FREE;
+    freeSlots[freeCount++] = slot;
+    size--;
+  }
+
+  private void logRemoval(int pointId, long next) {
+    if (removedLogEnd == removedLogIds.length) {
+      int live = removedLogEnd - removedLogStart;
+      if (live >= MAX_REMOVALS_LOGGED) {
+        // Nobody is acknowledging; the oldest removals are dropped and older versions get a full
+        // snapshot instead.
+        int drop = live / 2;
+        removedFloor = removedLogVersions[removedLogStart + drop - 1];
+        removedLogStart += drop;
+        live -= drop;
+      }
+      if (live * 2 > removedLogIds.length) {
+        removedLogIds = Arrays.copyOf(removedLogIds, removedLogIds.length * 2);
+        removedLogVersions = Arrays.copyOf(removedLogVersions, removedLogVersions.length * 2);
+      }
+      System.arraycopy(removedLogIds, removedLogStart, removedLogIds, 0, live);
+      System.arraycopy(removedLogVersions, removedLogStart, removedLogVersions, 0, live);
+      removedLogStart = 0;
+      removedLogEnd = live;
+    }
+    removedLogIds[removedLogEnd] = pointId;
+    removedLogVersions[removedLogEnd] = next;
+    removedLogEnd++;
+  }
+
+  private boolean evictStale(long nowNanos, long next) {
+    boolean evicted = false;
+    for (int slot = 0; slot < maxPoints; slot++) {
+      if (pointIds[slot] != FREE
+          && nowNanos - lastSeenNanos[slot] > STALE_NANOS
+          && (observations[slot] < MIN_OBSERVATIONS
+              || points[slot * FLOATS_PER_POINT + 3] < MIN_CONFIDENCE)) {
+        remove(slot, next);
+        evicted = true;
+      }
+    }
+    return evicted;
+  }
+
+  /** Evicts at least {@code count} of the entries with the lowest score. */
+  private void evictLowest(int count, long next) {
+    if (scoreScratch.length < size) {
+      scoreScratch = new float[maxPoints];
+    }
+    int scored = 0;
+    for (int slot = 0; slot < maxPoints; slot++) {
+      if (pointIds[slot] != FREE) {
+        scoreScratch[scored++] = score(slot);
+      }
+    }
+    if (scored == 0) {
+      return;
+    }
+    Arrays.sort(scoreScratch, 0, scored);
+    float threshold = scoreScratch[Math.min(count, scored) - 1];
+    for (int slot = 0; slot < maxPoints && count > 0; slot++) {
+      if (pointIds[slot] != FREE && score(slot) <= threshold) {
+        remove(slot, next);
+        count--;
+      }
+    }
+  }
+
+  private float score(int slot) {
+    return points[slot * FLOATS_PER_POINT + 3] * Math.min(observations[slot], 10);
+  }
+
+  private void rebuildIdIndex() {
+    idIndex.clear();
+    for (int slot = 0; slot < maxPoints; slot++) {
+      if (pointIds[slot] != FREE && arcoreIds[slot] != FREE) {
+        idIndex.put(arcoreIds[slot], slot);
+      }
+    }
+  }
+
+  /** Open-addressing map from long keys to non-negative ints, with linear probing. */
+  private static final class LongIntMap {
+    private static final long EMPTY = Long.MIN_VALUE;
+
+    private long[] keys;
+    private int[] values;
+    private int mask;
+    private int size;
+
+    LongIntMap(int expected) {
+      int capacity = Integer.highestOneBit(Math.max(16, expected * 2 - 1)) << 1;
+      allocate(capacity);
+    }
+
+    int size() {
+      return size;
+    }
+
+    /** The value for {@code key}, or {@link #FREE}. */
+    int get(long key) {
+      for (int i = slot(key); ; i = (i + 1) & mask) {
+        if (keys[i] == EMPTY) {
+          return FREE;
+        }
+        if (keys[i] == key) {
+          return values[i];
+        }
+      }
+    }
+
+    void put(long key, int value) {
+      int i = slot(key);
+      while (keys[i] != EMPTY && keys[i] != key) {
+        i = (i + 1) & mask;
+      }
+      if (keys[i] == EMPTY) {
+        keys[i] = key;
+        size++;
+      }
+      values[i] = value;
+      if (size * 2 > keys.length) {
+        grow();
+      }
+    }
+
+    void remove(long key) {
+      int i = slot(key);
+      while (keys[i] != key) {
+        if (keys[i] == EMPTY) {
+          return;
+        }
+        i = (i + 1) & mask;
+      }
+      // Shift later entries of the probe sequence back, so no tombstones are needed.
+      int gap = i;
+      for (int j = (i + 1) & mask; keys[j] != EMPTY; j = (j + 1) & mask) {
+        int home = slot(keys[j]);
+        if (((j - home) & mask) >= ((j - gap) & mask)) {
+          keys[gap] = keys[j];
+          values[gap] = values[j];
+          gap = j;
+        }
+      }
+      keys[gap] = EMPTY;
+      size--;
+    }
+
+    void clear() {
+      Arrays.fill(keys, EMPTY);
+      size = 0;
+    }
+
+    private int slot(long key) {
+      long hash = key * 0x9E3779B97F4A7C15L;
+      return (int) (hash ^ (hash >>> 32)) & mask;
+    }
+
+    private void allocate(int capacity) {
+      keys = new long[capacity];
+      values = new int[capacity];
+      Arrays.fill(keys, EMPTY);
+      mask = capacity - 1;
+      size = 0;
+    }
+
+    private void grow() {
+      long[] oldKeys = keys;
+      int[] oldValues = values;
+      allocate(keys.length * 2);
+      for (int i = 0; i < oldKeys.length; i++) {
+        if (oldKeys[i] != EMPTY) {
+          put(oldKeys[i], oldValues[i]);
+        }
+      }
+    }
+  }
+}
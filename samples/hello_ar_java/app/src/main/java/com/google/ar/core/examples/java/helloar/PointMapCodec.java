@@ -0,0 +1,122 @@
+package com.google.ar.core.examples.java.helloar;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Binary wire format for {@link PointMap.Changes}, posted to {@code /map}. Little-endian:
+ *
+ * <pre>
+ *   u32  magic            'A' 'R' 'P' 'M'
+ *   i64  base version     0 for a full snapshot
+ *   i64  version
+ *   u32  flags            bit 0: full snapshot, drop everything held before applying
+ *   u32  removed count
+ *   u32  updated count
+ *   i32  removed ids
+ *   updated entries:
+ *     i32 id, f32 x, y, z, confidence
+ * </pre>
+ *
+ * Receivers apply the removals first, then the updates. Like {@link FramePacketCodec}, this class
+ * has no Android dependencies so the server side can decode maps.
+ */
+final class PointMapCodec {
+
+  static final String MEDIA_TYPE = "application/x-ar-point-map";
+  static final int MAGIC = 'A' | 'R' << 8 | 'P' << 16 | 'M' << 24;
+
+  static final int FLAG_FULL = 1;
+
+  private static final int HEADER_BYTES = 4 + 8 + 8 + 4 + 4 + 4;
+  private static final int BYTES_PER_ID = Integer.SIZE / 8;
+  private static final int BYTES_PER_ENTRY =
+      BYTES_PER_ID + PointMap.FLOATS_PER_POINT * Float.SIZE / 8;
+
+  private PointMapCodec() {}
+
+  /** Returns the exact number of bytes {@link #encode} will write for {@code changes}. */
+  static int encodedSize(PointMap.Changes changes) {
+    return HEADER_BYTES
+        + changes.removedCount * BYTES_PER_ID
+        + changes.updatedCount * BYTES_PER_ENTRY;
+  }
+
+  /**
+   * Encodes {@code changes} into {@code target}, reusing it when it is large enough. Returns the
+   * buffer holding the message, flipped and ready to be read.
+   */
+  static ByteBuffer encode(PointMap.Changes changes, ByteBuffer target) {
+    int size = encodedSize(changes);
+    if (target == null || target.capacity() < size) {
+      target = ByteBuffer.allocate(size);
+    }
+    target.clear();
+    target.order(ByteOrder.LITTLE_ENDIAN);
+
+    target.putInt(MAGIC);
+    target.putLong(changes.baseVersion);
+    target.putLong(changes.version);
+    target.putInt(changes.full ? FLAG_FULL : 0);
+    target.putInt(changes.removedCount);
+    target.putInt(changes.updatedCount);
+    for (int i = 0; i < changes.removedCount; i++) {
+      target.putInt(changes.removedIds[i]);
+    }
+    float[] points = changes.updatedPoints;
+    for (int i = 0; i < changes.updatedCount; i++) {
+      int offset = i * PointMap.FLOATS_PER_POINT;
+      target.putInt(changes.updatedIds[i]);
+      target.putFloat(points[offset]);
+      target.putFloat(points[offset + 1]);
+      target.putFloat(points[offset + 2]);
+      target.putFloat(points[offset + 3]);
+    }
+    target.flip();
+    return target;
+  }
+
+  /**
+   * Decodes a message into {@code out}, growing its arrays as needed. The buffer's position is
+   * advanced past the message; its byte order is left little-endian.
+   *
+   * @throws IllegalArgumentException if the message is malformed or truncated
+   */
+  static void decode(ByteBuffer message, PointMap.Changes out) {
+    message.order(ByteOrder.LITTLE_ENDIAN);
+    try {
+      if (message.getInt() != MAGIC) {
+        throw new IllegalArgumentException("Not a point map message");
+      }
+      out.baseVersion = message.getLong();
+      out.version = message.getLong();
+      out.full = (message.getInt() & FLAG_FULL) != 0;
+      int removed = message.getInt();
+      int updated = message.getInt();
+      if (removed < 0
+          || updated < 0
+          || (long) removed * BYTES_PER_ID + (long) updated * BYTES_PER_ENTRY
+              > message.remaining()) {
+        throw new IllegalArgumentException("Bad entry counts " + removed + ", " + updated);
+      }
+      out.ensureCapacity(updated, removed);
+      out.removedCount = removed;
+      out.updatedCount = updated;
+      for (int i = 0; i < removed; i++) {
+        out.removedIds[i] = message.getInt();
+      }
+      float[] points = out.updatedPoints;
+      for (int i = 0; i < updated; i++) {
+        int offset = i * PointMap.FLOATS_PER_POINT;
+        out.updatedIds[i] = message.getInt();
+        points[offset] = message.getFloat();
+        points[offset + 1] = message.getFloat();
+        points[offset + 2] = message.getFloat();
+        points[offset + 3] = message.getFloat();
+      }
+    } catch (BufferUnderflowException e) {
+      throw new IllegalArgumentException("Point map message truncated", e);
+    }
+  }
+}
@@ -0,0 +1,110 @@
+package com.google.ar.core.examples.java.helloar;
+
+import java.nio.FloatBuffer;
+import java.util.stream.IntStream;
+
+/**
+ * Projects packed x, y, z, w points to view pixels in one pass, writing into the primitive arrays
+ * of a reusable {@link Projection} instead of allocating per point. Large clouds are split across
+ * cores. The CPU image coordinates are then mapped for the whole batch with one {@link
+ * ArFrameData#viewToImagePixels} call. Has no Android dependencies.
+ */
+final class PointProjector {
+
+  /** Projected points: view and CPU image pixels and world positions, in parallel arrays. */
+  static final class Projection {
+    int count;
+    /** View pixel x, y per point, origin top left. */
+    float[] view = new float[0];
+    /** CPU image pixel x, y per point, once {@link #mapToImage} has run. */
+    float[] image = new float[0];
+    /** World x, y, z per point. */
+    float[] world = new float[0];
+
+    void ensureCapacity(int points) {
+      if (world.length < points * 3) {
+        view = new float[points * 2];
+        image = new float[points * 2];
+        world = new float[points * 3];
+      }
+    }
+
+    /** Fills {@link #image} from {@link #view} through {@code frame}. */
+    void mapToImage(ArFrameData frame) {
+      frame.viewToImagePixels(view, image, count);
+    }
+  }
+
+  // Clouds with at least this many points are projected on several cores.
+  static final int PARALLEL_THRESHOLD = 16 * 1024;
+  private static final int CHUNK_POINTS = 4 * 1024;
+  private static final int FLOATS_PER_POINT = FramePacket.FLOATS_PER_POINT;
+
+  private PointProjector() {}
+
+  /**
+   * Projects the remaining points of {@code points}, x, y, z and a fourth float that is ignored,
+   * with {@code viewProjection}, the column-major product of the projection and view matrices. The
+   * buffer position does not move. Like the per-point code it replaces, every point is kept: points
+   * behind the camera get meaningless view coordinates.
+   */
+  static void project(
+      FloatBuffer points,
+      float[] viewProjection,
+      int viewportWidth,
+      int viewportHeight,
+      Projection out) {
+    int count = points.remaining() / FLOATS_PER_POINT;
+    out.ensureCapacity(count);
+    out.count = count;
+    int base = points.position();
+    if (count < PARALLEL_THRESHOLD) {
+      projectRange(points, base, 0, count, viewProjection, viewportWidth, viewportHeight, out);
+      return;
+    }
+    int chunks = (count + CHUNK_POINTS - 1) / CHUNK_POINTS;
+    IntStream.range(0, chunks)
+        .parallel()
+        .forEach(
+            chunk ->
+                projectRange(
+                    points.duplicate(),
+                    base,
+                    chunk * CHUNK_POINTS,
+                    Math.min(count, (chunk + 1) * CHUNK_POINTS),
+                    viewProjection,
+                    viewportWidth,
+                    viewportHeight,
+                    out));
+  }
+
+  private static void projectRange(
+      FloatBuffer points,
+      int base,
+      int from,
+      int to,
+      float[] m,
+      int viewportWidth,
+      int viewportHeight,
+      Projection out) {
+    float halfWidth = viewportWidth / 2f;
+    float halfHeight = viewportHeight / 2f;
+    float[] view = out.view;
+    float[] world = out.world;
+    for (int i = from; i < to; i++) {
+      int offset = base + i * FLOATS_PER_POINT;
+      float x = points.get(offset);
+      float y = points.get(offset + 1);
+      float z = points.get(offset + 2);
+      // Only the x, y and w rows of the matrix are needed.
+      float clipX = m[0] * x + m[4] * y + m[8] * z + m[12];
+      float clipY = m[1] * x + m[5] * y + m[9] * z + m[13];
+      float clipW = m[3] * x + m[7] * y + m[11] * z + m[15];
+      view[2 * i] = halfWidth * (clipX / clipW + 1);
+      view[2 * i + 1] = halfHeight * (1 - clipY / clipW);
+      world[3 * i] = x;
+      world[3 * i + 1] = y;
+      world[3 * i + 2] = z;
+    }
+  }
+}
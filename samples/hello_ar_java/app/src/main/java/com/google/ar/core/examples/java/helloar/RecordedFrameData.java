@@ -0,0 +1,131 @@
+package com.google.ar.core.examples.java.helloar;
+
+import java.nio.FloatBuffer;
+
+/**
+ * {@link ArFrameData} over a keyframe read back from a session file. ARCore's view to image
+ * mapping is not recorded, so {@link #viewToImagePixels} reproduces it for the back camera: the
+ * image is scaled to cover the viewport and centred, and rotated by 90 degrees when the viewport
+ * is portrait while the sensor image is landscape.
+ *
+ * <p>Anchors are the recorded ones, unless a replay that creates its own sets them with {@link
+ * #setAnchors}.
+ */
+class RecordedFrameData implements ArFrameData {
+
+  final FramePacket packet = new FramePacket();
+
+  private final int viewportWidth;
+  private final int viewportHeight;
+  private float[] replayedAnchorPoses;
+  private int replayedAnchorCount;
+
+  RecordedFrameData(int viewportWidth, int viewportHeight) {
+    this.viewportWidth = viewportWidth;
+    this.viewportHeight = viewportHeight;
+  }
+
+  @Override
+  public long getTimestamp() {
+    return packet.timestamp;
+  }
+
+  @Override
+  public void getCameraPose(float[] pose) {
+    System.arraycopy(packet.cameraPose, 0, pose, 0, FramePacket.FLOATS_PER_POSE);
+  }
+
+  @Override
+  public void getDisplayOrientedPose(float[] pose) {
+    System.arraycopy(packet.displayOrientedPose, 0, pose, 0, FramePacket.FLOATS_PER_POSE);
+  }
+
+  @Override
+  public void getViewMatrix(float[] matrix) {
+    System.arraycopy(packet.viewMatrix, 0, matrix, 0, FramePacket.FLOATS_PER_MATRIX);
+  }
+
+  @Override
+  public void getProjectionMatrix(float[] matrix) {
+    System.arraycopy(packet.projectionMatrix, 0, matrix, 0, FramePacket.FLOATS_PER_MATRIX);
+  }
+
+  @Override
+  public FloatBuffer getPointCloud() {
+    return FloatBuffer.wrap(packet.points, 0, packet.pointCount * FramePacket.FLOATS_PER_POINT);
+  }
+
+  /**
+   * Serves the first {@code count} poses of {@code poses} as the anchors of every frame from now
+   * on, instead of the recorded ones. A null {@code poses} restores the recorded anchors.
+   */
+  void setAnchors(float[] poses, int count) {
+    replayedAnchorPoses = poses;
+    replayedAnchorCount = count;
+  }
+
+  @Override
+  public int getAnchorCount() {
+    if (replayedAnchorPoses != null) {
+      return replayedAnchorCount;
+    }
+    if (packet.anchorCount > 0) {
+      return packet.anchorCount;
+    }
+    return packet.hasAnchor ? 1 : 0;
+  }
+
+  @Override
+  public void getAnchorPose(int index, float[] pose) {
+    if (replayedAnchorPoses != null) {
+      System.arraycopy(
+          replayedAnchorPoses,
+          index * FramePacket.FLOATS_PER_POSE,
+          pose,
+          0,
+          FramePacket.FLOATS_PER_POSE);
+      return;
+    }
+    if (packet.anchorCount > 0) {
+      System.arraycopy(
+          packet.anchorPoses,
+          index * FramePacket.FLOATS_PER_POSE,
+          pose,
+          0,
+          FramePacket.FLOATS_PER_POSE);
+      return;
+    }
+    // Sessions recorded without anchor poses only have the main anchor position.
+    System.arraycopy(packet.anchorPosition, 0, pose, 0, 3);
+    pose[3] = 0;
+    pose[4] = 0;
+    pose[5] = 0;
+    pose[6] = 1;
+  }
+
+  @Override
+  public void viewToImagePixels(float[] view, float[] image, int count) {
+    float imageWidth = packet.hasIntrinsics ? packet.intrinsics[4] : viewportWidth;
+    float imageHeight = packet.hasIntrinsics ? packet.intrinsics[5] : viewportHeight;
+    boolean rotated = viewportHeight > viewportWidth && imageWidth > imageHeight;
+    // Size of the image as displayed, in view pixels.
+    float displayedWidth = rotated ? imageHeight : imageWidth;
+    float displayedHeight = rotated ? imageWidth : imageHeight;
+    float scale = Math.max(viewportWidth / displayedWidth, viewportHeight / displayedHeight);
+    float offsetX = (viewportWidth - displayedWidth * scale) / 2;
+    float offsetY = (viewportHeight - displayedHeight * scale) / 2;
+
+    for (int i = 0; i < count; i++) {
+      float x = (view[2 * i] - offsetX) / scale;
+      float y = (view[2 * i + 1] - offsetY) / scale;
+      if (rotated) {
+        // Sensor x runs down the portrait screen, sensor y runs right to left.
+        image[2 * i] = y;
+        image[2 * i + 1] = imageHeight - x;
+      } else {
+        image[2 * i] = x;
+        image[2 * i + 1] = y;
+      }
+    }
+  }
+}
@@ -0,0 +1,313 @@
+package com.google.ar.core.examples.java.helloar;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Pure-Java baseline JPEG encoder for NV21 input, using 4:2:0 sampling and the standard Annex K
+ * quantization and Huffman tables. It is much slower than {@link YuvImageJpegEncoder} and exists so
+ * the encoding path can be run, checked and benchmarked on a JVM without Android.
+ *
+ * <p>Instances keep their working buffers and are not thread-safe.
+ */
+class ReferenceJpegEncoder implements JpegEncoder {
+
+  private static final int[] ZIGZAG = {
+    0, 1, 8, 16, 9, 2, 3, 10, 17, 24, 32, 25, 18, 11, 4, 5, 12, 19, 26, 33, 40, 48, 41, 34, 27, 20,
+    13, 6, 7, 14, 21, 28, 35, 42, 49, 56, 57, 50, 43, 36, 29, 22, 15, 23, 30, 37, 44, 51, 58, 59,
+    52, 45, 38, 31, 39, 46, 53, 60, 61, 54, 47, 55, 62, 63
+  };
+
+  private static final int[] LUMINANCE_QUANTIZATION = {
+    16, 11, 10, 16, 24, 40, 51, 61, 12, 12, 14, 19, 26, 58, 60, 55, 14, 13, 16, 24, 40, 57, 69, 56,
+    14, 17, 22, 29, 51, 87, 80, 62, 18, 22, 37, 56, 68, 109, 103, 77, 24, 35, 55, 64, 81, 104, 113,
+    92, 49, 64, 78, 87, 103, 121, 120, 101, 72, 92, 95, 98, 112, 100, 103, 99
+  };
+
+  private static final int[] CHROMINANCE_QUANTIZATION = {
+    17, 18, 24, 47, 99, 99, 99, 99, 18, 21, 26, 66, 99, 99, 99, 99, 24, 26, 56, 99, 99, 99, 99, 99,
+    47, 66, 99, 99, 99, 99, 99, 99, 99, 99, 99, 99, 99, 99, 99, 99, 99, 99, 99, 99, 99, 99, 99, 99,
+    99, 99, 99, 99, 99, 99, 99, 99, 99, 99, 99, 99, 99, 99, 99, 99
+  };
+
+  private static final int[] DC_LUMINANCE_BITS = {0, 1, 5, 1, 1, 1, 1, 1, 1, 0, 0, 0, 0, 0, 0, 0};
+  private static final int[] DC_CHROMINANCE_BITS = {0, 3, 1, 1, 1, 1, 1, 1, 1, 1, 1, 0, 0, 0, 0, 0};
+  private static final int[] DC_VALUES = {0, 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11};
+
+  private static final int[] AC_LUMINANCE_BITS = {
+    0, 2, 1, 3, 3, 2, 4, 3, 5, 5, 4, 4, 0, 0, 1, 0x7d
+  };
+  private static final int[] AC_LUMINANCE_VALUES = {
+    0x01, 0x02, 0x03, 0x00, 0x04, 0x11, 0x05, 0x12, 0x21, 0x31, 0x41, 0x06, 0x13, 0x51, 0x61, 0x07,
+    0x22, 0x71, 0x14, 0x32, 0x81, 0x91, 0xa1, 0x08, 0x23, 0x42, 0xb1, 0xc1, 0x15, 0x52, 0xd1, 0xf0,
+    0x24, 0x33, 0x62, 0x72, 0x82, 0x09, 0x0a, 0x16, 0x17, 0x18, 0x19, 0x1a, 0x25, 0x26, 0x27, 0x28,
+    0x29, 0x2a, 0x34, 0x35, 0x36, 0x37, 0x38, 0x39, 0x3a, 0x43, 0x44, 0x45, 0x46, 0x47, 0x48, 0x49,
+    0x4a, 0x53, 0x54, 0x55, 0x56, 0x57, 0x58, 0x59, 0x5a, 0x63, 0x64, 0x65, 0x66, 0x67, 0x68, 0x69,
+    0x6a, 0x73, 0x74, 0x75, 0x76, 0x77, 0x78, 0x79, 0x7a, 0x83, 0x84, 0x85, 0x86, 0x87, 0x88, 0x89,
+    0x8a, 0x92, 0x93, 0x94, 0x95, 0x96, 0x97, 0x98, 0x99, 0x9a, 0xa2, 0xa3, 0xa4, 0xa5, 0xa6, 0xa7,
+    0xa8, 0xa9, 0xaa, 0xb2, 0xb3, 0xb4, 0xb5, 0xb6, 0xb7, 0xb8, 0xb9, 0xba, 0xc2, 0xc3, 0xc4, 0xc5,
+    0xc6, 0xc7, 0xc8, 0xc9, 0xca, 0xd2, 0xd3, 0xd4, 0xd5, 0xd6, 0xd7, 0xd8, 0xd9, 0xda, 0xe1, 0xe2,
+    0xe3, 0xe4, 0xe5, 0xe6, 0xe7, 0xe8, 0xe9, 0xea, 0xf1, 0xf2, 0xf3, 0xf4, 0xf5, 0xf6, 0xf7, 0xf8,
+    0xf9, 0xfa
+  };
+
+  private static final int[] AC_CHROMINANCE_BITS = {
+    0, 2, 1, 2, 4, 4, 3, 4, 7, 5, 4, 4, 0, 1, 2, 0x77
+  };
+  private static final int[] AC_CHROMINANCE_VALUES = {
+    0x00, 0x01, 0x02, 0x03, 0x11, 0x04, 0x05, 0x21, 0x31, 0x06, 0x12, 0x41, 0x51, 0x07, 0x61, 0x71,
+    0x13, 0x22, 0x32, 0x81, 0x08, 0x14, 0x42, 0x91, 0xa1, 0xb1, 0xc1, 0x09, 0x23, 0x33, 0x52, 0xf0,
+    0x15, 0x62, 0x72, 0xd1, 0x0a, 0x16, 0x24, 0x34, 0xe1, 0x25, 0xf1, 0x17, 0x18, 0x19, 0x1a, 0x26,
+    0x27, 0x28, 0x29, 0x2a, 0x35, 0x36, 0x37, 0x38, 0x39, 0x3a, 0x43, 0x44, 0x45, 0x46, 0x47, 0x48,
+    0x49, 0x4a, 0x53, 0x54, 0x55, 0x56, 0x57, 0x58, 0x59, 0x5a, 0x63, 0x64, 0x65, 0x66, 0x67, 0x68,
+    0x69, 0x6a, 0x73, 0x74, 0x75, 0x76, 0x77, 0x78, 0x79, 0x7a, 0x82, 0x83, 0x84, 0x85, 0x86, 0x87,
+    0x88, 0x89, 0x8a, 0x92, 0x93, 0x94, 0x95, 0x96, 0x97, 0x98, 0x99, 0x9a, 0xa2, 0xa3, 0xa4, 0xa5,
+    0xa6, 0xa7, 0xa8, 0xa9, 0xaa, 0xb2, 0xb3, 0xb4, 0xb5, 0xb6, 0xb7, 0xb8, 0xb9, 0xba, 0xc2, 0xc3,
+    0xc4, 0xc5, 0xc6, 0xc7, 0xc8, 0xc9, 0xca, 0xd2, 0xd3, 0xd4, 0xd5, 0xd6, 0xd7, 0xd8, 0xd9, 0xda,
+    0xe2, 0xe3, 0xe4, 0xe5, 0xe6, 0xe7, 0xe8, 0xe9, 0xea, 0xf2, 0xf3, 0xf4, 0xf5, 0xf6, 0xf7, 0xf8,
+    0xf9, 0xfa
+  };
+
+  // cos((2x + 1) * u * PI / 16) scaled by C(u) / 2, indexed [u * 8 + x].
+  private static final float[] DCT_TABLE = new float[64];
+
+  static {
+    for (int u = 0; u < 8; u++) {
+      double scale = u == 0 ? Math.sqrt(0.125) : 0.5;
+      for (int x = 0; x < 8; x++) {
+        DCT_TABLE[u * 8 + x] = (float) (scale * Math.cos((2 * x + 1) * u * Math.PI / 16));
+      }
+    }
+  }
+
+  private static final int[][] DC_LUMINANCE_CODES = buildHuffmanTable(DC_LUMINANCE_BITS, DC_VALUES);
+  private static final int[][] DC_CHROMINANCE_CODES =
+      buildHuffmanTable(DC_CHROMINANCE_BITS, DC_VALUES);
+  private static final int[][] AC_LUMINANCE_CODES =
+      buildHuffmanTable(AC_LUMINANCE_BITS, AC_LUMINANCE_VALUES);
+  private static final int[][] AC_CHROMINANCE_CODES =
+      buildHuffmanTable(AC_CHROMINANCE_BITS, AC_CHROMINANCE_VALUES);
+
+  private final int[] luminanceTable = new int[64];
+  private final int[] chrominanceTable = new int[64];
+  private final float[] samples = new float[64];
+  private final float[] rows = new float[64];
+  private final int[] coefficients = new int[64];
+
+  private OutputStream out;
+  private int bitBuffer;
+  private int bitCount;
+
+  @Override
+  public void encode(byte[] nv21, int width, int height, int quality, OutputStream out)
+      throws IOException {
+    this.out = out;
+    bitBuffer = 0;
+    bitCount = 0;
+    scaleQuantization(LUMINANCE_QUANTIZATION, quality, luminanceTable);
+    scaleQuantization(CHROMINANCE_QUANTIZATION, quality, chrominanceTable);
+
+    writeHeaders(width, height);
+
+    int chromaWidth = (width + 1) / 2;
+    int chromaHeight = (height + 1) / 2;
+    int chromaOffset = width * height;
+    int previousY = 0;
+    int previousCb = 0;
+    int previousCr = 0;
+    for (int mcuY = 0; mcuY < height; mcuY += 16) {
+      for (int mcuX = 0; mcuX < width; mcuX += 16) {
+        for (int block = 0; block < 4; block++) {
+          int blockX = mcuX + (block & 1) * 8;
+          int blockY = mcuY + (block >> 1) * 8;
+          loadBlock(nv21, 0, width, width, height, 1, blockX, blockY);
+          previousY =
+              encodeBlock(previousY, luminanceTable, DC_LUMINANCE_CODES, AC_LUMINANCE_CODES);
+        }
+        // NV21 chroma is V,U interleaved.
+        loadBlock(
+            nv21, chromaOffset + 1, chromaWidth * 2, chromaWidth, chromaHeight, 2, mcuX / 2,
+            mcuY / 2);
+        previousCb =
+            encodeBlock(previousCb, chrominanceTable, DC_CHROMINANCE_CODES, AC_CHROMINANCE_CODES);
+        loadBlock(
+            nv21, chromaOffset, chromaWidth * 2, chromaWidth, chromaHeight, 2, mcuX / 2, mcuY / 2);
+        previousCr =
+            encodeBlock(previousCr, chrominanceTable, DC_CHROMINANCE_CODES, AC_CHROMINANCE_CODES);
+      }
+    }
+
+    // Pad the last byte with ones and finish with EOI.
+    writeBits(0x7F, 7);
+    out.write(0xFF);
+    out.write(0xD9);
+    this.out = null;
+  }
+
+  private static void scaleQuantization(int[] base, int quality, int[] target) {
+    quality = Math.max(1, Math.min(100, quality));
+    int scale = quality < 50 ? 5000 / quality : 200 - quality * 2;
+    for (int i = 0; i < 64; i++) {
+      target[i] = Math.max(1, Math.min(255, (base[i] * scale + 50) / 100));
+    }
+  }
+
+  /** Reads one 8x8 block, clamping coordinates at the image edge, and level shifts it. */
+  private void loadBlock(
+      byte[] data,
+      int offset,
+      int rowStride,
+      int planeWidth,
+      int planeHeight,
+      int pixelStride,
+      int blockX,
+      int blockY) {
+    for (int y = 0; y < 8; y++) {
+      int row = Math.min(blockY + y, planeHeight - 1);
+      int rowStart = offset + row * rowStride;
+      for (int x = 0; x < 8; x++) {
+        int column = Math.min(blockX + x, planeWidth - 1);
+        samples[y * 8 + x] = (data[rowStart + column * pixelStride] & 0xFF) - 128;
+      }
+    }
+  }
+
+  /** Transforms, quantizes and entropy codes the loaded block. Returns its DC coefficient. */
+  private int encodeBlock(int previousDc, int[] quantization, int[][] dcCodes, int[][] acCodes)
+      throws IOException {
+    // Separable 2D DCT: rows first, then columns.
+    for (int y = 0; y < 8; y++) {
+      for (int u = 0; u < 8; u++) {
+        float sum = 0;
+        for (int x = 0; x < 8; x++) {
+          sum += samples[y * 8 + x] * DCT_TABLE[u * 8 + x];
+        }
+        rows[y * 8 + u] = sum;
+      }
+    }
+    for (int u = 0; u < 8; u++) {
+      for (int v = 0; v < 8; v++) {
+        float sum = 0;
+        for (int y = 0; y < 8; y++) {
+          sum += rows[y * 8 + u] * DCT_TABLE[v * 8 + y];
+        }
+        int natural = v * 8 + u;
+        coefficients[natural] = Math.round(sum / quantization[natural]);
+      }
+    }
+
+    int dc = coefficients[0];
+    writeValue(dc - previousDc, dcCodes, 0);
+
+    int run = 0;
+    for (int k = 1; k < 64; k++) {
+      int value = coefficients[ZIGZAG[k]];
+      if (value == 0) {
+        run++;
+        continue;
+      }
+      while (run > 15) {
+        writeBits(acCodes[0][0xF0], acCodes[1][0xF0]);
+        run -= 16;
+      }
+      writeValue(value, acCodes, run << 4);
+      run = 0;
+    }
+    if (run > 0) {
+      writeBits(acCodes[0][0x00], acCodes[1][0x00]);
+    }
+    return dc;
+  }
+
+  /** Writes the Huffman code for (run, size of value) followed by the value bits. */
+  private void writeValue(int value, int[][] codes, int runBits) throws IOException {
+    int magnitude = value < 0 ? -value : value;
+    int size = 0;
+    while (magnitude != 0) {
+      size++;
+      magnitude >>= 1;
+    }
+    int symbol = runBits | size;
+    writeBits(codes[0][symbol], codes[1][symbol]);
+    if (size > 0) {
+      writeBits(value < 0 ? value - 1 : value, size);
+    }
+  }
+
+  private void writeBits(int bits, int count) throws IOException {
+    bitBuffer = (bitBuffer << count) | (bits & ((1 << count) - 1));
+    bitCount += count;
+    while (bitCount >= 8) {
+      int octet = (bitBuffer >> (bitCount - 8)) & 0xFF;
+      out.write(octet);
+      if (octet == 0xFF) {
+        out.write(0); // Byte stuffing.
+      }
+      bitCount -= 8;
+    }
+  }
+
+  private void writeHeaders(int width, int height) throws IOException {
+    // SOI and a minimal JFIF APP0.
+    writeBytes(0xFF, 0xD8, 0xFF, 0xE0, 0, 16, 'J', 'F', 'I', 'F', 0, 1, 1, 0, 0, 1, 0, 1, 0, 0);
+
+    // DQT, both tables in zigzag order.
+    writeBytes(0xFF, 0xDB, 0, 2 + 2 * 65);
+    out.write(0);
+    for (int k = 0; k < 64; k++) {
+      out.write(luminanceTable[ZIGZAG[k]]);
+    }
+    out.write(1);
+    for (int k = 0; k < 64; k++) {
+      out.write(chrominanceTable[ZIGZAG[k]]);
+    }
+
+    // SOF0: 8 bit, 3 components, luma 2x2 sampled, chroma 1x1.
+    writeBytes(0xFF, 0xC0, 0, 17, 8, height >> 8, height & 0xFF, width >> 8, width & 0xFF, 3);
+    writeBytes(1, 0x22, 0, 2, 0x11, 1, 3, 0x11, 1);
+
+    writeHuffmanTable(0x00, DC_LUMINANCE_BITS, DC_VALUES);
+    writeHuffmanTable(0x10, AC_LUMINANCE_BITS, AC_LUMINANCE_VALUES);
+    writeHuffmanTable(0x01, DC_CHROMINANCE_BITS, DC_VALUES);
+    writeHuffmanTable(0x11, AC_CHROMINANCE_BITS, AC_CHROMINANCE_VALUES);
+
+    // SOS.
+    writeBytes(0xFF, 0xDA, 0, 12, 3, 1, 0x00, 2, 0x11, 3, 0x11, 0, 63, 0);
+  }
+
+  private void writeHuffmanTable(int tableClassAndId, int[] bits, int[] values)
+      throws IOException {
+    int length = 2 + 1 + 16 + values.length;
+    writeBytes(0xFF, 0xC4, length >> 8, length & 0xFF, tableClassAndId);
+    for (int count : bits) {
+      out.write(count);
+    }
+    for (int value : values) {
+      out.write(value);
+    }
+  }
+
+  private void writeBytes(int... bytes) throws IOException {
+    for (int b : bytes) {
+      out.write(b);
+    }
+  }
+
+  /** Returns {codes, lengths}, each indexed by symbol, from a JPEG BITS/HUFFVAL table. */
+  private static int[][] buildHuffmanTable(int[] bits, int[] values) {
+    int[] codes = new int[256];
+    int[] lengths = new int[256];
+    int code = 0;
+    int index = 0;
+    for (int length = 1; length <= 16; length++) {
+      for (int i = 0; i < bits[length - 1]; i++) {
+        codes[values[index]] = code;
+        lengths[values[index]] = length;
+        index++;
+        code++;
+      }
+      code <<= 1;
+    }
+    return new int[][] {codes, lengths};
+  }
+}
@@ -0,0 +1,159 @@
+package com.google.ar.core.examples.java.helloar;
+
+import com.google.ar.core.examples.java.common.rendering.PointOctree;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An immutable snapshot of points received from the server, packed as x, y, z, w per point. It
+ * is converted once when a response arrives and then shared by every consumer: the axes overlay,
+ * {@code ServerModelCloudRenderer} and the correspondence code. Readers swap in a new store
+ * rather than modifying one, so a store can be read from any thread without locking. The points
+ * live in a direct, native-order buffer, so they go to GL without another copy.
+ *
+ * <p>Every store gets a distinct, increasing {@link #getVersion version}, which consumers can
+ * compare to skip work when the points have not changed. A store created {@link #withBase
+ * relative to} the one it replaces also records how many leading points the two share, so a
+ * growing model can be uploaded incrementally. Large models can carry a {@link #withIndex
+ * spatial index} for culling and level of detail.
+ */
+final class ServerPointStore {
+
+  static final int FLOATS_PER_POINT = 4;
+
+  private static final int BYTES_PER_FLOAT = Float.SIZE / 8;
+  private static final AtomicLong nextVersion = new AtomicLong(1);
+
+  static final ServerPointStore EMPTY = new ServerPointStore(newBuffer(0), 0, -1, 0, null);
+
+  // Only read with absolute gets or through duplicates, so sharing it across threads is safe.
+  private final FloatBuffer points;
+  private final int count;
+  private final long version;
+  private final long baseVersion;
+  private final int unchangedPoints;
+  private final PointOctree index;
+
+  private ServerPointStore(
+      FloatBuffer points, long version, long baseVersion, int unchangedPoints, PointOctree index) {
+    this.points = points;
+    this.count = points.limit() / FLOATS_PER_POINT;
+    this.version = version;
+    this.baseVersion = baseVersion;
+    this.unchangedPoints = unchangedPoints;
+    this.index = index;
+  }
+
+  /**
+   * Takes over the remaining x, y, z, w points of {@code buffer}, as {@link ModelDecoder} returns,
+   * without copying them. The caller must not write to {@code buffer} afterwards.
+   */
+  static ServerPointStore fromBuffer(FloatBuffer buffer) {
+    FloatBuffer points = buffer.slice();
+    points.limit(points.limit() / FLOATS_PER_POINT * FLOATS_PER_POINT);
+    return new ServerPointStore(points, nextVersion.getAndIncrement(), -1, 0, null);
+  }
+
+  /**
+   * Parses the flat list of values the {@code /localise} endpoint returns, four per point. A
+   * trailing incomplete point is ignored.
+   */
+  static ServerPointStore fromStrings(List<String> values) {
+    FloatBuffer points = newBuffer(values.size() / FLOATS_PER_POINT * FLOATS_PER_POINT);
+    for (int i = 0; i < points.limit(); i++) {
+      points.put(i, Float.parseFloat(values.get(i)));
+    }
+    return new ServerPointStore(points, nextVersion.getAndIncrement(), -1, 0, null);
+  }
+
+  /**
+   * This store with {@code previous} recorded as its base: the same points and version, plus the
+   * number of leading points the two have in common. Comparing is linear in the size of {@code
+   * previous}, so call it off the GL thread.
+   */
+  ServerPointStore withBase(ServerPointStore previous) {
+    int limit = Math.min(points.limit(), previous.points.limit());
+    int common = 0;
+    while (common < limit && Float.compare(points.get(common), previous.points.get(common)) == 0) {
+      common++;
+    }
+    return new ServerPointStore(
+        points, version, previous.version, common / FLOATS_PER_POINT, index);
+  }
+
+  /**
+   * This store with an octree built over its points. Building a large model takes a noticeable
+   * fraction of a second or more, so call it off the GL thread.
+   */
+  ServerPointStore withIndex() {
+    PointOctree octree = PointOctree.build(points.duplicate());
+    return new ServerPointStore(points, version, baseVersion, unchangedPoints, octree);
+  }
+
+  /** The octree over the points, or null if the store was not created {@link #withIndex}. */
+  PointOctree getIndex() {
+    return index;
+  }
+
+  long getVersion() {
+    return version;
+  }
+
+  /** The version of the store this one replaced, or -1 if it was not created {@link #withBase}. */
+  long getBaseVersion() {
+    return baseVersion;
+  }
+
+  /** Leading points that are the same as in the {@link #getBaseVersion base} store. */
+  int getUnchangedPoints() {
+    return unchangedPoints;
+  }
+
+  int size() {
+    return count;
+  }
+
+  boolean isEmpty() {
+    return count == 0;
+  }
+
+  float getX(int index) {
+    return points.get(index * FLOATS_PER_POINT);
+  }
+
+  float getY(int index) {
+    return points.get(index * FLOATS_PER_POINT + 1);
+  }
+
+  float getZ(int index) {
+    return points.get(index * FLOATS_PER_POINT + 2);
+  }
+
+  float getW(int index) {
+    return points.get(index * FLOATS_PER_POINT + 3);
+  }
+
+  /** Copies the packed points {@code from} (inclusive) to {@code to} (exclusive) to {@code out}. */
+  void getPoints(int from, int to, float[] out, int offset) {
+    FloatBuffer source = points.duplicate();
+    source.position(from * FLOATS_PER_POINT);
+    source.get(out, offset, (to - from) * FLOATS_PER_POINT);
+  }
+
+  /**
+   * All points in a direct, native-order buffer, ready for {@code glBufferSubData}. Every call
+   * returns a new read-only view of the store's own storage, positioned at the first point.
+   */
+  FloatBuffer asFloatBuffer() {
+    return points.asReadOnlyBuffer();
+  }
+
+  private static FloatBuffer newBuffer(int floats) {
+    return ByteBuffer.allocateDirect(floats * BYTES_PER_FLOAT)
+        .order(ByteOrder.nativeOrder())
+        .asFloatBuffer();
+  }
+}
@@ -1,7 +0,0 @@
-package com.google.ar.core.examples.java.helloar;
-
-import java.util.ArrayList;
-
-public class ServerResponsePoints {
-  ArrayList<String> points;
-}
\ No newline at end of file
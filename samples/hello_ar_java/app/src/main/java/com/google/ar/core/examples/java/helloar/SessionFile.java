@@ -0,0 +1,77 @@
+package com.google.ar.core.examples.java.helloar;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.zip.CRC32;
+
+/**
+ * Layout of a recorded session: one append-only file of keyframes, each a {@link
+ * FramePacketCodec} message. Everything is little-endian:
+ *
+ * <pre>
+ *   file header:
+ *     u32 magic 'A' 'R' 'S' 'S', u16 version, u16 reserved, i64 creation time (ms)
+ *   keyframe records, back to back:
+ *     u32 magic 'K' 'F' 'R' 'M', u32 payload length, u32 CRC-32 of payload, payload
+ *   index record, written on close:
+ *     u32 magic 'I' 'N' 'D' 'X', u32 keyframe count, u32 CRC-32 of offsets, i64 offset * count
+ *   trailer:
+ *     i64 offset of the index record, u32 magic 'E' 'N' 'D' '!'
+ * </pre>
+ *
+ * A file without a valid trailer is a session that did not close cleanly; {@link SessionReader}
+ * then rebuilds the index by scanning records until the first one that is truncated or fails its
+ * checksum.
+ */
+final class SessionFile {
+
+  static final int FILE_MAGIC = 'A' | 'R' << 8 | 'S' << 16 | 'S' << 24;
+  static final int RECORD_MAGIC = 'K' | 'F' << 8 | 'R' << 16 | 'M' << 24;
+  static final int INDEX_MAGIC = 'I' | 'N' << 8 | 'D' << 16 | 'X' << 24;
+  static final int TRAILER_MAGIC = 'E' | 'N' << 8 | 'D' << 16 | '!' << 24;
+  static final int VERSION = 1;
+
+  static final int FILE_HEADER_BYTES = 4 + 2 + 2 + 8;
+  static final int RECORD_HEADER_BYTES = 4 + 4 + 4;
+  static final int INDEX_HEADER_BYTES = 4 + 4 + 4;
+  static final int TRAILER_BYTES = 8 + 4;
+
+  // Guards against reading a corrupt length as a huge allocation.
+  static final int MAX_RECORD_BYTES = 64 * 1024 * 1024;
+
+  static final String EXTENSION = ".arsession";
+
+  private SessionFile() {}
+
+  static ByteBuffer newBuffer(int size) {
+    return ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+  }
+
+  /** CRC-32 of the remaining bytes of a heap buffer, without moving its position. */
+  static int checksum(ByteBuffer buffer) {
+    CRC32 crc = new CRC32();
+    crc.update(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+    return (int) crc.getValue();
+  }
+
+  /** Writes the index of the first {@code count} offsets, then the trailer, at {@code position}. */
+  static void writeIndex(FileChannel channel, long position, long[] offsets, int count)
+      throws IOException {
+    ByteBuffer entries = newBuffer(count * 8);
+    entries.asLongBuffer().put(offsets, 0, count);
+
+    ByteBuffer index = newBuffer(INDEX_HEADER_BYTES + count * 8 + TRAILER_BYTES);
+    index.putInt(INDEX_MAGIC);
+    index.putInt(count);
+    index.putInt(checksum(entries));
+    index.put(entries);
+    index.putLong(position);
+    index.putInt(TRAILER_MAGIC);
+    index.flip();
+    while (index.hasRemaining()) {
+      position += channel.write(index, position);
+    }
+  }
+}
@@ -0,0 +1,221 @@
+package com.google.ar.core.examples.java.helloar;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Random access to the keyframes of a {@link SessionFile}. Opening reads the index from the end
+ * of the file, or rebuilds it by scanning when the session did not close cleanly, in which case
+ * {@link #wasRecovered()} is true and {@link #repair} can make the file whole again.
+ *
+ * <p>Not thread-safe.
+ */
+class SessionReader implements Closeable {
+
+  private final FileChannel channel;
+  private final long createdAt;
+  private final long[] offsets;
+  private final boolean recovered;
+  private final long validLength;
+
+  private ByteBuffer recordBuffer = SessionFile.newBuffer(0);
+  private final ByteBuffer recordHeader = SessionFile.newBuffer(SessionFile.RECORD_HEADER_BYTES);
+
+  private SessionReader(FileChannel channel) throws IOException {
+    this.channel = channel;
+
+    ByteBuffer header = SessionFile.newBuffer(SessionFile.FILE_HEADER_BYTES);
+    readFully(header, 0);
+    if (header.getInt() != SessionFile.FILE_MAGIC) {
+      throw new IOException("Not a session file");
+    }
+    int version = header.getShort() & 0xFFFF;
+    if (version > SessionFile.VERSION) {
+      throw new IOException("Unsupported session version " + version);
+    }
+    header.getShort(); // Reserved.
+    createdAt = header.getLong();
+
+    long[] indexed = readIndex();
+    if (indexed != null) {
+      offsets = indexed;
+      recovered = false;
+      validLength = channel.size();
+    } else {
+      long[] scanned = new long[16];
+      int count = 0;
+      long position = SessionFile.FILE_HEADER_BYTES;
+      long next;
+      while ((next = checkRecord(position)) >= 0) {
+        if (count == scanned.length) {
+          scanned = Arrays.copyOf(scanned, count * 2);
+        }
+        scanned[count++] = position;
+        position = next;
+      }
+      offsets = Arrays.copyOf(scanned, count);
+      recovered = true;
+      validLength = position;
+    }
+  }
+
+  static SessionReader open(File file) throws IOException {
+    FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+    try {
+      return new SessionReader(channel);
+    } catch (IOException | RuntimeException e) {
+      channel.close();
+      throw e;
+    }
+  }
+
+  /**
+   * Truncates a session that did not close cleanly after its last intact keyframe and appends
+   * the index, so later opens do not need to scan. Does nothing to complete sessions.
+   *
+   * @return the number of keyframes in the session.
+   */
+  static int repair(File file) throws IOException {
+    long validLength;
+    long[] offsets;
+    try (SessionReader reader = open(file)) {
+      if (!reader.wasRecovered()) {
+        return reader.getKeyframeCount();
+      }
+      validLength = reader.validLength;
+      offsets = reader.offsets;
+    }
+    try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE)) {
+      channel.truncate(validLength);
+      SessionFile.writeIndex(channel, validLength, offsets, offsets.length);
+      channel.force(true);
+    }
+    return offsets.length;
+  }
+
+  int getKeyframeCount() {
+    return offsets.length;
+  }
+
+  long getCreatedAt() {
+    return createdAt;
+  }
+
+  /** True if the index was rebuilt by scanning because the session did not close cleanly. */
+  boolean wasRecovered() {
+    return recovered;
+  }
+
+  /** Reads keyframe {@code index} into {@code packet}, reusing its arrays. */
+  void readKeyframe(int index, FramePacket packet) throws IOException {
+    if (index < 0 || index >= offsets.length) {
+      throw new IndexOutOfBoundsException("Keyframe " + index + " of " + offsets.length);
+    }
+    long position = offsets[index];
+    recordHeader.clear();
+    readFully(recordHeader, position);
+    recordHeader.getInt(); // Magic, checked when the index was built.
+    int length = recordHeader.getInt();
+    int crc = recordHeader.getInt();
+
+    ByteBuffer payload = readPayload(position + SessionFile.RECORD_HEADER_BYTES, length);
+    if (SessionFile.checksum(payload) != crc) {
+      throw new IOException("Keyframe " + index + " is corrupt");
+    }
+    FramePacketCodec.decode(payload, packet);
+  }
+
+  @Override
+  public void close() throws IOException {
+    channel.close();
+  }
+
+  /** Index written by {@link SessionRecorder} on close, or null if it is missing or damaged. */
+  private long[] readIndex() throws IOException {
+    long size = channel.size();
+    long minimumSize =
+        SessionFile.FILE_HEADER_BYTES + SessionFile.INDEX_HEADER_BYTES + SessionFile.TRAILER_BYTES;
+    if (size < minimumSize) {
+      return null;
+    }
+    ByteBuffer trailer = SessionFile.newBuffer(SessionFile.TRAILER_BYTES);
+    readFully(trailer, size - SessionFile.TRAILER_BYTES);
+    long indexOffset = trailer.getLong();
+    if (trailer.getInt() != SessionFile.TRAILER_MAGIC
+        || indexOffset < SessionFile.FILE_HEADER_BYTES
+        || indexOffset > size - SessionFile.TRAILER_BYTES - SessionFile.INDEX_HEADER_BYTES) {
+      return null;
+    }
+
+    ByteBuffer indexHeader = SessionFile.newBuffer(SessionFile.INDEX_HEADER_BYTES);
+    readFully(indexHeader, indexOffset);
+    if (indexHeader.getInt() != SessionFile.INDEX_MAGIC) {
+      return null;
+    }
+    int count = indexHeader.getInt();
+    int crc = indexHeader.getInt();
+    long indexBytes = (long) count * 8;
+    if (count < 0
+        || indexOffset + SessionFile.INDEX_HEADER_BYTES + indexBytes
+            != size - SessionFile.TRAILER_BYTES) {
+      return null;
+    }
+
+    ByteBuffer entries = SessionFile.newBuffer((int) indexBytes);
+    readFully(entries, indexOffset + SessionFile.INDEX_HEADER_BYTES);
+    if (SessionFile.checksum(entries) != crc) {
+      return null;
+    }
+    long[] result = new long[count];
+    entries.asLongBuffer().get(result);
+    return result;
+  }
+
+  /** Returns the offset after the intact record at {@code position}, or -1 if there is none. */
+  private long checkRecord(long position) throws IOException {
+    long size = channel.size();
+    if (position + SessionFile.RECORD_HEADER_BYTES > size) {
+      return -1;
+    }
+    recordHeader.clear();
+    readFully(recordHeader, position);
+    if (recordHeader.getInt() != SessionFile.RECORD_MAGIC) {
+      return -1;
+    }
+    int length = recordHeader.getInt();
+    int crc = recordHeader.getInt();
+    long end = position + SessionFile.RECORD_HEADER_BYTES + length;
+    if (length < 0 || length > SessionFile.MAX_RECORD_BYTES || end > size) {
+      return -1;
+    }
+    ByteBuffer payload = readPayload(position + SessionFile.RECORD_HEADER_BYTES, length);
+    return SessionFile.checksum(payload) == crc ? end : -1;
+  }
+
+  private ByteBuffer readPayload(long position, int length) throws IOException {
+    if (recordBuffer.capacity() < length) {
+      recordBuffer = SessionFile.newBuffer(length);
+    }
+    recordBuffer.clear();
+    recordBuffer.limit(length);
+    readFully(recordBuffer, position);
+    return recordBuffer;
+  }
+
+  /** Fills the remaining space of {@code buffer} from {@code position}, then flips it. */
+  private void readFully(ByteBuffer buffer, long position) throws IOException {
+    while (buffer.hasRemaining()) {
+      int read = channel.read(buffer, position);
+      if (read < 0) {
+        throw new IOException("Unexpected end of session file");
+      }
+      position += read;
+    }
+    buffer.flip();
+  }
+}
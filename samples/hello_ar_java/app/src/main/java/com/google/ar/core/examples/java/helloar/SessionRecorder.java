@@ -0,0 +1,210 @@
+package com.google.ar.core.examples.java.helloar;
+
+import android.media.Image;
+import android.util.Log;
+
+import com.google.ar.core.Anchor;
+import com.google.ar.core.Camera;
+import com.google.ar.core.Pose;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.FloatBuffer;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Appends keyframes to a single {@link SessionFile} from a background thread. The GL thread only
+ * copies the camera image and poses into a pooled {@link CapturedFrame}; JPEG encoding and all
+ * file I/O happen on the writer thread, which appends through a {@link SessionWriter}.
+ *
+ * <p>When the writer falls behind, new keyframes are dropped and counted rather than making the
+ * GL thread wait.
+ */
+class SessionRecorder {
+  private static final String TAG = SessionRecorder.class.getSimpleName();
+
+  private static final long POLL_INTERVAL_MS = 100;
+
+  private final File file;
+  private final JpegEncoder jpegEncoder;
+  private final int jpegQuality;
+
+  private final ArrayBlockingQueue<CapturedFrame> freeFrames;
+  private final StageQueue<CapturedFrame> pending;
+  private final FrameBufferPool bufferPool = new FrameBufferPool(1);
+  private final YuvConverter yuvConverter = new YuvConverter(bufferPool);
+  private final AtomicLong recordedFrames = new AtomicLong();
+  private final AtomicLong captureDrops = new AtomicLong();
+
+  private SessionWriter sessionWriter;
+  private Thread writer;
+  private volatile boolean closing;
+
+  // Writer thread state.
+  private final ExposedByteArrayOutputStream jpegStream = new ExposedByteArrayOutputStream();
+
+  /**
+   * @param queueCapacity keyframes that can wait for the writer before {@code dropPolicy} applies.
+   * @param dropPolicy {@link StageQueue.DropPolicy#DROP_NEWEST} or {@link
+   *     StageQueue.DropPolicy#DROP_OLDEST}; keyframes are captured on the GL thread, which must
+   *     never wait for the disk.
+   */
+  SessionRecorder(
+      File file,
+      JpegEncoder jpegEncoder,
+      int jpegQuality,
+      int queueCapacity,
+      StageQueue.DropPolicy dropPolicy) {
+    if (dropPolicy == StageQueue.DropPolicy.BLOCK) {
+      throw new IllegalArgumentException("The recorder must not block the GL thread");
+    }
+    this.file = file;
+    this.jpegEncoder = jpegEncoder;
+    this.jpegQuality = jpegQuality;
+
+    int poolSize = queueCapacity + 2;
+    freeFrames = new ArrayBlockingQueue<>(poolSize);
+    for (int i = 0; i < poolSize; i++) {
+      freeFrames.add(new CapturedFrame());
+    }
+    pending = new StageQueue<>(queueCapacity, dropPolicy, freeFrames::offer);
+  }
+
+  /** Creates the session file and starts the writer. */
+  synchronized void start() throws IOException {
+    if (writer != null) {
+      return;
+    }
+    sessionWriter = SessionWriter.create(file);
+    writer = new Thread(this::runWriter, "SessionRecorder");
+    writer.start();
+  }
+
+  /**
+   * Writes the keyframes still queued, then the index, and closes the file. The writer is never
+   * interrupted, since that would close the channel under it.
+   */
+  synchronized void close() {
+    if (writer == null) {
+      return;
+    }
+    closing = true;
+    boolean interrupted = false;
+    while (true) {
+      try {
+        writer.join();
+        break;
+      } catch (InterruptedException e) {
+        interrupted = true;
+      }
+    }
+    writer = null;
+    pending.clear();
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * Captures a keyframe. Must be called on the GL thread while {@code camera} and {@code image}
+   * are valid; the image may be closed as soon as this returns. The first anchor, if any, is
+   * stored as the main anchor position as well.
+   *
+   * @return false if the keyframe was dropped because the writer is behind or closed.
+   */
+  boolean record(
+      Image image,
+      Camera camera,
+      List<Anchor> anchors,
+      float[] projmtx,
+      float[] viewmtx,
+      FloatBuffer pointCloud,
+      String frameName)
+      throws InterruptedException {
+    if (closing) {
+      return false;
+    }
+    CapturedFrame frame = freeFrames.poll();
+    if (frame == null) {
+      captureDrops.incrementAndGet();
+      return false;
+    }
+
+    FramePacket packet = frame.packet;
+    Anchor mainAnchor = anchors.isEmpty() ? null : anchors.get(0);
+    ClientWrapper.fillFramePacket(packet, camera, mainAnchor, projmtx, viewmtx, pointCloud);
+    packet.frameName = frameName;
+
+    ClientWrapper.fillIntrinsics(packet, camera);
+
+    packet.ensureAnchorCapacity(anchors.size());
+    for (int i = 0; i < anchors.size(); i++) {
+      Pose pose = anchors.get(i).getPose();
+      int offset = i * FramePacket.FLOATS_PER_POSE;
+      pose.getTranslation(packet.anchorPoses, offset);
+      pose.getRotationQuaternion(packet.anchorPoses, offset + 3);
+    }
+    packet.anchorCount = anchors.size();
+
+    frame.copyPlanes(image);
+    return pending.offer(frame);
+  }
+
+  long getRecordedCount() {
+    return recordedFrames.get();
+  }
+
+  /** Keyframes dropped because the writer was behind, whether no buffer or no queue slot was free. */
+  long getDroppedCount() {
+    return captureDrops.get() + pending.getDroppedCount();
+  }
+
+  File getFile() {
+    return file;
+  }
+
+  private void runWriter() {
+    try {
+      while (true) {
+        CapturedFrame frame = pending.poll(POLL_INTERVAL_MS, TimeUnit.MILLISECONDS);
+        if (frame == null) {
+          if (closing) {
+            break;
+          }
+          continue;
+        }
+        try {
+          append(frame);
+        } catch (IOException | RuntimeException e) {
+          Log.e(TAG, "Failed to record keyframe " + frame.packet.frameName, e);
+        } finally {
+          freeFrames.offer(frame);
+        }
+      }
+    } catch (InterruptedException e) {
+      // Not expected, see close(). Still finish the file below.
+    }
+
+    try {
+      sessionWriter.close();
+    } catch (IOException e) {
+      Log.e(TAG, "Failed to finish session, it will be recovered on open", e);
+    }
+  }
+
+  private void append(CapturedFrame frame) throws IOException {
+    byte[] nv21 = frame.convert(yuvConverter, YuvConverter.Format.NV21);
+    try {
+      jpegStream.reset();
+      jpegEncoder.encode(nv21, frame.width, frame.height, jpegQuality, jpegStream);
+    } finally {
+      bufferPool.release(frame.width, frame.height, YuvConverter.Format.NV21, nv21);
+    }
+    frame.packet.setJpeg(jpegStream.buffer(), jpegStream.size());
+    sessionWriter.append(frame.packet);
+    recordedFrames.incrementAndGet();
+  }
+}
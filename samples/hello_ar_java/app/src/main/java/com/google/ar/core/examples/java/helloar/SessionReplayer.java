@@ -0,0 +1,250 @@
+package com.google.ar.core.examples.java.helloar;
+
+import java.io.File;
+import java.io.IOException;
+
+import okhttp3.OkHttpClient;
+
+/**
+ * Feeds the keyframes of a recorded session through a {@link Processor}, either spaced out as
+ * they were recorded or back to back, so the client pipeline can be exercised and timed without a
+ * phone. {@link KeyframeReplay} runs the activity's keyframe processing, and {@link #main} replays
+ * a session file from the command line. Uses only {@link SessionReader}, OkHttp and plain Java, so
+ * it runs on any JVM.
+ */
+class SessionReplayer {
+
+  // A portrait phone screen, when no viewport is given on the command line.
+  private static final int DEFAULT_VIEWPORT_WIDTH = 1080;
+  private static final int DEFAULT_VIEWPORT_HEIGHT = 1920;
+
+  enum Pacing {
+    /** Wait between keyframes as long as the recording did. */
+    REAL_TIME,
+    /** Process keyframes back to back. */
+    AS_FAST_AS_POSSIBLE
+  }
+
+  /** Work to run for every replayed keyframe. */
+  interface Processor {
+    void process(RecordedFrameData frame) throws Exception;
+  }
+
+  /** Timings of one replay. Durations are in nanoseconds. */
+  static class Stats {
+    int frames;
+    int failures;
+    /** Keyframes that started later than their recorded time, REAL_TIME only. */
+    int lateFrames;
+    long wallNanos;
+    long processNanos;
+    long maxProcessNanos;
+
+    double framesPerSecond() {
+      return wallNanos == 0 ? 0 : frames * 1e9 / wallNanos;
+    }
+
+    double meanProcessMillis() {
+      return frames == 0 ? 0 : processNanos / 1e6 / frames;
+    }
+
+    @Override
+    public String toString() {
+      return String.format(
+          "%d frames (%d failed, %d late) in %.1f ms: %.1f fps, %.2f ms mean, %.2f ms max",
+          frames,
+          failures,
+          lateFrames,
+          wallNanos / 1e6,
+          framesPerSecond(),
+          meanProcessMillis(),
+          maxProcessNanos / 1e6);
+    }
+  }
+
+  private final SessionReader reader;
+  private final Pacing pacing;
+  private final RecordedFrameData frame;
+
+  /** The viewport is the screen size the session is replayed at, see {@link RecordedFrameData}. */
+  SessionReplayer(SessionReader reader, int viewportWidth, int viewportHeight, Pacing pacing) {
+    this.reader = reader;
+    this.pacing = pacing;
+    this.frame = new RecordedFrameData(viewportWidth, viewportHeight);
+  }
+
+  /**
+   * Replays every keyframe in order. A processor failure is counted and the replay goes on;
+   * a keyframe that cannot be read ends it.
+   */
+  Stats run(Processor processor) throws IOException, InterruptedException {
+    return run(processor, 0, reader.getKeyframeCount());
+  }
+
+  /** Replays keyframes {@code from} (inclusive) to {@code to} (exclusive). */
+  Stats run(Processor processor, int from, int to) throws IOException, InterruptedException {
+    Stats stats = new Stats();
+    long startNanos = System.nanoTime();
+    long firstTimestamp = 0;
+
+    for (int i = from; i < to; i++) {
+      reader.readKeyframe(i, frame.packet);
+
+      if (pacing == Pacing.REAL_TIME) {
+        if (i == from) {
+          firstTimestamp = frame.getTimestamp();
+        }
+        long dueNanos = startNanos + (frame.getTimestamp() - firstTimestamp) * 1_000_000L;
+        long waitNanos = dueNanos - System.nanoTime();
+        if (waitNanos > 0) {
+          Thread.sleep(waitNanos / 1_000_000L, (int) (waitNanos % 1_000_000L));
+        } else if (i > from) {
+          stats.lateFrames++;
+        }
+      }
+
+      long processStart = System.nanoTime();
+      try {
+        processor.process(frame);
+      } catch (InterruptedException e) {
+        throw e;
+      } catch (Exception e) {
+        stats.failures++;
+      }
+      long processNanos = System.nanoTime() - processStart;
+      stats.processNanos += processNanos;
+      stats.maxProcessNanos = Math.max(stats.maxProcessNanos, processNanos);
+      stats.frames++;
+    }
+
+    stats.wallNanos = System.nanoTime() - startNanos;
+    return stats;
+  }
+
+  /**
+   * The processing the activity does for a keyframe: anchors are created from the point cloud,
+   * like {@code addAnchors} does, until there are {@link KeyframeProcessor#ANCHORS_LIMIT}; then
+   * every anchor is projected into the image, and once there is an anchor the keyframe is uploaded
+   * through {@code uploader}, if it is not null, with the first anchor as its main anchor.
+   */
+  static class KeyframeReplay implements Processor {
+    private final FrameUploader uploader;
+    private final int viewportWidth;
+    private final int viewportHeight;
+    private final KeyframeProcessor keyframeProcessor = new KeyframeProcessor();
+    private final PointProjector.Projection correspondences = new PointProjector.Projection();
+    private final float[] anchorPoses =
+        new float[KeyframeProcessor.ANCHORS_LIMIT * FramePacket.FLOATS_PER_POSE];
+    private final KeyframeProcessor.AnchorFactory anchorFactory = this::createAnchor;
+    private int anchorCount;
+    private int uploadCount;
+
+    KeyframeReplay(FrameUploader uploader, int viewportWidth, int viewportHeight) {
+      this.uploader = uploader;
+      this.viewportWidth = viewportWidth;
+      this.viewportHeight = viewportHeight;
+    }
+
+    @Override
+    public void process(RecordedFrameData frame) throws IOException {
+      keyframeProcessor.addAnchors(frame.getPointCloud(), anchorCount, anchorFactory);
+      frame.setAnchors(anchorPoses, anchorCount);
+      keyframeProcessor.imageAnchorCorrespondences(
+          frame, viewportWidth, viewportHeight, correspondences);
+
+      if (uploader != null && anchorCount > 0) {
+        FramePacket packet = frame.packet;
+        System.arraycopy(anchorPoses, 0, packet.anchorPosition, 0, 3);
+        packet.hasAnchor = true;
+        uploader.upload(packet);
+        uploadCount++;
+      }
+    }
+
+    int getAnchorCount() {
+      return anchorCount;
+    }
+
+    /** Anchor projections of the last keyframe. */
+    PointProjector.Projection getCorrespondences() {
+      return correspondences;
+    }
+
+    int getUploadCount() {
+      return uploadCount;
+    }
+
+    private void createAnchor(float x, float y, float z) {
+      // Like the activity, only the first anchors are kept.
+      if (anchorCount == KeyframeProcessor.ANCHORS_LIMIT) {
+        return;
+      }
+      int offset = anchorCount * FramePacket.FLOATS_PER_POSE;
+      anchorPoses[offset] = x;
+      anchorPoses[offset + 1] = y;
+      anchorPoses[offset + 2] = z;
+      anchorPoses[offset + 3] = 0;
+      anchorPoses[offset + 4] = 0;
+      anchorPoses[offset + 5] = 0;
+      anchorPoses[offset + 6] = 1;
+      anchorCount++;
+    }
+  }
+
+  /**
+   * Replays a recorded session on a desktop JVM and prints the timings:
+   *
+   * <pre>
+   *   SessionReplayer [--real-time] [--server URL] [--viewport WIDTHxHEIGHT] SESSION_FILE
+   * </pre>
+   *
+   * Without {@code --server} keyframes are processed but not uploaded. Sessions that did not close
+   * cleanly are read through their recovered index.
+   */
+  public static void main(String[] args) throws Exception {
+    Pacing pacing = Pacing.AS_FAST_AS_POSSIBLE;
+    String server = null;
+    int viewportWidth = DEFAULT_VIEWPORT_WIDTH;
+    int viewportHeight = DEFAULT_VIEWPORT_HEIGHT;
+    String path = null;
+    for (int i = 0; i < args.length; i++) {
+      switch (args[i]) {
+        case "--real-time":
+          pacing = Pacing.REAL_TIME;
+          break;
+        case "--server":
+          server = args[++i];
+          break;
+        case "--viewport":
+          String[] size = args[++i].split("x");
+          viewportWidth = Integer.parseInt(size[0]);
+          viewportHeight = Integer.parseInt(size[1]);
+          break;
+        default:
+          path = args[i];
+          break;
+      }
+    }
+    if (path == null) {
+      System.err.println(
+          "Usage: SessionReplayer [--real-time] [--server URL] [--viewport WIDTHxHEIGHT] FILE");
+      System.exit(2);
+    }
+
+    HttpFrameUploader uploader =
+        server == null ? null : new HttpFrameUploader(new OkHttpClient(), server);
+    Stats stats;
+    try (SessionReader reader = SessionReader.open(new File(path))) {
+      if (reader.wasRecovered()) {
+        System.out.println("Session did not close cleanly, recovered its keyframes");
+      }
+      KeyframeReplay replay = new KeyframeReplay(uploader, viewportWidth, viewportHeight);
+      stats = new SessionReplayer(reader, viewportWidth, viewportHeight, pacing).run(replay);
+      System.out.println(stats);
+      System.out.println(
+          replay.getAnchorCount() + " anchors, " + replay.getUploadCount() + " uploads"
+              + (uploader == null ? "" : ", " + uploader.getUploadedBytes() + " bytes"));
+    }
+    System.exit(stats.failures == 0 ? 0 : 1);
+  }
+}
@@ -0,0 +1,111 @@
+package com.google.ar.core.examples.java.helloar;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Appends keyframes to a new {@link SessionFile} through one {@link FileChannel}, and writes the
+ * index on {@link #close}. This is the file side of {@link SessionRecorder}, kept free of Android
+ * classes so sessions can also be written on the JVM.
+ *
+ * <p>Records are synced to disk every {@link #SYNC_INTERVAL} keyframes, so a crash loses at most
+ * the keyframes since the last sync; {@link SessionReader} recovers the rest.
+ *
+ * <p>Not thread-safe.
+ */
+final class SessionWriter implements Closeable {
+
+  static final int SYNC_INTERVAL = 10;
+
+  private final FileChannel channel;
+  private final ByteBuffer recordHeader = SessionFile.newBuffer(SessionFile.RECORD_HEADER_BYTES);
+  private final ByteBuffer[] record = new ByteBuffer[2];
+  private ByteBuffer message;
+  private long[] offsets = new long[64];
+  private int keyframeCount;
+  private long position;
+
+  private SessionWriter(FileChannel channel) {
+    this.channel = channel;
+  }
+
+  /** Creates {@code file}, replacing any existing one, and writes the file header. */
+  static SessionWriter create(File file) throws IOException {
+    FileChannel channel =
+        FileChannel.open(
+            file.toPath(),
+            StandardOpenOption.CREATE,
+            StandardOpenOption.TRUNCATE_EXISTING,
+            StandardOpenOption.WRITE);
+    SessionWriter writer = new SessionWriter(channel);
+    try {
+      ByteBuffer header = SessionFile.newBuffer(SessionFile.FILE_HEADER_BYTES);
+      header.putInt(SessionFile.FILE_MAGIC);
+      header.putShort((short) SessionFile.VERSION);
+      header.putShort((short) 0);
+      header.putLong(System.currentTimeMillis());
+      header.flip();
+      writer.position = writer.writeFully(header, 0);
+    } catch (IOException | RuntimeException e) {
+      channel.close();
+      throw e;
+    }
+    return writer;
+  }
+
+  /** Appends {@code packet} as the next keyframe. */
+  void append(FramePacket packet) throws IOException {
+    message = FramePacketCodec.encode(packet, message);
+    recordHeader.clear();
+    recordHeader.putInt(SessionFile.RECORD_MAGIC);
+    recordHeader.putInt(message.remaining());
+    recordHeader.putInt(SessionFile.checksum(message));
+    recordHeader.flip();
+
+    long start = position;
+    record[0] = recordHeader;
+    record[1] = message;
+    // Start from the end of the last complete record, overwriting anything a failed append left.
+    channel.position(start);
+    long remaining = recordHeader.remaining() + message.remaining();
+    while (remaining > 0) {
+      remaining -= channel.write(record);
+    }
+    position = start + SessionFile.RECORD_HEADER_BYTES + message.limit();
+
+    if (keyframeCount == offsets.length) {
+      offsets = Arrays.copyOf(offsets, keyframeCount * 2);
+    }
+    offsets[keyframeCount++] = start;
+    if (keyframeCount % SYNC_INTERVAL == 0) {
+      channel.force(false);
+    }
+  }
+
+  int getKeyframeCount() {
+    return keyframeCount;
+  }
+
+  /** Writes the index and closes the file. The channel is closed even if writing fails. */
+  @Override
+  public void close() throws IOException {
+    try {
+      SessionFile.writeIndex(channel, position, offsets, keyframeCount);
+      channel.force(true);
+    } finally {
+      channel.close();
+    }
+  }
+
+  private long writeFully(ByteBuffer buffer, long at) throws IOException {
+    while (buffer.hasRemaining()) {
+      at += channel.write(buffer, at);
+    }
+    return at;
+  }
+}
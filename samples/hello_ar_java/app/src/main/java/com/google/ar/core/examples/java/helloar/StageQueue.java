@@ -0,0 +1,101 @@
+package com.google.ar.core.examples.java.helloar;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded hand-off queue between two pipeline stages. When the consumer falls behind, the
+ * {@link DropPolicy} decides whether the producer waits or which item is discarded; discarded
+ * items are given back through the {@link Recycler} so pooled buffers are not lost.
+ */
+class StageQueue<T> {
+
+  /** What to do when a stage queue is full. */
+  enum DropPolicy {
+    /** Discard the oldest queued item to make room, so the freshest data gets through. */
+    DROP_OLDEST,
+    /** Discard the item being offered and keep what is already queued. */
+    DROP_NEWEST,
+    /** Wait for the consumer to make room. */
+    BLOCK
+  }
+
+  interface Recycler<T> {
+    void recycle(T item);
+  }
+
+  private final ArrayBlockingQueue<T> queue;
+  private final DropPolicy dropPolicy;
+  private final Recycler<T> recycler;
+  private final AtomicLong dropped = new AtomicLong();
+
+  StageQueue(int capacity, DropPolicy dropPolicy, Recycler<T> recycler) {
+    this.queue = new ArrayBlockingQueue<>(capacity);
+    this.dropPolicy = dropPolicy;
+    this.recycler = recycler;
+  }
+
+  /**
+   * Offers {@code item} according to the drop policy. Returns false if it was dropped, in which
+   * case it has already been recycled.
+   */
+  boolean offer(T item) throws InterruptedException {
+    switch (dropPolicy) {
+      case BLOCK:
+        queue.put(item);
+        return true;
+      case DROP_NEWEST:
+        if (queue.offer(item)) {
+          return true;
+        }
+        drop(item);
+        return false;
+      case DROP_OLDEST:
+      default:
+        while (!queue.offer(item)) {
+          T oldest = queue.poll();
+          if (oldest != null) {
+            drop(oldest);
+          }
+        }
+        return true;
+    }
+  }
+
+  /** Waits for the next item. */
+  T take() throws InterruptedException {
+    return queue.take();
+  }
+
+  /** Waits up to {@code timeout} for the next item, returning null if none arrived. */
+  T poll(long timeout, TimeUnit unit) throws InterruptedException {
+    return queue.poll(timeout, unit);
+  }
+
+  /** Removes the oldest queued item, or returns null if the queue is empty. */
+  T poll() {
+    return queue.poll();
+  }
+
+  /** Recycles everything still queued. */
+  void clear() {
+    T item;
+    while ((item = queue.poll()) != null) {
+      recycler.recycle(item);
+    }
+  }
+
+  long getDroppedCount() {
+    return dropped.get();
+  }
+
+  DropPolicy getDropPolicy() {
+    return dropPolicy;
+  }
+
+  private void drop(T item) {
+    dropped.incrementAndGet();
+    recycler.recycle(item);
+  }
+}
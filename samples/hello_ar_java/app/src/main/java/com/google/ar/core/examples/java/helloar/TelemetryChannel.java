@@ -0,0 +1,328 @@
+package com.google.ar.core.examples.java.helloar;
+
+import android.util.Log;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.WebSocket;
+import okhttp3.WebSocketListener;
+import okio.ByteString;
+
+/**
+ * One persistent WebSocket for the continuous traffic between the app and the server: pose
+ * updates at frame rate and keyframes up, model updates down. Binary messages start with an
+ * 8-byte little-endian header:
+ *
+ * <pre>
+ *   u8 kind, u8 reserved[3], u32 sequence
+ *   kind 1, pose:     i64 timestamp, camera pose, display-oriented pose (7 floats each)
+ *   kind 2, keyframe: a {@link FramePacketCodec} message
+ *   kind 3, model:    server to client, a {@link ModelDecoder} binary model
+ * </pre>
+ *
+ * Text messages are JSON objects with a {@code type}. On every connect the client sends {@code
+ * {"type":"hello","session":id,"lastAcked":n}}; the server answers keyframes with {@code
+ * {"type":"ack","sequence":n}} and pushes {@code {"type":"model","points":[...]}}, or a kind 3
+ * binary message, when the model changes.
+ *
+ * <p>The connection is re-established with exponential backoff. Keyframes stay buffered until
+ * acknowledged, up to {@link #MAX_UNACKED_KEYFRAMES}, and are re-sent after a reconnect so the
+ * server can resume the session; poses are only sent while connected and are skipped when the
+ * socket is backed up, since the next one supersedes them anyway.
+ */
+class TelemetryChannel {
+  private static final String TAG = TelemetryChannel.class.getSimpleName();
+
+  /** Receives messages pushed by the server, on an OkHttp thread. */
+  interface Listener {
+    /** {@code model} is laid out as described in {@link ModelDecoder}. */
+    void onModel(FloatBuffer model);
+  }
+
+  static final int KIND_POSE = 1;
+  static final int KIND_KEYFRAME = 2;
+  static final int KIND_MODEL = 3;
+
+  private static final int HEADER_BYTES = 8;
+  private static final int POSE_BYTES = HEADER_BYTES + 8 + 2 * FramePacket.FLOATS_PER_POSE * 4;
+  private static final int MAX_UNACKED_KEYFRAMES = 8;
+  // Skip poses while this much is waiting in the socket, so they cannot delay keyframes.
+  private static final long MAX_QUEUED_BYTES_FOR_POSES = 64 * 1024;
+  private static final long MIN_RECONNECT_DELAY_MS = 500;
+  private static final long MAX_RECONNECT_DELAY_MS = 10_000;
+  private static final int NORMAL_CLOSURE = 1000;
+
+  private static class Keyframe {
+    final int sequence;
+    final ByteString message;
+
+    Keyframe(int sequence, ByteString message) {
+      this.sequence = sequence;
+      this.message = message;
+    }
+  }
+
+  private final OkHttpClient client;
+  private final String url;
+  private final Gson gson;
+  private final Listener listener;
+  private final String sessionId = UUID.randomUUID().toString();
+  private final ScheduledExecutorService reconnectExecutor =
+      Executors.newSingleThreadScheduledExecutor();
+
+  private final ByteBuffer poseBuffer =
+      ByteBuffer.allocate(POSE_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+  private ByteBuffer keyframeBuffer;
+  private final ArrayDeque<Keyframe> unacked = new ArrayDeque<>();
+
+  private WebSocket socket;
+  private boolean connected;
+  private boolean closed;
+  private int nextSequence = 1;
+  private int lastAcked;
+  private long reconnectDelayMs = MIN_RECONNECT_DELAY_MS;
+  private long reconnects;
+  private long droppedPoses;
+  private long droppedKeyframes;
+
+  /** @param url ws:// or wss:// address of the stream endpoint. */
+  TelemetryChannel(OkHttpClient client, String url, Gson gson, Listener listener) {
+    this.client = client;
+    this.url = url;
+    this.gson = gson;
+    this.listener = listener;
+  }
+
+  synchronized void open() {
+    if (socket == null && !closed) {
+      connect();
+    }
+  }
+
+  /** Closes the connection for good; buffered keyframes are discarded. */
+  void close() {
+    WebSocket current;
+    synchronized (this) {
+      closed = true;
+      connected = false;
+      current = socket;
+      socket = null;
+      unacked.clear();
+    }
+    reconnectExecutor.shutdownNow();
+    if (current != null) {
+      current.close(NORMAL_CLOSURE, null);
+    }
+  }
+
+  synchronized boolean isConnected() {
+    return connected;
+  }
+
+  /**
+   * Sends the poses of {@code packet} if connected and the socket is not backed up.
+   *
+   * @return false if the update was skipped.
+   */
+  synchronized boolean sendPose(FramePacket packet) {
+    if (!connected || socket.queueSize() > MAX_QUEUED_BYTES_FOR_POSES) {
+      droppedPoses++;
+      return false;
+    }
+    poseBuffer.clear();
+    putHeader(poseBuffer, KIND_POSE, 0);
+    poseBuffer.putLong(packet.timestamp);
+    for (float value : packet.cameraPose) {
+      poseBuffer.putFloat(value);
+    }
+    for (float value : packet.displayOrientedPose) {
+      poseBuffer.putFloat(value);
+    }
+    return socket.send(ByteString.of(poseBuffer.array(), 0, poseBuffer.position()));
+  }
+
+  /**
+   * Queues {@code packet} as a keyframe. It is sent now if connected, otherwise after the next
+   * reconnect, and kept until the server acknowledges it. The packet may be reused on return.
+   */
+  synchronized void sendKeyframe(FramePacket packet) {
+    if (closed) {
+      return;
+    }
+    int size = HEADER_BYTES + FramePacketCodec.encodedSize(packet);
+    if (keyframeBuffer == null || keyframeBuffer.capacity() < size) {
+      keyframeBuffer = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+    }
+    int sequence = nextSequence++;
+    keyframeBuffer.clear();
+    putHeader(keyframeBuffer, KIND_KEYFRAME, sequence);
+    FramePacketCodec.encode(packet, keyframeBuffer.slice());
+    ByteString message = ByteString.of(keyframeBuffer.array(), 0, size);
+
+    if (unacked.size() == MAX_UNACKED_KEYFRAMES) {
+      unacked.poll();
+      droppedKeyframes++;
+    }
+    unacked.add(new Keyframe(sequence, message));
+    if (connected) {
+      socket.send(message);
+    }
+  }
+
+  synchronized long getReconnectCount() {
+    return reconnects;
+  }
+
+  synchronized long getDroppedPoseCount() {
+    return droppedPoses;
+  }
+
+  /** Keyframes discarded unacknowledged because too many were outstanding. */
+  synchronized long getDroppedKeyframeCount() {
+    return droppedKeyframes;
+  }
+
+  private void connect() {
+    Request request = new Request.Builder().url(url).build();
+    socket = client.newWebSocket(request, new SocketListener());
+  }
+
+  private void scheduleReconnect(WebSocket failed) {
+    long delay;
+    synchronized (this) {
+      if (closed || failed != socket) {
+        return;
+      }
+      connected = false;
+      socket = null;
+      delay = reconnectDelayMs;
+      reconnectDelayMs = Math.min(MAX_RECONNECT_DELAY_MS, reconnectDelayMs * 2);
+    }
+    reconnectExecutor.schedule(
+        () -> {
+          synchronized (TelemetryChannel.this) {
+            if (!closed && socket == null) {
+              reconnects++;
+              connect();
+            }
+          }
+        },
+        delay,
+        TimeUnit.MILLISECONDS);
+  }
+
+  private void handleText(String text) {
+    JsonObject message;
+    try {
+      message = gson.fromJson(text, JsonObject.class);
+    } catch (JsonParseException e) {
+      Log.w(TAG, "Ignoring malformed message", e);
+      return;
+    }
+    if (message == null || !message.has("type")) {
+      return;
+    }
+    switch (message.get("type").getAsString()) {
+      case "ack":
+        acknowledge(message.get("sequence").getAsInt());
+        break;
+      case "model":
+        listener.onModel(ModelDecoder.parseText(text));
+        break;
+      default:
+        break;
+    }
+  }
+
+  private synchronized void acknowledge(int sequence) {
+    lastAcked = Math.max(lastAcked, sequence);
+    Iterator<Keyframe> iterator = unacked.iterator();
+    while (iterator.hasNext() && iterator.next().sequence <= sequence) {
+      iterator.remove();
+    }
+  }
+
+  private static void putHeader(ByteBuffer buffer, int kind, int sequence) {
+    buffer.put((byte) kind);
+    buffer.put((byte) 0);
+    buffer.putShort((short) 0);
+    buffer.putInt(sequence);
+  }
+
+  private class SocketListener extends WebSocketListener {
+
+    @Override
+    public void onOpen(WebSocket webSocket, Response response) {
+      synchronized (TelemetryChannel.this) {
+        if (webSocket != socket) {
+          return;
+        }
+        JsonObject hello = new JsonObject();
+        hello.addProperty("type", "hello");
+        hello.addProperty("session", sessionId);
+        hello.addProperty("lastAcked", lastAcked);
+        webSocket.send(hello.toString());
+        // Resume: whatever the server has not acknowledged goes again, in order.
+        for (Keyframe keyframe : unacked) {
+          webSocket.send(keyframe.message);
+        }
+        connected = true;
+        reconnectDelayMs = MIN_RECONNECT_DELAY_MS;
+      }
+    }
+
+    @Override
+    public void onMessage(WebSocket webSocket, String text) {
+      handleText(text);
+    }
+
+    @Override
+    public void onMessage(WebSocket webSocket, ByteString bytes) {
+      if (bytes.size() <= HEADER_BYTES || (bytes.getByte(0) & 0xFF) != KIND_MODEL) {
+        return;
+      }
+      try {
+        byte[] message = bytes.toByteArray();
+        listener.onModel(
+            ModelDecoder.readBinary(
+                new ByteArrayInputStream(message, HEADER_BYTES, message.length - HEADER_BYTES),
+                message.length - HEADER_BYTES));
+      } catch (IOException e) {
+        Log.w(TAG, "Ignoring malformed model", e);
+      }
+    }
+
+    @Override
+    public void onClosing(WebSocket webSocket, int code, String reason) {
+      webSocket.close(NORMAL_CLOSURE, null);
+    }
+
+    @Override
+    public void onClosed(WebSocket webSocket, int code, String reason) {
+      scheduleReconnect(webSocket);
+    }
+
+    @Override
+    public void onFailure(WebSocket webSocket, Throwable t, Response response) {
+      Log.w(TAG, "Telemetry connection failed, reconnecting", t);
+      scheduleReconnect(webSocket);
+    }
+  }
+}
@@ -0,0 +1,63 @@
+package com.google.ar.core.examples.java.helloar;
+
+/**
+ * Upload throughput as bytes delivered over the wall time during which at least one request was
+ * in flight, counted from when the request body starts being written to when the request finishes.
+ * Time spent queued before sending is not counted, and requests in flight together share their
+ * time instead of each counting it in full. A sample is taken whenever a request delivers bytes and
+ * the samples are smoothed.
+ *
+ * <p>Times are {@link System#nanoTime} values passed in by the caller. Thread-safe.
+ */
+final class ThroughputMeter {
+
+  private final double smoothing;
+
+  private int inFlight;
+  private long markNanos;
+  // Busy time and delivered bytes since the last sample.
+  private long busyNanos;
+  private long bytes;
+  private double bytesPerSecond;
+
+  /** @param smoothing weight of each new sample in the average, in (0, 1]. */
+  ThroughputMeter(double smoothing) {
+    this.smoothing = smoothing;
+  }
+
+  /** A request started sending its body at {@code nanos}. */
+  synchronized void onStart(long nanos) {
+    advance(nanos);
+    inFlight++;
+  }
+
+  /**
+   * A request passed to {@link #onStart} finished at {@code nanos}. {@code deliveredBytes} is its
+   * body size if the server accepted it, or 0 if it failed; its time still counts either way.
+   */
+  synchronized void onFinish(long nanos, long deliveredBytes) {
+    advance(nanos);
+    inFlight = Math.max(0, inFlight - 1);
+    bytes += deliveredBytes;
+    if (deliveredBytes <= 0 || busyNanos <= 0) {
+      return;
+    }
+    double sample = bytes * 1e9 / busyNanos;
+    bytesPerSecond =
+        bytesPerSecond == 0 ? sample : bytesPerSecond + smoothing * (sample - bytesPerSecond);
+    bytes = 0;
+    busyNanos = 0;
+  }
+
+  /** Smoothed throughput in bytes per second, or 0 before the first request delivered. */
+  synchronized long getBytesPerSecond() {
+    return (long) bytesPerSecond;
+  }
+
+  private void advance(long nanos) {
+    if (inFlight > 0) {
+      busyNanos += nanos - markNanos;
+    }
+    markNanos = nanos;
+  }
+}
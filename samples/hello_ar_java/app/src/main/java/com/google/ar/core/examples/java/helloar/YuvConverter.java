@@ -0,0 +1,184 @@
+package com.google.ar.core.examples.java.helloar;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Converts YUV_420_888 planes into tightly packed NV21, NV12, I420 or grayscale buffers. Row
+ * stride and pixel stride are honoured for every plane, so it works whether the chroma planes are
+ * interleaved (pixel stride 2) or planar (pixel stride 1) and whether rows are padded.
+ *
+ * <p>Output arrays come from a {@link FrameBufferPool}, so steady-state conversion does not
+ * allocate. The class only depends on {@link ByteBuffer} and can be exercised on the JVM with
+ * synthetic planes.
+ */
+class YuvConverter {
+
+  /** Packed output layouts. */
+  enum Format {
+    /** Y plane followed by interleaved V,U. What {@link android.graphics.YuvImage} expects. */
+    NV21,
+    /** Y plane followed by interleaved U,V. */
+    NV12,
+    /** Y plane followed by the full U plane and the full V plane. */
+    I420,
+    /** Y plane only. */
+    GRAY;
+
+    /** Returns the number of bytes of a {@code width} x {@code height} image in this format. */
+    int bufferSize(int width, int height) {
+      int lumaSize = width * height;
+      if (this == GRAY) {
+        return lumaSize;
+      }
+      return lumaSize + 2 * chromaWidth(width) * chromaHeight(height);
+    }
+  }
+
+  private final FrameBufferPool pool;
+
+  YuvConverter(FrameBufferPool pool) {
+    this.pool = pool;
+  }
+
+  /**
+   * Converts one image into a buffer acquired from the pool. Hand the result back with {@link
+   * FrameBufferPool#release} once it is no longer needed. Plane buffers are read with absolute
+   * indexing starting at their current position; their positions are not changed.
+   */
+  byte[] convert(
+      int width,
+      int height,
+      ByteBuffer yPlane,
+      int yRowStride,
+      ByteBuffer uPlane,
+      ByteBuffer vPlane,
+      int uvRowStride,
+      int uvPixelStride,
+      Format format) {
+    byte[] out = pool.acquire(width, height, format);
+    convert(
+        width, height, yPlane, yRowStride, uPlane, vPlane, uvRowStride, uvPixelStride, format, out);
+    return out;
+  }
+
+  /** Same as the pooled variant, writing into a caller supplied array of sufficient size. */
+  static void convert(
+      int width,
+      int height,
+      ByteBuffer yPlane,
+      int yRowStride,
+      ByteBuffer uPlane,
+      ByteBuffer vPlane,
+      int uvRowStride,
+      int uvPixelStride,
+      Format format,
+      byte[] out) {
+    if (out.length < format.bufferSize(width, height)) {
+      throw new IllegalArgumentException("Output buffer too small for " + width + "x" + height);
+    }
+
+    copyLuma(width, height, yPlane, yRowStride, out);
+    if (format == Format.GRAY) {
+      return;
+    }
+
+    int chromaWidth = chromaWidth(width);
+    int chromaHeight = chromaHeight(height);
+    int chromaOffset = width * height;
+    switch (format) {
+      case NV21:
+        interleaveChroma(
+            chromaWidth, chromaHeight, vPlane, uPlane, uvRowStride, uvPixelStride, out, chromaOffset);
+        break;
+      case NV12:
+        interleaveChroma(
+            chromaWidth, chromaHeight, uPlane, vPlane, uvRowStride, uvPixelStride, out, chromaOffset);
+        break;
+      case I420:
+        int chromaSize = chromaWidth * chromaHeight;
+        copyChroma(chromaWidth, chromaHeight, uPlane, uvRowStride, uvPixelStride, out, chromaOffset);
+        copyChroma(
+            chromaWidth,
+            chromaHeight,
+            vPlane,
+            uvRowStride,
+            uvPixelStride,
+            out,
+            chromaOffset + chromaSize);
+        break;
+      default:
+        break;
+    }
+  }
+
+  private static void copyLuma(
+      int width, int height, ByteBuffer yPlane, int rowStride, byte[] out) {
+    ByteBuffer source = yPlane.duplicate();
+    int base = source.position();
+    if (rowStride == width) {
+      source.get(out, 0, width * height);
+      return;
+    }
+    // The last row may be shorter than the stride, so copy row by row.
+    for (int row = 0; row < height; row++) {
+      source.position(base + row * rowStride);
+      source.get(out, row * width, width);
+    }
+  }
+
+  private static void interleaveChroma(
+      int chromaWidth,
+      int chromaHeight,
+      ByteBuffer first,
+      ByteBuffer second,
+      int rowStride,
+      int pixelStride,
+      byte[] out,
+      int offset) {
+    int firstBase = first.position();
+    int secondBase = second.position();
+    int index = offset;
+    for (int row = 0; row < chromaHeight; row++) {
+      int rowStart = row * rowStride;
+      for (int col = 0; col < chromaWidth; col++) {
+        int sourceIndex = rowStart + col * pixelStride;
+        out[index++] = first.get(firstBase + sourceIndex);
+        out[index++] = second.get(secondBase + sourceIndex);
+      }
+    }
+  }
+
+  private static void copyChroma(
+      int chromaWidth,
+      int chromaHeight,
+      ByteBuffer plane,
+      int rowStride,
+      int pixelStride,
+      byte[] out,
+      int offset) {
+    int base = plane.position();
+    if (pixelStride == 1) {
+      ByteBuffer source = plane.duplicate();
+      for (int row = 0; row < chromaHeight; row++) {
+        source.position(base + row * rowStride);
+        source.get(out, offset + row * chromaWidth, chromaWidth);
+      }
+      return;
+    }
+    int index = offset;
+    for (int row = 0; row < chromaHeight; row++) {
+      int rowStart = base + row * rowStride;
+      for (int col = 0; col < chromaWidth; col++) {
+        out[index++] = plane.get(rowStart + col * pixelStride);
+      }
+    }
+  }
+
+  private static int chromaWidth(int width) {
+    return (width + 1) / 2;
+  }
+
+  private static int chromaHeight(int height) {
+    return (height + 1) / 2;
+  }
+}
@@ -0,0 +1,21 @@
+package com.google.ar.core.examples.java.helloar;
+
+import android.graphics.ImageFormat;
+import android.graphics.Rect;
+import android.graphics.YuvImage;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/** {@link JpegEncoder} backed by the platform's native {@link YuvImage} compressor. */
+class YuvImageJpegEncoder implements JpegEncoder {
+
+  @Override
+  public void encode(byte[] nv21, int width, int height, int quality, OutputStream out)
+      throws IOException {
+    YuvImage yuv = new YuvImage(nv21, ImageFormat.NV21, width, height, null);
+    if (!yuv.compressToJpeg(new Rect(0, 0, width, height), quality, out)) {
+      throw new IOException("YuvImage failed to compress " + width + "x" + height + " frame");
+    }
+  }
+}
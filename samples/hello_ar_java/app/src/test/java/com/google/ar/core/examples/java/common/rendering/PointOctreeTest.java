@@ -0,0 +1,189 @@
+package com.google.ar.core.examples.java.common.rendering;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+import java.util.Random;
+import org.junit.Test;
+
+/** Builds octrees over synthetic clouds and checks what {@link PointOctree#select} draws. */
+public class PointOctreeTest {
+
+  private static final int FLOATS_PER_POINT = 4;
+  private static final float[] ORIGIN = {0, 0, 0};
+  private static final float FAR_AWAY = 1e6f;
+
+  /** Uniform random points in the box from {@code min} to {@code max} on every axis. */
+  private static float[] randomCloud(int points, float min, float max, long seed) {
+    Random random = new Random(seed);
+    float[] cloud = new float[points * FLOATS_PER_POINT];
+    for (int i = 0; i < points; i++) {
+      for (int axis = 0; axis < 3; axis++) {
+        cloud[i * FLOATS_PER_POINT + axis] = min + random.nextFloat() * (max - min);
+      }
+      cloud[i * FLOATS_PER_POINT + 3] = 1;
+    }
+    return cloud;
+  }
+
+  private static float[] concat(float[] a, float[] b) {
+    float[] result = Arrays.copyOf(a, a.length + b.length);
+    System.arraycopy(b, 0, result, a.length, b.length);
+    return result;
+  }
+
+  /** A column-major orthographic view-projection whose clip volume is [-size, size]^3. */
+  private static float[] ortho(float size) {
+    float[] matrix = new float[16];
+    matrix[0] = 1 / size;
+    matrix[5] = 1 / size;
+    matrix[10] = 1 / size;
+    matrix[15] = 1;
+    return matrix;
+  }
+
+  private static float[] toArray(FloatBuffer buffer) {
+    float[] values = new float[buffer.remaining()];
+    buffer.get(values);
+    return values;
+  }
+
+  /** Points as sorted rows, to compare clouds regardless of order. */
+  private static String[] sortedRows(float[] cloud) {
+    String[] rows = new String[cloud.length / FLOATS_PER_POINT];
+    for (int i = 0; i < rows.length; i++) {
+      rows[i] =
+          Arrays.toString(
+              Arrays.copyOfRange(cloud, i * FLOATS_PER_POINT, (i + 1) * FLOATS_PER_POINT));
+    }
+    Arrays.sort(rows);
+    return rows;
+  }
+
+  private static int total(int[] counts, int ranges) {
+    int total = 0;
+    for (int i = 0; i < ranges; i++) {
+      total += counts[i];
+    }
+    return total;
+  }
+
+  @Test
+  public void build_reordersWithoutLosingPoints() {
+    float[] cloud = randomCloud(5000, -1, 1, 1);
+    PointOctree octree = PointOctree.build(FloatBuffer.wrap(cloud), 64);
+
+    assertEquals(5000, octree.getPointCount());
+    assertTrue(octree.getLeafCount() >= 5000 / 64);
+    assertArrayEquals(sortedRows(cloud), sortedRows(toArray(octree.getPoints())));
+  }
+
+  @Test
+  public void build_isDeterministic() {
+    float[] cloud = randomCloud(3000, -1, 1, 2);
+
+    float[] first = toArray(PointOctree.build(FloatBuffer.wrap(cloud), 100).getPoints());
+    float[] second = toArray(PointOctree.build(FloatBuffer.wrap(cloud), 100).getPoints());
+
+    assertArrayEquals(first, second, 0);
+  }
+
+  @Test
+  public void build_coincidentPoints_stopSplitting() {
+    float[] cloud = new float[1000 * FLOATS_PER_POINT];
+    PointOctree octree = PointOctree.build(FloatBuffer.wrap(cloud), 10);
+
+    assertEquals(1, octree.getLeafCount());
+  }
+
+  @Test
+  public void select_emptyOctree_returnsNothing() {
+    PointOctree octree = PointOctree.build(FloatBuffer.allocate(0));
+
+    assertEquals(0, octree.select(ortho(1), ORIGIN, 1, 100, new int[1], new int[1]));
+  }
+
+  @Test
+  public void select_everythingInViewAndClose_drawsAllPointsAsOneRange() {
+    PointOctree octree = PointOctree.build(FloatBuffer.wrap(randomCloud(4000, -1, 1, 3)), 50);
+    int[] firsts = new int[octree.getLeafCount()];
+    int[] counts = new int[octree.getLeafCount()];
+
+    int ranges = octree.select(ortho(2), ORIGIN, FAR_AWAY, Integer.MAX_VALUE, firsts, counts);
+
+    // Full leaves are contiguous, so they merge into a single draw call.
+    assertEquals(1, ranges);
+    assertEquals(0, firsts[0]);
+    assertEquals(4000, counts[0]);
+  }
+
+  @Test
+  public void select_skipsLeavesOutsideFrustum() {
+    float[] inside = randomCloud(2000, -0.9f, 0.9f, 4);
+    float[] outside = randomCloud(2000, 5, 6, 5);
+    PointOctree octree = PointOctree.build(FloatBuffer.wrap(concat(inside, outside)), 50);
+    int[] firsts = new int[octree.getLeafCount()];
+    int[] counts = new int[octree.getLeafCount()];
+
+    int ranges = octree.select(ortho(1), ORIGIN, FAR_AWAY, Integer.MAX_VALUE, firsts, counts);
+
+    assertEquals(2000, total(counts, ranges));
+    FloatBuffer points = octree.getPoints();
+    for (int range = 0; range < ranges; range++) {
+      for (int i = firsts[range]; i < firsts[range] + counts[range]; i++) {
+        for (int axis = 0; axis < 3; axis++) {
+          float value = points.get(i * FLOATS_PER_POINT + axis);
+          assertTrue(value >= -0.9f && value <= 0.9f);
+        }
+      }
+    }
+  }
+
+  @Test
+  public void select_distantLeaves_drawFewerPoints() {
+    PointOctree octree = PointOctree.build(FloatBuffer.wrap(randomCloud(8000, -1, 1, 6)), 100);
+    int[] firsts = new int[octree.getLeafCount()];
+    int[] counts = new int[octree.getLeafCount()];
+    float[] camera = {0, 0, 20};
+
+    int ranges = octree.select(ortho(50), camera, 2, Integer.MAX_VALUE, firsts, counts);
+
+    // About (2 / 19)^2 of each leaf, but never less than one point per visible leaf.
+    int drawn = total(counts, ranges);
+    assertTrue("drawn " + drawn, drawn < 8000 / 10);
+    assertTrue(drawn >= octree.getLeafCount());
+    for (int i = 0; i < ranges; i++) {
+      assertTrue(counts[i] > 0);
+    }
+  }
+
+  @Test
+  public void select_staysWithinPointBudget() {
+    PointOctree octree = PointOctree.build(FloatBuffer.wrap(randomCloud(20000, -1, 1, 7)), 200);
+    int[] firsts = new int[octree.getLeafCount()];
+    int[] counts = new int[octree.getLeafCount()];
+
+    int ranges = octree.select(ortho(2), ORIGIN, FAR_AWAY, 5000, firsts, counts);
+
+    int drawn = total(counts, ranges);
+    assertTrue("drawn " + drawn, drawn <= 5000);
+    assertTrue("drawn " + drawn, drawn > 4000);
+    for (int i = 0; i < ranges; i++) {
+      assertTrue(firsts[i] >= 0 && firsts[i] + counts[i] <= octree.getPointCount());
+    }
+  }
+
+  @Test
+  public void extractFrustumPlanes_orthoBox_hasUnitDistances() {
+    float[] planes = new float[24];
+
+    PointOctree.extractFrustumPlanes(ortho(1), planes);
+
+    // Left plane: x + 1 >= 0, right plane: -x + 1 >= 0.
+    assertArrayEquals(new float[] {1, 0, 0, 1}, Arrays.copyOfRange(planes, 0, 4), 0);
+    assertArrayEquals(new float[] {-1, 0, 0, 1}, Arrays.copyOfRange(planes, 4, 8), 0);
+  }
+}
@@ -0,0 +1,180 @@
+package com.google.ar.core.examples.java.helloar;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import org.junit.Test;
+
+public class AdaptiveJpegEncoderTest {
+
+  private static final int WIDTH = 640;
+  private static final int HEIGHT = 480;
+
+  /** Writes quality * pixels / 100 bytes, which is close enough to how JPEG sizes behave. */
+  private static final class FakeEncoder implements JpegEncoder {
+    int lastWidth;
+    int lastHeight;
+    int lastQuality;
+
+    @Override
+    public void encode(byte[] nv21, int width, int height, int quality, OutputStream out)
+        throws IOException {
+      lastWidth = width;
+      lastHeight = height;
+      lastQuality = quality;
+      out.write(new byte[width * height * quality / 100]);
+    }
+  }
+
+  private final FakeEncoder fake = new FakeEncoder();
+  private final AdaptiveJpegEncoder encoder =
+      new AdaptiveJpegEncoder(fake, new FrameBufferPool(1));
+  private final byte[] frame = new byte[YuvConverter.Format.NV21.bufferSize(WIDTH, HEIGHT)];
+
+  private int encodeFrames(int count) throws IOException {
+    int size = 0;
+    for (int i = 0; i < count; i++) {
+      size = encoder.encode(frame, WIDTH, HEIGHT, new ByteArrayOutputStream());
+    }
+    return size;
+  }
+
+  @Test
+  public void fixed_keepsSettings() throws IOException {
+    encoder.setFixed(70, 2);
+    encodeFrames(5);
+    assertEquals(70, fake.lastQuality);
+    assertEquals(WIDTH / 2, fake.lastWidth);
+    assertEquals(HEIGHT / 2, fake.lastHeight);
+    assertEquals(70, encoder.getQuality());
+  }
+
+  @Test
+  public void fixed_clampsSettings() {
+    encoder.setFixed(100, 3);
+    assertEquals(AdaptiveJpegEncoder.MAX_QUALITY, encoder.getQuality());
+    assertEquals(2, encoder.getDownscale());
+  }
+
+  @Test
+  public void targetBytes_lowersQualityUnderBudget() throws IOException {
+    int budget = WIDTH * HEIGHT * 60 / 100;
+    encoder.setTargetBytes(budget);
+    int size = encodeFrames(20);
+    assertTrue(size <= budget);
+    assertEquals(1, encoder.getDownscale());
+    assertTrue(encoder.getQuality() >= AdaptiveJpegEncoder.MIN_QUALITY);
+  }
+
+  @Test
+  public void targetBytes_downscalesWhenQualityIsNotEnough() throws IOException {
+    int budget = WIDTH * HEIGHT / 10;
+    encoder.setTargetBytes(budget);
+    int size = encodeFrames(40);
+    assertTrue(size <= budget);
+    assertTrue(encoder.getDownscale() > 1);
+    assertEquals(WIDTH / encoder.getDownscale(), fake.lastWidth);
+  }
+
+  @Test
+  public void targetBytes_growsBackWhenBudgetRises() throws IOException {
+    encoder.setTargetBytes(WIDTH * HEIGHT / 10);
+    encodeFrames(40);
+    encoder.setTargetBytes(WIDTH * HEIGHT * 2);
+    encodeFrames(60);
+    assertEquals(1, encoder.getDownscale());
+    assertEquals(AdaptiveJpegEncoder.MAX_QUALITY, encoder.getQuality());
+  }
+
+  private long frameTimeMs;
+
+  /** Encodes {@code count} frames captured {@code intervalMs} apart. */
+  private int encodeFramesEvery(int count, long intervalMs) throws IOException {
+    int size = 0;
+    for (int i = 0; i < count; i++) {
+      frameTimeMs += intervalMs;
+      encoder.recordFrameTime(frameTimeMs);
+      size = encoder.encode(frame, WIDTH, HEIGHT, new ByteArrayOutputStream());
+    }
+    return size;
+  }
+
+  @Test
+  public void bandwidth_usesEstimateAndFallsBack() throws IOException {
+    long[] bytesPerSecond = {0};
+    // Until measured, the fallback budget allows full quality.
+    encoder.setBandwidthTarget(() -> bytesPerSecond[0], WIDTH * HEIGHT * 2);
+    encodeFramesEvery(5, 1000);
+    assertEquals(AdaptiveJpegEncoder.MAX_QUALITY, encoder.getQuality());
+
+    bytesPerSecond[0] = WIDTH * HEIGHT / 2;
+    int size = encodeFramesEvery(20, 1000);
+    assertTrue(size <= bytesPerSecond[0]);
+  }
+
+  @Test
+  public void bandwidth_budgetsAgainstTheFrameRateSeen() throws IOException {
+    long bytesPerSecond = WIDTH * HEIGHT * 3;
+    encoder.setBandwidthTarget(() -> bytesPerSecond, WIDTH * HEIGHT * 2);
+
+    // Four frames a second get a quarter of the bandwidth, less the share for other requests.
+    float budget = bytesPerSecond / 4 * 0.8f;
+    int size = encodeFramesEvery(40, 250);
+    assertTrue(size <= budget);
+    assertTrue(size > budget * 0.7f);
+    assertEquals(1, encoder.getDownscale());
+
+    // At one frame a second there is room for full quality again.
+    encodeFramesEvery(40, 1000);
+    assertEquals(AdaptiveJpegEncoder.MAX_QUALITY, encoder.getQuality());
+  }
+
+  @Test
+  public void bandwidth_doesNotBudgetForPausesBetweenFrames() throws IOException {
+    long bytesPerSecond = WIDTH * HEIGHT / 2;
+    encoder.setBandwidthTarget(() -> bytesPerSecond, WIDTH * HEIGHT / 10);
+
+    // Ten seconds between frames count as one, so the budget stays within one second of bandwidth.
+    int size = encodeFramesEvery(20, 10_000);
+    assertTrue(size <= bytesPerSecond);
+  }
+
+  @Test
+  public void encode_reportsTheSettingsUsed() throws IOException {
+    encoder.setFixed(60, 2);
+    AdaptiveJpegEncoder.Settings used = new AdaptiveJpegEncoder.Settings();
+
+    encoder.encode(frame, WIDTH, HEIGHT, new ByteArrayOutputStream(), used);
+
+    assertEquals(60, used.quality);
+    assertEquals(2, used.downscale);
+  }
+
+  @Test
+  public void downscaleNV21_averagesPlanes() {
+    int width = 8;
+    int height = 4;
+    byte[] nv21 = new byte[YuvConverter.Format.NV21.bufferSize(width, height)];
+    for (int y = 0; y < height; y++) {
+      for (int x = 0; x < width; x++) {
+        nv21[y * width + x] = (byte) (x % 2 == 0 ? 100 : 200);
+      }
+    }
+    for (int i = width * height; i < nv21.length; i += 2) {
+      nv21[i] = (byte) 90;
+      nv21[i + 1] = (byte) 160;
+    }
+    byte[] scaled = new byte[YuvConverter.Format.NV21.bufferSize(4, 2)];
+    AdaptiveJpegEncoder.downscaleNV21(nv21, width, height, 2, scaled);
+    for (int i = 0; i < 8; i++) {
+      assertEquals(150, scaled[i] & 0xFF);
+    }
+    for (int i = 8; i < scaled.length; i += 2) {
+      assertEquals(90, scaled[i] & 0xFF);
+      assertEquals(160, scaled[i + 1] & 0xFF);
+    }
+  }
+}
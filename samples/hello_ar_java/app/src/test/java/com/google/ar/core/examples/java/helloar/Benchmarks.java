@@ -0,0 +1,26 @@
+package com.google.ar.core.examples.java.helloar;
+
+/**
+ * Times code for the JVM benchmarks, which run with the unit tests and print their results. The
+ * numbers are only comparable between runs on the same machine.
+ */
+final class Benchmarks {
+
+  private Benchmarks() {}
+
+  /** Runs {@code body} {@code warmups} times, then returns its mean time over {@code runs} runs. */
+  static double millisPerRun(int warmups, int runs, Runnable body) {
+    for (int i = 0; i < warmups; i++) {
+      body.run();
+    }
+    long start = System.nanoTime();
+    for (int i = 0; i < runs; i++) {
+      body.run();
+    }
+    return (System.nanoTime() - start) / 1e6 / runs;
+  }
+
+  static void report(String name, double millisPerRun) {
+    System.out.printf("%-48s %9.3f ms%n", name, millisPerRun);
+  }
+}
@@ -0,0 +1,217 @@
+package com.google.ar.core.examples.java.helloar;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import org.junit.Test;
+
+/** Round trips frames through a delta {@link FrameDeltaCodec.Encoder} and decoder pair. */
+public class FrameDeltaCodecTest {
+
+  private static final int SNAPSHOT_INTERVAL = 4;
+  private static final float TOLERANCE = 0.01f;
+  private static final int POINTS = 200;
+
+  private final FrameDeltaCodec.Encoder encoder =
+      new FrameDeltaCodec.Encoder(SNAPSHOT_INTERVAL, TOLERANCE);
+  private final FrameDeltaCodec.Decoder decoder = new FrameDeltaCodec.Decoder();
+  private final FramePacket decoded = new FramePacket();
+
+  /** A keyframe with {@link #POINTS} points whose IDs are 10, 20, 30 and so on. */
+  private static FramePacket frame(int index) {
+    FramePacket packet = SessionReaderTest.keyframe(index);
+    packet.ensurePointCapacity(POINTS);
+    packet.pointCount = POINTS;
+    packet.hasPointIds = true;
+    for (int i = 0; i < POINTS; i++) {
+      packet.pointIds[i] = (i + 1) * 10;
+      for (int j = 0; j < FramePacket.FLOATS_PER_POINT; j++) {
+        packet.points[i * FramePacket.FLOATS_PER_POINT + j] = i + j * 0.25f;
+      }
+    }
+    return packet;
+  }
+
+  private static void setPoint(FramePacket packet, int index, float value) {
+    Arrays.fill(
+        packet.points,
+        index * FramePacket.FLOATS_PER_POINT,
+        (index + 1) * FramePacket.FLOATS_PER_POINT,
+        value);
+  }
+
+  private static long baseSequence(ByteBuffer message) {
+    return message.duplicate().order(ByteOrder.LITTLE_ENDIAN).getLong(16);
+  }
+
+  /** Encodes and decodes {@code packet}, acknowledging it, and returns the message size. */
+  private int roundTrip(FramePacket packet) {
+    ByteBuffer message = encoder.encode(packet, null);
+    int size = message.remaining();
+    long sequence = decoder.decode(message, decoded);
+    assertEquals(encoder.getLastSequence(), sequence);
+    assertFalse(message.hasRemaining());
+    encoder.acknowledge(sequence);
+    return size;
+  }
+
+  private void assertDecodedEquals(FramePacket expected) {
+    assertEquals(expected.type, decoded.type);
+    assertEquals(expected.timestamp, decoded.timestamp);
+    assertEquals(expected.frameName, decoded.frameName);
+    assertArrayEquals(expected.cameraPose, decoded.cameraPose, 0);
+    assertArrayEquals(expected.displayOrientedPose, decoded.displayOrientedPose, 0);
+    assertEquals(expected.hasViewProjection, decoded.hasViewProjection);
+    assertArrayEquals(expected.viewMatrix, decoded.viewMatrix, 0);
+    assertEquals(expected.hasIntrinsics, decoded.hasIntrinsics);
+    assertArrayEquals(expected.intrinsics, decoded.intrinsics, 0);
+    assertEquals(expected.hasAnchor, decoded.hasAnchor);
+    assertEquals(expected.jpegLength, decoded.jpegLength);
+    assertArrayEquals(
+        Arrays.copyOf(expected.jpeg, expected.jpegLength),
+        Arrays.copyOf(decoded.jpeg, decoded.jpegLength));
+    assertEquals(expected.pointCount, decoded.pointCount);
+    assertArrayEquals(
+        Arrays.copyOf(expected.pointIds, expected.pointCount),
+        Arrays.copyOf(decoded.pointIds, decoded.pointCount));
+    assertArrayEquals(
+        Arrays.copyOf(expected.points, expected.pointCount * FramePacket.FLOATS_PER_POINT),
+        Arrays.copyOf(decoded.points, decoded.pointCount * FramePacket.FLOATS_PER_POINT),
+        0);
+  }
+
+  @Test
+  public void firstFrame_isFullSnapshot() {
+    FramePacket packet = frame(0);
+    ByteBuffer message = encoder.encode(packet, null);
+
+    assertEquals(0, baseSequence(message));
+    decoder.decode(message, decoded);
+    assertDecodedEquals(packet);
+  }
+
+  @Test
+  public void unchangedFrame_sendsAlmostNothing() {
+    int snapshot = roundTrip(frame(0));
+    FramePacket same = frame(0);
+    same.jpegLength = 0;
+    int delta = roundTrip(same);
+
+    assertTrue("delta " + delta + " bytes", delta < snapshot / 10);
+    assertDecodedEquals(same);
+  }
+
+  @Test
+  public void changedPoints_roundTripAgainstAcknowledgedBase() {
+    roundTrip(frame(0));
+    FramePacket next = frame(1);
+    setPoint(next, 5, 42);
+    // Swap the point with ID 20 for a new one with ID 15, and drop the last point.
+    next.pointIds[1] = 15;
+    next.pointCount = POINTS - 1;
+
+    roundTrip(next);
+    assertDecodedEquals(next);
+  }
+
+  @Test
+  public void pointsWithinTolerance_keepBaseValues() {
+    FramePacket first = frame(0);
+    roundTrip(first);
+    FramePacket jittered = frame(0);
+    jittered.points[0] += TOLERANCE / 2;
+
+    roundTrip(jittered);
+    assertEquals(first.points[0], decoded.points[0], 0);
+  }
+
+  @Test
+  public void unsortedIds_decodeSortedById() {
+    FramePacket packet = frame(0);
+    packet.pointCount = 2;
+    packet.pointIds[0] = 7;
+    packet.pointIds[1] = 3;
+    setPoint(packet, 0, 70);
+    setPoint(packet, 1, 30);
+
+    roundTrip(packet);
+    assertArrayEquals(new int[] {3, 7}, Arrays.copyOf(decoded.pointIds, 2));
+    assertEquals(30, decoded.points[0], 0);
+    assertEquals(70, decoded.points[FramePacket.FLOATS_PER_POINT], 0);
+  }
+
+  @Test
+  public void sendsFullSnapshotEverySnapshotInterval() {
+    roundTrip(frame(0));
+    for (int i = 1; i <= SNAPSHOT_INTERVAL; i++) {
+      ByteBuffer message = encoder.encode(frame(i), null);
+      assertEquals(encoder.getLastSequence() - 1, baseSequence(message));
+      decoder.decode(message, decoded);
+      encoder.acknowledge(encoder.getLastSequence());
+    }
+    ByteBuffer snapshot = encoder.encode(frame(SNAPSHOT_INTERVAL + 1), null);
+    assertEquals(0, baseSequence(snapshot));
+  }
+
+  @Test
+  public void unacknowledgedFrames_areNotUsedAsBase() {
+    roundTrip(frame(0));
+    long acknowledged = encoder.getLastSequence();
+    encoder.encode(frame(1), null);
+    ByteBuffer message = encoder.encode(frame(2), null);
+
+    assertEquals(acknowledged, baseSequence(message));
+    decoder.decode(message, decoded);
+    assertDecodedEquals(frame(2));
+  }
+
+  @Test
+  public void droppedOptionalSections_areClearedInDelta() {
+    FramePacket first = frame(0);
+    first.hasAnchor = true;
+    first.anchorPosition[0] = 1;
+    roundTrip(first);
+    FramePacket next = frame(0);
+    next.hasIntrinsics = false;
+
+    roundTrip(next);
+    assertFalse(decoded.hasAnchor);
+    assertFalse(decoded.hasIntrinsics);
+  }
+
+  @Test
+  public void unknownBase_throwsUntilEncoderIsReset() {
+    roundTrip(frame(0));
+    decoder.reset();
+    try {
+      decoder.decode(encoder.encode(frame(1), null), decoded);
+      fail();
+    } catch (IllegalStateException expected) {
+      // The receiver lost its history; the sender has to start over.
+    }
+
+    encoder.reset();
+    ByteBuffer message = encoder.encode(frame(1), null);
+    assertEquals(0, baseSequence(message));
+    decoder.decode(message, decoded);
+    assertDecodedEquals(frame(1));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void decode_rejectsOtherMessages() {
+    decoder.decode(FramePacketCodec.encode(frame(0), null), decoded);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void decode_rejectsTruncatedMessage() {
+    ByteBuffer message = encoder.encode(frame(0), null);
+    message.limit(message.limit() - 100);
+    decoder.decode(message, decoded);
+  }
+}
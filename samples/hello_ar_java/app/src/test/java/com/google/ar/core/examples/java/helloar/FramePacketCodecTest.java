@@ -0,0 +1,303 @@
+package com.google.ar.core.examples.java.helloar;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Random;
+import org.junit.Test;
+
+/** Round trips frames through {@link FramePacketCodec} and checks what it rejects. */
+public class FramePacketCodecTest {
+
+  // Offsets in the preamble and header, as documented on FramePacketCodec.
+  private static final int VERSION_OFFSET = 4;
+  private static final int BLOCK_COUNT_OFFSET = 20;
+
+  private final FramePacket decoded = new FramePacket();
+
+  /** A keyframe with every optional block set. */
+  private static FramePacket fullFrame() {
+    FramePacket packet = SessionReaderTest.keyframe(5);
+    packet.hasAnchor = true;
+    packet.anchorPosition[0] = 1.5f;
+    packet.anchorPosition[1] = -2.5f;
+    packet.anchorPosition[2] = 3.5f;
+    packet.hasQuality = true;
+    for (int i = 0; i < FramePacket.FLOATS_PER_QUALITY; i++) {
+      packet.quality[i] = i * 0.125f;
+    }
+    packet.ensureAnchorCapacity(2);
+    packet.anchorCount = 2;
+    for (int i = 0; i < 2 * FramePacket.FLOATS_PER_POSE; i++) {
+      packet.anchorPoses[i] = -i;
+    }
+    for (int i = 0; i < FramePacket.FLOATS_PER_MATRIX; i++) {
+      packet.cameraPoseMatrix[i] = i;
+      packet.displayOrientedPoseMatrix[i] = -i;
+    }
+    return packet;
+  }
+
+  /** A frame the size the app uploads: {@code points} ARCore points and a {@code jpeg} image. */
+  private static FramePacket typicalFrame(int points, int jpegBytes) {
+    Random random = new Random(1);
+    FramePacket packet = SessionReaderTest.keyframe(0);
+    packet.ensurePointCapacity(points);
+    packet.pointCount = points;
+    for (int i = 0; i < points; i++) {
+      for (int j = 0; j < 3; j++) {
+        packet.points[i * FramePacket.FLOATS_PER_POINT + j] = random.nextFloat() * 4 - 2;
+      }
+      packet.points[i * FramePacket.FLOATS_PER_POINT + 3] = random.nextFloat();
+    }
+    for (int i = 0; i < FramePacket.FLOATS_PER_POSE; i++) {
+      packet.cameraPose[i] = random.nextFloat() - 0.5f;
+      packet.displayOrientedPose[i] = random.nextFloat() - 0.5f;
+    }
+    for (int i = 0; i < FramePacket.FLOATS_PER_MATRIX; i++) {
+      packet.viewMatrix[i] = random.nextFloat() - 0.5f;
+      packet.projectionMatrix[i] = random.nextFloat() - 0.5f;
+      packet.cameraPoseMatrix[i] = random.nextFloat() - 0.5f;
+      packet.displayOrientedPoseMatrix[i] = random.nextFloat() - 0.5f;
+    }
+    byte[] jpeg = new byte[jpegBytes];
+    random.nextBytes(jpeg);
+    packet.setJpeg(jpeg, jpegBytes);
+    return packet;
+  }
+
+  /**
+   * Size of the JSON body ClientWrapper builds for {@code packet}, counting only the fields copied
+   * from the packet in the same text formats, so the real body is larger still.
+   */
+  private static int jsonBodyLowerBound(FramePacket packet) {
+    StringBuilder json = new StringBuilder("{");
+    appendField(json, "cameraPose", floats(packet.cameraPose, FramePacket.FLOATS_PER_POSE));
+    appendField(
+        json,
+        "cameraDisplayOrientedPose",
+        floats(packet.displayOrientedPose, FramePacket.FLOATS_PER_POSE));
+    if (packet.jpegLength > 0) {
+      appendField(
+          json,
+          "frameString",
+          Base64.getEncoder().encodeToString(Arrays.copyOf(packet.jpeg, packet.jpegLength)));
+    }
+    StringBuilder cloud = new StringBuilder();
+    new PointCloudEncoder()
+        .appendText(
+            FloatBuffer.wrap(packet.points, 0, packet.pointCount * FramePacket.FLOATS_PER_POINT),
+            FramePacket.FLOATS_PER_POINT,
+            null,
+            cloud);
+    appendField(json, "pointCloud", cloud.toString());
+    if (packet.hasViewProjection) {
+      appendField(json, "viewmtx", matrix(packet.viewMatrix));
+      appendField(json, "projMatrix", matrix(packet.projectionMatrix));
+    }
+    appendField(json, "cameraPoseMatrix", matrix(packet.cameraPoseMatrix));
+    appendField(json, "cameraDisplayOrientedPoseMatrix", matrix(packet.displayOrientedPoseMatrix));
+    return json.length();
+  }
+
+  private static void appendField(StringBuilder json, String key, String value) {
+    // JSON escapes each newline as two characters.
+    json.append('"').append(key).append("\":\"").append(value.replace("\n", "\\n")).append("\",");
+  }
+
+  private static String floats(float[] values, int count) {
+    StringBuilder text = new StringBuilder();
+    for (int i = 0; i < count; i++) {
+      text.append(i > 0 ? "," : "").append(values[i]);
+    }
+    return text.toString();
+  }
+
+  /** Row by row, as ClientWrapper.getMatrixString. */
+  private static String matrix(float[] m) {
+    StringBuilder text = new StringBuilder();
+    for (int row = 0; row < 4; row++) {
+      text.append(m[row]).append(' ').append(m[4 + row]).append(' ');
+      text.append(m[8 + row]).append(' ').append(m[12 + row]).append('\n');
+    }
+    return text.toString();
+  }
+
+  private static void assertDecodedEquals(FramePacket expected, FramePacket actual) {
+    assertEquals(expected.type, actual.type);
+    assertEquals(expected.timestamp, actual.timestamp);
+    assertEquals(expected.frameName, actual.frameName);
+    assertArrayEquals(expected.cameraPose, actual.cameraPose, 0);
+    assertArrayEquals(expected.displayOrientedPose, actual.displayOrientedPose, 0);
+    assertArrayEquals(expected.cameraPoseMatrix, actual.cameraPoseMatrix, 0);
+    assertArrayEquals(expected.displayOrientedPoseMatrix, actual.displayOrientedPoseMatrix, 0);
+    assertEquals(expected.hasViewProjection, actual.hasViewProjection);
+    if (expected.hasViewProjection) {
+      assertArrayEquals(expected.viewMatrix, actual.viewMatrix, 0);
+      assertArrayEquals(expected.projectionMatrix, actual.projectionMatrix, 0);
+    }
+    assertEquals(expected.hasAnchor, actual.hasAnchor);
+    if (expected.hasAnchor) {
+      assertArrayEquals(expected.anchorPosition, actual.anchorPosition, 0);
+    }
+    assertEquals(expected.hasIntrinsics, actual.hasIntrinsics);
+    if (expected.hasIntrinsics) {
+      assertArrayEquals(expected.intrinsics, actual.intrinsics, 0);
+    }
+    assertEquals(expected.hasQuality, actual.hasQuality);
+    if (expected.hasQuality) {
+      assertArrayEquals(expected.quality, actual.quality, 0);
+    }
+    assertEquals(expected.anchorCount, actual.anchorCount);
+    assertArrayEquals(
+        Arrays.copyOf(expected.anchorPoses, expected.anchorCount * FramePacket.FLOATS_PER_POSE),
+        Arrays.copyOf(actual.anchorPoses, actual.anchorCount * FramePacket.FLOATS_PER_POSE),
+        0);
+    assertEquals(expected.pointCount, actual.pointCount);
+    assertArrayEquals(
+        Arrays.copyOf(expected.points, expected.pointCount * FramePacket.FLOATS_PER_POINT),
+        Arrays.copyOf(actual.points, actual.pointCount * FramePacket.FLOATS_PER_POINT),
+        0);
+    assertEquals(expected.jpegLength, actual.jpegLength);
+    assertArrayEquals(
+        Arrays.copyOf(expected.jpeg, expected.jpegLength),
+        Arrays.copyOf(actual.jpeg, actual.jpegLength));
+  }
+
+  private void assertRejected(ByteBuffer message) {
+    try {
+      FramePacketCodec.decode(message, decoded);
+      fail();
+    } catch (IllegalArgumentException expected) {
+      // Rejected as the codec documents, not with an unchecked buffer exception.
+    }
+  }
+
+  @Test
+  public void roundTrip_everyBlock() {
+    FramePacket packet = fullFrame();
+
+    ByteBuffer message = FramePacketCodec.encode(packet, null);
+    assertEquals(FramePacketCodec.encodedSize(packet), message.remaining());
+    FramePacketCodec.decode(message, decoded);
+
+    assertFalse(message.hasRemaining());
+    assertDecodedEquals(packet, decoded);
+  }
+
+  @Test
+  public void roundTrip_localiseWithoutOptionalBlocks() {
+    FramePacket packet = new FramePacket();
+    packet.reset(FramePacket.TYPE_LOCALISE);
+    packet.timestamp = 42;
+    packet.frameName = "localise_\u00e9";
+    // No JPEG and an empty cloud, as when sendData gets a null image.
+    packet.setPoints(FloatBuffer.allocate(0));
+
+    // Decoding into a packet still holding a previous frame must clear its optional blocks.
+    FramePacketCodec.decode(FramePacketCodec.encode(fullFrame(), null), decoded);
+    FramePacketCodec.decode(FramePacketCodec.encode(packet, null), decoded);
+
+    assertDecodedEquals(packet, decoded);
+    assertEquals(0, decoded.jpegLength);
+    assertEquals(0, decoded.pointCount);
+  }
+
+  @Test
+  public void encode_reusesLargeEnoughBuffer() {
+    FramePacket packet = fullFrame();
+    ByteBuffer target = ByteBuffer.allocate(FramePacketCodec.encodedSize(packet) + 100);
+
+    ByteBuffer message = FramePacketCodec.encode(packet, target);
+
+    assertTrue(message == target);
+    assertEquals(0, message.position());
+    assertEquals(FramePacketCodec.encodedSize(packet), message.limit());
+    assertTrue(FramePacketCodec.encode(packet, ByteBuffer.allocate(10)).capacity() > 10);
+  }
+
+  @Test
+  public void decode_skipsUnknownBlocks() {
+    FramePacket packet = fullFrame();
+    ByteBuffer known = FramePacketCodec.encode(packet, null);
+    // Append a block with an id this reader does not know, as a newer writer would.
+    ByteBuffer message =
+        ByteBuffer.allocate(known.remaining() + 8 + 5).order(ByteOrder.LITTLE_ENDIAN);
+    message.put(known.duplicate());
+    message.putShort((short) 999).putShort((short) 0).putInt(5).put(new byte[5]);
+    message.flip();
+    int blockCount = message.getShort(BLOCK_COUNT_OFFSET) & 0xFFFF;
+    message.putShort(BLOCK_COUNT_OFFSET, (short) (blockCount + 1));
+
+    FramePacketCodec.decode(message, decoded);
+
+    assertFalse(message.hasRemaining());
+    assertDecodedEquals(packet, decoded);
+  }
+
+  @Test
+  public void decode_rejectsBadMagic() {
+    ByteBuffer message = FramePacketCodec.encode(fullFrame(), null);
+    message.put(0, (byte) 'X');
+
+    assertRejected(message);
+  }
+
+  @Test
+  public void decode_rejectsNewerVersion() {
+    ByteBuffer message = FramePacketCodec.encode(fullFrame(), null);
+    message.order(ByteOrder.LITTLE_ENDIAN).putShort(VERSION_OFFSET, (short) 2);
+
+    assertRejected(message);
+  }
+
+  @Test
+  public void decode_rejectsTruncatedMessages() {
+    ByteBuffer message = FramePacketCodec.encode(fullFrame(), null);
+    // Inside the preamble, the header, a float block and the JPEG.
+    for (int length : new int[] {2, 14, 60, message.remaining() - 1}) {
+      ByteBuffer truncated = message.duplicate();
+      truncated.limit(length);
+      assertRejected(truncated);
+    }
+  }
+
+  @Test
+  public void decode_keepsCallerByteOrder() {
+    ByteBuffer message = FramePacketCodec.encode(fullFrame(), null);
+    message.order(ByteOrder.BIG_ENDIAN);
+
+    FramePacketCodec.decode(message, decoded);
+
+    assertEquals(ByteOrder.BIG_ENDIAN, message.order());
+  }
+
+  /**
+   * Raw floats are about a third of their decimal text, but the JPEG dominates a frame and Base64
+   * only adds a third to it, so a frame with an image is well short of 5x smaller.
+   */
+  @Test
+  public void size_comparedWithJsonBody() {
+    FramePacket withoutImage = typicalFrame(2000, 0);
+    FramePacket withImage = typicalFrame(2000, 60_000);
+
+    double withoutImageRatio =
+        (double) jsonBodyLowerBound(withoutImage) / FramePacketCodec.encodedSize(withoutImage);
+    double withImageRatio =
+        (double) jsonBodyLowerBound(withImage) / FramePacketCodec.encodedSize(withImage);
+    System.out.printf(
+        "Frame packet vs JSON body: %.2fx smaller without image, %.2fx with it%n",
+        withoutImageRatio, withImageRatio);
+
+    assertTrue(withoutImageRatio > 2.5);
+    assertTrue(withImageRatio > 4 / 3.0);
+  }
+}
@@ -0,0 +1,62 @@
+package com.google.ar.core.examples.java.helloar;
+
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import org.junit.Test;
+
+/**
+ * Times {@link FrameQualityAnalyzer} on synthetic frames, from submitting a Y plane to its result,
+ * against measuring the Laplacian at full resolution.
+ */
+public class FrameQualityAnalyzerBenchmark {
+
+  private static final int WARMUPS = 20;
+  private static final int RUNS = 100;
+
+  @Test
+  public void cameraImage() {
+    run(FrameQualityAnalyzerTest.WIDTH, FrameQualityAnalyzerTest.HEIGHT);
+  }
+
+  @Test
+  public void fullHd() {
+    run(1920, 1080);
+  }
+
+  private static void run(int width, int height) {
+    byte[] sharp = FrameQualityAnalyzerTest.texture(width, height, 128, 1);
+    byte[] blurred = FrameQualityAnalyzerTest.motionBlur(sharp, width, height, 4);
+    ByteBuffer plane = ByteBuffer.allocateDirect(sharp.length);
+    plane.put(sharp).flip();
+    String size = width + "x" + height;
+
+    Benchmarks.report(
+        "Laplacian variance, full " + size,
+        Benchmarks.millisPerRun(
+            WARMUPS, RUNS, () -> FrameQualityAnalyzer.laplacianVariance(blurred, width, height)));
+
+    FrameQualityAnalyzer analyzer = new FrameQualityAnalyzer();
+    analyzer.start();
+    try {
+      Benchmarks.report(
+          "Submit and measure, " + size,
+          Benchmarks.millisPerRun(
+              WARMUPS,
+              RUNS,
+              () -> {
+                long analyzed = analyzer.getAnalyzedCount();
+                assertTrue(analyzer.submit(plane, width, height, width, 0));
+                awaitAnalyzed(analyzer, analyzed);
+              }));
+    } finally {
+      analyzer.shutdown();
+    }
+  }
+
+  private static void awaitAnalyzed(FrameQualityAnalyzer analyzer, long analyzed) {
+    while (analyzer.getAnalyzedCount() == analyzed) {
+      Thread.yield();
+    }
+  }
+}
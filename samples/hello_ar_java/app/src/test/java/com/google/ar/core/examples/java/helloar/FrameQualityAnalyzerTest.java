@@ -0,0 +1,178 @@
+package com.google.ar.core.examples.java.helloar;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Test;
+
+/** Measures synthetic Y planes with {@link FrameQualityAnalyzer}. */
+public class FrameQualityAnalyzerTest {
+
+  static final int WIDTH = 640;
+  static final int HEIGHT = 480;
+  private static final long TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(5);
+
+  private final FrameQualityAnalyzer analyzer = new FrameQualityAnalyzer();
+
+  @After
+  public void tearDown() {
+    analyzer.shutdown();
+  }
+
+  /** Random texture around {@code mean}, roughly the detail of a textured scene in focus. */
+  static byte[] texture(int width, int height, int mean, long seed) {
+    Random random = new Random(seed);
+    byte[] pixels = new byte[width * height];
+    for (int i = 0; i < pixels.length; i++) {
+      pixels[i] = (byte) Math.max(0, Math.min(255, mean + random.nextInt(81) - 40));
+    }
+    return pixels;
+  }
+
+  /** {@code pixels} box-blurred horizontally over {@code radius} pixels, as motion blur does. */
+  static byte[] motionBlur(byte[] pixels, int width, int height, int radius) {
+    byte[] blurred = new byte[pixels.length];
+    for (int y = 0; y < height; y++) {
+      for (int x = 0; x < width; x++) {
+        int sum = 0;
+        int count = 0;
+        for (int dx = -radius; dx <= radius; dx++) {
+          int sx = x + dx;
+          if (sx >= 0 && sx < width) {
+            sum += pixels[y * width + sx] & 0xFF;
+            count++;
+          }
+        }
+        blurred[y * width + x] = (byte) (sum / count);
+      }
+    }
+    return blurred;
+  }
+
+  private static byte[] flat(int value) {
+    byte[] pixels = new byte[WIDTH * HEIGHT];
+    Arrays.fill(pixels, (byte) value);
+    return pixels;
+  }
+
+  /** Submits a tightly packed frame and waits for the worker to measure it. */
+  private FrameQualityAnalyzer.Quality measure(byte[] pixels, long timestamp) throws Exception {
+    return measure(ByteBuffer.wrap(pixels), WIDTH, HEIGHT, WIDTH, timestamp);
+  }
+
+  private FrameQualityAnalyzer.Quality measure(
+      ByteBuffer plane, int width, int height, int rowStride, long timestamp) throws Exception {
+    analyzer.start();
+    long analyzed = analyzer.getAnalyzedCount();
+    assertTrue(analyzer.submit(plane, width, height, rowStride, timestamp));
+    long deadline = System.nanoTime() + TIMEOUT_NANOS;
+    while (analyzer.getAnalyzedCount() == analyzed) {
+      assertTrue("Timed out", System.nanoTime() < deadline);
+      Thread.sleep(1);
+    }
+    FrameQualityAnalyzer.Quality quality = analyzer.getLatest();
+    assertNotNull(quality);
+    assertEquals(timestamp, quality.timestampNanos);
+    return quality;
+  }
+
+  @Test
+  public void laplacianVariance_flatImage_isZero() {
+    assertEquals(0, FrameQualityAnalyzer.laplacianVariance(flat(128), WIDTH, HEIGHT), 0);
+  }
+
+  @Test
+  public void laplacianVariance_tooSmall_isZero() {
+    assertEquals(0, FrameQualityAnalyzer.laplacianVariance(new byte[] {0, 9, 0, 9}, 2, 2), 0);
+  }
+
+  @Test
+  public void laplacianVariance_dropsWithBlur() {
+    byte[] sharp = texture(WIDTH, HEIGHT, 128, 1);
+    float sharpVariance = FrameQualityAnalyzer.laplacianVariance(sharp, WIDTH, HEIGHT);
+    float previous = sharpVariance;
+    for (int radius = 1; radius <= 8; radius *= 2) {
+      byte[] blurred = motionBlur(sharp, WIDTH, HEIGHT, radius);
+      float variance = FrameQualityAnalyzer.laplacianVariance(blurred, WIDTH, HEIGHT);
+      assertTrue("radius " + radius, variance < previous);
+      previous = variance;
+    }
+    assertTrue(previous < sharpVariance / 10);
+  }
+
+  @Test
+  public void sharpness_isRelativeToBestRecentFrame() throws Exception {
+    byte[] sharp = texture(WIDTH, HEIGHT, 128, 2);
+
+    FrameQualityAnalyzer.Quality first = measure(sharp, 1);
+    FrameQualityAnalyzer.Quality blurred = measure(motionBlur(sharp, WIDTH, HEIGHT, 4), 2);
+
+    assertEquals(1, first.sharpness, 0);
+    assertTrue(blurred.sharpness < 0.5f);
+    assertTrue(blurred.laplacianVariance < first.laplacianVariance);
+  }
+
+  @Test
+  public void exposure_flagsDarkAndBrightFrames() throws Exception {
+    FrameQualityAnalyzer.Quality dark = measure(flat(5), 1);
+    FrameQualityAnalyzer.Quality bright = measure(flat(250), 2);
+    FrameQualityAnalyzer.Quality normal = measure(texture(WIDTH, HEIGHT, 128, 3), 3);
+
+    assertEquals(1, dark.underexposed, 0);
+    assertFalse(dark.isWellExposed());
+    assertEquals(1, bright.overexposed, 0);
+    assertFalse(bright.isWellExposed());
+    assertEquals(128, normal.meanLuma, 1);
+    assertEquals(0, normal.underexposed + normal.overexposed, 0);
+    assertTrue(normal.isWellExposed());
+  }
+
+  @Test
+  public void submit_ignoresRowPadding() throws Exception {
+    int width = 1280;
+    int height = 720;
+    int rowStride = width + 64;
+    ByteBuffer plane = ByteBuffer.allocateDirect(rowStride * height);
+    for (int y = 0; y < height; y++) {
+      for (int x = 0; x < rowStride; x++) {
+        plane.put((byte) (x < width ? 100 : 255));
+      }
+    }
+    plane.flip();
+
+    FrameQualityAnalyzer.Quality quality = measure(plane, width, height, rowStride, 1);
+
+    assertEquals(100, quality.meanLuma, 0);
+    assertEquals(0, quality.overexposed, 0);
+    assertEquals(0, plane.position());
+  }
+
+  @Test
+  public void submit_whileWorkerIsBusy_skipsFrames() {
+    // Not started, so nothing is measured and both buffers stay queued.
+    ByteBuffer plane = ByteBuffer.wrap(flat(128));
+    assertTrue(analyzer.submit(plane, WIDTH, HEIGHT, WIDTH, 1));
+    assertTrue(analyzer.submit(plane, WIDTH, HEIGHT, WIDTH, 2));
+    assertFalse(analyzer.submit(plane, WIDTH, HEIGHT, WIDTH, 3));
+    assertEquals(1, analyzer.getSkippedCount());
+  }
+
+  @Test
+  public void toArray_matchesPacketLayout() throws Exception {
+    FrameQualityAnalyzer.Quality quality = measure(texture(WIDTH, HEIGHT, 128, 4), 1);
+    float[] values = new float[FramePacket.FLOATS_PER_QUALITY];
+
+    quality.toArray(values);
+
+    assertEquals(quality.sharpness, values[0], 0);
+    assertEquals(quality.laplacianVariance, values[1], 0);
+    assertEquals(quality.meanLuma, values[2], 0);
+  }
+}
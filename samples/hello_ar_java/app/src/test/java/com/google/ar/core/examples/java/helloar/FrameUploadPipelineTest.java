@@ -0,0 +1,274 @@
+package com.google.ar.core.examples.java.helloar;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * Runs {@link FrameUploadPipeline} with a fake JPEG encoder and uploader, checking that every
+ * frame is either uploaded or counted as dropped and always ends up back in the pool.
+ */
+public class FrameUploadPipelineTest {
+
+  private static final int WIDTH = 8;
+  private static final int HEIGHT = 8;
+  private static final long SETTLE_TIMEOUT_MS = 5000;
+
+  private final FakeEncoder encoder = new FakeEncoder();
+  private final FakeUploader uploader = new FakeUploader();
+  private FrameUploadPipeline pipeline;
+
+  /** "Encodes" a frame to the one byte that {@link #frame} filled its image with. */
+  private static final class FakeEncoder implements JpegEncoder {
+    final List<Integer> failing = Collections.synchronizedList(new ArrayList<>());
+
+    @Override
+    public void encode(byte[] nv21, int width, int height, int quality, OutputStream out)
+        throws IOException {
+      int index = nv21[0] & 0xFF;
+      if (failing.contains(index)) {
+        throw new IOException("Cannot encode frame " + index);
+      }
+      out.write(index);
+    }
+  }
+
+  /** Records the frames it is given; holds each upload until {@link #gate} opens. */
+  private static final class FakeUploader implements FrameUploader {
+    final List<Integer> uploaded = Collections.synchronizedList(new ArrayList<>());
+    final CountDownLatch started = new CountDownLatch(1);
+    volatile CountDownLatch gate = new CountDownLatch(0);
+    volatile float[] lastIntrinsics;
+
+    @Override
+    public void upload(FramePacket packet) throws IOException {
+      started.countDown();
+      try {
+        gate.await();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException();
+      }
+      assertEquals(1, packet.jpegLength);
+      assertEquals(packet.timestamp, packet.jpeg[0] & 0xFF);
+      lastIntrinsics = packet.hasIntrinsics ? packet.intrinsics.clone() : null;
+      uploaded.add((int) packet.timestamp);
+    }
+  }
+
+  /** Fills a frame whose image and timestamp both carry {@code index}. */
+  private static Consumer<CapturedFrame> frame(int index) {
+    return frame -> {
+      frame.packet.reset(FramePacket.TYPE_FRAME);
+      frame.packet.timestamp = index;
+      frame.width = WIDTH;
+      frame.height = HEIGHT;
+      for (int i = 0; i < CapturedFrame.PLANE_COUNT; i++) {
+        int rowStride = i == 0 ? WIDTH : WIDTH / 2;
+        int length = i == 0 ? WIDTH * HEIGHT : WIDTH * HEIGHT / 4;
+        if (frame.planes[i].length < length) {
+          frame.planes[i] = new byte[length];
+        }
+        Arrays.fill(frame.planes[i], 0, length, (byte) index);
+        frame.planeLengths[i] = length;
+        frame.rowStrides[i] = rowStride;
+        frame.pixelStrides[i] = 1;
+      }
+    };
+  }
+
+  private FrameUploadPipeline start(
+      int queueCapacity, int encoderCount, StageQueue.DropPolicy policy) {
+    return start(
+        new AdaptiveJpegEncoder(encoder, new FrameBufferPool(1)),
+        queueCapacity,
+        encoderCount,
+        policy);
+  }
+
+  private FrameUploadPipeline start(
+      AdaptiveJpegEncoder jpegEncoder,
+      int queueCapacity,
+      int encoderCount,
+      StageQueue.DropPolicy policy) {
+    pipeline = new FrameUploadPipeline(uploader, jpegEncoder, queueCapacity, encoderCount, policy);
+    pipeline.start();
+    return pipeline;
+  }
+
+  private static int poolSize(int queueCapacity, int encoderCount) {
+    return 2 * queueCapacity + encoderCount + 1;
+  }
+
+  /** Waits until {@code frames} frames were uploaded or dropped and all are back in the pool. */
+  private void awaitSettled(int frames, int poolSize) throws InterruptedException {
+    long deadline = System.currentTimeMillis() + SETTLE_TIMEOUT_MS;
+    while (pipeline.getUploadedCount() + pipeline.getDroppedCount() < frames
+        || pipeline.getFreeFrameCount() < poolSize) {
+      assertTrue("Pipeline did not settle", System.currentTimeMillis() < deadline);
+      Thread.sleep(5);
+    }
+  }
+
+  private static void assertAscending(List<Integer> indices) {
+    for (int i = 1; i < indices.size(); i++) {
+      assertTrue(indices.toString(), indices.get(i - 1) < indices.get(i));
+    }
+  }
+
+  /** Submits frame 0 and waits until the uploader holds it, so later frames back up. */
+  private void stallUploader() throws InterruptedException {
+    uploader.gate = new CountDownLatch(1);
+    pipeline.submit(frame(0));
+    assertTrue(uploader.started.await(SETTLE_TIMEOUT_MS, TimeUnit.MILLISECONDS));
+  }
+
+  @After
+  public void tearDown() {
+    if (pipeline != null) {
+      pipeline.shutdown();
+    }
+  }
+
+  @Test(timeout = 10000)
+  public void block_uploadsEveryFrameInOrder() throws Exception {
+    start(2, 1, StageQueue.DropPolicy.BLOCK);
+    int frames = 20;
+
+    for (int i = 0; i < frames; i++) {
+      assertTrue(pipeline.submit(frame(i)));
+    }
+    awaitSettled(frames, poolSize(2, 1));
+
+    assertEquals(frames, pipeline.getUploadedCount());
+    assertEquals(0, pipeline.getDroppedCount());
+    assertAscending(uploader.uploaded);
+    assertEquals(frames, uploader.uploaded.size());
+    assertEquals(1, pipeline.copyLatestJpeg().jpeg.length);
+  }
+
+  @Test(timeout = 10000)
+  public void dropNewest_keepsTheFirstFramesWhileTheUploaderIsStuck() throws Exception {
+    start(2, 1, StageQueue.DropPolicy.DROP_NEWEST);
+    stallUploader();
+    int frames = 30;
+
+    for (int i = 1; i < frames; i++) {
+      pipeline.submit(frame(i));
+    }
+    uploader.gate.countDown();
+    awaitSettled(frames, poolSize(2, 1));
+
+    assertTrue(pipeline.getDroppedCount() > 0);
+    assertEquals(frames, pipeline.getUploadedCount() + pipeline.getDroppedCount());
+    assertEquals(pipeline.getUploadedCount(), uploader.uploaded.size());
+    assertEquals(0, (int) uploader.uploaded.get(0));
+    assertAscending(uploader.uploaded);
+  }
+
+  @Test(timeout = 10000)
+  public void dropOldest_keepsTheLatestFrameWhileTheUploaderIsStuck() throws Exception {
+    start(2, 1, StageQueue.DropPolicy.DROP_OLDEST);
+    stallUploader();
+    int frames = 30;
+
+    for (int i = 1; i < frames; i++) {
+      assertTrue(pipeline.submit(frame(i)));
+    }
+    uploader.gate.countDown();
+    awaitSettled(frames, poolSize(2, 1));
+
+    assertTrue(pipeline.getDroppedCount() > 0);
+    assertEquals(frames, pipeline.getUploadedCount() + pipeline.getDroppedCount());
+    assertEquals(pipeline.getUploadedCount(), uploader.uploaded.size());
+    assertEquals(frames - 1, (int) uploader.uploaded.get(uploader.uploaded.size() - 1));
+    assertAscending(uploader.uploaded);
+  }
+
+  @Test(timeout = 10000)
+  public void encodeFailure_recyclesTheFrame() throws Exception {
+    start(1, 1, StageQueue.DropPolicy.BLOCK);
+    // Many more frames than the pool holds, so a frame lost on failure would block submit.
+    int frames = 10 * poolSize(1, 1);
+    for (int i = 1; i < frames; i += 2) {
+      encoder.failing.add(i);
+    }
+
+    for (int i = 0; i < frames; i++) {
+      assertTrue(pipeline.submit(frame(i)));
+    }
+    awaitSettled(frames / 2, poolSize(1, 1));
+
+    assertEquals(frames / 2, pipeline.getUploadedCount());
+    assertEquals(0, pipeline.getDroppedCount());
+    for (int index : uploader.uploaded) {
+      assertEquals(0, index % 2);
+    }
+  }
+
+  @Test(timeout = 10000)
+  public void shutdown_returnsFramesHeldByEveryStage() throws Exception {
+    start(1, 1, StageQueue.DropPolicy.BLOCK);
+    stallUploader();
+    // The uploader holds frame 0; fill the upload queue, the encoder and the encode queue.
+    for (int i = 1; i < poolSize(1, 1); i++) {
+      assertTrue(pipeline.submit(frame(i)));
+    }
+    assertEquals(0, pipeline.getFreeFrameCount());
+
+    pipeline.shutdown();
+
+    assertEquals(poolSize(1, 1), pipeline.getFreeFrameCount());
+    assertEquals(0, pipeline.getUploadedCount());
+    assertTrue(uploader.uploaded.isEmpty());
+  }
+
+  @Test(timeout = 10000)
+  public void shutdown_canBeRestarted() throws Exception {
+    start(1, 2, StageQueue.DropPolicy.DROP_NEWEST);
+    stallUploader();
+    pipeline.shutdown();
+    uploader.gate.countDown();
+
+    pipeline.start();
+    assertTrue(pipeline.submit(frame(7)));
+    // Frame 0 was interrupted, so it is neither uploaded nor dropped.
+    awaitSettled(1, poolSize(1, 2));
+
+    assertEquals(Arrays.asList(7), uploader.uploaded);
+  }
+
+  @Test(timeout = 10000)
+  public void downscaledFrames_carryIntrinsicsOfTheUploadedImage() throws Exception {
+    AdaptiveJpegEncoder jpegEncoder = new AdaptiveJpegEncoder(encoder, new FrameBufferPool(1));
+    jpegEncoder.setFixed(AdaptiveJpegEncoder.MAX_QUALITY, 2);
+    start(jpegEncoder, 1, 1, StageQueue.DropPolicy.BLOCK);
+    float[] intrinsics = {6, 6, 3.5f, 3.5f, WIDTH, HEIGHT};
+
+    pipeline.submit(
+        frame(3).andThen(
+            captured -> {
+              System.arraycopy(intrinsics, 0, captured.packet.intrinsics, 0, intrinsics.length);
+              captured.packet.hasIntrinsics = true;
+            }));
+    awaitSettled(1, poolSize(1, 1));
+
+    // Half the focal length and size; the image center stays the image center.
+    float[] expected = {3, 3, 1.5f, 1.5f, WIDTH / 2, HEIGHT / 2};
+    assertArrayEquals(expected, uploader.lastIntrinsics, 0);
+    assertArrayEquals(expected, pipeline.copyLatestJpeg().intrinsics, 0);
+  }
+}
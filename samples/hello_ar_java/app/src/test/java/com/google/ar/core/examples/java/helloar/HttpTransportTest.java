@@ -0,0 +1,250 @@
+package com.google.ar.core.examples.java.helloar;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/** Runs {@link HttpTransport} against a local server that answers when the test lets it. */
+public class HttpTransportTest {
+
+  private static final MediaType TEXT = MediaType.get("text/plain");
+  private static final long TIMEOUT_SECONDS = 5;
+
+  /** Holds every request until {@link #release} is called, then answers with {@code status}. */
+  private static final class GatedDispatcher extends Dispatcher {
+    final CountDownLatch gate = new CountDownLatch(1);
+    volatile int status = 200;
+
+    void release() {
+      gate.countDown();
+    }
+
+    @Override
+    public MockResponse dispatch(RecordedRequest request) throws InterruptedException {
+      gate.await(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+      return new MockResponse().setResponseCode(status);
+    }
+  }
+
+  /** Counts callbacks and {@code onDone} runs. */
+  private static final class Outcomes implements Callback {
+    final AtomicInteger responses = new AtomicInteger();
+    final AtomicInteger failures = new AtomicInteger();
+    final AtomicInteger done = new AtomicInteger();
+    final CountDownLatch allDone;
+
+    Outcomes(int expected) {
+      allDone = new CountDownLatch(expected);
+    }
+
+    Runnable onDone() {
+      return () -> {
+        done.incrementAndGet();
+        allDone.countDown();
+      };
+    }
+
+    void await() throws InterruptedException {
+      assertTrue(allDone.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+    }
+
+    @Override
+    public void onFailure(Call call, IOException e) {
+      failures.incrementAndGet();
+    }
+
+    @Override
+    public void onResponse(Call call, Response response) {
+      response.close();
+      responses.incrementAndGet();
+    }
+  }
+
+  private MockWebServer server;
+  private GatedDispatcher dispatcher;
+  private OkHttpClient client;
+
+  @Before
+  public void setUp() throws IOException {
+    dispatcher = new GatedDispatcher();
+    server = new MockWebServer();
+    server.setDispatcher(dispatcher);
+    server.start();
+    client = new OkHttpClient();
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    dispatcher.release();
+    server.shutdown();
+    client.dispatcher().executorService().shutdown();
+  }
+
+  private HttpTransport transport(int maxInFlight, long supersedeTimeoutMs) {
+    return new HttpTransport(client, server.url("/"), maxInFlight, supersedeTimeoutMs);
+  }
+
+  private static RequestBody body(String text) {
+    return RequestBody.create(text, TEXT);
+  }
+
+  @Test
+  public void post_coalescedBeyondWindow_keepsOnlyNewestWaiting() throws Exception {
+    HttpTransport transport = transport(1, 0);
+    Outcomes outcomes = new Outcomes(3);
+
+    transport.post("/frame", body("1"), outcomes, outcomes.onDone(), true);
+    transport.post("/frame", body("2"), outcomes, outcomes.onDone(), true);
+    transport.post("/frame", body("3"), outcomes, outcomes.onDone(), true);
+
+    // Frame 2 is replaced by frame 3 before it is ever sent.
+    assertEquals(1, transport.getInFlightCount());
+    assertEquals(1, outcomes.done.get());
+    dispatcher.release();
+    outcomes.await();
+
+    assertEquals("1", server.takeRequest().getBody().readUtf8());
+    assertEquals("3", server.takeRequest().getBody().readUtf8());
+    assertEquals(2, server.getRequestCount());
+    assertEquals(2, outcomes.responses.get());
+    assertEquals(0, outcomes.failures.get());
+
+    HttpTransport.EndpointStats stats = transport.getStats("/frame");
+    assertEquals(2, stats.getSent());
+    assertEquals(2, stats.getSucceeded());
+    assertEquals(1, stats.getCoalesced());
+    assertEquals(0, stats.getCancelled());
+  }
+
+  @Test
+  public void post_waitingRequestsForDifferentPaths_areKeptSeparately() throws Exception {
+    HttpTransport transport = transport(1, 0);
+    Outcomes outcomes = new Outcomes(3);
+
+    transport.post("/frame", body("frame"), outcomes, outcomes.onDone(), true);
+    transport.post("/pose", body("pose"), outcomes, outcomes.onDone(), true);
+    transport.post("/map", body("map"), outcomes, outcomes.onDone(), true);
+    dispatcher.release();
+    outcomes.await();
+
+    // Waiting requests start oldest first as the single slot frees up.
+    assertEquals("/frame", server.takeRequest().getPath());
+    assertEquals("/pose", server.takeRequest().getPath());
+    assertEquals("/map", server.takeRequest().getPath());
+    assertEquals(0, transport.getStats("/pose").getCoalesced());
+    assertEquals(0, transport.getStats("/map").getCoalesced());
+  }
+
+  @Test
+  public void post_commands_areNotLimitedByWindow() throws Exception {
+    HttpTransport transport = transport(1, 0);
+    Outcomes outcomes = new Outcomes(3);
+
+    transport.post("/frame", body("frame"), outcomes, outcomes.onDone(), true);
+    transport.post("/command", body("a"), outcomes, outcomes.onDone(), false);
+    transport.post("/command", body("b"), outcomes, outcomes.onDone(), false);
+
+    assertEquals(3, transport.getInFlightCount());
+    dispatcher.release();
+    outcomes.await();
+    assertEquals(3, outcomes.responses.get());
+    assertEquals(2, transport.getStats("/command").getSucceeded());
+    assertEquals(0, transport.getStats("/command").getCoalesced());
+  }
+
+  @Test
+  public void post_newerRequestAfterSupersedeTimeout_cancelsStuckCall() throws Exception {
+    HttpTransport transport = transport(1, 50);
+    Outcomes outcomes = new Outcomes(2);
+
+    transport.post("/frame", body("stuck"), outcomes, outcomes.onDone(), true);
+    assertEquals("stuck", server.takeRequest().getBody().readUtf8());
+    Thread.sleep(100);
+    transport.post("/frame", body("fresh"), outcomes, outcomes.onDone(), true);
+
+    // The cancelled call frees the slot, so the fresh frame goes out while the server is stuck.
+    RecordedRequest fresh = server.takeRequest(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+    assertEquals("fresh", fresh.getBody().readUtf8());
+    dispatcher.release();
+    outcomes.await();
+
+    assertEquals(1, outcomes.failures.get());
+    assertEquals(1, outcomes.responses.get());
+    assertEquals(2, outcomes.done.get());
+    HttpTransport.EndpointStats stats = transport.getStats("/frame");
+    assertEquals(2, stats.getSent());
+    assertEquals(1, stats.getCancelled());
+    assertEquals(1, stats.getSucceeded());
+    // Cancelled calls are not failures of the server.
+    assertEquals(0, stats.getFailed());
+  }
+
+  @Test
+  public void post_withinSupersedeTimeout_doesNotCancel() throws Exception {
+    HttpTransport transport = transport(1, TimeUnit.SECONDS.toMillis(TIMEOUT_SECONDS));
+    Outcomes outcomes = new Outcomes(2);
+
+    transport.post("/frame", body("1"), outcomes, outcomes.onDone(), true);
+    transport.post("/frame", body("2"), outcomes, outcomes.onDone(), true);
+    dispatcher.release();
+    outcomes.await();
+
+    assertEquals(2, outcomes.responses.get());
+    assertEquals(0, transport.getStats("/frame").getCancelled());
+  }
+
+  @Test
+  public void cancelAll_dropsWaitingAndCancelsInFlight() throws Exception {
+    HttpTransport transport = transport(1, 0);
+    Outcomes outcomes = new Outcomes(2);
+
+    transport.post("/frame", body("1"), outcomes, outcomes.onDone(), true);
+    transport.post("/frame", body("2"), outcomes, outcomes.onDone(), true);
+    server.takeRequest();
+    transport.cancelAll();
+    outcomes.await();
+
+    // Every request still gets exactly one onDone, and the waiting one is never sent.
+    assertEquals(2, outcomes.done.get());
+    assertEquals(1, outcomes.failures.get());
+    assertEquals(0, transport.getInFlightCount());
+    dispatcher.release();
+    assertEquals(1, server.getRequestCount());
+  }
+
+  @Test
+  public void getStats_countsServerErrorsAsFailures() throws Exception {
+    dispatcher.status = 500;
+    HttpTransport transport = transport(2, 0);
+    Outcomes outcomes = new Outcomes(2);
+
+    transport.post("/frame", body("1"), outcomes, outcomes.onDone(), true);
+    transport.post("/frame", body("2"), outcomes, outcomes.onDone(), true);
+    dispatcher.release();
+    outcomes.await();
+
+    HttpTransport.EndpointStats stats = transport.getStats("/frame");
+    assertEquals(2, stats.getSent());
+    assertEquals(0, stats.getSucceeded());
+    assertEquals(2, stats.getFailed());
+    assertTrue(stats.getMaxLatencyMs() >= stats.getRecentLatencyPercentileMs(50));
+    assertTrue(stats.getMeanLatencyMs() <= stats.getMaxLatencyMs());
+  }
+}
@@ -0,0 +1,73 @@
+package com.google.ar.core.examples.java.helloar;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import org.junit.Test;
+
+/** Times the pure-Java encoder at the qualities and scales the adaptive encoder picks from. */
+public class JpegEncoderBenchmark {
+
+  private static final int WIDTH = 640;
+  private static final int HEIGHT = 480;
+  private static final int WARMUPS = 5;
+  private static final int RUNS = 20;
+
+  @Test
+  public void referenceEncoder() {
+    byte[] nv21 = ReferenceJpegEncoderTest.syntheticNv21(WIDTH, HEIGHT, 110, 150);
+    ReferenceJpegEncoder encoder = new ReferenceJpegEncoder();
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    for (int quality : new int[] {AdaptiveJpegEncoder.MIN_QUALITY, 70, 100}) {
+      double millis =
+          Benchmarks.millisPerRun(
+              WARMUPS,
+              RUNS,
+              () -> {
+                out.reset();
+                try {
+                  encoder.encode(nv21, WIDTH, HEIGHT, quality, out);
+                } catch (IOException e) {
+                  throw new UncheckedIOException(e);
+                }
+              });
+      Benchmarks.report("Reference JPEG q" + quality + ", " + out.size() + " bytes", millis);
+    }
+  }
+
+  @Test
+  public void adaptiveEncoder_downscaled() {
+    byte[] nv21 = ReferenceJpegEncoderTest.syntheticNv21(WIDTH, HEIGHT, 110, 150);
+    AdaptiveJpegEncoder encoder =
+        new AdaptiveJpegEncoder(new ReferenceJpegEncoder(), new FrameBufferPool(1));
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    for (int downscale : new int[] {1, 2, 4}) {
+      encoder.setFixed(AdaptiveJpegEncoder.MAX_QUALITY, downscale);
+      double millis =
+          Benchmarks.millisPerRun(
+              WARMUPS,
+              RUNS,
+              () -> {
+                out.reset();
+                try {
+                  encoder.encode(nv21, WIDTH, HEIGHT, out);
+                } catch (IOException e) {
+                  throw new UncheckedIOException(e);
+                }
+              });
+      Benchmarks.report("Adaptive JPEG 1/" + downscale + ", " + out.size() + " bytes", millis);
+    }
+  }
+
+  @Test
+  public void downscaleNV21() {
+    byte[] nv21 = ReferenceJpegEncoderTest.syntheticNv21(WIDTH, HEIGHT, 110, 150);
+    byte[] scaled = new byte[YuvConverter.Format.NV21.bufferSize(WIDTH / 2, HEIGHT / 2)];
+    Benchmarks.report(
+        "NV21 box downscale by 2",
+        Benchmarks.millisPerRun(
+            WARMUPS * 10,
+            RUNS * 10,
+            () -> AdaptiveJpegEncoder.downscaleNV21(nv21, WIDTH, HEIGHT, 2, scaled)));
+  }
+}
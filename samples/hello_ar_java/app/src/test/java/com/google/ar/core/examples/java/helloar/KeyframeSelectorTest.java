@@ -0,0 +1,110 @@
+package com.google.ar.core.examples.java.helloar;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.IntBuffer;
+import org.junit.Test;
+
+/** Feeds {@link KeyframeSelector} synthetic poses and point IDs. */
+public class KeyframeSelectorTest {
+
+  private final KeyframeSelector.Config config = new KeyframeSelector.Config();
+  private final KeyframeSelector selector = new KeyframeSelector(config);
+
+  /** A pose at {@code x} meters along the x axis, turned {@code degrees} around the y axis. */
+  private static float[] pose(float x, float degrees) {
+    double half = Math.toRadians(degrees) / 2;
+    return new float[] {x, 0, 0, 0, (float) Math.sin(half), 0, (float) Math.cos(half)};
+  }
+
+  /** IDs {@code from} (inclusive) to {@code to} (exclusive). */
+  private static IntBuffer ids(int from, int to) {
+    IntBuffer ids = IntBuffer.allocate(to - from);
+    for (int id = from; id < to; id++) {
+      ids.put(id);
+    }
+    ids.flip();
+    return ids;
+  }
+
+  private boolean select(long timeMs, float[] pose, IntBuffer ids) {
+    return selector.select(timeMs, true, pose, ids, 1);
+  }
+
+  @Test
+  public void firstSharpTrackingFrame_isSelected() {
+    assertFalse(selector.select(0, false, pose(0, 0), ids(0, 10), 1));
+    assertTrue(select(100, pose(0, 0), ids(0, 10)));
+    assertEquals(2, selector.getConsideredCount());
+    assertEquals(1, selector.getSelectedCount());
+  }
+
+  @Test
+  public void stillCamera_isNotSelectedAgain() {
+    assertTrue(select(0, pose(0, 0), ids(0, 100)));
+    for (long time = 200; time < 5000; time += 200) {
+      assertFalse(select(time, pose(0, 0), ids(0, 100)));
+    }
+  }
+
+  @Test
+  public void translationOrRotation_selects() {
+    assertTrue(select(0, pose(0, 0), null));
+    assertFalse(select(200, pose(config.minTranslationMeters / 2, 0), null));
+    assertTrue(select(400, pose(config.minTranslationMeters * 1.5f, 0), null));
+    assertTrue(select(600, pose(config.minTranslationMeters * 1.5f, 15), null));
+  }
+
+  @Test
+  public void newCoverage_isScoredAgainstCurrentIds() {
+    assertTrue(select(0, pose(0, 0), ids(0, 100)));
+    // 20% unseen points is not enough, 40% is.
+    assertFalse(select(200, pose(0, 0), ids(20, 120)));
+    assertTrue(select(400, pose(0, 0), ids(40, 140)));
+    assertEquals(0.4f / config.minNewCoverage, selector.getLastScore(), 1e-5f);
+  }
+
+  @Test
+  public void keyframeIds_areCopied() {
+    IntBuffer reused = ids(0, 100);
+    assertTrue(select(0, pose(0, 0), reused));
+    // The caller refills its buffer for the next frame; the keyframe must still know 0 to 99.
+    reused.clear();
+    reused.put(ids(500, 600)).flip();
+
+    assertFalse(select(200, pose(0, 0), ids(0, 100)));
+    assertEquals(0, reused.position());
+  }
+
+  @Test
+  public void minInterval_capsRate() {
+    assertTrue(select(0, pose(0, 0), null));
+    assertFalse(select(config.minIntervalMs - 1, pose(1, 0), null));
+    assertTrue(select(config.minIntervalMs, pose(1, 0), null));
+  }
+
+  @Test
+  public void blurryFrames_areSkipped() {
+    assertFalse(selector.select(0, true, pose(0, 0), null, config.minSharpness / 2));
+    assertTrue(selector.select(200, true, pose(0, 0), null, config.minSharpness));
+  }
+
+  @Test
+  public void withoutSharpness_fastRotationIsSkipped() {
+    assertTrue(selector.select(0, true, pose(0, 0), null, Float.NaN));
+    // 30 degrees in 100 ms is 300 degrees per second.
+    assertFalse(selector.select(200, true, pose(0, 0), null, Float.NaN));
+    assertFalse(selector.select(300, true, pose(0, 30), null, Float.NaN));
+    assertTrue(selector.select(1300, true, pose(0, 30), null, Float.NaN));
+  }
+
+  @Test
+  public void maxInterval_selectsEvenWithoutChange() {
+    config.maxIntervalMs = 1000;
+    assertTrue(select(0, pose(0, 0), null));
+    assertFalse(select(500, pose(0, 0), null));
+    assertTrue(select(1000, pose(0, 0), null));
+  }
+}
@@ -0,0 +1,227 @@
+package com.google.ar.core.examples.java.helloar;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.google.gson.Gson;
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import org.junit.Test;
+
+/** Checks {@link ModelDecoder} against {@link Float#parseFloat} and the old Gson decoding. */
+public class ModelDecoderTest {
+
+  private static final Gson GSON = new Gson();
+
+  /** What the app did before: Gson, then the first three values of every non-empty string. */
+  private static float[] oldDecode(String json) {
+    ServerPoints parsed = GSON.fromJson(json, ServerPoints.class);
+    List<Float> values = new ArrayList<>();
+    for (String point : parsed.getPoints()) {
+      if (!point.isEmpty()) {
+        String[] split = point.split(" ");
+        values.add(Float.parseFloat(split[0]));
+        values.add(Float.parseFloat(split[1]));
+        values.add(Float.parseFloat(split[2]));
+        values.add(1f);
+      }
+    }
+    float[] result = new float[values.size()];
+    for (int i = 0; i < result.length; i++) {
+      result[i] = values.get(i);
+    }
+    return result;
+  }
+
+  private static float[] toArray(FloatBuffer buffer) {
+    float[] values = new float[buffer.remaining()];
+    buffer.duplicate().get(values);
+    return values;
+  }
+
+  /** Equal to within one rounding step of each expected value. */
+  private static void assertClose(float[] expected, FloatBuffer actual) {
+    float[] values = toArray(actual);
+    assertEquals("point values", expected.length, values.length);
+    for (int i = 0; i < expected.length; i++) {
+      assertEquals("value " + i, expected[i], values[i], Math.ulp(expected[i]));
+    }
+  }
+
+  /** Parses {@code number} as the X of a plain text point. */
+  private static float parseOne(String number) {
+    FloatBuffer points = ModelDecoder.parseText(number + " 0 0\n");
+    assertEquals(number, 4, points.remaining());
+    return points.get(0);
+  }
+
+  @Test
+  public void parseText_matchesParseFloat() {
+    String[] numbers = {
+      "0", "-0", "7", "+1.5", "-2.25", ".5", "-.75", "+.125", "5.", "1e3", "1E-3", "-1.5e+2",
+      "2.5E-07", "1.0E-5", "3.4028235E38", "1.17549435E-38", "0.1", "0.3", "1234.5678",
+      // More digits than a long holds, before and after the point.
+      "123456789012345678901234", "1.23456789012345678901234", "-98765432109876543210.5",
+      "0.000000000000000000001234", "12345678901234567890e-10", "0.1234567890123456789e5",
+    };
+    for (String number : numbers) {
+      float expected = Float.parseFloat(number);
+      assertEquals(number, expected, parseOne(number), Math.ulp(expected));
+    }
+    assertEquals(Float.floatToIntBits(-0f), Float.floatToIntBits(parseOne("-0")));
+  }
+
+  @Test
+  public void parseText_matchesParseFloatForRandomValues() {
+    Random random = new Random(1);
+    for (int i = 0; i < 20000; i++) {
+      float value = (float) ((random.nextDouble() - 0.5) * Math.pow(10, random.nextInt(13) - 6));
+      String[] forms = {
+        Float.toString(value),
+        Double.toString(value),
+        String.format(Locale.ROOT, "%.6f", value),
+        String.format(Locale.ROOT, "%e", value),
+      };
+      for (String number : forms) {
+        float expected = Float.parseFloat(number);
+        assertEquals(number, expected, parseOne(number), Math.ulp(expected));
+      }
+    }
+  }
+
+  @Test
+  public void parseText_matchesOldGsonDecoding() {
+    Random random = new Random(2);
+    List<String> strings = new ArrayList<>();
+    for (int i = 0; i < 2000; i++) {
+      if (i % 100 == 0) {
+        strings.add("");
+      }
+      float x = (random.nextFloat() - 0.5f) * 20;
+      float y = (random.nextFloat() - 0.5f) * 1e-3f;
+      float z = (random.nextFloat() - 0.5f) * 1e4f;
+      // Some servers send X Y Z W, the old code read the first three.
+      strings.add(i % 3 == 0 ? x + " " + y + " " + z + " 1.0" : x + " " + y + " " + z);
+    }
+    Map<String, Object> message = new HashMap<>();
+    message.put("points", strings);
+    String json = GSON.toJson(message);
+
+    float[] expected = oldDecode(json);
+    assertEquals(2000 * 4, expected.length);
+    assertClose(expected, ModelDecoder.parseText(json));
+  }
+
+  @Test
+  public void parseText_skipsOtherJsonKeysAndValues() throws IOException {
+    String json =
+        "{\n"
+            + "  \"type\": \"model\", \"sequence\": 12, \"origin\": [1, 2, 3],\n"
+            + "  \"meta\": {\"points\": [\"7 8 9\"], \"note\": \"say \\\"4 5 6\\\"\"},\n"
+            + "  \"points\" : [ \"1.5 -2 3e1\", \"\", \"4,5\", \"-.5 .25 +6\" ],\n"
+            + "  \"bounds\": \"0 0 0\"\n"
+            + "}";
+
+    float[] expected = oldDecode(json.replace("\"4,5\", ", ""));
+    assertClose(expected, ModelDecoder.parseText(json));
+    assertClose(expected, ModelDecoder.parseText(new StringReader(json)));
+    assertEquals(8, expected.length);
+  }
+
+  @Test
+  public void parseText_readsPlainLines() {
+    assertClose(
+        new float[] {1, 2, 3, 1, -4, 5e-3f, 6, 1},
+        ModelDecoder.parseText("1 2 3\nnot a point\n-4 5e-3 6 7\r\n8 9"));
+  }
+
+  private static byte[] binaryModel(int count, int floatsPerPoint, float[] values) {
+    ByteBuffer message =
+        ByteBuffer.allocate(12 + values.length * 4).order(ByteOrder.LITTLE_ENDIAN);
+    message.putInt(ModelDecoder.MAGIC).putInt(count).putInt(floatsPerPoint);
+    for (float value : values) {
+      message.putFloat(value);
+    }
+    return message.array();
+  }
+
+  @Test
+  public void readBinary_readsThreeAndFourFloatsPerPoint() throws IOException {
+    float[] xyz = {1, 2, 3, 4, 5, 6};
+    byte[] three = binaryModel(2, 3, xyz);
+    assertClose(
+        new float[] {1, 2, 3, 1, 4, 5, 6, 1},
+        ModelDecoder.readBinary(new ByteArrayInputStream(three), three.length));
+
+    float[] xyzw = {1, 2, 3, 0.5f, 4, 5, 6, 0.25f};
+    byte[] four = binaryModel(2, 4, xyzw);
+    FloatBuffer decoded = ModelDecoder.readBinary(new ByteArrayInputStream(four), -1);
+    assertClose(xyzw, decoded);
+    assertTrue(decoded.isDirect());
+  }
+
+  @Test
+  public void readBinary_growsPastTheInitialBuffer() throws IOException {
+    // 100k points is 1.6 MB of output, more than the first allocation.
+    float[] values = new float[100_000 * 4];
+    for (int i = 0; i < values.length; i++) {
+      values[i] = i;
+    }
+    byte[] message = binaryModel(100_000, 4, values);
+
+    assertClose(values, ModelDecoder.readBinary(new ByteArrayInputStream(message), -1));
+  }
+
+  @Test
+  public void readBinary_rejectsCountsTheMessageCannotHold() throws IOException {
+    // About 2 GB of points announced in a 36 byte message.
+    byte[] message = binaryModel(Integer.MAX_VALUE / 16, 4, new float[] {1, 2, 3, 4, 5, 6});
+
+    try {
+      ModelDecoder.readBinary(new ByteArrayInputStream(message), message.length);
+      fail("Accepted a count larger than the message");
+    } catch (EOFException expected) {
+      // Rejected before allocating.
+    }
+    // Without a length it fails once the data runs out, having allocated only what arrived.
+    InputStream in = new ByteArrayInputStream(message);
+    try {
+      ModelDecoder.readBinary(in, -1);
+      fail("Accepted a truncated message");
+    } catch (EOFException expected) {
+      assertEquals(0, in.available());
+    }
+  }
+
+  @Test
+  public void readBinary_rejectsBadHeaders() {
+    byte[][] messages = {
+      Arrays.copyOf(binaryModel(0, 4, new float[0]), 8),
+      binaryModel(-1, 4, new float[0]),
+      binaryModel(1, 5, new float[5]),
+    };
+    messages[1][0] = 'X';
+    for (byte[] message : messages) {
+      try {
+        ModelDecoder.readBinary(new ByteArrayInputStream(message), message.length);
+        fail("Accepted a bad header");
+      } catch (IOException expected) {
+        // Rejected.
+      }
+    }
+  }
+}
@@ -0,0 +1,179 @@
+package com.google.ar.core.examples.java.helloar;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import okhttp3.RequestBody;
+import okio.Buffer;
+import org.junit.Test;
+
+/** Checks {@link PointCloudEncoder} against the String concatenation it replaced. */
+public class PointCloudEncoderTest {
+
+  // More than one 16 KB chunk of text and of binary.
+  private static final int MANY_POINTS = 5000;
+
+  /** The old {@code pointCloud} field: X, Y, Z and confidence per line. */
+  private static String oldPointCloudString(FloatBuffer points) {
+    StringBuilder text = new StringBuilder();
+    for (int i = points.position(); i + 3 < points.limit(); i += 4) {
+      text.append(
+          points.get(i) + " " + points.get(i + 1) + " " + points.get(i + 2) + " "
+              + points.get(i + 3) + "\n");
+    }
+    return text.toString();
+  }
+
+  /** The old view matrix string: each point as (X,Y,Z,1) times {@code m}, all four values. */
+  private static String oldPointCloudByViewMatrixString(float[] m, FloatBuffer points) {
+    StringBuilder text = new StringBuilder();
+    float[] res = new float[4];
+    for (int i = points.position(); i + 3 < points.limit(); i += 4) {
+      float[] v = {points.get(i), points.get(i + 1), points.get(i + 2), 1};
+      // What Matrix.multiplyMV computes.
+      for (int row = 0; row < 4; row++) {
+        res[row] = m[row] * v[0] + m[4 + row] * v[1] + m[8 + row] * v[2] + m[12 + row] * v[3];
+      }
+      text.append(res[0] + " " + res[1] + " " + res[2] + " " + res[3] + "\n");
+    }
+    return text.toString();
+  }
+
+  /** The old point file: X, Y and Z per line. */
+  private static String oldPointFile(FloatBuffer points) {
+    StringBuilder text = new StringBuilder();
+    for (int i = points.position(); i + 3 < points.limit(); i += 4) {
+      text.append(points.get(i) + " " + points.get(i + 1) + " " + points.get(i + 2) + "\n");
+    }
+    return text.toString();
+  }
+
+  private static FloatBuffer points(float... values) {
+    return FloatBuffer.wrap(values);
+  }
+
+  @Test
+  public void appendText_matchesOldPointCloudString() {
+    FloatBuffer points = points(1, -2.5f, 3e-7f, 0.25f, 1e9f, 0, -0f, 1);
+    StringBuilder out = new StringBuilder();
+
+    new PointCloudEncoder().appendText(points, 4, null, out);
+
+    assertEquals(oldPointCloudString(points), out.toString());
+    assertEquals("1.0 -2.5 3.0E-7 0.25\n1.0E9 0.0 -0.0 1.0\n", out.toString());
+  }
+
+  @Test
+  public void appendText_transformMatchesOldViewMatrixString() {
+    FloatBuffer points = PointProjectorTest.randomPoints(200, 3);
+    StringBuilder out = new StringBuilder();
+
+    new PointCloudEncoder().appendText(points, 4, PointProjectorTest.PERSPECTIVE, out);
+
+    assertEquals(
+        oldPointCloudByViewMatrixString(PointProjectorTest.PERSPECTIVE, points), out.toString());
+  }
+
+  @Test
+  public void appendText_leavesPositionAndSkipsPartialPoint() {
+    FloatBuffer points = points(9, 9, 9, 9, 1, 2, 3, 4, 5, 6);
+    points.position(4);
+    StringBuilder out = new StringBuilder("head\n");
+
+    new PointCloudEncoder().appendText(points, 3, null, out);
+
+    assertEquals("head\n1.0 2.0 3.0\n", out.toString());
+    assertEquals(4, points.position());
+  }
+
+  @Test
+  public void writeText_threeValuesMatchesOldPointFileAcrossChunks() throws Exception {
+    FloatBuffer points = PointProjectorTest.randomPoints(MANY_POINTS, 5);
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+    long written;
+    try (WritableByteChannel channel = Channels.newChannel(bytes)) {
+      written = new PointCloudEncoder().writeText(points, 3, null, channel);
+    }
+
+    String expected = oldPointFile(points);
+    assertEquals(expected, new String(bytes.toByteArray(), StandardCharsets.UTF_8));
+    assertEquals(expected.length(), written);
+  }
+
+  @Test
+  public void writeText_transformMatchesAppendText() throws Exception {
+    FloatBuffer points = PointProjectorTest.randomPoints(MANY_POINTS, 7);
+    PointCloudEncoder encoder = new PointCloudEncoder();
+    StringBuilder expected = new StringBuilder();
+    encoder.appendText(points, 4, PointProjectorTest.PERSPECTIVE, expected);
+    Buffer sink = new Buffer();
+
+    encoder.writeText(points, 4, PointProjectorTest.PERSPECTIVE, sink);
+
+    assertEquals(expected.toString(), sink.readUtf8());
+  }
+
+  @Test
+  public void writeJsonText_escapesLineEnds() throws Exception {
+    FloatBuffer points = PointProjectorTest.randomPoints(MANY_POINTS, 11);
+    Buffer sink = new Buffer();
+
+    long written = new PointCloudEncoder().writeJsonText(points, 4, null, sink);
+
+    String expected = oldPointCloudString(points).replace("\n", "\\n");
+    assertEquals(expected.length(), written);
+    assertEquals(expected, sink.readUtf8());
+  }
+
+  @Test
+  public void writeBinary_writesLittleEndianFloatsAcrossChunks() throws Exception {
+    FloatBuffer points = PointProjectorTest.randomPoints(MANY_POINTS, 13);
+    Buffer sink = new Buffer();
+
+    new PointCloudEncoder().writeBinary(points, sink);
+
+    assertEquals(PointCloudEncoder.binaryLength(points), sink.size());
+    float[] decoded = new float[points.remaining()];
+    ByteBuffer.wrap(sink.readByteArray())
+        .order(ByteOrder.LITTLE_ENDIAN)
+        .asFloatBuffer()
+        .get(decoded);
+    float[] expected = new float[points.remaining()];
+    points.duplicate().get(expected);
+    assertArrayEquals(expected, decoded, 0);
+  }
+
+  @Test
+  public void asRequestBody_streamsEachFormat() throws Exception {
+    FloatBuffer points = points(1, 2, 3, 0.5f, 4, 5, 6, 1);
+
+    RequestBody text = PointCloudEncoder.asRequestBody(points, PointCloudEncoder.Format.TEXT);
+    RequestBody binary = PointCloudEncoder.asRequestBody(points, PointCloudEncoder.Format.BINARY);
+    // Moving the caller's position afterwards does not change what is sent.
+    points.position(4);
+
+    assertEquals(PointCloudEncoder.TEXT_POINTS, text.contentType());
+    assertEquals(-1, text.contentLength());
+    Buffer textSink = new Buffer();
+    text.writeTo(textSink);
+    assertEquals("1.0 2.0 3.0 0.5\n4.0 5.0 6.0 1.0\n", textSink.readUtf8());
+
+    assertEquals(PointCloudEncoder.BINARY_POINTS, binary.contentType());
+    assertEquals(32, binary.contentLength());
+    // Bodies can be written again, for example when OkHttp retries.
+    for (int attempt = 0; attempt < 2; attempt++) {
+      Buffer binarySink = new Buffer();
+      binary.writeTo(binarySink);
+      assertEquals(32, binarySink.size());
+      assertEquals(Float.floatToIntBits(1), Integer.reverseBytes(binarySink.readInt()));
+    }
+  }
+}
@@ -0,0 +1,129 @@
+package com.google.ar.core.examples.java.helloar;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+import org.junit.Test;
+
+/** Round trips {@link PointMap.Changes} through {@link PointMapCodec}. */
+public class PointMapCodecTest {
+
+  private static PointMap.Changes changes(boolean full) {
+    PointMap.Changes changes = new PointMap.Changes();
+    changes.ensureCapacity(2, 3);
+    changes.baseVersion = full ? 0 : 41;
+    changes.version = 42;
+    changes.full = full;
+    changes.updatedCount = 2;
+    changes.updatedIds[0] = 5;
+    changes.updatedIds[1] = 9;
+    float[] points = {1.5f, -2, 3, 0.75f, -0.001f, 1e6f, 0, 1};
+    System.arraycopy(points, 0, changes.updatedPoints, 0, points.length);
+    changes.removedCount = full ? 0 : 3;
+    changes.removedIds[0] = 1;
+    changes.removedIds[1] = 2;
+    changes.removedIds[2] = Integer.MAX_VALUE;
+    return changes;
+  }
+
+  private static void assertChangesEqual(PointMap.Changes expected, PointMap.Changes actual) {
+    assertEquals(expected.baseVersion, actual.baseVersion);
+    assertEquals(expected.version, actual.version);
+    assertEquals(expected.full, actual.full);
+    assertEquals(expected.updatedCount, actual.updatedCount);
+    assertEquals(expected.removedCount, actual.removedCount);
+    assertArrayEquals(
+        Arrays.copyOf(expected.updatedIds, expected.updatedCount),
+        Arrays.copyOf(actual.updatedIds, actual.updatedCount));
+    int floats = expected.updatedCount * PointMap.FLOATS_PER_POINT;
+    assertArrayEquals(
+        Arrays.copyOf(expected.updatedPoints, floats),
+        Arrays.copyOf(actual.updatedPoints, floats),
+        0);
+    assertArrayEquals(
+        Arrays.copyOf(expected.removedIds, expected.removedCount),
+        Arrays.copyOf(actual.removedIds, actual.removedCount));
+  }
+
+  @Test
+  public void roundTrip_delta() {
+    PointMap.Changes changes = changes(false);
+
+    ByteBuffer message = PointMapCodec.encode(changes, null);
+    assertEquals(PointMapCodec.encodedSize(changes), message.remaining());
+    PointMap.Changes decoded = new PointMap.Changes();
+    PointMapCodec.decode(message, decoded);
+
+    assertChangesEqual(changes, decoded);
+    assertFalse(message.hasRemaining());
+  }
+
+  @Test
+  public void roundTrip_fullSnapshotFlag() {
+    PointMap.Changes changes = changes(true);
+
+    ByteBuffer message = PointMapCodec.encode(changes, null);
+    assertEquals(PointMapCodec.FLAG_FULL, message.order(ByteOrder.LITTLE_ENDIAN).getInt(20));
+    PointMap.Changes decoded = new PointMap.Changes();
+    PointMapCodec.decode(message, decoded);
+
+    assertChangesEqual(changes, decoded);
+    assertTrue(decoded.full);
+  }
+
+  @Test
+  public void roundTrip_exportedFromAMap() {
+    PointMap map = new PointMap(0.1f, 16);
+    map.integrate(FloatBuffer.wrap(new float[] {0.05f, 0, 0, 1, 0.55f, 1, -1, 0.5f}), null, 0);
+    PointMap.Changes changes = new PointMap.Changes();
+    map.exportChanges(0, changes);
+
+    PointMap.Changes decoded = new PointMap.Changes();
+    PointMapCodec.decode(PointMapCodec.encode(changes, null), decoded);
+
+    assertChangesEqual(changes, decoded);
+  }
+
+  @Test
+  public void encode_reusesALargeEnoughBuffer() {
+    PointMap.Changes changes = changes(false);
+    ByteBuffer target = ByteBuffer.allocate(1024);
+
+    assertSame(target, PointMapCodec.encode(changes, target));
+    assertEquals(0, target.position());
+    assertEquals(PointMapCodec.encodedSize(changes), target.limit());
+
+    ByteBuffer small = ByteBuffer.allocate(8);
+    ByteBuffer grown = PointMapCodec.encode(changes, small);
+    assertTrue(grown != small);
+    assertEquals(PointMapCodec.encodedSize(changes), grown.remaining());
+  }
+
+  @Test
+  public void decode_rejectsBadMagicAndTruncatedMessages() {
+    ByteBuffer message = PointMapCodec.encode(changes(false), null);
+    int size = message.remaining();
+    byte[] bytes = Arrays.copyOf(message.array(), size);
+
+    byte[][] bad = {
+      Arrays.copyOf(bytes, size - 1), Arrays.copyOf(bytes, 10), bytes.clone(),
+    };
+    bad[2][0] = 'X';
+    for (byte[] candidate : bad) {
+      try {
+        PointMapCodec.decode(ByteBuffer.wrap(candidate), new PointMap.Changes());
+        fail("Decoded a bad message of " + candidate.length + " bytes");
+      } catch (IllegalArgumentException expected) {
+        // Rejected.
+      }
+    }
+  }
+}
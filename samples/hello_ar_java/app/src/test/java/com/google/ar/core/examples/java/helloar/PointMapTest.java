@@ -0,0 +1,283 @@
+package com.google.ar.core.examples.java.helloar;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+import org.junit.Test;
+
+/**
+ * Checks how {@link PointMap} matches, fuses and evicts points, and the changes it exports. Uses
+ * 10 cm voxels; points sit at voxel centers unless a test moves them.
+ */
+public class PointMapTest {
+
+  private static final float VOXEL = 0.1f;
+  private static final long SECOND = 1_000_000_000L;
+
+  private final PointMap.Changes changes = new PointMap.Changes();
+
+  /** x, y, z, confidence per point. */
+  private static FloatBuffer cloud(float... values) {
+    return FloatBuffer.wrap(values);
+  }
+
+  private static IntBuffer ids(int... ids) {
+    return IntBuffer.wrap(ids);
+  }
+
+  /** Center of voxel {@code index} along one axis. */
+  private static float center(int index) {
+    return (index + 0.5f) * VOXEL;
+  }
+
+  private static float[] points(PointMap map) {
+    FloatBuffer copy = map.copyPoints(null);
+    float[] points = new float[copy.remaining()];
+    copy.get(points);
+    return points;
+  }
+
+  private static boolean containsX(PointMap map, float x) {
+    float[] points = points(map);
+    for (int i = 0; i < points.length; i += PointMap.FLOATS_PER_POINT) {
+      if (Math.abs(points[i] - x) < 1e-4f) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static int[] updatedIds(PointMap.Changes changes) {
+    int[] ids = new int[changes.updatedCount];
+    System.arraycopy(changes.updatedIds, 0, ids, 0, ids.length);
+    Arrays.sort(ids);
+    return ids;
+  }
+
+  @Test
+  public void sameArcoreId_followsThePointAcrossVoxels() {
+    PointMap map = new PointMap(VOXEL, 16);
+    float y = center(0);
+
+    map.integrate(cloud(center(0), y, y, 1), ids(7), 0);
+    // The average moves to 0.15, into voxel 1, still under ID 7.
+    map.integrate(cloud(center(2), y, y, 1), ids(7), 1);
+
+    assertEquals(1, map.size());
+    assertEquals(0.15f, points(map)[0], 1e-5f);
+  }
+
+  @Test
+  public void withoutIds_pointsAreMatchedByVoxel() {
+    PointMap map = new PointMap(VOXEL, 16);
+    float y = center(0);
+
+    map.integrate(cloud(center(0), y, y, 1), null, 0);
+    map.integrate(cloud(0.09f, y, y, 1, center(2), y, y, 1), null, 1);
+
+    // The first two fall in voxel 0 and are fused, the third is a new entry. The fused point moved
+    // by less than a quarter voxel, so it is still published where it was first seen.
+    assertEquals(2, map.size());
+    assertTrue(containsX(map, center(0)));
+    assertTrue(containsX(map, center(2)));
+  }
+
+  @Test
+  public void differentIdsInOneVoxel_areFused() {
+    PointMap map = new PointMap(VOXEL, 16);
+    float y = center(0);
+
+    map.integrate(cloud(0.02f, y, y, 1, 0.08f, y, y, 1), ids(1, 2), 0);
+
+    assertEquals(1, map.size());
+    assertEquals(0.05f, points(map)[0], 1e-5f);
+  }
+
+  @Test
+  public void pointMovingIntoAnOccupiedVoxel_isFusedAndItsIdRemoved() {
+    PointMap map = new PointMap(VOXEL, 16);
+    float y = center(0);
+    map.integrate(cloud(center(0), y, y, 1, center(1), y, y, 1), ids(1, 2), 0);
+    long before = map.getVersion();
+    map.exportChanges(0, changes);
+    int movingId = changes.updatedIds[0];
+    int stayingId = changes.updatedIds[1];
+
+    // ID 1 averages to 0.175, inside the voxel of ID 2.
+    map.integrate(cloud(0.3f, y, y, 1), ids(1), 1);
+
+    assertEquals(1, map.size());
+    float x = points(map)[0];
+    assertTrue("fused x " + x, x > center(1) && x < 0.175f);
+
+    map.exportChanges(before, changes);
+    assertFalse(changes.full);
+    assertEquals(1, changes.removedCount);
+    assertEquals(movingId, changes.removedIds[0]);
+    assertEquals(1, changes.updatedCount);
+    assertEquals(stayingId, changes.updatedIds[0]);
+
+    // ID 1 keeps updating the fused entry.
+    map.integrate(cloud(0.16f, y, y, 1), ids(1), 2);
+    assertEquals(1, map.size());
+  }
+
+  @Test
+  public void staleEntries_seenRarelyOrWithLowConfidence_areEvicted() {
+    PointMap map = new PointMap(VOXEL, 16);
+    float y = center(0);
+    // Voxel 0: seen once. Voxel 1: seen three times. Voxel 2: seen three times, low confidence.
+    map.integrate(cloud(center(0), y, y, 1, center(1), y, y, 1, center(2), y, y, 0.05f), null, 0);
+    for (int i = 1; i <= 2; i++) {
+      map.integrate(cloud(center(1), y, y, 1, center(2), y, y, 0.05f), null, i);
+    }
+    assertEquals(3, map.size());
+
+    // Not stale yet.
+    map.integrate(cloud(), null, 4 * SECOND);
+    assertEquals(3, map.size());
+
+    map.integrate(cloud(), null, 6 * SECOND);
+    assertEquals(1, map.size());
+    assertTrue(containsX(map, center(1)));
+  }
+
+  @Test
+  public void fullMap_evictsTheLowestScoringEntry() {
+    PointMap map = new PointMap(VOXEL, 8);
+    float y = center(0);
+    for (int i = 0; i < 8; i++) {
+      map.integrate(cloud(center(i), y, y, i == 3 ? 0.2f : 1), null, 0);
+    }
+    assertEquals(8, map.size());
+
+    map.integrate(cloud(center(8), y, y, 1), null, 1);
+
+    assertEquals(8, map.size());
+    assertFalse(containsX(map, center(3)));
+    assertTrue(containsX(map, center(8)));
+  }
+
+  @Test
+  public void exportChanges_sendsOnlyWhatChangedSinceTheAcknowledgedVersion() {
+    PointMap map = new PointMap(VOXEL, 8);
+    float y = center(0);
+    map.integrate(cloud(center(0), y, y, 1, center(1), y, y, 1, center(2), y, y, 1), null, 0);
+
+    map.exportChanges(0, changes);
+    assertTrue(changes.full);
+    assertEquals(0, changes.baseVersion);
+    assertEquals(map.getVersion(), changes.version);
+    assertEquals(3, changes.updatedCount);
+    assertEquals(0, changes.removedCount);
+    int[] firstIds = updatedIds(changes);
+    long acknowledged = changes.version;
+    map.acknowledge(acknowledged);
+
+    // Too small a move to publish: the version stays and there is nothing to send.
+    map.integrate(cloud(center(0) + 0.01f, y, y, 1), null, 1);
+    assertEquals(acknowledged, map.getVersion());
+    map.exportChanges(acknowledged, changes);
+    assertEquals(0, changes.updatedCount);
+
+    // A confidence drop of 0.1 and a new point.
+    map.integrate(cloud(center(1), y, y, 0.5f, center(4), y, y, 1), null, 2);
+    map.exportChanges(acknowledged, changes);
+    assertFalse(changes.full);
+    assertEquals(acknowledged, changes.baseVersion);
+    assertEquals(map.getVersion(), changes.version);
+    assertEquals(2, changes.updatedCount);
+    assertEquals(0, changes.removedCount);
+    int[] ids = updatedIds(changes);
+    assertEquals(firstIds[1], ids[0]);
+    assertTrue(ids[1] > firstIds[2]);
+    acknowledged = changes.version;
+    map.acknowledge(acknowledged);
+
+    // Points seen once go stale and are removed.
+    map.integrate(cloud(), null, 10 * SECOND);
+    assertEquals(0, map.size());
+    map.exportChanges(acknowledged, changes);
+    assertEquals(0, changes.updatedCount);
+    assertEquals(4, changes.removedCount);
+
+    map.acknowledge(changes.version);
+    map.exportChanges(changes.version, changes);
+    assertFalse(changes.full);
+    assertEquals(0, changes.removedCount);
+  }
+
+  @Test
+  public void exportChanges_olderThanTheAcknowledgedVersion_isAFullSnapshot() {
+    PointMap map = new PointMap(VOXEL, 8);
+    float y = center(0);
+    map.integrate(cloud(center(0), y, y, 1), null, 0);
+    long first = map.getVersion();
+    map.integrate(cloud(center(1), y, y, 1), null, 1);
+    map.acknowledge(map.getVersion());
+
+    // Removals before the acknowledged version are forgotten, so a delta would miss them.
+    map.exportChanges(first, changes);
+
+    assertTrue(changes.full);
+    assertEquals(0, changes.baseVersion);
+    assertEquals(2, changes.updatedCount);
+    assertEquals(0, changes.removedCount);
+  }
+
+  @Test
+  public void exportChanges_afterTheRemovalLogOverflows_isAFullSnapshot() {
+    PointMap map = new PointMap(VOXEL, 8);
+    float y = center(0);
+    float[] values = new float[1000 * PointMap.FLOATS_PER_POINT];
+    long first = 0;
+    long last = 0;
+    // Every new point evicts one from the full map; nobody acknowledges.
+    for (int frame = 0; frame < 70; frame++) {
+      for (int i = 0; i < 1000; i++) {
+        int offset = i * PointMap.FLOATS_PER_POINT;
+        values[offset] = center(frame * 1000 + i);
+        values[offset + 1] = y;
+        values[offset + 2] = y;
+        values[offset + 3] = 1;
+      }
+      last = map.getVersion();
+      map.integrate(cloud(values), null, frame);
+      if (frame == 0) {
+        first = map.getVersion();
+      }
+    }
+
+    map.exportChanges(first, changes);
+    assertTrue(changes.full);
+    assertEquals(8, changes.updatedCount);
+    assertEquals(0, changes.removedCount);
+
+    // Recent versions still get a delta, with the last frame's evictions.
+    map.exportChanges(last, changes);
+    assertFalse(changes.full);
+    assertTrue(changes.updatedCount > 0);
+    assertEquals(1000, changes.removedCount);
+  }
+
+  @Test
+  public void exportChanges_reusesItsArrays() {
+    PointMap map = new PointMap(VOXEL, 8);
+    float y = center(0);
+    map.integrate(cloud(center(0), y, y, 1, center(1), y, y, 1), null, 0);
+    map.exportChanges(0, changes);
+    int[] ids = changes.updatedIds;
+    float[] points = changes.updatedPoints;
+
+    map.integrate(cloud(center(2), y, y, 1), null, 1);
+    map.exportChanges(0, changes);
+
+    assertEquals(3, changes.updatedCount);
+    assertTrue(ids.length < 3 || ids == changes.updatedIds);
+    assertTrue(points.length < 12 || points == changes.updatedPoints);
+  }
+}
@@ -0,0 +1,86 @@
+package com.google.ar.core.examples.java.helloar;
+
+import static org.junit.Assert.assertEquals;
+
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import org.junit.Test;
+
+/** Compares {@link PointProjector} with the per-point projection it replaced. */
+public class PointProjectorBenchmark {
+
+  private static final int WARMUPS = 50;
+  private static final int RUNS = 30;
+
+  /**
+   * The projection HelloArActivity used to do: a full matrix-vector product per point, and a new
+   * {image x, image y, world x, y, z} array per point in an ArrayList.
+   */
+  private static ArrayList<double[]> perPoint(FloatBuffer points, float[] worldToScreen) {
+    points = points.duplicate();
+    float[] point3D = new float[4];
+    float[] ndcPoint = new float[4];
+    ArrayList<double[]> correspondences = new ArrayList<>();
+    while (points.hasRemaining()) {
+      double[] screenPoint = new double[] {0, 0};
+      double[] correspondence = new double[] {0, 0, 0, 0, 0};
+      point3D[0] = points.get();
+      point3D[1] = points.get();
+      point3D[2] = points.get();
+      point3D[3] = 1;
+      points.get();
+      multiplyMV(ndcPoint, worldToScreen, point3D);
+      ndcPoint[0] = ndcPoint[0] / ndcPoint[3];
+      ndcPoint[1] = ndcPoint[1] / ndcPoint[3];
+      screenPoint[0] = PointProjectorTest.VIEWPORT_WIDTH * ((ndcPoint[0] + 1.0) / 2.0);
+      screenPoint[1] = PointProjectorTest.VIEWPORT_HEIGHT * ((1.0 - ndcPoint[1]) / 2.0);
+      correspondence[0] = screenPoint[0];
+      correspondence[1] = screenPoint[1];
+      correspondence[2] = point3D[0];
+      correspondence[3] = point3D[1];
+      correspondence[4] = point3D[2];
+      correspondences.add(correspondence);
+    }
+    return correspondences;
+  }
+
+  /** What {@code android.opengl.Matrix.multiplyMV} computes. */
+  private static void multiplyMV(float[] result, float[] m, float[] v) {
+    for (int row = 0; row < 4; row++) {
+      result[row] = m[row] * v[0] + m[4 + row] * v[1] + m[8 + row] * v[2] + m[12 + row] * v[3];
+    }
+  }
+
+  @Test
+  public void arCorePointCloud() {
+    run(2_000);
+  }
+
+  @Test
+  public void aboveParallelThreshold() {
+    run(PointProjector.PARALLEL_THRESHOLD * 4);
+  }
+
+  @Test
+  public void serverModel() {
+    run(500_000);
+  }
+
+  private static void run(int count) {
+    FloatBuffer points = PointProjectorTest.randomPoints(count, 1);
+    float[] m = PointProjectorTest.PERSPECTIVE;
+    PointProjector.Projection projection = new PointProjector.Projection();
+    int width = PointProjectorTest.VIEWPORT_WIDTH;
+    int height = PointProjectorTest.VIEWPORT_HEIGHT;
+    PointProjector.project(points, m, width, height, projection);
+    assertEquals(perPoint(points, m).size(), projection.count);
+
+    Benchmarks.report(
+        "Per-point projection, " + count + " points",
+        Benchmarks.millisPerRun(WARMUPS, RUNS, () -> perPoint(points, m)));
+    Benchmarks.report(
+        "PointProjector, " + count + " points",
+        Benchmarks.millisPerRun(
+            WARMUPS, RUNS, () -> PointProjector.project(points, m, width, height, projection)));
+  }
+}
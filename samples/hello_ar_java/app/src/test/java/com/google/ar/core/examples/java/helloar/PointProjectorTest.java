@@ -0,0 +1,162 @@
+package com.google.ar.core.examples.java.helloar;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.nio.FloatBuffer;
+import java.util.Random;
+import org.junit.Test;
+
+/** Checks {@link PointProjector} against a per-point reference projection. */
+public class PointProjectorTest {
+
+  static final int VIEWPORT_WIDTH = 1080;
+  static final int VIEWPORT_HEIGHT = 1920;
+
+  static final float[] IDENTITY = {1, 0, 0, 0, 0, 1, 0, 0, 0, 0, 1, 0, 0, 0, 0, 1};
+
+  /** A column-major perspective projection looking down -z, times a view moved back by 2 m. */
+  static final float[] PERSPECTIVE = {
+    1.5f, 0, 0, 0, 0, 0.8f, 0, 0, 0, 0, -1.002f, -1, 0, 0, 1.8f, 2,
+  };
+
+  /** Random x, y, z, confidence points in front of {@link #PERSPECTIVE}'s camera. */
+  static FloatBuffer randomPoints(int count, long seed) {
+    Random random = new Random(seed);
+    FloatBuffer points = FloatBuffer.allocate(count * FramePacket.FLOATS_PER_POINT);
+    for (int i = 0; i < count; i++) {
+      points.put(random.nextFloat() * 2 - 1);
+      points.put(random.nextFloat() * 2 - 1);
+      points.put(-random.nextFloat());
+      points.put(random.nextFloat());
+    }
+    points.flip();
+    return points;
+  }
+
+  /** The view pixels of one point, computed the way the per-point code did. */
+  private static float[] reference(float[] m, float x, float y, float z) {
+    float[] clip = new float[4];
+    for (int row = 0; row < 4; row++) {
+      clip[row] = m[row] * x + m[4 + row] * y + m[8 + row] * z + m[12 + row];
+    }
+    return new float[] {
+      VIEWPORT_WIDTH * ((clip[0] / clip[3] + 1) / 2),
+      VIEWPORT_HEIGHT * ((1 - clip[1] / clip[3]) / 2),
+    };
+  }
+
+  private static void assertMatchesReference(
+      FloatBuffer points, float[] m, PointProjector.Projection projection) {
+    int count = points.remaining() / FramePacket.FLOATS_PER_POINT;
+    assertEquals(count, projection.count);
+    for (int i = 0; i < count; i++) {
+      int offset = points.position() + i * FramePacket.FLOATS_PER_POINT;
+      float x = points.get(offset);
+      float y = points.get(offset + 1);
+      float z = points.get(offset + 2);
+      float[] expected = reference(m, x, y, z);
+      assertEquals(expected[0], projection.view[2 * i], 1e-2f);
+      assertEquals(expected[1], projection.view[2 * i + 1], 1e-2f);
+      assertArrayEquals(
+          new float[] {x, y, z},
+          new float[] {
+            projection.world[3 * i], projection.world[3 * i + 1], projection.world[3 * i + 2]
+          },
+          0);
+    }
+  }
+
+  @Test
+  public void project_identity_mapsClipCornersToViewportCorners() {
+    FloatBuffer points = FloatBuffer.wrap(new float[] {0, 0, 0, 1, 1, 1, 0, 1, -1, -1, 0, 1});
+    PointProjector.Projection projection = new PointProjector.Projection();
+
+    PointProjector.project(points, IDENTITY, VIEWPORT_WIDTH, VIEWPORT_HEIGHT, projection);
+
+    assertEquals(3, projection.count);
+    assertEquals(VIEWPORT_WIDTH / 2f, projection.view[0], 0);
+    assertEquals(VIEWPORT_HEIGHT / 2f, projection.view[1], 0);
+    // View y grows downwards.
+    assertEquals(VIEWPORT_WIDTH, projection.view[2], 0);
+    assertEquals(0, projection.view[3], 0);
+    assertEquals(0, projection.view[4], 0);
+    assertEquals(VIEWPORT_HEIGHT, projection.view[5], 0);
+  }
+
+  @Test
+  public void project_perspective_matchesReference() {
+    FloatBuffer points = randomPoints(1000, 1);
+    PointProjector.Projection projection = new PointProjector.Projection();
+
+    PointProjector.project(points, PERSPECTIVE, VIEWPORT_WIDTH, VIEWPORT_HEIGHT, projection);
+
+    assertMatchesReference(points, PERSPECTIVE, projection);
+  }
+
+  @Test
+  public void project_largeCloudInParallel_matchesReference() {
+    FloatBuffer points = randomPoints(PointProjector.PARALLEL_THRESHOLD * 3 + 7, 2);
+    PointProjector.Projection projection = new PointProjector.Projection();
+
+    PointProjector.project(points, PERSPECTIVE, VIEWPORT_WIDTH, VIEWPORT_HEIGHT, projection);
+
+    assertMatchesReference(points, PERSPECTIVE, projection);
+  }
+
+  @Test
+  public void project_startsAtPositionAndDoesNotMoveIt() {
+    FloatBuffer points = randomPoints(100, 3);
+    points.position(10 * FramePacket.FLOATS_PER_POINT);
+    PointProjector.Projection projection = new PointProjector.Projection();
+
+    PointProjector.project(points, PERSPECTIVE, VIEWPORT_WIDTH, VIEWPORT_HEIGHT, projection);
+
+    assertEquals(10 * FramePacket.FLOATS_PER_POINT, points.position());
+    assertEquals(90, projection.count);
+    assertMatchesReference(points, PERSPECTIVE, projection);
+  }
+
+  @Test
+  public void project_reusesArraysForSmallerClouds() {
+    PointProjector.Projection projection = new PointProjector.Projection();
+    PointProjector.project(
+        randomPoints(500, 4), PERSPECTIVE, VIEWPORT_WIDTH, VIEWPORT_HEIGHT, projection);
+    float[] view = projection.view;
+    float[] image = projection.image;
+
+    FloatBuffer fewer = randomPoints(200, 5);
+    PointProjector.project(fewer, PERSPECTIVE, VIEWPORT_WIDTH, VIEWPORT_HEIGHT, projection);
+
+    assertSame(view, projection.view);
+    assertSame(image, projection.image);
+    assertMatchesReference(fewer, PERSPECTIVE, projection);
+  }
+
+  @Test
+  public void mapToImage_passesOnlyPointsInUse() {
+    PointProjector.Projection projection = new PointProjector.Projection();
+    PointProjector.project(
+        randomPoints(500, 6), PERSPECTIVE, VIEWPORT_WIDTH, VIEWPORT_HEIGHT, projection);
+    PointProjector.project(
+        randomPoints(3, 7), PERSPECTIVE, VIEWPORT_WIDTH, VIEWPORT_HEIGHT, projection);
+    int[] mapped = new int[1];
+    RecordedFrameData frame =
+        new RecordedFrameData(VIEWPORT_WIDTH, VIEWPORT_HEIGHT) {
+          @Override
+          public void viewToImagePixels(float[] view, float[] image, int count) {
+            mapped[0] = count;
+            super.viewToImagePixels(view, image, count);
+          }
+        };
+
+    projection.mapToImage(frame);
+
+    // Without intrinsics a recorded frame maps view pixels to themselves.
+    assertEquals(3, mapped[0]);
+    for (int i = 0; i < 6; i++) {
+      assertEquals(projection.view[i], projection.image[i], 0);
+    }
+  }
+}
@@ -0,0 +1,116 @@
+package com.google.ar.core.examples.java.helloar;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import javax.imageio.ImageIO;
+import org.junit.Test;
+
+/** Decodes the reference encoder's output with the JDK's JPEG decoder. */
+public class ReferenceJpegEncoderTest {
+
+  /** A smooth synthetic NV21 image with mid-gray chroma unless {@code u} and {@code v} are set. */
+  static byte[] syntheticNv21(int width, int height, int u, int v) {
+    int chromaWidth = (width + 1) / 2;
+    int chromaHeight = (height + 1) / 2;
+    byte[] nv21 = new byte[width * height + 2 * chromaWidth * chromaHeight];
+    for (int y = 0; y < height; y++) {
+      for (int x = 0; x < width; x++) {
+        double value = 128 + 60 * Math.sin(x / 9.0) * Math.cos(y / 13.0) + (x + y) % 32;
+        nv21[y * width + x] = (byte) Math.max(0, Math.min(255, (int) value));
+      }
+    }
+    for (int i = width * height; i < nv21.length; i += 2) {
+      nv21[i] = (byte) v;
+      nv21[i + 1] = (byte) u;
+    }
+    return nv21;
+  }
+
+  static byte[] encode(byte[] nv21, int width, int height, int quality) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    new ReferenceJpegEncoder().encode(nv21, width, height, quality, out);
+    return out.toByteArray();
+  }
+
+  private static BufferedImage decode(byte[] jpeg) throws IOException {
+    BufferedImage image = ImageIO.read(new ByteArrayInputStream(jpeg));
+    assertNotNull("not a decodable JPEG", image);
+    return image;
+  }
+
+  private static double meanLumaError(byte[] nv21, BufferedImage image) {
+    int width = image.getWidth();
+    int height = image.getHeight();
+    double error = 0;
+    for (int y = 0; y < height; y++) {
+      for (int x = 0; x < width; x++) {
+        int rgb = image.getRGB(x, y);
+        double luma =
+            0.299 * ((rgb >> 16) & 0xFF) + 0.587 * ((rgb >> 8) & 0xFF) + 0.114 * (rgb & 0xFF);
+        error += Math.abs(luma - (nv21[y * width + x] & 0xFF));
+      }
+    }
+    return error / (width * height);
+  }
+
+  @Test
+  public void encode_decodesToTheSameImage() throws IOException {
+    byte[] nv21 = syntheticNv21(64, 48, 128, 128);
+    byte[] jpeg = encode(nv21, 64, 48, 95);
+
+    assertEquals(0xFF, jpeg[0] & 0xFF);
+    assertEquals(0xD8, jpeg[1] & 0xFF);
+    assertEquals(0xFF, jpeg[jpeg.length - 2] & 0xFF);
+    assertEquals(0xD9, jpeg[jpeg.length - 1] & 0xFF);
+
+    BufferedImage image = decode(jpeg);
+    assertEquals(64, image.getWidth());
+    assertEquals(48, image.getHeight());
+    assertTrue(meanLumaError(nv21, image) < 3);
+  }
+
+  @Test
+  public void encode_sizeNotMultipleOfBlocks() throws IOException {
+    byte[] nv21 = syntheticNv21(37, 21, 128, 128);
+    BufferedImage image = decode(encode(nv21, 37, 21, 90));
+    assertEquals(37, image.getWidth());
+    assertEquals(21, image.getHeight());
+    assertTrue(meanLumaError(nv21, image) < 4);
+  }
+
+  @Test
+  public void encode_keepsChromaOrder() throws IOException {
+    // High U (Cb) is blue, high V (Cr) is red.
+    int blue = decode(encode(syntheticNv21(32, 32, 200, 128), 32, 32, 90)).getRGB(16, 16);
+    assertTrue((blue & 0xFF) > ((blue >> 16) & 0xFF) + 50);
+    int red = decode(encode(syntheticNv21(32, 32, 128, 200), 32, 32, 90)).getRGB(16, 16);
+    assertTrue(((red >> 16) & 0xFF) > (red & 0xFF) + 50);
+  }
+
+  @Test
+  public void encode_lowerQualityIsSmaller() throws IOException {
+    byte[] nv21 = syntheticNv21(128, 96, 128, 128);
+    int high = encode(nv21, 128, 96, 95).length;
+    int medium = encode(nv21, 128, 96, 70).length;
+    int low = encode(nv21, 128, 96, 40).length;
+    assertTrue(high > medium);
+    assertTrue(medium > low);
+  }
+
+  @Test
+  public void encode_reusableInstance() throws IOException {
+    ReferenceJpegEncoder encoder = new ReferenceJpegEncoder();
+    byte[] nv21 = syntheticNv21(48, 32, 128, 128);
+    ByteArrayOutputStream first = new ByteArrayOutputStream();
+    ByteArrayOutputStream second = new ByteArrayOutputStream();
+    encoder.encode(nv21, 48, 32, 80, first);
+    encoder.encode(nv21, 48, 32, 80, second);
+    assertEquals(first.toString("ISO-8859-1"), second.toString("ISO-8859-1"));
+  }
+}
@@ -0,0 +1,87 @@
+package com.google.ar.core.examples.java.helloar;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.StringReader;
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+import org.junit.Test;
+
+/** Checks that server points stay in the decoded direct buffer and are shared read-only. */
+public class ServerPointStoreTest {
+
+  private static FloatBuffer decode(String text) throws Exception {
+    return ModelDecoder.parseText(new StringReader(text));
+  }
+
+  @Test
+  public void fromBuffer_keepsDecodedPoints() throws Exception {
+    ServerPointStore store = ServerPointStore.fromBuffer(decode("1 2 3\n4 5 6\n"));
+
+    assertEquals(2, store.size());
+    assertEquals(4f, store.getX(1), 0);
+    assertEquals(5f, store.getY(1), 0);
+    assertEquals(6f, store.getZ(1), 0);
+    assertEquals(1f, store.getW(1), 0);
+  }
+
+  @Test
+  public void asFloatBuffer_isReadOnlyDirectViewFromFirstPoint() throws Exception {
+    ServerPointStore store = ServerPointStore.fromBuffer(decode("1 2 3\n4 5 6\n"));
+    FloatBuffer first = store.asFloatBuffer();
+    first.position(4);
+
+    FloatBuffer second = store.asFloatBuffer();
+    assertTrue(second.isDirect());
+    assertTrue(second.isReadOnly());
+    assertEquals(0, second.position());
+    assertEquals(8, second.remaining());
+    assertEquals(1f, second.get(0), 0);
+  }
+
+  @Test
+  public void fromStrings_dropsTrailingIncompletePoint() {
+    ServerPointStore store =
+        ServerPointStore.fromStrings(Arrays.asList("1", "2", "3", "1", "7", "8"));
+
+    assertEquals(1, store.size());
+    assertEquals(3f, store.getZ(0), 0);
+    assertTrue(store.asFloatBuffer().isDirect());
+  }
+
+  @Test
+  public void getPoints_copiesRange() throws Exception {
+    ServerPointStore store = ServerPointStore.fromBuffer(decode("1 2 3\n4 5 6\n7 8 9\n"));
+    float[] out = new float[9];
+
+    store.getPoints(1, 3, out, 1);
+
+    assertArrayEquals(new float[] {0, 4, 5, 6, 1, 7, 8, 9, 1}, out, 0);
+  }
+
+  @Test
+  public void withBase_countsSharedLeadingPoints() throws Exception {
+    ServerPointStore previous = ServerPointStore.fromBuffer(decode("1 2 3\n4 5 6\n"));
+    ServerPointStore grown = ServerPointStore.fromBuffer(decode("1 2 3\n4 5 6\n7 8 9\n"));
+    ServerPointStore moved = ServerPointStore.fromBuffer(decode("1 2 3\n4 5 0\n7 8 9\n"));
+
+    ServerPointStore appended = grown.withBase(previous);
+    assertEquals(grown.getVersion(), appended.getVersion());
+    assertEquals(previous.getVersion(), appended.getBaseVersion());
+    assertEquals(2, appended.getUnchangedPoints());
+    assertEquals(1, moved.withBase(previous).getUnchangedPoints());
+    assertNotEquals(previous.getVersion(), grown.getVersion());
+  }
+
+  @Test
+  public void withIndex_indexesEveryPoint() throws Exception {
+    ServerPointStore store =
+        ServerPointStore.fromBuffer(decode("1 2 3\n4 5 6\n7 8 9\n")).withIndex();
+
+    assertEquals(3, store.getIndex().getPointCount());
+    assertEquals(3, store.size());
+  }
+}
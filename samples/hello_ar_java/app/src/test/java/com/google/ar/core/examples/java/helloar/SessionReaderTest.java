@@ -0,0 +1,190 @@
+package com.google.ar.core.examples.java.helloar;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/** Writes sessions with {@link SessionWriter} and reads them back, intact and after a crash. */
+public class SessionReaderTest {
+
+  @Rule public TemporaryFolder folder = new TemporaryFolder();
+
+  /** A keyframe whose values are derived from {@code index}. */
+  static FramePacket keyframe(int index) {
+    FramePacket packet = new FramePacket();
+    packet.reset(FramePacket.TYPE_FRAME);
+    packet.timestamp = 1000 + index;
+    packet.frameName = "frame_" + index;
+    for (int i = 0; i < FramePacket.FLOATS_PER_POSE; i++) {
+      packet.cameraPose[i] = index + i * 0.1f;
+      packet.displayOrientedPose[i] = -index - i * 0.1f;
+    }
+    packet.hasViewProjection = true;
+    for (int i = 0; i < FramePacket.FLOATS_PER_MATRIX; i++) {
+      packet.viewMatrix[i] = i == 0 || i == 5 || i == 10 || i == 15 ? 1 : 0;
+      packet.projectionMatrix[i] = packet.viewMatrix[i];
+    }
+    packet.viewMatrix[14] = -index * 0.05f;
+    packet.hasIntrinsics = true;
+    packet.intrinsics[0] = 500;
+    packet.intrinsics[1] = 500;
+    packet.intrinsics[2] = 320;
+    packet.intrinsics[3] = 240;
+    packet.intrinsics[4] = 640;
+    packet.intrinsics[5] = 480;
+    packet.ensurePointCapacity(3 + index);
+    packet.pointCount = 3 + index;
+    for (int i = 0; i < packet.pointCount * FramePacket.FLOATS_PER_POINT; i++) {
+      packet.points[i] = index * 100 + i;
+    }
+    byte[] jpeg = new byte[16 + index];
+    Arrays.fill(jpeg, (byte) index);
+    packet.setJpeg(jpeg, jpeg.length);
+    return packet;
+  }
+
+  static void writeSession(File file, int keyframes) throws IOException {
+    try (SessionWriter writer = SessionWriter.create(file)) {
+      for (int i = 0; i < keyframes; i++) {
+        writer.append(keyframe(i));
+      }
+    }
+  }
+
+  private static void assertKeyframe(int index, FramePacket packet) {
+    FramePacket expected = keyframe(index);
+    assertEquals(expected.frameName, packet.frameName);
+    assertEquals(expected.timestamp, packet.timestamp);
+    assertArrayEquals(expected.cameraPose, packet.cameraPose, 0);
+    assertArrayEquals(expected.viewMatrix, packet.viewMatrix, 0);
+    assertArrayEquals(expected.intrinsics, packet.intrinsics, 0);
+    assertEquals(expected.pointCount, packet.pointCount);
+    assertArrayEquals(
+        Arrays.copyOf(expected.points, expected.pointCount * FramePacket.FLOATS_PER_POINT),
+        Arrays.copyOf(packet.points, packet.pointCount * FramePacket.FLOATS_PER_POINT),
+        0);
+    assertEquals(expected.jpegLength, packet.jpegLength);
+    assertEquals(index, packet.jpeg[0]);
+  }
+
+  @Test
+  public void closedSession_readsByIndex() throws IOException {
+    File file = folder.newFile("closed" + SessionFile.EXTENSION);
+    writeSession(file, 25);
+
+    try (SessionReader reader = SessionReader.open(file)) {
+      assertFalse(reader.wasRecovered());
+      assertEquals(25, reader.getKeyframeCount());
+      FramePacket packet = new FramePacket();
+      // Random access, out of order.
+      for (int index : new int[] {24, 0, 13, 7}) {
+        reader.readKeyframe(index, packet);
+        assertKeyframe(index, packet);
+      }
+    }
+  }
+
+  @Test
+  public void crashedSession_recoversIntactKeyframes() throws IOException {
+    File file = folder.newFile("crashed" + SessionFile.EXTENSION);
+    writeSession(file, 12);
+    // Simulate a crash in the middle of the last keyframe: no index, a truncated record.
+    try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+      raf.setLength(indexOffset(file) - 10);
+    }
+
+    try (SessionReader reader = SessionReader.open(file)) {
+      assertTrue(reader.wasRecovered());
+      assertEquals(11, reader.getKeyframeCount());
+      FramePacket packet = new FramePacket();
+      reader.readKeyframe(10, packet);
+      assertKeyframe(10, packet);
+    }
+  }
+
+  @Test
+  public void corruptKeyframe_endsRecovery() throws IOException {
+    File file = folder.newFile("corrupt" + SessionFile.EXTENSION);
+    writeSession(file, 6);
+    long offset = keyframeOffset(file, 4);
+    try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+      // Drop the index, and flip a payload byte of keyframe 4.
+      raf.setLength(indexOffset(file));
+      long payloadByte = offset + SessionFile.RECORD_HEADER_BYTES + 20;
+      raf.seek(payloadByte);
+      int value = raf.read();
+      raf.seek(payloadByte);
+      raf.write(value ^ 0xFF);
+    }
+
+    try (SessionReader reader = SessionReader.open(file)) {
+      assertTrue(reader.wasRecovered());
+      assertEquals(4, reader.getKeyframeCount());
+    }
+  }
+
+  @Test
+  public void repair_rewritesIndex() throws IOException {
+    File file = folder.newFile("repaired" + SessionFile.EXTENSION);
+    writeSession(file, 8);
+    try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+      raf.setLength(indexOffset(file) - 3);
+    }
+
+    assertEquals(7, SessionReader.repair(file));
+    try (SessionReader reader = SessionReader.open(file)) {
+      assertFalse(reader.wasRecovered());
+      assertEquals(7, reader.getKeyframeCount());
+      FramePacket packet = new FramePacket();
+      reader.readKeyframe(6, packet);
+      assertKeyframe(6, packet);
+    }
+    // Repairing a complete session changes nothing.
+    long length = file.length();
+    assertEquals(7, SessionReader.repair(file));
+    assertEquals(length, file.length());
+  }
+
+  @Test
+  public void emptyCrashedSession_hasNoKeyframes() throws IOException {
+    File file = folder.newFile("empty" + SessionFile.EXTENSION);
+    writeSession(file, 0);
+    try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+      raf.setLength(SessionFile.FILE_HEADER_BYTES);
+    }
+    assertEquals(0, SessionReader.repair(file));
+  }
+
+  @Test(expected = IOException.class)
+  public void notASession_fails() throws IOException {
+    File file = folder.newFile("other" + SessionFile.EXTENSION);
+    try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+      raf.write(new byte[64]);
+    }
+    SessionReader.open(file).close();
+  }
+
+  /** Offset of the index record, read from the trailer of a closed session. */
+  private static long indexOffset(File file) throws IOException {
+    try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+      raf.seek(raf.length() - SessionFile.TRAILER_BYTES);
+      return Long.reverseBytes(raf.readLong());
+    }
+  }
+
+  private static long keyframeOffset(File file, int index) throws IOException {
+    try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+      raf.seek(indexOffset(file) + SessionFile.INDEX_HEADER_BYTES + index * 8L);
+      return Long.reverseBytes(raf.readLong());
+    }
+  }
+}
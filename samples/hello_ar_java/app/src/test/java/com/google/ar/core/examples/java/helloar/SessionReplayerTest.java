@@ -0,0 +1,161 @@
+package com.google.ar.core.examples.java.helloar;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import okhttp3.OkHttpClient;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/** Replays sessions written with {@link SessionWriter} through the keyframe processing. */
+public class SessionReplayerTest {
+
+  private static final int KEYFRAMES = 20;
+  private static final int VIEWPORT_WIDTH = 1080;
+  private static final int VIEWPORT_HEIGHT = 1920;
+
+  @Rule public TemporaryFolder folder = new TemporaryFolder();
+
+  /** Keeps a copy of what would have been uploaded. */
+  private static final class RecordingUploader implements FrameUploader {
+    final List<FramePacket> packets = new ArrayList<>();
+
+    @Override
+    public void upload(FramePacket packet) {
+      FramePacket copy = new FramePacket();
+      FramePacketCodec.decode(FramePacketCodec.encode(packet, null), copy);
+      packets.add(copy);
+    }
+  }
+
+  private File recordSession(int keyframes) throws IOException {
+    File file = folder.newFile("session" + SessionFile.EXTENSION);
+    SessionReaderTest.writeSession(file, keyframes);
+    return file;
+  }
+
+  private static SessionReplayer.Stats replayFast(
+      SessionReader reader, SessionReplayer.Processor processor) throws Exception {
+    return new SessionReplayer(
+            reader, VIEWPORT_WIDTH, VIEWPORT_HEIGHT, SessionReplayer.Pacing.AS_FAST_AS_POSSIBLE)
+        .run(processor);
+  }
+
+  @Test
+  public void keyframeReplay_createsAnchorAndUploadsEveryKeyframe() throws Exception {
+    RecordingUploader uploader = new RecordingUploader();
+    SessionReplayer.KeyframeReplay replay =
+        new SessionReplayer.KeyframeReplay(uploader, VIEWPORT_WIDTH, VIEWPORT_HEIGHT);
+    SessionReplayer.Stats stats;
+    try (SessionReader reader = SessionReader.open(recordSession(KEYFRAMES))) {
+      stats = replayFast(reader, replay);
+    }
+
+    assertEquals(KEYFRAMES, stats.frames);
+    assertEquals(0, stats.failures);
+    assertEquals(KeyframeProcessor.ANCHORS_LIMIT, replay.getAnchorCount());
+    assertEquals(KeyframeProcessor.ANCHORS_LIMIT, replay.getCorrespondences().count);
+    assertEquals(KEYFRAMES, replay.getUploadCount());
+    assertEquals(KEYFRAMES, uploader.packets.size());
+
+    // The anchor sits on the first confident point of the first keyframe, and stays there.
+    FramePacket first = SessionReaderTest.keyframe(0);
+    float[] anchor = {first.points[0], first.points[1], first.points[2]};
+    for (int i = 0; i < KEYFRAMES; i++) {
+      FramePacket packet = uploader.packets.get(i);
+      assertEquals("frame_" + i, packet.frameName);
+      assertTrue(packet.hasAnchor);
+      assertArrayEquals(anchor, packet.anchorPosition, 0);
+    }
+  }
+
+  @Test
+  public void keyframeReplay_withoutUploader() throws Exception {
+    SessionReplayer.KeyframeReplay replay =
+        new SessionReplayer.KeyframeReplay(null, VIEWPORT_WIDTH, VIEWPORT_HEIGHT);
+    try (SessionReader reader = SessionReader.open(recordSession(3))) {
+      replayFast(reader, replay);
+    }
+    assertEquals(1, replay.getAnchorCount());
+    assertEquals(0, replay.getUploadCount());
+  }
+
+  @Test
+  public void httpUploader_postsBinaryFrames() throws Exception {
+    MockWebServer server = new MockWebServer();
+    for (int i = 0; i < KEYFRAMES; i++) {
+      server.enqueue(new MockResponse());
+    }
+    server.start();
+    try {
+      HttpFrameUploader uploader =
+          new HttpFrameUploader(new OkHttpClient(), server.url("/").toString());
+      SessionReplayer.KeyframeReplay replay =
+          new SessionReplayer.KeyframeReplay(uploader, VIEWPORT_WIDTH, VIEWPORT_HEIGHT);
+      try (SessionReader reader = SessionReader.open(recordSession(KEYFRAMES))) {
+        assertEquals(0, replayFast(reader, replay).failures);
+      }
+
+      assertEquals(KEYFRAMES, uploader.getUploadCount());
+      assertEquals(KEYFRAMES, server.getRequestCount());
+      FramePacket packet = new FramePacket();
+      for (int i = 0; i < KEYFRAMES; i++) {
+        RecordedRequest request = server.takeRequest();
+        assertEquals("/", request.getPath());
+        assertEquals(FramePacketCodec.MEDIA_TYPE, request.getHeader("Content-Type"));
+        FramePacketCodec.decode(ByteBuffer.wrap(request.getBody().readByteArray()), packet);
+        assertEquals("frame_" + i, packet.frameName);
+        assertEquals(SessionReaderTest.keyframe(i).pointCount, packet.pointCount);
+      }
+    } finally {
+      server.shutdown();
+    }
+  }
+
+  @Test
+  public void failedUploads_areCountedAndReplayGoesOn() throws Exception {
+    MockWebServer server = new MockWebServer();
+    server.enqueue(new MockResponse());
+    server.enqueue(new MockResponse().setResponseCode(500));
+    server.enqueue(new MockResponse());
+    server.start();
+    try {
+      HttpFrameUploader uploader =
+          new HttpFrameUploader(new OkHttpClient(), server.url("/").toString());
+      try (SessionReader reader = SessionReader.open(recordSession(3))) {
+        SessionReplayer.Stats stats =
+            replayFast(
+                reader,
+                new SessionReplayer.KeyframeReplay(uploader, VIEWPORT_WIDTH, VIEWPORT_HEIGHT));
+        assertEquals(3, stats.frames);
+        assertEquals(1, stats.failures);
+      }
+      assertEquals(2, uploader.getUploadCount());
+    } finally {
+      server.shutdown();
+    }
+  }
+
+  @Test
+  public void realTime_keepsRecordedSpacing() throws Exception {
+    // Keyframes are recorded 1 ms apart.
+    try (SessionReader reader = SessionReader.open(recordSession(KEYFRAMES))) {
+      SessionReplayer.Stats stats =
+          new SessionReplayer(
+                  reader, VIEWPORT_WIDTH, VIEWPORT_HEIGHT, SessionReplayer.Pacing.REAL_TIME)
+              .run(frame -> {});
+      assertEquals(KEYFRAMES, stats.frames);
+      assertTrue(stats.wallNanos >= (KEYFRAMES - 1) * 1_000_000L);
+    }
+  }
+}
@@ -0,0 +1,110 @@
+package com.google.ar.core.examples.java.helloar;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+/** Checks what each {@link StageQueue.DropPolicy} does once the queue is full. */
+public class StageQueueTest {
+
+  private final List<Integer> recycled = new ArrayList<>();
+
+  private StageQueue<Integer> queue(int capacity, StageQueue.DropPolicy policy) {
+    return new StageQueue<>(capacity, policy, recycled::add);
+  }
+
+  @Test
+  public void dropOldest_makesRoomAndRecyclesTheOldest() throws Exception {
+    StageQueue<Integer> queue = queue(2, StageQueue.DropPolicy.DROP_OLDEST);
+
+    assertTrue(queue.offer(1));
+    assertTrue(queue.offer(2));
+    assertTrue(queue.offer(3));
+    assertTrue(queue.offer(4));
+
+    assertEquals(Arrays.asList(1, 2), recycled);
+    assertEquals(2, queue.getDroppedCount());
+    assertEquals(3, (int) queue.poll());
+    assertEquals(4, (int) queue.poll());
+    assertNull(queue.poll());
+  }
+
+  @Test
+  public void dropNewest_recyclesTheOfferedItem() throws Exception {
+    StageQueue<Integer> queue = queue(2, StageQueue.DropPolicy.DROP_NEWEST);
+
+    assertTrue(queue.offer(1));
+    assertTrue(queue.offer(2));
+    assertFalse(queue.offer(3));
+
+    assertEquals(Arrays.asList(3), recycled);
+    assertEquals(1, queue.getDroppedCount());
+    assertEquals(1, (int) queue.poll());
+    assertEquals(2, (int) queue.poll());
+  }
+
+  @Test
+  public void block_waitsForTheConsumerWithoutDropping() throws Exception {
+    StageQueue<Integer> queue = queue(1, StageQueue.DropPolicy.BLOCK);
+    assertTrue(queue.offer(1));
+    Thread producer =
+        new Thread(
+            () -> {
+              try {
+                queue.offer(2);
+              } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+              }
+            });
+
+    producer.start();
+    producer.join(200);
+    assertTrue(producer.isAlive());
+
+    assertEquals(1, (int) queue.take());
+    producer.join(5000);
+    assertFalse(producer.isAlive());
+    assertEquals(2, (int) queue.poll(1, TimeUnit.SECONDS));
+    assertEquals(0, queue.getDroppedCount());
+    assertTrue(recycled.isEmpty());
+  }
+
+  @Test
+  public void block_interruptedOfferLeavesTheItemWithTheCaller() throws Exception {
+    StageQueue<Integer> queue = queue(1, StageQueue.DropPolicy.BLOCK);
+    queue.offer(1);
+
+    Thread.currentThread().interrupt();
+    try {
+      queue.offer(2);
+      fail("Offer did not notice the interrupt");
+    } catch (InterruptedException expected) {
+      // Not queued and not recycled; the caller still owns it.
+    }
+
+    assertTrue(recycled.isEmpty());
+    assertEquals(1, (int) queue.poll());
+    assertNull(queue.poll());
+  }
+
+  @Test
+  public void clear_recyclesEverythingQueued() throws Exception {
+    StageQueue<Integer> queue = queue(3, StageQueue.DropPolicy.DROP_NEWEST);
+    queue.offer(1);
+    queue.offer(2);
+
+    queue.clear();
+
+    assertEquals(Arrays.asList(1, 2), recycled);
+    assertEquals(0, queue.getDroppedCount());
+    assertNull(queue.poll());
+  }
+}
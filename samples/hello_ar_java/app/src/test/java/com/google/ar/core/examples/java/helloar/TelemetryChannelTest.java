@@ -0,0 +1,232 @@
+package com.google.ar.core.examples.java.helloar;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import okhttp3.OkHttpClient;
+import okhttp3.Response;
+import okhttp3.WebSocket;
+import okhttp3.WebSocketListener;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okio.ByteString;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/** Runs {@link TelemetryChannel} against a local WebSocket server. */
+public class TelemetryChannelTest {
+
+  private static final long TIMEOUT_SECONDS = 5;
+  private static final int GOING_AWAY = 1001;
+
+  /**
+   * Records what the client sends as short strings, "hello lastAcked", "pose timestamp" or
+   * "keyframe sequence name", and acknowledges keyframes unless told to hang up on one.
+   */
+  private static final class TelemetryServer extends WebSocketListener {
+    final BlockingQueue<String> received = new LinkedBlockingQueue<>();
+    final BlockingQueue<WebSocket> opened = new LinkedBlockingQueue<>();
+    private final Gson gson = new Gson();
+    // Close the connection instead of acknowledging this keyframe, once.
+    volatile int hangUpOnSequence = -1;
+
+    @Override
+    public void onOpen(WebSocket webSocket, Response response) {
+      opened.add(webSocket);
+    }
+
+    @Override
+    public void onMessage(WebSocket webSocket, String text) {
+      JsonObject message = gson.fromJson(text, JsonObject.class);
+      if ("hello".equals(message.get("type").getAsString())) {
+        received.add("hello " + message.get("lastAcked").getAsInt());
+      }
+    }
+
+    @Override
+    public void onMessage(WebSocket webSocket, ByteString bytes) {
+      ByteBuffer message = ByteBuffer.wrap(bytes.toByteArray()).order(ByteOrder.LITTLE_ENDIAN);
+      int kind = message.get(0);
+      int sequence = message.getInt(4);
+      message.position(8);
+      if (kind == TelemetryChannel.KIND_POSE) {
+        received.add("pose " + message.getLong());
+      } else if (kind == TelemetryChannel.KIND_KEYFRAME) {
+        FramePacket packet = new FramePacket();
+        FramePacketCodec.decode(message, packet);
+        received.add("keyframe " + sequence + " " + packet.frameName);
+        if (sequence == hangUpOnSequence) {
+          hangUpOnSequence = -1;
+          webSocket.close(GOING_AWAY, null);
+        } else {
+          webSocket.send("{\"type\":\"ack\",\"sequence\":" + sequence + "}");
+        }
+      }
+    }
+
+    @Override
+    public void onClosing(WebSocket webSocket, int code, String reason) {
+      webSocket.close(code, null);
+    }
+
+    String next() throws InterruptedException {
+      String event = received.poll(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+      assertNotNull("Nothing received", event);
+      return event;
+    }
+
+    WebSocket awaitOpen() throws InterruptedException {
+      WebSocket socket = opened.poll(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+      assertNotNull("Client did not connect", socket);
+      return socket;
+    }
+  }
+
+  private final BlockingQueue<FloatBuffer> models = new LinkedBlockingQueue<>();
+  private MockWebServer server;
+  private TelemetryServer telemetry;
+  private OkHttpClient client;
+  private TelemetryChannel channel;
+
+  @Before
+  public void setUp() throws IOException {
+    telemetry = new TelemetryServer();
+    server = new MockWebServer();
+    server.start();
+    client = new OkHttpClient();
+    channel =
+        new TelemetryChannel(client, server.url("/stream").toString(), new Gson(), models::add);
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    channel.close();
+    server.shutdown();
+    client.dispatcher().executorService().shutdown();
+  }
+
+  private void acceptConnection() {
+    server.enqueue(new MockResponse().withWebSocketUpgrade(telemetry));
+  }
+
+  private void connect() throws InterruptedException {
+    acceptConnection();
+    channel.open();
+    telemetry.awaitOpen();
+    assertEquals("hello 0", telemetry.next());
+    awaitConnected(true);
+  }
+
+  private void awaitConnected(boolean connected) throws InterruptedException {
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(TIMEOUT_SECONDS);
+    while (channel.isConnected() != connected) {
+      assertTrue("Timed out", System.nanoTime() < deadline);
+      Thread.sleep(10);
+    }
+  }
+
+  @Test
+  public void sendKeyframe_beforeConnecting_isSentAfterHello() throws Exception {
+    channel.sendKeyframe(SessionReaderTest.keyframe(0));
+    channel.sendKeyframe(SessionReaderTest.keyframe(1));
+    acceptConnection();
+    channel.open();
+
+    assertEquals("hello 0", telemetry.next());
+    assertEquals("keyframe 1 frame_0", telemetry.next());
+    assertEquals("keyframe 2 frame_1", telemetry.next());
+  }
+
+  @Test
+  public void reconnect_resendsUnacknowledgedKeyframesInOrder() throws Exception {
+    connect();
+    telemetry.hangUpOnSequence = 2;
+    channel.sendKeyframe(SessionReaderTest.keyframe(0));
+    assertEquals("keyframe 1 frame_0", telemetry.next());
+    channel.sendKeyframe(SessionReaderTest.keyframe(1));
+    assertEquals("keyframe 2 frame_1", telemetry.next());
+
+    // Keyframe 2 was never acknowledged; keyframe 3 is queued while the channel is down.
+    awaitConnected(false);
+    acceptConnection();
+    channel.sendKeyframe(SessionReaderTest.keyframe(2));
+    telemetry.awaitOpen();
+
+    assertEquals("hello 1", telemetry.next());
+    assertEquals("keyframe 2 frame_1", telemetry.next());
+    assertEquals("keyframe 3 frame_2", telemetry.next());
+    assertEquals(1, channel.getReconnectCount());
+    assertEquals(0, channel.getDroppedKeyframeCount());
+  }
+
+  @Test
+  public void sendKeyframe_tooManyUnacknowledged_dropsOldest() throws Exception {
+    for (int i = 0; i < 10; i++) {
+      channel.sendKeyframe(SessionReaderTest.keyframe(i));
+    }
+    assertEquals(2, channel.getDroppedKeyframeCount());
+
+    acceptConnection();
+    channel.open();
+    assertEquals("hello 0", telemetry.next());
+    assertEquals("keyframe 3 frame_2", telemetry.next());
+  }
+
+  @Test
+  public void sendPose_onlyWhileConnected() throws Exception {
+    FramePacket packet = SessionReaderTest.keyframe(0);
+    assertFalse(channel.sendPose(packet));
+    assertEquals(1, channel.getDroppedPoseCount());
+
+    connect();
+    assertTrue(channel.sendPose(packet));
+    assertEquals("pose " + packet.timestamp, telemetry.next());
+    assertEquals(1, channel.getDroppedPoseCount());
+  }
+
+  @Test
+  public void serverModels_textAndBinary_reachListener() throws Exception {
+    acceptConnection();
+    channel.open();
+    WebSocket serverSocket = telemetry.awaitOpen();
+
+    serverSocket.send("{\"type\":\"model\",\"points\":[\"1 2 3\",\"4 5 6\"]}");
+    FloatBuffer text = models.poll(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+    assertNotNull(text);
+    assertEquals(8, text.remaining());
+    assertEquals(4f, text.get(4), 0);
+
+    ByteBuffer binary = ByteBuffer.allocate(8 + 12 + 3 * 4).order(ByteOrder.LITTLE_ENDIAN);
+    binary.put((byte) TelemetryChannel.KIND_MODEL).put(new byte[7]);
+    binary.putInt(ModelDecoder.MAGIC).putInt(1).putInt(3);
+    binary.putFloat(7).putFloat(8).putFloat(9);
+    serverSocket.send(ByteString.of(binary.array()));
+    FloatBuffer decoded = models.poll(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+    assertNotNull(decoded);
+    assertEquals(4, decoded.remaining());
+    assertEquals(9f, decoded.get(2), 0);
+    assertEquals(1f, decoded.get(3), 0);
+  }
+
+  @Test
+  public void close_doesNotReconnect() throws Exception {
+    connect();
+    channel.close();
+    awaitConnected(false);
+    Thread.sleep(700);
+    assertEquals(0, channel.getReconnectCount());
+    assertEquals(1, server.getRequestCount());
+  }
+}
@@ -0,0 +1,69 @@
+package com.google.ar.core.examples.java.helloar;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+/** Checks {@link ThroughputMeter} with explicit times, in milliseconds converted to nanoseconds. */
+public class ThroughputMeterTest {
+
+  private static final long MS = 1_000_000;
+
+  private final ThroughputMeter meter = new ThroughputMeter(1);
+
+  @Test
+  public void unknownUntilSomethingIsDelivered() {
+    assertEquals(0, meter.getBytesPerSecond());
+
+    meter.onStart(0);
+    meter.onFinish(100 * MS, 0);
+
+    assertEquals(0, meter.getBytesPerSecond());
+  }
+
+  @Test
+  public void countsOnlyTheTimeRequestsAreInFlight() {
+    meter.onStart(1000 * MS);
+    meter.onFinish(1100 * MS, 10_000);
+    assertEquals(100_000, meter.getBytesPerSecond());
+
+    // The idle second before this request, for example queued in the transport, does not count.
+    meter.onStart(2100 * MS);
+    meter.onFinish(2150 * MS, 10_000);
+    assertEquals(200_000, meter.getBytesPerSecond());
+  }
+
+  @Test
+  public void overlappingRequestsShareTheirTime() {
+    // Two 100 ms requests, half overlapping: 150 ms busy, not 200 ms.
+    meter.onStart(0);
+    meter.onStart(50 * MS);
+    meter.onFinish(100 * MS, 15_000);
+    meter.onFinish(150 * MS, 15_000);
+
+    // The first sample is 15 KB over 100 ms, the second 15 KB over the last 50 ms.
+    assertEquals(300_000, meter.getBytesPerSecond());
+  }
+
+  @Test
+  public void failedRequestTimeCountsAgainstTheNextDelivery() {
+    meter.onStart(0);
+    meter.onFinish(100 * MS, 0);
+    meter.onStart(100 * MS);
+    meter.onFinish(200 * MS, 20_000);
+
+    assertEquals(100_000, meter.getBytesPerSecond());
+  }
+
+  @Test
+  public void smoothsSamples() {
+    ThroughputMeter smoothed = new ThroughputMeter(0.5);
+
+    smoothed.onStart(0);
+    smoothed.onFinish(100 * MS, 10_000);
+    smoothed.onStart(100 * MS);
+    smoothed.onFinish(200 * MS, 30_000);
+
+    assertEquals(200_000, smoothed.getBytesPerSecond());
+  }
+}
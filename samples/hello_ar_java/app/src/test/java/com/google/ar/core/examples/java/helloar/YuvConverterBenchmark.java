@@ -0,0 +1,97 @@
+package com.google.ar.core.examples.java.helloar;
+
+import static org.junit.Assert.assertArrayEquals;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import org.junit.Test;
+
+/** Compares the pooled converter with the copy-the-planes conversion it replaced. */
+public class YuvConverterBenchmark {
+
+  private static final int WIDTH = 640;
+  private static final int HEIGHT = 480;
+  private static final int WARMUPS = 50;
+  private static final int RUNS = 200;
+
+  /**
+   * The conversion HelloArActivity used to do: the planes copied back to back, which is only
+   * right for interleaved chroma without row padding, into a new array per frame.
+   */
+  private static byte[] copyPlanes(ByteBuffer yBuffer, ByteBuffer uBuffer, ByteBuffer vBuffer) {
+    yBuffer = yBuffer.duplicate();
+    uBuffer = uBuffer.duplicate();
+    vBuffer = vBuffer.duplicate();
+    int ySize = yBuffer.remaining();
+    int uSize = uBuffer.remaining();
+    int vSize = vBuffer.remaining();
+    byte[] nv21 = new byte[ySize + uSize + vSize];
+    yBuffer.get(nv21, 0, ySize);
+    vBuffer.get(nv21, ySize, vSize);
+    uBuffer.get(nv21, ySize + vSize, uSize);
+    return nv21;
+  }
+
+  @Test
+  public void nv21() {
+    YuvConverterTest.Planes planes = new YuvConverterTest.Planes(WIDTH, HEIGHT, WIDTH, WIDTH, 2);
+    FrameBufferPool pool = new FrameBufferPool(1);
+    YuvConverter converter = new YuvConverter(pool);
+
+    // The old output only differs in the last U, which comes after the V plane instead of before.
+    byte[] converted = convert(converter, planes);
+    byte[] copied = copyPlanes(planes.y, planes.u, planes.v);
+    int shared = converted.length - 1;
+    assertArrayEquals(Arrays.copyOf(converted, shared), Arrays.copyOf(copied, shared));
+    pool.release(WIDTH, HEIGHT, YuvConverter.Format.NV21, converted);
+
+    Benchmarks.report(
+        "YUV_420_888 to NV21, copied planes",
+        Benchmarks.millisPerRun(WARMUPS, RUNS, () -> copyPlanes(planes.y, planes.u, planes.v)));
+    Benchmarks.report(
+        "YUV_420_888 to NV21, YuvConverter",
+        Benchmarks.millisPerRun(
+            WARMUPS,
+            RUNS,
+            () -> pool.release(WIDTH, HEIGHT, YuvConverter.Format.NV21, convert(converter, planes))));
+  }
+
+  @Test
+  public void allFormats_planarPadded() {
+    YuvConverterTest.Planes planes =
+        new YuvConverterTest.Planes(WIDTH, HEIGHT, WIDTH + 64, WIDTH / 2 + 32, 1);
+    byte[] out = new byte[YuvConverter.Format.I420.bufferSize(WIDTH, HEIGHT)];
+    for (YuvConverter.Format format : YuvConverter.Format.values()) {
+      Benchmarks.report(
+          "YUV_420_888 planar padded to " + format,
+          Benchmarks.millisPerRun(
+              WARMUPS,
+              RUNS,
+              () ->
+                  YuvConverter.convert(
+                      WIDTH,
+                      HEIGHT,
+                      planes.y,
+                      planes.yRowStride,
+                      planes.u,
+                      planes.v,
+                      planes.uvRowStride,
+                      planes.uvPixelStride,
+                      format,
+                      out)));
+    }
+  }
+
+  private static byte[] convert(YuvConverter converter, YuvConverterTest.Planes planes) {
+    return converter.convert(
+        WIDTH,
+        HEIGHT,
+        planes.y,
+        planes.yRowStride,
+        planes.u,
+        planes.v,
+        planes.uvRowStride,
+        planes.uvPixelStride,
+        YuvConverter.Format.NV21);
+  }
+}
@@ -0,0 +1,203 @@
+package com.google.ar.core.examples.java.helloar;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.nio.ByteBuffer;
+import org.junit.Test;
+
+public class YuvConverterTest {
+
+  /** Synthetic YUV_420_888 planes laid out like a camera image with the given strides. */
+  static final class Planes {
+    final int width;
+    final int height;
+    final int yRowStride;
+    final int uvRowStride;
+    final int uvPixelStride;
+    final ByteBuffer y;
+    final ByteBuffer u;
+    final ByteBuffer v;
+
+    Planes(int width, int height, int yRowStride, int uvRowStride, int uvPixelStride) {
+      this.width = width;
+      this.height = height;
+      this.yRowStride = yRowStride;
+      this.uvRowStride = uvRowStride;
+      this.uvPixelStride = uvPixelStride;
+      int chromaWidth = (width + 1) / 2;
+      int chromaHeight = (height + 1) / 2;
+
+      // Like the camera, the last row of each plane stops after its last pixel.
+      byte[] luma = new byte[(height - 1) * yRowStride + width];
+      for (int row = 0; row < height; row++) {
+        for (int col = 0; col < width; col++) {
+          luma[row * yRowStride + col] = lumaAt(col, row);
+        }
+      }
+      y = ByteBuffer.wrap(luma);
+
+      int planeLength = (chromaHeight - 1) * uvRowStride + (chromaWidth - 1) * uvPixelStride + 1;
+      if (uvPixelStride == 2) {
+        // Semi-planar, as most cameras deliver it: U and V are views of one interleaved V,U
+        // buffer, U one byte after V.
+        byte[] chroma = new byte[planeLength + 1];
+        fillChroma(chroma, 1, chromaWidth, chromaHeight, true);
+        fillChroma(chroma, 0, chromaWidth, chromaHeight, false);
+        u = ByteBuffer.wrap(chroma, 1, planeLength).slice();
+        v = ByteBuffer.wrap(chroma, 0, planeLength).slice();
+      } else {
+        byte[] uBytes = new byte[planeLength];
+        byte[] vBytes = new byte[planeLength];
+        fillChroma(uBytes, 0, chromaWidth, chromaHeight, true);
+        fillChroma(vBytes, 0, chromaWidth, chromaHeight, false);
+        u = ByteBuffer.wrap(uBytes);
+        v = ByteBuffer.wrap(vBytes);
+      }
+    }
+
+    private void fillChroma(byte[] out, int offset, int chromaWidth, int chromaHeight, boolean u) {
+      for (int row = 0; row < chromaHeight; row++) {
+        for (int col = 0; col < chromaWidth; col++) {
+          out[offset + row * uvRowStride + col * uvPixelStride] =
+              u ? uAt(col, row) : vAt(col, row);
+        }
+      }
+    }
+
+    byte[] convert(YuvConverter.Format format) {
+      byte[] out = new byte[format.bufferSize(width, height)];
+      YuvConverter.convert(
+          width, height, y, yRowStride, u, v, uvRowStride, uvPixelStride, format, out);
+      return out;
+    }
+  }
+
+  static byte lumaAt(int col, int row) {
+    return (byte) (col * 7 + row * 13);
+  }
+
+  static byte uAt(int col, int row) {
+    return (byte) (col * 3 + row * 5 + 50);
+  }
+
+  static byte vAt(int col, int row) {
+    return (byte) (col * 11 + row * 2 + 100);
+  }
+
+  /** Builds the expected packed output pixel by pixel. */
+  private static byte[] expected(int width, int height, YuvConverter.Format format) {
+    int chromaWidth = (width + 1) / 2;
+    int chromaHeight = (height + 1) / 2;
+    byte[] out = new byte[format.bufferSize(width, height)];
+    int index = 0;
+    for (int row = 0; row < height; row++) {
+      for (int col = 0; col < width; col++) {
+        out[index++] = lumaAt(col, row);
+      }
+    }
+    for (int pass = 0; pass < (format == YuvConverter.Format.I420 ? 2 : 1); pass++) {
+      for (int row = 0; row < chromaHeight; row++) {
+        for (int col = 0; col < chromaWidth; col++) {
+          switch (format) {
+            case NV21:
+              out[index++] = vAt(col, row);
+              out[index++] = uAt(col, row);
+              break;
+            case NV12:
+              out[index++] = uAt(col, row);
+              out[index++] = vAt(col, row);
+              break;
+            case I420:
+              out[index++] = pass == 0 ? uAt(col, row) : vAt(col, row);
+              break;
+            default:
+              break;
+          }
+        }
+      }
+    }
+    return out;
+  }
+
+  private static void assertAllFormats(Planes planes) {
+    for (YuvConverter.Format format : YuvConverter.Format.values()) {
+      assertArrayEquals(
+          format.toString(), expected(planes.width, planes.height, format), planes.convert(format));
+    }
+  }
+
+  @Test
+  public void convert_interleavedChroma() {
+    assertAllFormats(new Planes(64, 48, 64, 64, 2));
+  }
+
+  @Test
+  public void convert_planarChroma() {
+    assertAllFormats(new Planes(64, 48, 64, 32, 1));
+  }
+
+  @Test
+  public void convert_paddedRows() {
+    assertAllFormats(new Planes(60, 40, 64, 64, 2));
+    assertAllFormats(new Planes(60, 40, 64, 48, 1));
+  }
+
+  @Test
+  public void convert_oddSize() {
+    assertAllFormats(new Planes(33, 17, 40, 40, 2));
+    assertAllFormats(new Planes(33, 17, 33, 17, 1));
+  }
+
+  @Test
+  public void convert_leavesPlanePositionsUnchanged() {
+    Planes planes = new Planes(32, 16, 32, 32, 2);
+    planes.convert(YuvConverter.Format.NV21);
+    assertEquals(0, planes.y.position());
+    assertEquals(0, planes.u.position());
+    assertEquals(0, planes.v.position());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void convert_rejectsSmallOutput() {
+    Planes planes = new Planes(32, 16, 32, 32, 2);
+    YuvConverter.convert(
+        32, 16, planes.y, 32, planes.u, planes.v, 32, 2, YuvConverter.Format.NV21, new byte[10]);
+  }
+
+  @Test
+  public void pooledConvert_reusesReleasedBuffers() {
+    FrameBufferPool pool = new FrameBufferPool(2);
+    YuvConverter converter = new YuvConverter(pool);
+    Planes planes = new Planes(64, 48, 64, 64, 2);
+
+    byte[] first = convertPooled(converter, planes, YuvConverter.Format.NV21);
+    pool.release(64, 48, YuvConverter.Format.NV21, first);
+    for (int i = 0; i < 10; i++) {
+      byte[] out = convertPooled(converter, planes, YuvConverter.Format.NV21);
+      assertSame(first, out);
+      pool.release(64, 48, YuvConverter.Format.NV21, out);
+    }
+    assertEquals(1, pool.getAllocationCount());
+
+    // Another key does not get a buffer of the wrong size.
+    byte[] gray = convertPooled(converter, planes, YuvConverter.Format.GRAY);
+    assertEquals(64 * 48, gray.length);
+    assertEquals(2, pool.getAllocationCount());
+  }
+
+  private static byte[] convertPooled(
+      YuvConverter converter, Planes planes, YuvConverter.Format format) {
+    return converter.convert(
+        planes.width,
+        planes.height,
+        planes.y,
+        planes.yRowStride,
+        planes.u,
+        planes.v,
+        planes.uvRowStride,
+        planes.uvPixelStride,
+        format);
+  }
+}